@@ -15,9 +15,14 @@
 package com.google.devtools.build.buildjar;
 
 import com.google.devtools.build.buildjar.javac.JavacOptions;
+import com.google.devtools.build.lib.worker.WorkerProtocol;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * The JavaBuilder main called by bazel.
@@ -30,16 +35,64 @@ public abstract class BazelJavaBuilder {
    * The main method of the BazelJavaBuilder.
    */
   public static void main(String[] args) {
+    if (WorkerProtocol.isPersistentWorker(args)) {
+      runPersistentWorker();
+    } else if (processRequest(Arrays.asList(args), System.err) != 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Serves requests from bazel, each with the arguments of one compilation, until bazel closes
+   * standard input. See {@link WorkerProtocol}.
+   */
+  private static void runPersistentWorker() {
+    InputStream requests = System.in;
+    PrintStream responses = System.out;
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    PrintStream output = new PrintStream(buffer, true);
+    // Nothing but responses may be written to standard output, so everything that the
+    // compilation prints goes into the response.
+    System.setOut(output);
+    System.setErr(output);
+    try {
+      List<String> request;
+      while ((request = WorkerProtocol.readRequest(requests)) != null) {
+        int exitCode;
+        try {
+          exitCode = processRequest(request, output);
+        } catch (RuntimeException e) {
+          // The compiler may be in an inconsistent state; report the failure and stop serving.
+          e.printStackTrace(output);
+          output.flush();
+          WorkerProtocol.writeResponse(responses, 1, buffer.toByteArray());
+          throw e;
+        }
+        output.flush();
+        WorkerProtocol.writeResponse(responses, exitCode, buffer.toByteArray());
+        buffer.reset();
+      }
+    } catch (IOException e) {
+      // Bazel went away; there is no one to report to.
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Compiles the library described by the given arguments, and returns the exit code.
+   */
+  private static int processRequest(List<String> args, PrintStream err) {
     try {
-      JavaLibraryBuildRequest build = new JavaLibraryBuildRequest(Arrays.asList(args));
+      JavaLibraryBuildRequest build = new JavaLibraryBuildRequest(args);
       build.setJavacOpts(JavacOptions.normalizeOptions(build.getJavacOpts()));
       AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
           ? new ReducedClasspathJavaLibraryBuilder()
           : new SimpleJavaLibraryBuilder();
-      builder.run(build, System.err);
+      builder.run(build, err);
+      return 0;
     } catch (IOException | InvalidCommandLineException e) {
-      System.err.println(CMDNAME + " threw exception : " + e.getMessage());
-      System.exit(1);
+      err.println(CMDNAME + " threw exception : " + e.getMessage());
+      return 1;
     }
   }
 }
@@ -0,0 +1,367 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Lets {@link SingleJar} reuse its previous output when it builds the same jar again, so that
+ * only the entries of input jars that changed have to be read and written again; the entries of
+ * the other input jars are copied from the previous output as they are.
+ *
+ * <p>Build tools usually delete outputs before they are built again, so a hard link to the output
+ * is kept next to it, together with a file that records, for each input jar, which part of the
+ * output was written for it and which of its entries weren't copied. Neither is needed for
+ * correctness: if they are missing or don't match, the output is built from scratch.
+ *
+ * <p>An input jar counts as unchanged if its length, modification time and a checksum of its
+ * central directory and end of central directory record are unchanged. The central directory
+ * holds the name, CRC and sizes of every entry, so rewriting a jar within the granularity of the
+ * file system's timestamps is noticed without reading more than the end of the jar.
+ */
+@NotThreadSafe
+final class IncrementalState implements Closeable {
+
+  private static final String PREVIOUS_OUTPUT_SUFFIX = ".singlejar_previous";
+  private static final String STATE_SUFFIX = ".singlejar_state";
+
+  private static final int MAGIC = 0x534a4953; // "SJIS"
+  private static final int VERSION = 2;
+
+  private static final int END_OF_CENTRAL_DIRECTORY_MARKER = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int DIRECTORY_ENTRY_SIZE = 46;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  // Never equal to a checksum, so that a jar whose checksum couldn't be computed isn't reused.
+  private static final long NO_CHECKSUM = -1;
+
+  /** What was written to the output for one input jar. */
+  private static final class InputRecord {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final long directoryChecksum;
+    private final long start;
+    private final long end;
+    private final List<String> uncopiedNames;
+
+    private InputRecord(String path, long size, long lastModified, long directoryChecksum,
+        long start, long end, List<String> uncopiedNames) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.directoryChecksum = directoryChecksum;
+      this.start = start;
+      this.end = end;
+      this.uncopiedNames = uncopiedNames;
+    }
+  }
+
+  private final String outputJar;
+  private final String configuration;
+
+  private FileChannel previousOutput;
+  // The central directory entries of the previous output, by the offset of their entry.
+  private final TreeMap<Long, byte[]> previousDirectory = new TreeMap<>();
+  private final Map<String, InputRecord> previousInputs = new HashMap<>();
+
+  private final List<InputRecord> inputs = new ArrayList<>();
+
+  private IncrementalState(String outputJar, String configuration) {
+    this.outputJar = outputJar;
+    this.configuration = configuration;
+  }
+
+  /**
+   * Loads the state that the previous build of {@code outputJar} left, and deletes the output.
+   * The previous output can only be reused if it was built with the same {@code configuration},
+   * which must describe all the options that affect how input jars are written to the output.
+   */
+  static IncrementalState load(String outputJar, String configuration) {
+    // If the output is still there, it's the same file as the previous output, so it must not
+    // be overwritten.
+    new File(outputJar).delete();
+    IncrementalState state = new IncrementalState(outputJar, configuration);
+    try {
+      state.loadPrevious();
+    } catch (IOException e) {
+      // Build the output from scratch.
+      state.closePrevious();
+      state.previousDirectory.clear();
+      state.previousInputs.clear();
+    }
+    return state;
+  }
+
+  private void loadPrevious() throws IOException {
+    File stateFile = new File(outputJar + STATE_SUFFIX);
+    File previousFile = new File(outputJar + PREVIOUS_OUTPUT_SUFFIX);
+    if (!stateFile.exists() || !previousFile.exists()) {
+      return;
+    }
+    long previousLength;
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(stateFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || !readString(in).equals(configuration)) {
+        return;
+      }
+      previousLength = in.readLong();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = readString(in);
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        long directoryChecksum = in.readLong();
+        long start = in.readLong();
+        long end = in.readLong();
+        int uncopiedCount = in.readInt();
+        List<String> uncopiedNames = new ArrayList<>(uncopiedCount);
+        for (int j = 0; j < uncopiedCount; j++) {
+          uncopiedNames.add(readString(in));
+        }
+        previousInputs.put(path, new InputRecord(path, size, lastModified, directoryChecksum,
+            start, end, Collections.unmodifiableList(uncopiedNames)));
+      }
+    }
+
+    previousOutput = new RandomAccessFile(previousFile, "r").getChannel();
+    if (previousOutput.size() != previousLength) {
+      throw new IOException("The previous output changed");
+    }
+    readCentralDirectory();
+  }
+
+  /**
+   * Reads the central directory of the previous output, which was written by a
+   * {@link ZipCombiner} and therefore has no comment.
+   */
+  private void readCentralDirectory() throws IOException {
+    long size = previousOutput.size();
+    if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+      throw new IOException("Truncated previous output");
+    }
+    byte[] end = read(size - END_OF_CENTRAL_DIRECTORY_SIZE, END_OF_CENTRAL_DIRECTORY_SIZE);
+    if (getUnsignedInt(end, 0) != END_OF_CENTRAL_DIRECTORY_MARKER) {
+      throw new IOException("Missing end of central directory in previous output");
+    }
+    byte[] directory = read(getUnsignedInt(end, 16), (int) getUnsignedInt(end, 12));
+    int offset = 0;
+    while (offset < directory.length) {
+      if (offset + DIRECTORY_ENTRY_SIZE > directory.length) {
+        throw new IOException("Invalid central directory in previous output");
+      }
+      int length = DIRECTORY_ENTRY_SIZE + getUnsignedShort(directory, offset + 28)
+          + getUnsignedShort(directory, offset + 30) + getUnsignedShort(directory, offset + 32);
+      if (offset + length > directory.length) {
+        throw new IOException("Invalid central directory in previous output");
+      }
+      byte[] entry = new byte[length];
+      System.arraycopy(directory, offset, entry, 0, length);
+      previousDirectory.put(getUnsignedInt(entry, 42), entry);
+      offset += length;
+    }
+  }
+
+  private byte[] read(long position, int length) throws IOException {
+    byte[] result = new byte[length];
+    ByteBuffer buffer = ByteBuffer.wrap(result);
+    while (buffer.hasRemaining()) {
+      if (previousOutput.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Truncated previous output");
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds {@code inputJar} to {@code combiner} by copying its entries from the previous output,
+   * if it was part of the previous build and hasn't changed since. Returns false if it has to be
+   * added the usual way.
+   */
+  boolean reuse(ZipCombiner combiner, String inputJar) throws IOException {
+    InputRecord previous = previousInputs.get(inputJar);
+    if (previous == null) {
+      return false;
+    }
+    File file = new File(inputJar);
+    if (file.length() != previous.size || file.lastModified() != previous.lastModified
+        || directoryChecksum(file) != previous.directoryChecksum) {
+      return false;
+    }
+    long start = combiner.getBytesWritten();
+    List<byte[]> directoryEntries =
+        new ArrayList<>(previousDirectory.subMap(previous.start, previous.end).values());
+    if (!combiner.addUnchangedZip(previousOutput, previous.start, previous.end, directoryEntries,
+        previous.uncopiedNames, file)) {
+      return false;
+    }
+    inputs.add(new InputRecord(inputJar, previous.size, previous.lastModified,
+        previous.directoryChecksum, start, combiner.getBytesWritten(), previous.uncopiedNames));
+    return true;
+  }
+
+  /**
+   * Records that the entries of {@code inputJar} were written between {@code start} and
+   * {@code end}, except for {@code uncopiedNames}.
+   */
+  void record(String inputJar, long start, long end, List<String> uncopiedNames) {
+    File file = new File(inputJar);
+    inputs.add(new InputRecord(inputJar, file.length(), file.lastModified(),
+        directoryChecksum(file), start, end, uncopiedNames));
+  }
+
+  /**
+   * Returns the CRC-32 of the central directory and the end of central directory record of the
+   * given jar, or {@link #NO_CHECKSUM} if they can't be found.
+   */
+  private static long directoryChecksum(File jar) {
+    try (RandomAccessFile file = new RandomAccessFile(jar, "r")) {
+      long length = file.length();
+      int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+      byte[] tail = new byte[tailLength];
+      file.seek(length - tailLength);
+      file.readFully(tail);
+      // The end of central directory record is followed by its comment and nothing else.
+      for (int end = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; end >= 0; end--) {
+        if (getUnsignedInt(tail, end) == END_OF_CENTRAL_DIRECTORY_MARKER
+            && end + END_OF_CENTRAL_DIRECTORY_SIZE + getUnsignedShort(tail, end + 20)
+                == tailLength) {
+          long directorySize = getUnsignedInt(tail, end + 12);
+          long directoryOffset = getUnsignedInt(tail, end + 16);
+          if (directoryOffset + directorySize > length - tailLength + end) {
+            return NO_CHECKSUM;
+          }
+          byte[] directory = new byte[(int) directorySize];
+          file.seek(directoryOffset);
+          file.readFully(directory);
+          CRC32 crc = new CRC32();
+          crc.update(directory);
+          crc.update(tail, end, tailLength - end);
+          return crc.getValue();
+        }
+      }
+      return NO_CHECKSUM;
+    } catch (IOException e) {
+      return NO_CHECKSUM;
+    }
+  }
+
+  /**
+   * Keeps the finished output for the next build. Failures only make the next build
+   * non-incremental.
+   */
+  void save() {
+    closePrevious();
+    File stateFile = new File(outputJar + STATE_SUFFIX);
+    File previousFile = new File(outputJar + PREVIOUS_OUTPUT_SUFFIX);
+    File tempFile = new File(outputJar + STATE_SUFFIX + ".tmp");
+    // Remove the old state first, so that it never describes the new output.
+    stateFile.delete();
+    try {
+      Files.deleteIfExists(previousFile.toPath());
+      Files.createLink(previousFile.toPath(), new File(outputJar).toPath());
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, configuration);
+        out.writeLong(previousFile.length());
+        out.writeInt(inputs.size());
+        for (InputRecord input : inputs) {
+          writeString(out, input.path);
+          out.writeLong(input.size);
+          out.writeLong(input.lastModified);
+          out.writeLong(input.directoryChecksum);
+          out.writeLong(input.start);
+          out.writeLong(input.end);
+          out.writeInt(input.uncopiedNames.size());
+          for (String name : input.uncopiedNames) {
+            writeString(out, name);
+          }
+        }
+      }
+      Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | UnsupportedOperationException e) {
+      tempFile.delete();
+      previousFile.delete();
+    }
+  }
+
+  private void closePrevious() {
+    if (previousOutput != null) {
+      try {
+        previousOutput.close();
+      } catch (IOException e) {
+        // Only read from.
+      }
+      previousOutput = null;
+    }
+  }
+
+  @Override
+  public void close() {
+    closePrevious();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static int getUnsignedShort(byte[] source, int offset) {
+    return (source[offset] & 0xff) | ((source[offset + 1] & 0xff) << 8);
+  }
+
+  private static long getUnsignedInt(byte[] source, int offset) {
+    return getUnsignedShort(source, offset) | ((long) getUnsignedShort(source, offset + 2) << 16);
+  }
+}
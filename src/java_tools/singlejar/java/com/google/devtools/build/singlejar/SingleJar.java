@@ -60,6 +60,7 @@ public class SingleJar {
 
   /** A filter for what jar entries to include */
   private PathFilter allowedPaths = DefaultJarEntryFilter.ANY_PATH;
+  private List<String> pathPrefixes = new ArrayList<>();
 
   /** Extra manifest contents. */
   private String extraManifestContent;
@@ -88,6 +89,12 @@ public class SingleJar {
   /** The (optional) native executable that will be prepended to this JAR. */
   private String launcherBin = null;
 
+  /** Whether to reuse the entries of unchanged input jars from the previous output. */
+  private boolean incremental = false;
+
+  /** How many threads (de)compress entries whose compression doesn't match the output mode. */
+  private int compressionThreads = 1;
+
   // Only visible for testing.
   protected SingleJar(SimpleFileSystem fileSystem) {
     this.fileSystem = fileSystem;
@@ -176,10 +183,18 @@ public class SingleJar {
     processCommandlineArgs(expandedArgs);
     InputStream buildInfo = createBuildData();
 
+    ZipEntryFilter entryFilter = createEntryFilter(normalize, allowedPaths);
     ZipCombiner combiner = null;
+    IncrementalState incrementalState = null;
     try {
-      combiner = new ZipCombiner(outputMode, createEntryFilter(normalize, allowedPaths),
-          fileSystem.getOutputStream(outputJar));
+      if (incremental) {
+        // Everything that affects how the entries of input jars are written.
+        incrementalState = IncrementalState.load(outputJar, String.format(
+            "mode=%s normalize=%s prefixes=%s filter=%s", outputMode, normalize, pathPrefixes,
+            entryFilter.getClass().getName()));
+      }
+      combiner = new ZipCombiner(outputMode, entryFilter, fileSystem.getOutputStream(outputJar));
+      combiner.setCompressionThreads(compressionThreads);
       if (launcherBin != null) {
         combiner.prependExecutable(fileSystem.getInputStream(launcherBin));
       }
@@ -223,27 +238,26 @@ public class SingleJar {
 
       // Copy the jars into the jar file.
       for (String inputJar : inputJars) {
-        InputStream in = fileSystem.getInputStream(inputJar);
-        try {
-          combiner.addZip(inputJar, in);
-          InputStream inToClose = in;
-          in = null;
-          inToClose.close();
-        } finally {
-          if (in != null) {
-            try {
-              in.close();
-            } catch (IOException e) {
-              // Preserve original exception.
-            }
-          }
+        if (incrementalState == null) {
+          addZip(combiner, inputJar, null);
+        } else if (!incrementalState.reuse(combiner, inputJar)) {
+          long start = combiner.getBytesWritten();
+          List<String> uncopiedNames = new ArrayList<>();
+          addZip(combiner, inputJar, uncopiedNames);
+          incrementalState.record(inputJar, start, combiner.getBytesWritten(), uncopiedNames);
         }
       }
 
       // Close the output file. If something goes wrong here, delete the file.
       combiner.close();
       combiner = null;
+      if (incrementalState != null) {
+        incrementalState.save();
+      }
     } finally {
+      if (incrementalState != null) {
+        incrementalState.close();
+      }
       // This part is only executed if an exception occurred.
       if (combiner != null) {
         try {
@@ -260,6 +274,33 @@ public class SingleJar {
     return 0;
   }
 
+  /**
+   * Copies the entries of an input jar into the output, and adds the names of those that are not
+   * copied to {@code uncopiedNames}, if it is not null.
+   */
+  private void addZip(ZipCombiner combiner, String inputJar, List<String> uncopiedNames)
+      throws IOException {
+    InputStream in = fileSystem.getInputStream(inputJar);
+    try {
+      if (uncopiedNames == null) {
+        combiner.addZip(inputJar, in);
+      } else {
+        combiner.addZip(inputJar, in, uncopiedNames);
+      }
+      InputStream inToClose = in;
+      in = null;
+      inToClose.close();
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // Preserve original exception.
+        }
+      }
+    }
+  }
+
   protected ZipEntryFilter createEntryFilter(boolean normalize, PathFilter allowedPaths) {
     return new DefaultJarEntryFilter(normalize, allowedPaths);
   }
@@ -348,6 +389,19 @@ public class SingleJar {
       } else if (arg.equals("--java_launcher")) {
         launcherBin = getArgument(args, i, arg);
         i++;
+      } else if (arg.equals("--incremental")) {
+        incremental = true;
+      } else if (arg.equals("--compression_threads")) {
+        String threads = getArgument(args, i, arg);
+        try {
+          compressionThreads = Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+          compressionThreads = 0;
+        }
+        if (compressionThreads < 1) {
+          throw new IOException("invalid number of compression threads : '" + threads + "'");
+        }
+        i++;
       } else {
         throw new IOException("unknown option : '" + arg + "'");
       }
@@ -387,6 +441,7 @@ public class SingleJar {
           "Empty set of path prefixes; cowardly refusing to emit an empty jar file");
     }
     allowedPaths = new PrefixListPathFilter(prefixes);
+    pathPrefixes = prefixes;
   }
 
   public static void main(String[] args) {
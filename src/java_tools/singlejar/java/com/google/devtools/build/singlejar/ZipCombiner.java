@@ -24,23 +24,40 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -116,6 +133,21 @@ public final class ZipCombiner implements AutoCloseable {
   // file name. 2^16 is the maximum number of bytes in a file name.
   private static final int BUFFER_SIZE = 65536;
 
+  // The buffer for copying entries unchanged when the output is not a file.
+  private static final int RAW_COPY_BUFFER_SIZE = 1048576;
+
+  // Entry data of input files is transferred to the output directly if at least this many bytes
+  // of it are not in the buffer yet. Smaller entries are cheaper to copy through the buffer,
+  // which usually holds the next entries already.
+  private static final int MINIMUM_TRANSFER_SIZE = BUFFER_SIZE;
+
+  // How many entries per compression thread are re-encoded ahead of the entry that is added.
+  private static final int REENCODED_ENTRIES_PER_THREAD = 4;
+
+  // The size of the central directory record at the end of a ZIP file, without the comment.
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAXIMUM_COMMENT_LENGTH = 65535;
+
   /** An empty entry used to skip files that have already been copied (or skipped). */
   private static final FileEntry COPIED_FILE_ENTRY = new FileEntry(null, null, 0);
 
@@ -336,11 +368,317 @@ public final class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /**
+   * What the central directory of an input ZIP file says about one of its entries.
+   */
+  private static final class IndexedEntry {
+    private final String filename;
+    private final int method;
+    private final long compressedSize;
+
+    private IndexedEntry(String filename, int method, long compressedSize) {
+      this.filename = filename;
+      this.method = method;
+      this.compressedSize = compressedSize;
+    }
+  }
+
+  /**
+   * The entries of an input ZIP file that is a file, by the offset of their local header, as
+   * given by its central directory. The central directory gives the compressed size of entries
+   * whose local header doesn't, so that they can be copied or skipped without decompressing
+   * them, and it allows to re-encode entries before they are reached.
+   */
+  private static final class InputIndex {
+    private final FileChannel channel;
+    private final TreeMap<Long, IndexedEntry> entries = new TreeMap<>();
+
+    private InputIndex(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Reads the central directory of the given file. Returns null if it can't be read or is
+     * inconsistent, in which case the file is only read as a stream.
+     */
+    @Nullable
+    static InputIndex read(FileChannel channel) {
+      try {
+        InputIndex index = new InputIndex(channel);
+        return index.readCentralDirectory() ? index : null;
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    private boolean readCentralDirectory() throws IOException {
+      long size = channel.size();
+      int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAXIMUM_COMMENT_LENGTH);
+      byte[] tail = readAt(channel, size - tailLength, tailLength);
+      int end = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE;
+      while (end >= 0 && (getUnsignedInt(tail, end) != END_OF_CENTRAL_DIRECTORY_MARKER
+          || end + END_OF_CENTRAL_DIRECTORY_SIZE + getUnsignedShort(tail, end + 20)
+              != tailLength)) {
+        end--;
+      }
+      if (end < 0) {
+        return false;
+      }
+      long directorySize = getUnsignedInt(tail, end + 12);
+      long directoryOffset = getUnsignedInt(tail, end + 16);
+      // Data before the first entry, like a launcher, moves all entries by the same amount.
+      long shift = size - tailLength + end - directorySize - directoryOffset;
+      if (directoryOffset + shift < 0 || directorySize > Integer.MAX_VALUE) {
+        return false;
+      }
+      byte[] directory = readAt(channel, directoryOffset + shift, (int) directorySize);
+      int offset = 0;
+      while (offset < directory.length) {
+        if (offset + DIRECTORY_ENTRY_BUFFER_SIZE > directory.length
+            || getUnsignedInt(directory, offset) != CENTRAL_DIRECTORY_MARKER) {
+          return false;
+        }
+        int fileNameLength = getUnsignedShort(directory, offset + 28);
+        int length = DIRECTORY_ENTRY_BUFFER_SIZE + fileNameLength
+            + getUnsignedShort(directory, offset + 30) + getUnsignedShort(directory, offset + 32);
+        if (offset + length > directory.length) {
+          return false;
+        }
+        long compressedSize = getUnsignedInt(directory, offset + 20);
+        // Entries in ZIP64 mode are left to the stream, which rejects them.
+        if (compressedSize != MAXIMUM_DATA_SIZE) {
+          String filename = new String(directory, offset + DIRECTORY_ENTRY_BUFFER_SIZE,
+              fileNameLength, ISO_8859_1);
+          entries.put(getUnsignedInt(directory, offset + 42) + shift, new IndexedEntry(filename,
+              getUnsignedShort(directory, offset + 10), compressedSize));
+        }
+        offset += length;
+      }
+      return true;
+    }
+
+    /**
+     * Returns the entry whose local header is at the given offset, if it has the given name and
+     * compression method.
+     */
+    @Nullable
+    IndexedEntry get(long offset, String filename, int method) {
+      IndexedEntry entry = entries.get(offset);
+      return entry != null && entry.filename.equals(filename) && entry.method == method
+          ? entry : null;
+    }
+  }
+
+  /**
+   * The data of an entry, compressed or decompressed for the output mode.
+   */
+  private static final class ReencodedEntry {
+    private final byte[] data;
+    private final boolean compressed;
+    private final int crc;
+    private final long uncompressedSize;
+
+    private ReencodedEntry(byte[] data, boolean compressed, int crc, long uncompressedSize) {
+      this.data = data;
+      this.compressed = compressed;
+      this.crc = crc;
+      this.uncompressedSize = uncompressedSize;
+    }
+  }
+
+  /**
+   * Re-encodes the entries of an input ZIP file whose compression method doesn't match the
+   * output mode on the compression threads, a limited number of entries ahead of the entry that
+   * is added. The results are written in order, exactly as if the entries had been re-encoded
+   * when they were reached.
+   */
+  private final class ReencodingQueue {
+    private final FileChannel channel;
+    private final Iterator<Map.Entry<Long, IndexedEntry>> remainingEntries;
+    private final ArrayDeque<Long> offsets = new ArrayDeque<>();
+    private final ArrayDeque<Future<ReencodedEntry>> results = new ArrayDeque<>();
+
+    ReencodingQueue(InputIndex index) {
+      this.channel = index.channel;
+      this.remainingEntries = index.entries.entrySet().iterator();
+      fill();
+    }
+
+    private void fill() {
+      while (results.size() < maxReencodedEntries && remainingEntries.hasNext()) {
+        Map.Entry<Long, IndexedEntry> next = remainingEntries.next();
+        final long offset = next.getKey();
+        final IndexedEntry entry = next.getValue();
+        if (!needsReencoding(entry)) {
+          continue;
+        }
+        offsets.add(offset);
+        results.add(compressionExecutor.submit(new Callable<ReencodedEntry>() {
+          @Override
+          public ReencodedEntry call() throws IOException {
+            return reencode(channel, offset, entry);
+          }
+        }));
+      }
+    }
+
+    private boolean needsReencoding(IndexedEntry entry) {
+      // The same conditions as in copyOrSkipEntry.
+      return ((mode == OutputMode.FORCE_DEFLATE) && (entry.method == STORED_METHOD)
+          && !entry.filename.endsWith("/"))
+          || ((mode == OutputMode.FORCE_STORED) && (entry.method == DEFLATE_METHOD));
+    }
+
+    /**
+     * Returns the re-encoded data of the entry whose local header is at the given offset, or
+     * null if it wasn't re-encoded ahead of time. Entries before it are dropped.
+     */
+    @Nullable
+    ReencodedEntry take(long offset) throws IOException {
+      while (!offsets.isEmpty() && offsets.peekFirst() < offset) {
+        offsets.removeFirst();
+        awaitQuietly(results.removeFirst());
+      }
+      ReencodedEntry result = null;
+      if (!offsets.isEmpty() && offsets.peekFirst() == offset) {
+        offsets.removeFirst();
+        result = await(results.removeFirst());
+      }
+      fill();
+      return result;
+    }
+
+    /**
+     * Waits for the entries that are still being re-encoded, so that the input isn't read after
+     * it was added.
+     */
+    void close() {
+      for (Future<ReencodedEntry> result : results) {
+        awaitQuietly(result);
+      }
+      offsets.clear();
+      results.clear();
+    }
+
+    private ReencodedEntry await(Future<ReencodedEntry> result) throws IOException {
+      try {
+        return result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw new IOException(e.getCause().getMessage() + " (in " + currentInputFile + ")",
+              e.getCause());
+        }
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    private void awaitQuietly(Future<ReencodedEntry> result) {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          result.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          // The entry isn't needed.
+          break;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Reads the entry whose local header is at the given offset and compresses or decompresses its
+   * data. Only reads {@code channel} with absolute positions, so it can run on any thread.
+   */
+  private static ReencodedEntry reencode(FileChannel channel, long offset, IndexedEntry entry)
+      throws IOException {
+    byte[] header = readAt(channel, offset, FILE_HEADER_BUFFER_SIZE);
+    if (getUnsignedInt(header, 0) != LOCAL_FILE_HEADER_MARKER) {
+      throw new IOException("Missing local header for " + entry.filename + ".");
+    }
+    if (entry.compressedSize > Integer.MAX_VALUE) {
+      throw new IOException("Entry " + entry.filename + " is too large.");
+    }
+    byte[] input = readAt(channel, offset + FILE_HEADER_BUFFER_SIZE
+        + getUnsignedShort(header, FILENAME_LENGTH_OFFSET)
+        + getUnsignedShort(header, EXTRA_LENGTH_OFFSET), (int) entry.compressedSize);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] localBuffer = new byte[4096];
+    CRC32 crc = new CRC32();
+    if (entry.method == STORED_METHOD) {
+      crc.update(input);
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try {
+        deflater.setInput(input);
+        deflater.finish();
+        while (!deflater.finished()) {
+          int length = deflater.deflate(localBuffer);
+          output.write(localBuffer, 0, length);
+        }
+      } finally {
+        deflater.end();
+      }
+      if (output.size() >= MAXIMUM_DATA_SIZE) {
+        throw new IOException("Too much data for ZIP entry.");
+      }
+      return new ReencodedEntry(output.toByteArray(), true, (int) crc.getValue(), input.length);
+    } else {
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(input);
+        while (!inflater.finished()) {
+          int length = inflater.inflate(localBuffer);
+          if (length == 0 && !inflater.finished()
+              && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new IOException("Invalid deflate stream in ZIP file.");
+          }
+          output.write(localBuffer, 0, length);
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("Invalid deflate stream in ZIP file.", e);
+      } finally {
+        inflater.end();
+      }
+      byte[] data = output.toByteArray();
+      crc.update(data);
+      return new ReencodedEntry(data, false, (int) crc.getValue(), data.length);
+    }
+  }
+
+  /**
+   * Reads {@code length} bytes at {@code position} from {@code channel}.
+   *
+   * @throws EOFException if the channel ends before
+   */
+  private static byte[] readAt(FileChannel channel, long position, int length)
+      throws IOException {
+    byte[] result = new byte[length];
+    ByteBuffer target = ByteBuffer.wrap(result);
+    while (target.hasRemaining()) {
+      if (channel.read(target, position + target.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    return result;
+  }
+
   private final OutputMode mode;
   private final ZipEntryFilter entryFilter;
 
   private final ByteCountingOutputStream out;
 
+  // The channel of the output file, if it is one, to copy entries unchanged without copying them
+  // into this process.
+  @Nullable private final FileChannel outputChannel;
+
   // An input buffer to allow reading blocks of data. Keeping it here avoids
   // another copy operation that would be required by the BufferedInputStream.
   // The valid data is between bufferOffset and bufferOffset+bufferLength (exclusive).
@@ -369,6 +707,21 @@ public final class ZipCombiner implements AutoCloseable {
 
   private final Map<String, FileEntry> fileNames = new HashMap<>();
 
+  // If not null, the names of the entries of the current input ZIP file that are not copied.
+  @Nullable private List<String> uncopiedNames;
+
+  // The index of the current input ZIP file, if it is a file whose central directory was read.
+  @Nullable private InputIndex inputIndex;
+  // The offset of the local header of the current entry, if there is an index.
+  private long currentEntryOffset;
+  // What the index says about the current entry, if it matches the local header.
+  @Nullable private IndexedEntry currentIndexedEntry;
+
+  // The threads that re-encode entries ahead of time, if there is more than one.
+  @Nullable private ExecutorService compressionExecutor;
+  private int maxReencodedEntries;
+  @Nullable private ReencodingQueue reencodingQueue;
+
   private final CentralDirectory centralDirectory;
   private int fileCount = 0;
 
@@ -380,6 +733,8 @@ public final class ZipCombiner implements AutoCloseable {
     this.mode = mode;
     this.entryFilter = entryFilter;
     this.out = new ByteCountingOutputStream(new BufferedOutputStream(out));
+    this.outputChannel =
+        out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : null;
     this.centralDirectory = new CentralDirectory(centralDirectoryBlockSize);
   }
 
@@ -418,6 +773,36 @@ public final class ZipCombiner implements AutoCloseable {
     this(OutputMode.DONT_CARE, new CopyEntryFilter(), out);
   }
 
+  /**
+   * Sets how many threads compress or decompress the entries of input ZIP files whose
+   * compression method doesn't match the output mode. With more than one thread, such entries of
+   * input ZIP files that are read from a {@link FileInputStream} are re-encoded ahead of time, in
+   * parallel. The output is the same for any number of threads.
+   */
+  public void setCompressionThreads(int threads) {
+    checkArgument(threads >= 1, "threads must be positive: %s", threads);
+    checkNotFinished();
+    shutdownCompressionThreads();
+    if (threads > 1) {
+      compressionExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "zip-combiner-compression");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      maxReencodedEntries = threads * REENCODED_ENTRIES_PER_THREAD;
+    }
+  }
+
+  private void shutdownCompressionThreads() {
+    if (compressionExecutor != null) {
+      compressionExecutor.shutdown();
+      compressionExecutor = null;
+    }
+  }
+
   /**
    * Returns whether the output zip already contains a file or directory with
    * the given name.
@@ -485,7 +870,7 @@ public final class ZipCombiner implements AutoCloseable {
    * Reads an unsigned short in little-endian byte order from the buffer at the
    * given offset. Does not perform range checking.
    */
-  private int getUnsignedShort(byte[] source, int offset) {
+  private static int getUnsignedShort(byte[] source, int offset) {
     int a = source[offset + 0] & 0xff;
     int b = source[offset + 1] & 0xff;
     return (b << 8) | a;
@@ -495,7 +880,7 @@ public final class ZipCombiner implements AutoCloseable {
    * Reads an unsigned int in little-endian byte order from the buffer at the
    * given offset. Does not perform range checking.
    */
-  private long getUnsignedInt(byte[] source, int offset) {
+  private static long getUnsignedInt(byte[] source, int offset) {
     int a = source[offset + 0] & 0xff;
     int b = source[offset + 1] & 0xff;
     int c = source[offset + 2] & 0xff;
@@ -573,6 +958,35 @@ public final class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /**
+   * Like {@link #copyOrSkipData}, but if the input is a file, and most of the data is not in the
+   * buffer yet, the data is transferred to the output directly, or skipped without reading it.
+   *
+   * @throws IOException if the underlying stream throws one
+   */
+  private void transferOrSkipData(InputStream in, long length, SkipMode skip)
+      throws IOException {
+    if (inputIndex == null || length - bufferLength < MINIMUM_TRANSFER_SIZE) {
+      copyOrSkipData(in, length, skip);
+      return;
+    }
+    if (skip == SkipMode.COPY) {
+      write(buffer, bufferOffset, bufferLength);
+    }
+    // The channel is positioned after the data in the buffer.
+    FileChannel channel = inputIndex.channel;
+    long position = channel.position();
+    long remaining = length - bufferLength;
+    clearBuffer();
+    if (position + remaining > channel.size()) {
+      throw new EOFException();
+    }
+    if (skip == SkipMode.COPY) {
+      copyRaw(channel, position, remaining);
+    }
+    channel.position(position + remaining);
+  }
+
   /**
    * A mutable integer reference value to allow returning two values from a
    * method.
@@ -794,7 +1208,20 @@ public final class ZipCombiner implements AutoCloseable {
 
     forkOrSkipData(in, fileNameLength, SkipMode.SKIP);
     forkOrSkipData(in, extraFieldLength, SkipMode.SKIP);
-    if (method == STORED_METHOD) {
+    ReencodedEntry reencoded = (reencodingQueue != null && currentIndexedEntry != null)
+        ? reencodingQueue.take(currentEntryOffset) : null;
+    if (reencoded != null) {
+      transferOrSkipData(in, currentIndexedEntry.compressedSize, SkipMode.SKIP);
+      if ((flags & SIZE_MASKED_FLAG) != 0) {
+        copyOrSkipData(in, 16, SkipMode.SKIP);
+      }
+      if (reencoded.compressed) {
+        copyDeflatedToEntry(filename, dosTime, reencoded);
+      } else {
+        copyStreamToEntry(filename, new ByteArrayInputStream(reencoded.data), dosTime,
+            NO_EXTRA_ENTRIES, false, DEFAULT_DIRECTORY_ENTRY_INFO);
+      }
+    } else if (method == STORED_METHOD) {
       long compressedSize = getUnsignedInt(headerBuffer, COMPRESSED_SIZE_OFFSET);
       copyStreamToEntry(filename, new FixedLengthInputStream(in, compressedSize), dosTime,
           NO_EXTRA_ENTRIES, true, DEFAULT_DIRECTORY_ENTRY_INFO);
@@ -925,7 +1352,11 @@ public final class ZipCombiner implements AutoCloseable {
       if (method != DEFLATE_METHOD) {
         throw new AssertionError("This should have been checked in validateHeader().");
       }
-      copyOrSkipDeflateData(in, skip);
+      if (currentIndexedEntry != null) {
+        transferOrSkipData(in, currentIndexedEntry.compressedSize, skip);
+      } else {
+        copyOrSkipDeflateData(in, skip);
+      }
       // The flags indicate that a data descriptor must follow the data.
       readFully(in, 16);
       if (getUnsignedInt(buffer, bufferOffset) != DATA_DESCRIPTOR_MARKER) {
@@ -935,6 +1366,10 @@ public final class ZipCombiner implements AutoCloseable {
       long crc32 = getUnsignedInt(buffer, bufferOffset + 4);
       long compressedSize = getUnsignedInt(buffer, bufferOffset + 8);
       long uncompressedSize = getUnsignedInt(buffer, bufferOffset + 12);
+      if (currentIndexedEntry != null && compressedSize != currentIndexedEntry.compressedSize) {
+        throw new IOException("Inconsistent size of " + filename + " in " + currentInputFile
+            + ".");
+      }
       if (skip == SkipMode.COPY) {
         fixDirectoryEntry(directoryOffset, crc32, compressedSize, uncompressedSize);
       }
@@ -942,7 +1377,7 @@ public final class ZipCombiner implements AutoCloseable {
     } else {
       // The size value is present in the header, so just copy that amount.
       long compressedSize = getUnsignedInt(headerBuffer, COMPRESSED_SIZE_OFFSET);
-      copyOrSkipData(in, compressedSize, skip);
+      transferOrSkipData(in, compressedSize, skip);
     }
   }
 
@@ -1181,6 +1616,10 @@ public final class ZipCombiner implements AutoCloseable {
       return false;
     }
 
+    if (inputIndex != null) {
+      // The header is at the start of the unread data in the buffer.
+      currentEntryOffset = inputIndex.channel.position() - bufferLength;
+    }
     System.arraycopy(buffer, bufferOffset, headerBuffer, 0, FILE_HEADER_BUFFER_SIZE);
     bufferOffset += FILE_HEADER_BUFFER_SIZE;
     bufferLength -= FILE_HEADER_BUFFER_SIZE;
@@ -1193,7 +1632,10 @@ public final class ZipCombiner implements AutoCloseable {
     readFully(in, fileNameLength);
     // TODO(bazel-team): If I read the spec correctly, this should be UTF-8 rather than ISO-8859-1.
     final String filename = new String(buffer, bufferOffset, fileNameLength, ISO_8859_1);
+    currentIndexedEntry = inputIndex != null ? inputIndex.get(currentEntryOffset, filename,
+        getUnsignedShort(headerBuffer, COMPRESSION_METHOD_OFFSET)) : null;
 
+    int fileCountBefore = fileCount;
     FileEntry handler = fileNames.get(filename);
     // The handler is null if this is the first time we see an entry with this filename,
     // or if all previous entries with this name were renamed by the filter (and we can
@@ -1212,6 +1654,9 @@ public final class ZipCombiner implements AutoCloseable {
     } else {
       handleCustomMerge(in, handler.mergeStrategy, handler.outputBuffer);
     }
+    if (uncopiedNames != null && fileCount == fileCountBefore) {
+      uncopiedNames.add(filename);
+    }
     return true;
   }
 
@@ -1243,13 +1688,222 @@ public final class ZipCombiner implements AutoCloseable {
     }
     clearBuffer();
     currentInputFile = inputName;
-    while (handleNextEntry(in)) {/*handleNextEntry has side-effect.*/}
+    if (in instanceof FileInputStream) {
+      inputIndex = InputIndex.read(((FileInputStream) in).getChannel());
+    }
+    if (inputIndex != null && compressionExecutor != null && mode != OutputMode.DONT_CARE) {
+      reencodingQueue = new ReencodingQueue(inputIndex);
+    }
+    try {
+      while (handleNextEntry(in)) {/*handleNextEntry has side-effect.*/}
+    } finally {
+      if (reencodingQueue != null) {
+        reencodingQueue.close();
+        reencodingQueue = null;
+      }
+      inputIndex = null;
+      currentIndexedEntry = null;
+    }
   }
 
   public void addZip(InputStream in) throws IOException {
     addZip(null, in);
   }
 
+  /**
+   * Like {@link #addZip(String, InputStream)}, but also adds the names of the entries that are
+   * not copied into the output, because they are skipped, merged or duplicates, to
+   * {@code uncopiedNames}, in order. Together with the central directory entries of the entries
+   * that are copied, they allow to add the same ZIP file to a later combiner with
+   * {@link #addUnchangedZip}.
+   */
+  void addZip(String inputName, InputStream in, List<String> uncopiedNames) throws IOException {
+    this.uncopiedNames = uncopiedNames;
+    try {
+      addZip(inputName, in);
+    } finally {
+      this.uncopiedNames = null;
+    }
+  }
+
+  /**
+   * Returns the number of bytes written so far, which is the offset of the next entry.
+   */
+  long getBytesWritten() {
+    return out.bytesWritten;
+  }
+
+  /**
+   * A callback that only records what the filter decided.
+   */
+  private static final class RecordingCallback implements StrategyCallback {
+    private boolean copy = false;
+    private boolean skip = false;
+    private Date date;
+    private CustomMergeStrategy mergeStrategy;
+
+    @Override
+    public void skip() {
+      skip = true;
+    }
+
+    @Override
+    public void copy(Date date) {
+      copy = true;
+    }
+
+    @Override
+    public void rename(String filename, Date date) {
+      copy = true;
+    }
+
+    @Override
+    public void customMerge(Date date, CustomMergeStrategy strategy) {
+      this.date = date;
+      this.mergeStrategy = strategy;
+    }
+  }
+
+  /**
+   * Adds a ZIP file that was added to an earlier combiner, with the same output mode and entry
+   * filter, and hasn't changed since, by copying the entries that the earlier combiner wrote for
+   * it from its output as they are, without decoding or compressing them again. The entry filter
+   * must decide the same for the same names every time, and must not rename entries.
+   *
+   * <p>The entries can't be copied if entries that were added before make this combiner treat
+   * the ZIP file differently than the earlier one did, for example if one of its entries is now a
+   * duplicate, or isn't one anymore. In that case, nothing is added, and the ZIP file has to be
+   * added with {@link #addZip} instead.
+   *
+   * @param previousOutput the output of the earlier combiner
+   * @param start the offset of the first entry written for the ZIP file in the earlier output
+   * @param end the offset after the last entry written for it
+   * @param directoryEntries the central directory entries of the earlier output for the entries
+   *     between {@code start} and {@code end}, in order
+   * @param previousUncopiedNames the names of the entries of the ZIP file that the earlier combiner
+   *     didn't copy, as returned by {@link #addZip(String, InputStream, List)}
+   * @param input the ZIP file, which is only read for the contents of merged entries
+   * @return whether the entries were added
+   * @throws IOException if reading the earlier output or the ZIP file, or writing the output fails
+   */
+  boolean addUnchangedZip(FileChannel previousOutput, long start, long end,
+      List<byte[]> directoryEntries, List<String> previousUncopiedNames, File input)
+      throws IOException {
+    checkNotFinished();
+    // First find out whether the earlier decisions still hold, without changing anything.
+    Map<String, FileEntry> newFileNames = new HashMap<>();
+    for (byte[] directoryEntry : directoryEntries) {
+      String filename = new String(directoryEntry, DIRECTORY_ENTRY_BUFFER_SIZE,
+          getUnsignedShort(directoryEntry, 28), ISO_8859_1);
+      if (fileNames.containsKey(filename) || newFileNames.put(filename, COPIED_FILE_ENTRY) != null) {
+        return false;
+      }
+    }
+    Map<String, byte[]> mergedData = new HashMap<>();
+    ZipFile inputZip = null;
+    try {
+      for (String filename : previousUncopiedNames) {
+        FileEntry handler = newFileNames.get(filename);
+        if (handler == null) {
+          handler = fileNames.get(filename);
+        }
+        if (handler == null || handler == RENAMED_FILE_ENTRY) {
+          RecordingCallback callback = new RecordingCallback();
+          entryFilter.accept(filename, callback);
+          if (callback.copy) {
+            return false;
+          } else if (callback.skip) {
+            handler = COPIED_FILE_ENTRY;
+          } else {
+            handler = new FileEntry(callback.mergeStrategy, new ByteArrayOutputStream(),
+                dateToDosTime(callback.date));
+          }
+          newFileNames.put(filename, handler);
+        }
+        if (handler.mergeStrategy != null) {
+          if (inputZip == null) {
+            inputZip = new ZipFile(input, ISO_8859_1);
+          }
+          ZipEntry entry = inputZip.getEntry(filename);
+          if (entry == null || mergedData.containsKey(filename)) {
+            // Only the first of several entries with the same name can be found.
+            return false;
+          }
+          mergedData.put(filename, readFully(inputZip.getInputStream(entry)));
+        }
+      }
+    } finally {
+      if (inputZip != null) {
+        inputZip.close();
+      }
+    }
+
+    // Copy the entries, and add them to the central directory at their new offsets.
+    long offset = out.bytesWritten - start;
+    if (out.bytesWritten + (end - start) >= MAXIMUM_DATA_SIZE) {
+      throw new IOException("Unable to handle files bigger than 2^32 bytes.");
+    }
+    copyRaw(previousOutput, start, end - start);
+    for (byte[] directoryEntry : directoryEntries) {
+      int directoryOffset = centralDirectory.writeToCentralDirectory(directoryEntry);
+      centralDirectory.setUnsignedInt(directoryOffset + 42,
+          (int) (getUnsignedInt(directoryEntry, 42) + offset));
+      fileCount++;
+    }
+    fileNames.putAll(newFileNames);
+    for (String filename : previousUncopiedNames) {
+      byte[] data = mergedData.get(filename);
+      if (data != null) {
+        FileEntry handler = fileNames.get(filename);
+        handler.mergeStrategy.merge(new ByteArrayInputStream(data), handler.outputBuffer);
+      }
+    }
+    return true;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] localBuffer = new byte[4096];
+    int bytesRead;
+    while ((bytesRead = in.read(localBuffer)) != -1) {
+      result.write(localBuffer, 0, bytesRead);
+    }
+    return result.toByteArray();
+  }
+
+  /**
+   * Copies {@code length} bytes from {@code source}, starting at {@code position}, to the output.
+   * If the output is a file, the bytes are transferred between the files directly.
+   *
+   * @throws IOException if {@code source} ends early, or reading or writing fails
+   */
+  private void copyRaw(FileChannel source, long position, long length) throws IOException {
+    long end = position + length;
+    if (outputChannel != null) {
+      out.flush();
+      while (position < end) {
+        long transferred = source.transferTo(position, end - position, outputChannel);
+        if (transferred <= 0) {
+          throw new EOFException();
+        }
+        position += transferred;
+      }
+      out.bytesWritten += length;
+    } else {
+      ByteBuffer rawBuffer = ByteBuffer.allocate((int) Math.min(length, RAW_COPY_BUFFER_SIZE));
+      while (position < end) {
+        rawBuffer.clear();
+        rawBuffer.limit((int) Math.min(rawBuffer.capacity(), end - position));
+        int bytesRead = source.read(rawBuffer, position);
+        if (bytesRead <= 0) {
+          throw new EOFException();
+        }
+        write(rawBuffer.array(), 0, bytesRead);
+        position += bytesRead;
+      }
+    }
+  }
+
   private void copyStreamToEntry(String filename, InputStream in, int dosTime,
       ExtraData[] extraDataEntries, boolean compress, DirectoryEntryInfo directoryEntryInfo)
       throws IOException {
@@ -1293,6 +1947,52 @@ public final class ZipCombiner implements AutoCloseable {
       }
     }
 
+    int directoryOffset = writeEntryHeader(fileNameAsBytes, dosTime, uncompressedData, extraData,
+        directoryEntryInfo);
+
+    // write data
+    if (uncompressedData != null) {
+      write(uncompressedData);
+    } else {
+      try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream()) {
+        int bytesRead;
+        while ((bytesRead = in.read(localBuffer)) != -1) {
+          deflaterStream.write(localBuffer, 0, bytesRead);
+        }
+        deflaterStream.finish();
+        writeDataDescriptor(directoryOffset, deflaterStream.getCRC(),
+            deflaterStream.getCompressedSize(), deflaterStream.getUncompressedSize());
+      }
+    }
+  }
+
+  /**
+   * Adds an entry whose data was deflated ahead of time, exactly as
+   * {@link #copyStreamToEntry} would have added it.
+   */
+  private void copyDeflatedToEntry(String filename, int dosTime, ReencodedEntry entry)
+      throws IOException {
+    fileNames.put(filename, COPIED_FILE_ENTRY);
+
+    byte[] fileNameAsBytes = filename.getBytes(UTF_8);
+    checkArgument(fileNameAsBytes.length <= 65535,
+        "File name too long: %s bytes (max. 65535)", fileNameAsBytes.length);
+    int directoryOffset = writeEntryHeader(fileNameAsBytes, dosTime, null, null,
+        DEFAULT_DIRECTORY_ENTRY_INFO);
+    write(entry.data);
+    writeDataDescriptor(directoryOffset, entry.crc, entry.data.length,
+        (int) entry.uncompressedSize);
+  }
+
+  /**
+   * Writes the local header, file name and extra data of a new entry, and adds its directory
+   * entry. If {@code uncompressedData} is null, the entry is deflated, and its CRC and sizes
+   * follow the data in a data descriptor. Returns the offset of the directory entry.
+   */
+  private int writeEntryHeader(byte[] fileNameAsBytes, int dosTime,
+      @Nullable byte[] uncompressedData, @Nullable byte[] extraData,
+      DirectoryEntryInfo directoryEntryInfo) throws IOException {
+    boolean compress = uncompressedData == null;
     // write header
     Arrays.fill(headerBuffer, (byte) 0);
     setUnsignedInt(headerBuffer, 0, LOCAL_FILE_HEADER_MARKER); // file header signature
@@ -1334,29 +2034,22 @@ public final class ZipCombiner implements AutoCloseable {
       write(extraData);
       centralDirectory.writeToCentralDirectory(extraData);
     }
+    return directoryOffset;
+  }
 
-    // write data
-    if (uncompressedData != null) {
-      write(uncompressedData);
-    } else {
-      try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream()) {
-        int bytesRead;
-        while ((bytesRead = in.read(localBuffer)) != -1) {
-          deflaterStream.write(localBuffer, 0, bytesRead);
-        }
-        deflaterStream.finish();
-
-        // write data descriptor
-        Arrays.fill(headerBuffer, (byte) 0);
-        setUnsignedInt(headerBuffer, 0, DATA_DESCRIPTOR_MARKER);
-        setUnsignedInt(headerBuffer, 4, deflaterStream.getCRC()); // crc32
-        setUnsignedInt(headerBuffer, 8, deflaterStream.getCompressedSize()); // compressed size
-        setUnsignedInt(headerBuffer, 12, deflaterStream.getUncompressedSize()); // uncompressed size
-        write(headerBuffer, 0, 16);
-        fixDirectoryEntry(directoryOffset, deflaterStream.getCRC(),
-            deflaterStream.getCompressedSize(), deflaterStream.getUncompressedSize());
-      }
-    }
+  /**
+   * Writes the data descriptor after the data of a deflated entry, and adds the same values to
+   * its directory entry.
+   */
+  private void writeDataDescriptor(int directoryOffset, int crc, int compressedSize,
+      int uncompressedSize) throws IOException {
+    Arrays.fill(headerBuffer, (byte) 0);
+    setUnsignedInt(headerBuffer, 0, DATA_DESCRIPTOR_MARKER);
+    setUnsignedInt(headerBuffer, 4, crc); // crc32
+    setUnsignedInt(headerBuffer, 8, compressedSize); // compressed size
+    setUnsignedInt(headerBuffer, 12, uncompressedSize); // uncompressed size
+    write(headerBuffer, 0, 16);
+    fixDirectoryEntry(directoryOffset, crc, compressedSize, uncompressedSize);
   }
 
   /**
@@ -1527,6 +2220,7 @@ public final class ZipCombiner implements AutoCloseable {
   public void finish() throws IOException {
     checkNotFinished();
     finished = true;
+    shutdownCompressionThreads();
     for (Map.Entry<String, FileEntry> entry : fileNames.entrySet()) {
       String filename = entry.getKey();
       CustomMergeStrategy mergeStrategy = entry.getValue().mergeStrategy;
@@ -0,0 +1,232 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.testutil.TestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests for {@link SingleJar} with {@code --incremental}, which reuses the previous output.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalSingleJarTest {
+
+  /** A file system that records which files were read. */
+  private static final class RecordingFileSystem implements SimpleFileSystem {
+    private final SimpleFileSystem delegate = new JavaIoFileSystem();
+    private final List<String> readFiles = new ArrayList<>();
+
+    @Override
+    public InputStream getInputStream(String filename) throws IOException {
+      readFiles.add(filename);
+      return delegate.getInputStream(filename);
+    }
+
+    @Override
+    public OutputStream getOutputStream(String filename) throws IOException {
+      return delegate.getOutputStream(filename);
+    }
+
+    @Override
+    public boolean delete(String filename) {
+      return delegate.delete(filename);
+    }
+  }
+
+  private File dir;
+  private String a;
+  private String b;
+  private String c;
+
+  @Before
+  public void setUp() throws Exception {
+    dir = new File(TestUtils.tmpDir(), "IncrementalSingleJarTest");
+    deleteTree(dir);
+    assertTrue(dir.mkdirs());
+    a = writeJar("a.jar", new ZipFactory()
+        .addFile("a/A.class", "a")
+        .addFile("META-INF/services/Service", "from a\n")
+        .addFile("common.txt", "a"));
+    b = writeJar("b.jar", new ZipFactory()
+        .addFile("b/B.class", "b")
+        .addFile("b/stored.txt", "stored", false)
+        .addFile("META-INF/MANIFEST.MF", "ignored")
+        .addFile("common.txt", "b"));
+    c = writeJar("c.jar", new ZipFactory()
+        .addFile("c/C.class", "c")
+        .addFile("META-INF/services/Service", "from c\n"));
+  }
+
+  private static void deleteTree(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteTree(child);
+      }
+    }
+    file.delete();
+  }
+
+  private String writeJar(String name, ZipFactory factory) throws IOException {
+    File file = new File(dir, name);
+    Files.write(file.toPath(), factory.toByteArray());
+    // Make sure that a rewritten jar doesn't look unchanged.
+    file.setLastModified(file.lastModified() + 10000);
+    return file.getPath();
+  }
+
+  private RecordingFileSystem build(String output, boolean incremental, String... jars)
+      throws IOException {
+    List<String> args = new ArrayList<>();
+    args.add("--output");
+    args.add(new File(dir, output).getPath());
+    args.add("--normalize");
+    args.add("--compression");
+    // The build data names the output, which differs between the builds that are compared.
+    args.add("--exclude_build_data");
+    if (incremental) {
+      args.add("--incremental");
+    }
+    args.add("--sources");
+    args.addAll(ImmutableList.copyOf(jars));
+    RecordingFileSystem fileSystem = new RecordingFileSystem();
+    new SingleJar(fileSystem).run(args);
+    return fileSystem;
+  }
+
+  private byte[] content(String output) throws IOException {
+    return Files.readAllBytes(new File(dir, output).toPath());
+  }
+
+  private String entry(String output, String name) throws IOException {
+    try (ZipFile zip = new ZipFile(new File(dir, output))) {
+      ZipEntry entry = zip.getEntry(name);
+      if (entry == null) {
+        return null;
+      }
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      try (InputStream in = zip.getInputStream(entry)) {
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+          result.write(buffer, 0, length);
+        }
+      }
+      return new String(result.toByteArray(), UTF_8);
+    }
+  }
+
+  @Test
+  public void unchangedJarsAreNotRead() throws Exception {
+    build("out.jar", true, a, b, c);
+    a = writeJar("a.jar", new ZipFactory()
+        .addFile("a/A.class", "changed")
+        .addFile("META-INF/services/Service", "from a\n")
+        .addFile("common.txt", "a"));
+    RecordingFileSystem fileSystem = build("out.jar", true, a, b, c);
+    assertTrue(fileSystem.readFiles.contains(a));
+    assertTrue(!fileSystem.readFiles.contains(b));
+    assertTrue(!fileSystem.readFiles.contains(c));
+
+    build("expected.jar", false, a, b, c);
+    assertArrayEquals(content("expected.jar"), content("out.jar"));
+    assertEquals("changed", entry("out.jar", "a/A.class"));
+    assertEquals("from a\nfrom c\n", entry("out.jar", "META-INF/services/Service"));
+  }
+
+  @Test
+  public void jarRewrittenWithTheSameLengthAndTimestampIsNotReused() throws Exception {
+    build("out.jar", true, a, b, c);
+    long lastModified = new File(a).lastModified();
+    a = writeJar("a.jar", new ZipFactory()
+        .addFile("a/A.class", "x")
+        .addFile("META-INF/services/Service", "from a\n")
+        .addFile("common.txt", "a"));
+    // As if it was rewritten within the granularity of the file system's timestamps.
+    assertTrue(new File(a).setLastModified(lastModified));
+    RecordingFileSystem fileSystem = build("out.jar", true, a, b, c);
+    assertTrue(fileSystem.readFiles.contains(a));
+    assertEquals("x", entry("out.jar", "a/A.class"));
+  }
+
+  @Test
+  public void outputSurvivesBeingDeleted() throws Exception {
+    build("out.jar", true, a, b, c);
+    assertTrue(new File(dir, "out.jar").delete());
+    RecordingFileSystem fileSystem = build("out.jar", true, a, b, c);
+    assertEquals(0, fileSystem.readFiles.size());
+    build("expected.jar", false, a, b, c);
+    assertArrayEquals(content("expected.jar"), content("out.jar"));
+  }
+
+  @Test
+  public void newDuplicateIsNotCopiedAgain() throws Exception {
+    build("out.jar", true, a, b, c);
+    a = writeJar("a.jar", new ZipFactory()
+        .addFile("a/A.class", "a")
+        .addFile("b/B.class", "now in a")
+        .addFile("common.txt", "a"));
+    RecordingFileSystem fileSystem = build("out.jar", true, a, b, c);
+    assertTrue(fileSystem.readFiles.contains(b));
+
+    build("expected.jar", false, a, b, c);
+    assertArrayEquals(content("expected.jar"), content("out.jar"));
+    assertEquals("now in a", entry("out.jar", "b/B.class"));
+    assertEquals("from c\n", entry("out.jar", "META-INF/services/Service"));
+  }
+
+  @Test
+  public void removedDuplicateIsCopied() throws Exception {
+    build("out.jar", true, a, b, c);
+    RecordingFileSystem fileSystem = build("out.jar", true, b, c);
+    assertTrue(fileSystem.readFiles.contains(b));
+
+    build("expected.jar", false, b, c);
+    assertArrayEquals(content("expected.jar"), content("out.jar"));
+    assertEquals("b", entry("out.jar", "common.txt"));
+  }
+
+  @Test
+  public void reorderedJarsAreReused() throws Exception {
+    build("out.jar", true, a, b, c);
+    RecordingFileSystem fileSystem = build("out.jar", true, c, a);
+    assertEquals(0, fileSystem.readFiles.size());
+
+    build("expected.jar", false, c, a);
+    assertArrayEquals(content("expected.jar"), content("out.jar"));
+    assertEquals("from c\nfrom a\n", entry("out.jar", "META-INF/services/Service"));
+  }
+}
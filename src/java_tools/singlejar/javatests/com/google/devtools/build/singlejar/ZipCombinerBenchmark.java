@@ -0,0 +1,119 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Measures how long {@link ZipCombiner} takes to combine jars with 100k entries in total, when
+ * the jars are read as plain streams, which decompresses every entry that has a data descriptor,
+ * and when they are read as files, with one or more compression threads. Not run as part of the
+ * tests.
+ *
+ * <p>The jars are written like javac output: deflated entries of a few KB with data descriptors.
+ * Every tenth jar is stored, like jars of resources, so that entries have to be re-encoded for
+ * either output mode.
+ *
+ * <p>Usage: {@code ZipCombinerBenchmark <scratch directory> [threads [jars [entries per jar]]]},
+ * by default 4 threads and 100 jars of 1000 entries.
+ */
+public class ZipCombinerBenchmark {
+
+  private static final int RUNS = 3;
+
+  public static void main(String[] args) throws Exception {
+    File scratch = new File(args[0]);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int jarCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    int entriesPerJar = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    if (!scratch.isDirectory() && !scratch.mkdirs()) {
+      throw new IOException("Can't create " + scratch);
+    }
+
+    List<File> jars = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0; i < jarCount; i++) {
+      File jar = new File(scratch, "input" + i + ".jar");
+      writeJar(jar, i, entriesPerJar, i % 10 == 9, random);
+      jars.add(jar);
+    }
+    File output = new File(scratch, "output.jar");
+
+    System.out.println("mode input threads best_ms output_bytes");
+    for (OutputMode mode : new OutputMode[] {OutputMode.FORCE_DEFLATE, OutputMode.FORCE_STORED}) {
+      run(mode, "stream", 1, jars, output);
+      run(mode, "file", 1, jars, output);
+      run(mode, "file", threads, jars, output);
+    }
+  }
+
+  private static void writeJar(File file, int jarIndex, int entries, boolean stored,
+      Random random) throws IOException {
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < entries; i++) {
+        // Class files compress to about a third.
+        byte[] data = new byte[1000 + random.nextInt(6000)];
+        for (int j = 0; j < data.length; j++) {
+          data[j] = (byte) ('a' + random.nextInt(j % 4 == 0 ? 64 : 8));
+        }
+        ZipEntry entry = new ZipEntry("com/example/pkg" + jarIndex + "/Class" + i + ".class");
+        if (stored) {
+          CRC32 crc = new CRC32();
+          crc.update(data);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(data.length);
+          entry.setCrc(crc.getValue());
+        }
+        jar.putNextEntry(entry);
+        jar.write(data);
+      }
+    }
+  }
+
+  private static void run(OutputMode mode, String input, int threads, List<File> jars,
+      File output) throws IOException {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long start = System.nanoTime();
+      try (ZipCombiner combiner =
+          new ZipCombiner(mode, new CopyEntryFilter(), new FileOutputStream(output))) {
+        combiner.setCompressionThreads(threads);
+        for (File jar : jars) {
+          // A BufferedInputStream hides the file, so the combiner can only read it as a stream.
+          try (InputStream in = input.equals("file")
+              ? new FileInputStream(jar)
+              : new BufferedInputStream(new FileInputStream(jar))) {
+            combiner.addZip(jar.getName(), in);
+          }
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    System.out.printf("%s %s %d %d %d%n", mode, input, threads, best / 1000000, output.length());
+  }
+}
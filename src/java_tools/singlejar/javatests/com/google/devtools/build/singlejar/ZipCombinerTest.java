@@ -26,6 +26,7 @@ import static org.junit.Assert.fail;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
 import com.google.devtools.build.singlejar.ZipEntryFilter.CustomMergeStrategy;
 
@@ -36,11 +37,15 @@ import org.junit.runners.JUnit4;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -49,7 +54,9 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -933,4 +940,79 @@ public class ZipCombinerTest {
       new ZipTester(out.toByteArray()).validate();
     }
   }
+
+  /**
+   * Writes a jar like the JDK does, with data descriptors after deflated entries, and with
+   * entries that are larger than the input buffer.
+   */
+  private byte[] jarWithLargeEntries(int seed) throws IOException {
+    Random random = new Random(seed);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JarOutputStream jar = new JarOutputStream(out)) {
+      jar.putNextEntry(new ZipEntry("dir/"));
+      for (int i = 0; i < 20; i++) {
+        // Compressible, but not too much, so that some entries stay large when deflated.
+        byte[] data = new byte[i % 5 == 0 ? 300000 : 100 * i];
+        for (int j = 0; j < data.length; j++) {
+          data[j] = (byte) ('a' + random.nextInt(i % 3 == 0 ? 26 : 4));
+        }
+        ZipEntry entry = new ZipEntry("dir/file" + (i + seed) + ".txt");
+        if (i % 2 == 0) {
+          CRC32 crc = new CRC32();
+          crc.update(data);
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(data.length);
+          entry.setCrc(crc.getValue());
+        }
+        jar.putNextEntry(entry);
+        jar.write(data);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private byte[] combine(OutputMode mode, int threads, List<File> inputs, boolean fromFiles)
+      throws IOException {
+    File output = new File(TestUtils.tmpDir(), "combined.jar");
+    try (ZipCombiner zipCombiner =
+        new ZipCombiner(mode, new CopyEntryFilter(), new FileOutputStream(output))) {
+      zipCombiner.setCompressionThreads(threads);
+      for (File input : inputs) {
+        try (InputStream in = fromFiles
+            ? new FileInputStream(input)
+            : new ByteArrayInputStream(Files.readAllBytes(input.toPath()))) {
+          zipCombiner.addZip(input.getName(), in);
+        }
+      }
+    }
+    return Files.readAllBytes(output.toPath());
+  }
+
+  /**
+   * Input files are copied without decompressing entries, and their entries may be re-encoded
+   * in parallel, but the result has to be the same as for input streams.
+   */
+  @Test
+  public void testFileInputsGiveSameOutputAsStreams() throws IOException {
+    List<File> inputs = new ArrayList<>();
+    // The second and third jars have entries with the same names as the first.
+    for (int seed : new int[] { 0, 0, 5 }) {
+      File input = new File(TestUtils.tmpDir(), "input" + inputs.size() + ".jar");
+      Files.write(input.toPath(), jarWithLargeEntries(seed));
+      inputs.add(input);
+    }
+    for (OutputMode mode : OutputMode.values()) {
+      byte[] expected = combine(mode, 1, inputs, false);
+      ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(expected));
+      int entries = 0;
+      while (zipInput.getNextEntry() != null) {
+        entries++;
+      }
+      assertEquals(26, entries);
+      for (int threads : new int[] { 1, 4 }) {
+        assertTrue(mode + " with " + threads + " threads",
+            Arrays.equals(expected, combine(mode, threads, inputs, true)));
+      }
+    }
+  }
 }
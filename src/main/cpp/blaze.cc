@@ -318,6 +318,16 @@ static vector<string> GetArgumentArray() {
   if (globals->options.watchfs) {
     result.push_back("--watchfs");
   }
+  if (globals->options.experimental_mapped_action_cache) {
+    result.push_back("--experimental_mapped_action_cache");
+  }
+  if (globals->options.experimental_graph_snapshot) {
+    result.push_back("--experimental_graph_snapshot");
+  }
+  if (!globals->options.experimental_fingerprint_function.empty()) {
+    result.push_back("--experimental_fingerprint_function=" +
+                     globals->options.experimental_fingerprint_function);
+  }
   if (globals->options.fatal_event_bus_exceptions) {
     result.push_back("--fatal_event_bus_exceptions");
   } else {
@@ -51,6 +51,9 @@ BlazeStartupOptions::BlazeStartupOptions(const BlazeStartupOptions &rhs)
       max_idle_secs(rhs.max_idle_secs),
       skyframe(rhs.skyframe),
       watchfs(rhs.watchfs),
+      experimental_mapped_action_cache(rhs.experimental_mapped_action_cache),
+      experimental_graph_snapshot(rhs.experimental_graph_snapshot),
+      experimental_fingerprint_function(rhs.experimental_fingerprint_function),
       allow_configurable_attributes(rhs.allow_configurable_attributes),
       option_sources(rhs.option_sources),
       webstatus_port(rhs.webstatus_port),
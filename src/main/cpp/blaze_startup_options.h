@@ -151,6 +151,17 @@ class BlazeStartupOptions {
   // If true, Blaze will listen to OS-level file change notifications.
   bool watchfs;
 
+  // If true, the action cache is kept in memory-mapped files.
+  bool experimental_mapped_action_cache;
+
+  // If true, the file system part of the Skyframe graph is saved when the
+  // server shuts down and restored when the next one starts.
+  bool experimental_graph_snapshot;
+
+  // The hash function of action keys and other fingerprints, or empty for the
+  // server's default.
+  string experimental_fingerprint_function;
+
   // Temporary experimental flag that permits configurable attribute syntax
   // in BUILD files. This will be removed when configurable attributes is
   // a more stable feature.
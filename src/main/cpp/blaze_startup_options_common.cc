@@ -46,6 +46,8 @@ void BlazeStartupOptions::Init() {
   max_idle_secs = testing ? 5 : (3 * 3600);
   webstatus_port = 0;
   watchfs = false;
+  experimental_mapped_action_cache = false;
+  experimental_graph_snapshot = false;
 }
 
 string BlazeStartupOptions::GetHostJavabase() {
@@ -75,6 +77,10 @@ void BlazeStartupOptions::Copy(
   lhs->skyframe = rhs.skyframe;
   lhs->webstatus_port = rhs.webstatus_port;
   lhs->watchfs = rhs.watchfs;
+  lhs->experimental_mapped_action_cache = rhs.experimental_mapped_action_cache;
+  lhs->experimental_graph_snapshot = rhs.experimental_graph_snapshot;
+  lhs->experimental_fingerprint_function =
+      rhs.experimental_fingerprint_function;
   lhs->allow_configurable_attributes = rhs.allow_configurable_attributes;
   lhs->fatal_event_bus_exceptions = rhs.fatal_event_bus_exceptions;
   lhs->option_sources = rhs.option_sources;
@@ -194,6 +200,22 @@ blaze_exit_code::ExitCode BlazeStartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--watchfs")) {
     watchfs = true;
     option_sources["watchfs"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = true;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = false;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_graph_snapshot")) {
+    experimental_graph_snapshot = true;
+    option_sources["experimental_graph_snapshot"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_graph_snapshot")) {
+    experimental_graph_snapshot = false;
+    option_sources["experimental_graph_snapshot"] = rcfile;
+  } else if ((value = GetUnaryOption(
+      arg, next_arg, "--experimental_fingerprint_function")) != NULL) {
+    experimental_fingerprint_function = value;
+    option_sources["experimental_fingerprint_function"] = rcfile;
   } else if ((value = GetUnaryOption(
       arg, next_arg, "--use_webstatusserver")) != NULL) {
     if (!blaze_util::safe_strto32(value, &webstatus_port) ||
@@ -54,13 +54,30 @@ public class ActionCacheChecker {
   private final ArtifactResolver artifactResolver;
   // True iff --verbose_explanations flag is set.
   private final boolean verboseExplanations;
+  @Nullable private final LocalOutputCache outputCache;
 
   public ActionCacheChecker(ActionCache actionCache, ArtifactResolver artifactResolver,
       Predicate<? super Action> executionFilter, boolean verboseExplanations) {
+    this(actionCache, artifactResolver, executionFilter, verboseExplanations, null);
+  }
+
+  public ActionCacheChecker(ActionCache actionCache, ArtifactResolver artifactResolver,
+      Predicate<? super Action> executionFilter, boolean verboseExplanations,
+      @Nullable LocalOutputCache outputCache) {
     this.actionCache = actionCache;
     this.executionFilter = executionFilter;
     this.artifactResolver = artifactResolver;
     this.verboseExplanations = verboseExplanations;
+    this.outputCache = outputCache;
+  }
+
+  /**
+   * Returns the store that the outputs of actions that must be executed may be restored from
+   * instead, or null if there is none.
+   */
+  @Nullable
+  public LocalOutputCache getOutputCache() {
+    return outputCache;
   }
 
   public boolean isActionExecutionProhibited(Action action) {
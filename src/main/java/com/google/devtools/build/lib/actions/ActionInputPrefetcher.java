@@ -0,0 +1,45 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A spawn strategy that can do work on the inputs of an action before it executes, e.g. upload
+ * them to where the action will run.
+ *
+ * <p>The inputs of an action whose spawn the strategy will run remotely (see
+ * {@link SpawnActionContext#isRemotable}) are handed to the prefetcher before the action is
+ * scheduled, so that the work overlaps with the wait for resources and with whatever the strategy
+ * does before it needs the inputs. The strategy waits for the prefetch when it executes the spawn
+ * of the action.
+ */
+public interface ActionInputPrefetcher {
+
+  /**
+   * Starts work on the given inputs of an action, and returns a future that is done when the work
+   * is. Must not block.
+   *
+   * <p>Prefetching is an optimization only: if it fails, the strategy must still be able to
+   * execute the action, and report any error then.
+   */
+  ListenableFuture<Void> prefetchInputs(ActionMetadata action,
+      Iterable<? extends ActionInput> inputs, ActionExecutionContext actionExecutionContext);
+
+  /**
+   * Forgets the prefetch for the action, and cancels it if it is still running. Called once the
+   * action has finished executing, whether or not it succeeded.
+   */
+  void discardPrefetch(ActionMetadata action);
+}
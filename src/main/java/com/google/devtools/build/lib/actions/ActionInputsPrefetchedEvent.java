@@ -0,0 +1,53 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+/**
+ * This event is fired during the build, when the inputs of an action have been prefetched by an
+ * {@link ActionInputPrefetcher} and the action has started to use them.
+ */
+public class ActionInputsPrefetchedEvent {
+  private final ActionMetadata action;
+  private final long prefetchNanos;
+  private final long savedNanos;
+
+  /**
+   * Create an event for an action whose inputs have been prefetched.
+   *
+   * @param action the action.
+   * @param prefetchNanos the time the prefetch took.
+   * @param savedNanos the part of that time during which the action was doing other work or
+   * waiting for resources anyway, and which it would otherwise have spent waiting for its inputs.
+   */
+  public ActionInputsPrefetchedEvent(ActionMetadata action, long prefetchNanos, long savedNanos) {
+    this.action = action;
+    this.prefetchNanos = prefetchNanos;
+    this.savedNanos = savedNanos;
+  }
+
+  /**
+   * Returns the associated action.
+   */
+  public ActionMetadata getAction() {
+    return action;
+  }
+
+  public long getPrefetchNanos() {
+    return prefetchNanos;
+  }
+
+  public long getSavedNanos() {
+    return savedNanos;
+  }
+}
@@ -0,0 +1,322 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Ordering;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.actions.cache.Metadata;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A disk-backed, content-addressable store of action outputs, which can be shared by several
+ * workspaces, and which lets an action whose outputs were already produced by an identical action
+ * elsewhere be satisfied without running it.
+ *
+ * <p>Entries are keyed by a fingerprint of the action key, the output exec paths, and the exec
+ * paths and content digests of all inputs. Under the cache root, {@code cas/} holds the output
+ * files, named by their MD5 digest, and {@code ac/} holds for each key a manifest listing the
+ * digest of each output. Both are written to {@code tmp/} first and renamed into place, so that
+ * concurrent builds never see partial files.
+ *
+ * <p>Outputs are restored by hard link when the cache and the output base are on the same file
+ * system, and by copy otherwise. A hard-linked output shares its permissions with the stored file,
+ * so files are stored read-only and executable, which is how the action executor leaves every
+ * output, and a stored file in any other mode is copied instead. A hard-linked output also shares
+ * its modification time with the stored file, so the stored files are never touched; instead a
+ * manifest's modification time records when it was last used, and {@link #collectGarbage} evicts
+ * the files that were used least recently, along with the manifests that refer to them.
+ */
+@ThreadSafe
+public class LocalOutputCache {
+  private static final Logger LOG = Logger.getLogger(LocalOutputCache.class.getName());
+
+  // Garbage collection evicts down to this fraction of the maximum size, so that it doesn't have
+  // to run after every build once the cache is full.
+  private static final double LOW_WATER_MARK = 0.9;
+
+  private static final Ordering<Artifact> EXEC_PATH_ORDER = new Ordering<Artifact>() {
+    @Override
+    public int compare(Artifact a, Artifact b) {
+      return a.getExecPath().compareTo(b.getExecPath());
+    }
+  };
+
+  private final Path casDirectory;
+  private final Path manifestDirectory;
+  private final Path tmpDirectory;
+  private final long maxSizeBytes;
+  private final AtomicBoolean stored = new AtomicBoolean();
+
+  public LocalOutputCache(Path root, long maxSizeBytes) throws IOException {
+    this.casDirectory = root.getChild("cas");
+    this.manifestDirectory = root.getChild("ac");
+    this.tmpDirectory = root.getChild("tmp");
+    this.maxSizeBytes = maxSizeBytes;
+    FileSystemUtils.createDirectoryAndParents(casDirectory);
+    FileSystemUtils.createDirectoryAndParents(manifestDirectory);
+    FileSystemUtils.createDirectoryAndParents(tmpDirectory);
+  }
+
+  /**
+   * Returns the key of the action's outputs, or null if the outputs of this action can't be
+   * cached, for instance because it has an input that is not a file.
+   *
+   * <p>Must be called before the action is executed, since that may change its inputs.
+   */
+  @Nullable
+  public String getKey(Action action, MetadataHandler metadataHandler) {
+    if (action.executeUnconditionally() || !action.inputsKnown()
+        || action.getActionType().isMiddleman()) {
+      return null;
+    }
+    Fingerprint fp = new Fingerprint();
+    fp.addString(action.getKey());
+    for (Artifact output : action.getOutputs()) {
+      fp.addPath(output.getExecPath());
+    }
+    // Sorted by exec path, which, unlike the absolute path, is the same in every workspace.
+    List<Artifact> inputs = EXEC_PATH_ORDER.sortedCopy(action.getInputs());
+    fp.addInt(inputs.size());
+    for (Artifact input : inputs) {
+      byte[] digest = getDigest(input, metadataHandler.getMetadataMaybe(input));
+      if (digest == null) {
+        return null;
+      }
+      fp.addPath(input.getExecPath());
+      fp.addBytes(digest);
+    }
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Returns the content digest of a file artifact, or null if it doesn't have one.
+   */
+  @Nullable
+  private static byte[] getDigest(Artifact artifact, @Nullable Metadata metadata) {
+    if (metadata != null && metadata.digest != null) {
+      return metadata.digest;
+    }
+    if (metadata == Metadata.CONSTANT_METADATA) {
+      // Volatile files, like the build changelist, never invalidate actions.
+      return new byte[0];
+    }
+    // Empty files are tracked by modification time.
+    Path path = artifact.getPath();
+    try {
+      return path.isFile() ? path.getMD5Digest() : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Restores the outputs stored under the given key, after the action has deleted them. Returns
+   * false on a cache miss, in which case any outputs that were already restored are deleted again.
+   */
+  public boolean restore(String key, Action action) {
+    Path manifest = manifestDirectory.getChild(key);
+    List<Path> restored = new ArrayList<>();
+    try {
+      if (!manifest.exists()) {
+        return false;
+      }
+      Map<String, String> digests = readManifest(manifest);
+      if (digests.size() != action.getOutputs().size()) {
+        return false;
+      }
+      for (Artifact output : action.getOutputs()) {
+        String digest = digests.get(output.getExecPathString());
+        if (digest == null) {
+          return false;
+        }
+        Path blob = casDirectory.getChild(digest);
+        Path target = output.getPath();
+        restored.add(target);
+        if (blob.isExecutable() && !blob.isWritable()) {
+          try {
+            target.createHardLink(blob);
+            continue;
+          } catch (IOException | UnsupportedOperationException e) {
+            // Not on the same file system, or a blob that was just evicted, in which case the copy
+            // fails too.
+          }
+        }
+        FileSystemUtils.copyFile(blob, target);
+      }
+      manifest.setLastModifiedTime(BlazeClock.instance().currentTimeMillis());
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.INFO, "Failed to restore outputs of " + action.prettyPrint(), e);
+      for (Path target : restored) {
+        try {
+          target.delete();
+        } catch (IOException e2) {
+          // The action will fail to delete it too, and report that.
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Stores the outputs of an action that executed successfully under the given key. Does nothing
+   * if an output is not a regular file.
+   */
+  public void store(String key, Action action, MetadataHandler metadataHandler) {
+    Map<String, String> digests = new HashMap<>();
+    try {
+      for (Artifact output : action.getOutputs()) {
+        Path path = output.getPath();
+        if (metadataHandler.artifactOmitted(output) || !path.isFile(Symlinks.NOFOLLOW)) {
+          return;
+        }
+        byte[] digest = getDigest(output, metadataHandler.getMetadata(output));
+        if (digest == null || digest.length == 0) {
+          return;
+        }
+        String name = BaseEncoding.base16().lowerCase().encode(digest);
+        Path blob = casDirectory.getChild(name);
+        if (!blob.exists()) {
+          Path tmp = newTmpFile();
+          FileSystemUtils.copyFile(path, tmp);
+          tmp.setWritable(false);
+          tmp.setExecutable(true);
+          tmp.renameTo(blob);
+        }
+        digests.put(output.getExecPathString(), name);
+      }
+      StringBuilder content = new StringBuilder();
+      for (Map.Entry<String, String> entry : digests.entrySet()) {
+        content.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+      }
+      Path tmp = newTmpFile();
+      FileSystemUtils.writeContent(tmp, UTF_8, content.toString());
+      tmp.renameTo(manifestDirectory.getChild(key));
+      stored.set(true);
+    } catch (IOException e) {
+      LOG.log(Level.INFO, "Failed to store outputs of " + action.prettyPrint(), e);
+    }
+  }
+
+  private Path newTmpFile() {
+    return tmpDirectory.getChild(UUID.randomUUID().toString());
+  }
+
+  private static Map<String, String> readManifest(Path manifest) throws IOException {
+    Map<String, String> digests = new HashMap<>();
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(
+        new String(FileSystemUtils.readContent(manifest), UTF_8))) {
+      int space = line.indexOf(' ');
+      if (space < 0) {
+        throw new IOException("Corrupted manifest " + manifest);
+      }
+      digests.put(line.substring(space + 1), line.substring(0, space));
+    }
+    return digests;
+  }
+
+  /**
+   * If anything was stored since the last call, and the stored files take more than the maximum
+   * size, deletes the least recently used ones, and the manifests that refer to them.
+   */
+  public void collectGarbage() throws IOException {
+    if (!stored.getAndSet(false)) {
+      return;
+    }
+    // A file was last used when the last manifest that refers to it was.
+    Map<String, Long> blobSizes = new HashMap<>();
+    long totalSize = 0;
+    for (Path blob : casDirectory.getDirectoryEntries()) {
+      FileStatus stat = blob.statIfFound(Symlinks.NOFOLLOW);
+      if (stat != null) {
+        blobSizes.put(blob.getBaseName(), stat.getSize());
+        totalSize += stat.getSize();
+      }
+    }
+    if (totalSize <= maxSizeBytes) {
+      return;
+    }
+    final Map<String, Long> lastUsed = new HashMap<>();
+    Map<Path, Set<String>> manifests = new HashMap<>();
+    for (Path manifest : manifestDirectory.getDirectoryEntries()) {
+      try {
+        long time = manifest.getLastModifiedTime();
+        Set<String> blobs = new HashSet<>(readManifest(manifest).values());
+        manifests.put(manifest, blobs);
+        for (String blob : blobs) {
+          Long previous = lastUsed.get(blob);
+          if (previous == null || previous < time) {
+            lastUsed.put(blob, time);
+          }
+        }
+      } catch (IOException e) {
+        // Evicted by another build, or corrupted: either way it can go.
+        manifest.delete();
+      }
+    }
+    List<String> blobs = new Ordering<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return Long.compare(time(a), time(b));
+      }
+
+      private long time(String blob) {
+        // Files that no manifest refers to go first.
+        Long time = lastUsed.get(blob);
+        return time != null ? time : Long.MIN_VALUE;
+      }
+    }.sortedCopy(blobSizes.keySet());
+    Set<String> evicted = new HashSet<>();
+    for (String blob : blobs) {
+      if (totalSize <= maxSizeBytes * LOW_WATER_MARK) {
+        break;
+      }
+      casDirectory.getChild(blob).delete();
+      totalSize -= blobSizes.get(blob);
+      evicted.add(blob);
+    }
+    for (Map.Entry<Path, Set<String>> manifest : manifests.entrySet()) {
+      for (String blob : manifest.getValue()) {
+        if (evicted.contains(blob)) {
+          manifest.getKey().delete();
+          break;
+        }
+      }
+    }
+  }
+}
@@ -17,21 +17,24 @@ package com.google.devtools.build.lib.actions;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.LoggingUtil;
-import com.google.devtools.build.lib.util.Pair;
 
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
  * when necessary.
@@ -63,6 +66,13 @@ import java.util.logging.Logger;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>Waiting threads are unblocked in the order in which they asked for resources, unless an
+ * {@link ActionDurationHistory} is set. Then they are unblocked in the order of the time that the
+ * longest chain of actions starting with their action took in previous builds, so that actions on
+ * the critical path don't wait behind many short ones, and the resources that the first waiting
+ * thread asked for are held back from the others, so that a large request isn't starved by small
+ * ones. The durations of the actions are recorded in the history by whoever executes them.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -79,6 +89,19 @@ public class ResourceManager {
     }
   };
 
+  /** A blocked thread waiting for resources. */
+  private static final class Request {
+    private final ResourceSet resources;
+    private final long priority;
+    // Always initialized to 1 and only counted down when the request is granted.
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private Request(ResourceSet resources, long priority) {
+      this.resources = resources;
+      this.priority = priority;
+    }
+  }
+
   /**
    * Singleton reference defined in a separate class to ensure thread-safe lazy
    * initialization.
@@ -104,9 +127,11 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  // List of blocked threads. Ordered by decreasing priority if durationHistory is set.
+  private final List<Request> requestList;
+
+  // If set, orders the blocked threads by the remaining critical path of their actions.
+  @Nullable private volatile ActionDurationHistory durationHistory = null;
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
@@ -158,9 +183,9 @@ public class ResourceManager {
     usedRam = 0;
     usedIo = 0;
     usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
+    for (Request request : requestList) {
       // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+      request.latch.countDown();
     }
     requestList.clear();
   }
@@ -177,6 +202,20 @@ public class ResourceManager {
     setAutoSensing(false);
   }
 
+  /**
+   * Sets the history of action durations by which blocked threads are ordered, or restores the
+   * first-come, first-served order if it is null.
+   */
+  public synchronized void setActionDurationHistory(@Nullable ActionDurationHistory history) {
+    durationHistory = history;
+  }
+
+  /** Returns the history of action durations set by {@link #setActionDurationHistory}, if any. */
+  @Nullable
+  public ActionDurationHistory getActionDurationHistory() {
+    return durationHistory;
+  }
+
   public synchronized boolean isAutoSensingEnabled() {
     return timer != null;
   }
@@ -226,10 +265,11 @@ public class ResourceManager {
       throws InterruptedException {
     Preconditions.checkNotNull(resources);
     long startTime = Profiler.nanoTimeMaybe();
+    ActionDurationHistory history = durationHistory;
     CountDownLatch latch = null;
     try {
       waiting(owner);
-      latch = acquire(resources);
+      latch = acquire(resources, history == null ? 0 : history.getRemainingMillis(owner));
       if (latch != null) {
         latch.await();
       }
@@ -334,14 +374,30 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
+  private synchronized CountDownLatch acquire(ResourceSet resources, long priority) {
+    boolean prioritized = durationHistory != null;
+    if ((!prioritized || requestList.isEmpty()) && areResourcesAvailable(resources)) {
       incrementResources(resources);
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
+    Request request = new Request(resources, priority);
+    if (prioritized) {
+      // Queue it behind the requests of the same or higher priority, and then let it compete.
+      ListIterator<Request> iterator = requestList.listIterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().priority < priority) {
+          iterator.previous();
+          break;
+        }
+      }
+      iterator.add(request);
+      processWaitingThreads();
+      if (request.latch.getCount() == 0) {
+        return null;
+      }
+    } else {
+      requestList.add(request);
+    }
 
     // If we use auto sensing and there has not been an update within last
     // 30 seconds, something has gone really wrong - disable it.
@@ -353,10 +409,19 @@ public class ResourceManager {
           + "auto-sensing is disabled");
       setAutoSensing(false);
     }
-    return request.second;
+    return request.latch;
   }
 
   private synchronized boolean release(ResourceSet resources) {
+    decrementResources(resources);
+    if (!requestList.isEmpty()) {
+      processWaitingThreads();
+      return true;
+    }
+    return false;
+  }
+
+  private void decrementResources(ResourceSet resources) {
     usedCpu -= resources.getCpuUsage();
     usedRam -= resources.getMemoryMb();
     usedIo -= resources.getIoUsage();
@@ -374,27 +439,32 @@ public class ResourceManager {
     if (usedIo < epsilon) {
       usedIo = 0;
     }
-    if (!requestList.isEmpty()) {
-      processWaitingThreads();
-      return true;
-    }
-    return false;
   }
 
 
   /**
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
+   * If the threads are prioritized, the resources of the first one that can't be unblocked are
+   * reserved for it while the others are considered.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    boolean prioritized = durationHistory != null;
+    Request reserved = null;
+    Iterator<Request> iterator = requestList.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (areResourcesAvailable(request.first)) {
-        incrementResources(request.first);
-        request.second.countDown();
+      Request request = iterator.next();
+      if (areResourcesAvailable(request.resources)) {
+        incrementResources(request.resources);
+        request.latch.countDown();
         iterator.remove();
+      } else if (prioritized && reserved == null) {
+        incrementResources(request.resources);
+        reserved = request;
       }
     }
+    if (reserved != null) {
+      decrementResources(reserved.resources);
+    }
   }
 
   // Method will return true if all requested resources are considered to be available.
@@ -0,0 +1,317 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.ActionMetadata;
+import com.google.devtools.build.lib.actions.ActionMiddlemanEvent;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.CachedActionEvent;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers how long actions took to execute in previous builds, and how long the longest chain
+ * of actions that started with each of them took, and persists that in the output base. The
+ * {@link com.google.devtools.build.lib.actions.ResourceManager} uses the latter to let actions on
+ * the critical path go first when they wait for resources.
+ *
+ * <p>Actions are identified by the exec path of their primary output. An action that wasn't
+ * executed before is assumed to take as long as the average action with the same mnemonic. During
+ * a build, executed actions are reported by the action executor once they complete, whether or not
+ * they waited for resources, and middlemen and actions found in the action cache through the event
+ * bus, so that the chains through them aren't broken; when the history is saved, the length of the
+ * chains is computed in reverse order of completion, as no action completes before the actions
+ * whose outputs it consumes.
+ *
+ * <p>Entries that weren't used for {@link #MAX_UNUSED_SAVES} saves are dropped.
+ */
+@ThreadSafe
+public final class ActionDurationHistory {
+  private static final int VERSION = 1;
+  private static final long MAGIC = 0x4455524154494f4eL;
+
+  @VisibleForTesting
+  static final int MAX_UNUSED_SAVES = 10;
+
+  private static final class Entry {
+    private final long durationMillis;
+    private final long remainingMillis;
+    private volatile int lastUsed;
+
+    private Entry(long durationMillis, long remainingMillis, int lastUsed) {
+      this.durationMillis = durationMillis;
+      this.remainingMillis = remainingMillis;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  /** An action that completed during the current build. */
+  private static final class Completion {
+    private final ActionMetadata action;
+    private final long durationMillis;
+    private final boolean executed;
+    private final long sequenceNumber;
+    private long remainingMillis;
+    private long tailMillis;
+
+    private Completion(ActionMetadata action, long durationMillis, boolean executed,
+        long sequenceNumber) {
+      this.action = action;
+      this.durationMillis = durationMillis;
+      this.executed = executed;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+
+  private static final Comparator<Completion> LAST_COMPLETED_FIRST = new Comparator<Completion>() {
+    @Override
+    public int compare(Completion o1, Completion o2) {
+      return Long.compare(o2.sequenceNumber, o1.sequenceNumber);
+    }
+  };
+
+  private final Path cacheFile;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Long> averageMillisByMnemonic = new ConcurrentHashMap<>();
+  // Keyed by every output of the completed actions.
+  private final ConcurrentMap<Artifact, Completion> completions = new ConcurrentHashMap<>();
+  private final AtomicLong sequenceNumbers = new AtomicLong();
+  private volatile int generation;
+
+  /**
+   * Loads the history from the given directory, or creates an empty one if there is no history
+   * file.
+   *
+   * @throws IOException if the history file can't be read; a corrupted file is renamed to
+   *     {@code *.bad}, so that the next attempt starts with an empty history
+   */
+  public ActionDurationHistory(Path cacheRoot) throws IOException {
+    this.cacheFile = cacheFile(cacheRoot);
+    if (cacheFile.exists()) {
+      try {
+        load(ByteBuffer.wrap(FileSystemUtils.readContent(cacheFile)));
+      } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+        entries.clear();
+        averageMillisByMnemonic.clear();
+        cacheFile.renameTo(cacheRoot.getChild(cacheFile.getBaseName() + ".bad"));
+        throw new IOException("Failed to load action duration history", e);
+      }
+    }
+  }
+
+  public static Path cacheFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_durations_v" + VERSION + ".blaze");
+  }
+
+  private void load(ByteBuffer buffer) throws IOException {
+    if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IOException("Unexpected format");
+    }
+    generation = buffer.getInt();
+    int count = buffer.getInt();
+    byte[] previous = new byte[0];
+    for (int i = 0; i < count; i++) {
+      int shared = VarInt.getVarInt(buffer);
+      int rest = VarInt.getVarInt(buffer);
+      byte[] key = new byte[shared + rest];
+      System.arraycopy(previous, 0, key, 0, shared);
+      buffer.get(key, shared, rest);
+      long durationMillis = VarInt.getVarLong(buffer);
+      long remainingMillis = VarInt.getVarLong(buffer);
+      int lastUsed = generation - VarInt.getVarInt(buffer);
+      entries.put(new String(key, UTF_8), new Entry(durationMillis, remainingMillis, lastUsed));
+      previous = key;
+    }
+    int mnemonics = buffer.getInt();
+    for (int i = 0; i < mnemonics; i++) {
+      byte[] mnemonic = new byte[VarInt.getVarInt(buffer)];
+      buffer.get(mnemonic);
+      averageMillisByMnemonic.put(new String(mnemonic, UTF_8), VarInt.getVarLong(buffer));
+    }
+    if (buffer.hasRemaining()) {
+      throw new IOException("Trailing data");
+    }
+  }
+
+  private static String key(ActionMetadata action) {
+    return action.getPrimaryOutput().getExecPathString();
+  }
+
+  /**
+   * Returns the estimated time in milliseconds from the start of the given action to the end of
+   * the longest chain of actions that depend on it, or 0 if nothing is known about it.
+   */
+  public long getRemainingMillis(ActionMetadata action) {
+    Entry entry = entries.get(key(action));
+    if (entry == null) {
+      Long average = averageMillisByMnemonic.get(action.getMnemonic());
+      return average == null ? 0 : average;
+    }
+    entry.lastUsed = generation;
+    return entry.remainingMillis;
+  }
+
+  /**
+   * Records that the given action was executed, which took {@code durationNanos}.
+   */
+  public void actionExecuted(ActionMetadata action, long durationNanos) {
+    addCompletion(action, TimeUnit.NANOSECONDS.toMillis(durationNanos), /*executed=*/true);
+  }
+
+  @Subscribe
+  public void middlemanAction(ActionMiddlemanEvent event) {
+    addCompletion(event.getAction(), 0, /*executed=*/false);
+  }
+
+  @Subscribe
+  public void actionCached(CachedActionEvent event) {
+    // A cached action takes as long as it did when it was last executed, if it is executed again.
+    Entry entry = entries.get(key(event.getAction()));
+    addCompletion(event.getAction(), entry == null ? 0 : entry.durationMillis,
+        /*executed=*/false);
+  }
+
+  private void addCompletion(ActionMetadata action, long durationMillis, boolean executed) {
+    Completion completion =
+        new Completion(action, durationMillis, executed, sequenceNumbers.incrementAndGet());
+    for (Artifact output : action.getOutputs()) {
+      completions.put(output, completion);
+    }
+  }
+
+  /**
+   * Adds the actions that completed since the history was loaded or last saved to it, and writes
+   * it to disk if anything completed.
+   *
+   * @return the size of the history file in bytes
+   */
+  public long save() throws IOException {
+    List<Completion> completed = new ArrayList<>();
+    for (Map.Entry<Artifact, Completion> entry : completions.entrySet()) {
+      if (entry.getKey().equals(entry.getValue().action.getPrimaryOutput())) {
+        completed.add(entry.getValue());
+      }
+    }
+    if (completed.isEmpty()) {
+      return cacheFile.exists() ? cacheFile.getFileSize() : 0;
+    }
+    int currentGeneration = generation;
+    Collections.sort(completed, LAST_COMPLETED_FIRST);
+    Map<String, long[]> totalMillisByMnemonic = new HashMap<>();
+    for (Completion completion : completed) {
+      completion.remainingMillis = completion.durationMillis + completion.tailMillis;
+      for (Artifact input : completion.action.getInputs()) {
+        Completion producer = completions.get(input);
+        if (producer != null && producer != completion) {
+          producer.tailMillis = Math.max(producer.tailMillis, completion.remainingMillis);
+        }
+      }
+      if (completion.executed || entries.containsKey(key(completion.action))) {
+        entries.put(key(completion.action), new Entry(completion.durationMillis,
+            completion.remainingMillis, currentGeneration));
+      }
+      if (completion.executed) {
+        long[] total = totalMillisByMnemonic.get(completion.action.getMnemonic());
+        if (total == null) {
+          total = new long[2];
+          totalMillisByMnemonic.put(completion.action.getMnemonic(), total);
+        }
+        total[0] += completion.durationMillis;
+        total[1]++;
+      }
+    }
+    completions.clear();
+    for (Map.Entry<String, long[]> total : totalMillisByMnemonic.entrySet()) {
+      long average = total.getValue()[0] / total.getValue()[1];
+      Long previous = averageMillisByMnemonic.get(total.getKey());
+      averageMillisByMnemonic.put(total.getKey(),
+          previous == null ? average : (previous + average) / 2);
+    }
+
+    TreeMap<String, Entry> sorted = new TreeMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (currentGeneration - entry.getValue().lastUsed >= MAX_UNUSED_SAVES) {
+        entries.remove(entry.getKey(), entry.getValue());
+      } else {
+        sorted.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Path tmpFile = cacheFile.getParentDirectory().getChild(cacheFile.getBaseName() + ".tmp");
+    FileSystemUtils.createDirectoryAndParents(cacheFile.getParentDirectory());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tmpFile.getOutputStream()))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(currentGeneration + 1);
+      out.writeInt(sorted.size());
+      byte[] previous = new byte[0];
+      for (Map.Entry<String, Entry> entry : sorted.entrySet()) {
+        byte[] key = entry.getKey().getBytes(UTF_8);
+        int shared = 0;
+        int max = Math.min(previous.length, key.length);
+        while (shared < max && previous[shared] == key[shared]) {
+          shared++;
+        }
+        VarInt.putVarInt(shared, out);
+        VarInt.putVarInt(key.length - shared, out);
+        out.write(key, shared, key.length - shared);
+        Entry value = entry.getValue();
+        VarInt.putVarLong(value.durationMillis, out);
+        VarInt.putVarLong(value.remainingMillis, out);
+        VarInt.putVarInt(currentGeneration + 1 - value.lastUsed, out);
+        previous = key;
+      }
+      TreeMap<String, Long> mnemonics = new TreeMap<>(averageMillisByMnemonic);
+      out.writeInt(mnemonics.size());
+      for (Map.Entry<String, Long> mnemonic : mnemonics.entrySet()) {
+        byte[] name = mnemonic.getKey().getBytes(UTF_8);
+        VarInt.putVarInt(name.length, out);
+        out.write(name);
+        VarInt.putVarLong(mnemonic.getValue(), out);
+      }
+    }
+    tmpFile.renameTo(cacheFile);
+    generation = currentGeneration + 1;
+    return cacheFile.getFileSize();
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+}
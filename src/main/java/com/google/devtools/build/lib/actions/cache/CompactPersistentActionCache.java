@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.CompactStringIndexer;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.PersistentMap;
 import com.google.devtools.build.lib.util.StringIndexer;
 import com.google.devtools.build.lib.util.VarInt;
@@ -141,7 +142,7 @@ public class CompactPersistentActionCache implements ActionCache {
   public CompactPersistentActionCache(Path cacheRoot, Clock clock) throws IOException {
     Path cacheFile = cacheFile(cacheRoot);
     Path journalFile = journalFile(cacheRoot);
-    Path indexFile = cacheRoot.getChild("filename_index_v" + VERSION + ".blaze");
+    Path indexFile = cacheRoot.getChild("filename_index_" + version() + ".blaze");
     // we can now use normal hash map as backing map, since dependency checker
     // will manually purge records from the action cache.
     Map<Integer, byte[]> backingMap = new HashMap<>();
@@ -176,11 +177,11 @@ public class CompactPersistentActionCache implements ActionCache {
    */
   private static void renameCorruptedFiles(Path cacheRoot) {
     try {
-      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("action_*_v" + VERSION + ".*")
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("action_*_" + version() + ".*")
           .glob()) {
         path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
       }
-      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("filename_*_v" + VERSION + ".*")
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("filename_*_" + version() + ".*")
           .glob()) {
         path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
       }
@@ -213,12 +214,20 @@ public class CompactPersistentActionCache implements ActionCache {
 
   }
 
+  /**
+   * Returns the version in the names of the cache files. Action keys and the digests of inputs
+   * are computed with the default {@link Fingerprint} function, so it is part of the version.
+   */
+  private static String version() {
+    return "v" + VERSION + Fingerprint.getDefaultFunction().getVersionSuffix();
+  }
+
   public static Path cacheFile(Path cacheRoot) {
-    return cacheRoot.getChild("action_cache_v" + VERSION + ".blaze");
+    return cacheRoot.getChild("action_cache_" + version() + ".blaze");
   }
 
   public static Path journalFile(Path cacheRoot) {
-    return cacheRoot.getChild("action_journal_v" + VERSION + ".blaze");
+    return cacheRoot.getChild("action_journal_" + version() + ".blaze");
   }
 
   @Override
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.actions.cache;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -20,10 +21,12 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.LoggingUtil;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
@@ -32,8 +35,12 @@ import javax.annotation.Nullable;
  * Utility class for getting md5 digests of files.
  */
 public class DigestUtils {
-  // Object to synchronize on when serializing large file reads.
-  private static final Object MD5_LOCK = new Object();
+  // Bounds the number of large files read at the same time. Until configured, they are read one at
+  // a time.
+  private static volatile Semaphore largeReadPermits = new Semaphore(1, /*fair=*/true);
+
+  @Nullable
+  private static volatile PersistentDigestCache digestCache = null;
 
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
@@ -51,16 +58,42 @@ public class DigestUtils {
   }
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
-   * is not overloaded in case when multiple threads are requesting MD5
-   * calculations and underlying file system cannot provide it via extended
-   * attribute.
+   * Sets the number of files larger than 4096 bytes whose digests may be calculated at the same
+   * time, and the cache in which digests are looked up by file status before they are calculated.
+   * Unless a file system provides digests cheaply, digests of the inputs and outputs of a build
+   * are calculated by these methods, so a persistent cache spares a restarted server from reading
+   * every unchanged file again.
+   */
+  public static void configure(int maxConcurrentLargeReads,
+      @Nullable PersistentDigestCache cache) {
+    Preconditions.checkArgument(maxConcurrentLargeReads > 0);
+    if (largeReadPermits.availablePermits() != maxConcurrentLargeReads
+        || largeReadPermits.hasQueuedThreads()) {
+      largeReadPermits = new Semaphore(maxConcurrentLargeReads, /*fair=*/true);
+    }
+    digestCache = cache;
+  }
+
+  @VisibleForTesting
+  @Nullable
+  static PersistentDigestCache getDigestCache() {
+    return digestCache;
+  }
+
+  /**
+   * Obtain file's MD5 metadata while holding one of a bounded number of permits, ensuring that
+   * system is not overloaded in case when multiple threads are requesting MD5 calculations and
+   * underlying file system cannot provide it via extended attribute.
    */
-  private static byte[] getDigestInExclusiveMode(Path path) throws IOException {
+  private static byte[] getDigestWithPermit(Path path) throws IOException {
     long startTime = BlazeClock.nanoTime();
-    synchronized (MD5_LOCK) {
+    Semaphore permits = largeReadPermits;
+    permits.acquireUninterruptibly();
+    try {
       Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
       return getDigestInternal(path);
+    } finally {
+      permits.release();
     }
   }
 
@@ -95,8 +128,8 @@ public class DigestUtils {
    *
    * @param path Path of the file.
    * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * with bounded concurrency. Only a configured number of files larger than a certain threshold
+   * will be read at the same time, in order to avoid excessive disk seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize) throws IOException {
     // TODO(bazel-team): the action cache currently only works with md5 digests but it ought to
@@ -115,16 +148,33 @@ public class DigestUtils {
     }
     if (md5bin != null) {
       return md5bin;
-    } else if (fileSize > 4096) {
+    }
+
+    PersistentDigestCache cache = digestCache;
+    FileStatus stat = null;
+    long startTime = 0;
+    if (cache != null) {
+      stat = path.stat();
+      md5bin = cache.get(path, stat);
+      if (md5bin != null) {
+        return md5bin;
+      }
+      startTime = cache.now();
+    }
+    if (fileSize > 4096) {
       // We'll have to read file content in order to calculate the digest. In that case
-      // it would be beneficial to serialize those calculations since there is a high
-      // probability that MD5 will be requested for multiple output files simultaneously.
+      // it would be beneficial to limit the number of concurrent calculations since there is a
+      // high probability that MD5 will be requested for multiple output files simultaneously.
       // Exception is made for small (<=4K) files since they will not likely to introduce
       // significant delays (at worst they will result in two extra disk seeks by
       // interrupting other reads).
-      return getDigestInExclusiveMode(path);
+      md5bin = getDigestWithPermit(path);
     } else {
-      return getDigestInternal(path);
+      md5bin = getDigestInternal(path);
     }
+    if (cache != null) {
+      cache.put(path, stat, md5bin, startTime);
+    }
+    return md5bin;
   }
 }
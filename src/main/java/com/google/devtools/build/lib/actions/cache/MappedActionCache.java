@@ -0,0 +1,858 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An implementation of the ActionCache interface that keeps its entries in a memory-mapped,
+ * append-only log file and finds them through a memory-mapped open-addressing hash index.
+ *
+ * <p>Unlike {@link CompactPersistentActionCache}, nothing is read into the heap when the cache
+ * is opened: only the pages holding the index slots and entries that are actually looked up are
+ * faulted in. For the same reason file names are stored in each entry, prefix-compressed against
+ * the previous name, rather than through a {@link PersistentStringIndexer}, which would have to
+ * be loaded in full.
+ *
+ * <p>Every put or remove appends a record to the log and points the key's index slot at it;
+ * records are never modified in place. {@link #save} only flushes the dirty pages of both
+ * mappings. Records that were overwritten or removed are reclaimed by a compaction, which
+ * {@link #save} starts in the background once more than half of the log is garbage.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedActionCache implements ActionCache {
+  private static final Logger LOG = Logger.getLogger(MappedActionCache.class.getName());
+
+  private static final int VERSION = 1;
+
+  private static final long LOG_MAGIC = 0x4d41434c4f470000L;
+  private static final long INDEX_MAGIC = 0x4d414349445800L;
+
+  // Log header: magic, version, end of the last record, bytes and number of live records.
+  private static final int LOG_HEADER_SIZE = 40;
+  // Index header: magic, version, capacity, used slots, log end the index is in sync with.
+  private static final int INDEX_HEADER_SIZE = 40;
+
+  // Record: magic byte, key length, value length (-1 for a removal), key bytes, value bytes.
+  private static final byte RECORD_MAGIC = (byte) 0xac;
+  private static final int RECORD_HEADER_SIZE = 9;
+
+  // An index slot holds the top bits of the key hash above the offset of the key's latest record,
+  // so that most probes for other keys are rejected without touching the log. Zero is empty.
+  private static final int OFFSET_BITS = 40;
+  private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+  private static final int MIN_INDEX_CAPACITY = 1 << 10;
+  private static final int MAX_INDEX_CAPACITY = 1 << 27;
+
+  static final int DEFAULT_REGION_SIZE = 64 << 20;
+  private static final long MIN_COMPACTION_BYTES = 16L << 20;
+
+  /**
+   * An append-only file of records, mapped in fixed-size regions as it grows. Records may span
+   * regions.
+   */
+  private static final class MappedLog {
+    private final RandomAccessFile file;
+    private final int regionSize;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private long end;
+    private long liveBytes;
+    private long liveRecords;
+
+    private MappedLog(RandomAccessFile file, int regionSize) {
+      this.file = file;
+      this.regionSize = regionSize;
+    }
+
+    static MappedLog create(Path path, int regionSize) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(path.getPathFile(), "rw");
+      file.setLength(0);
+      MappedLog log = new MappedLog(file, regionSize);
+      log.ensureMapped(LOG_HEADER_SIZE);
+      log.regions.get(0).putLong(0, LOG_MAGIC);
+      log.regions.get(0).putLong(8, VERSION);
+      log.end = LOG_HEADER_SIZE;
+      log.writeHeader();
+      return log;
+    }
+
+    static MappedLog open(Path path, int regionSize) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(path.getPathFile(), "rw");
+      MappedLog log = new MappedLog(file, regionSize);
+      try {
+        long length = file.length();
+        if (length < LOG_HEADER_SIZE) {
+          throw new IOException(path + " is too short: Only " + length + " bytes");
+        }
+        log.ensureMapped(length);
+        ByteBuffer header = log.regions.get(0);
+        if (header.getLong(0) != LOG_MAGIC || header.getLong(8) != VERSION) {
+          throw new IOException("Unexpected format");
+        }
+        log.end = header.getLong(16);
+        log.liveBytes = header.getLong(24);
+        log.liveRecords = header.getLong(32);
+        if (log.end < LOG_HEADER_SIZE || log.end > length || log.liveBytes < 0
+            || log.liveBytes > log.end || log.liveRecords < 0) {
+          throw new IOException("Corrupted log header");
+        }
+        return log;
+      } catch (IOException e) {
+        log.close();
+        throw e;
+      }
+    }
+
+    private void ensureMapped(long size) throws IOException {
+      while ((long) regions.size() * regionSize < size) {
+        regions.add(file.getChannel().map(
+            MapMode.READ_WRITE, (long) regions.size() * regionSize, regionSize));
+      }
+    }
+
+    void writeHeader() {
+      ByteBuffer header = regions.get(0);
+      header.putLong(16, end);
+      header.putLong(24, liveBytes);
+      header.putLong(32, liveRecords);
+    }
+
+    private void read(long offset, byte[] dst) {
+      int done = 0;
+      while (done < dst.length) {
+        ByteBuffer region = regions.get((int) (offset / regionSize)).duplicate();
+        int position = (int) (offset % regionSize);
+        int length = Math.min(dst.length - done, regionSize - position);
+        region.position(position);
+        region.get(dst, done, length);
+        done += length;
+        offset += length;
+      }
+    }
+
+    private void write(long offset, byte[] src) {
+      int done = 0;
+      while (done < src.length) {
+        ByteBuffer region = regions.get((int) (offset / regionSize)).duplicate();
+        int position = (int) (offset % regionSize);
+        int length = Math.min(src.length - done, regionSize - position);
+        region.position(position);
+        region.put(src, done, length);
+        done += length;
+        offset += length;
+      }
+    }
+
+    /**
+     * Appends a record and returns its offset. The header is not updated.
+     */
+    long append(byte[] key, byte[] value) throws IOException {
+      int valueLength = value != null ? value.length : 0;
+      ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length + valueLength);
+      record.put(RECORD_MAGIC);
+      record.putInt(key.length);
+      record.putInt(value != null ? value.length : -1);
+      record.put(key);
+      if (value != null) {
+        record.put(value);
+      }
+      long offset = end;
+      if (offset + record.capacity() > OFFSET_MASK) {
+        throw new IOException("Action cache log is full");
+      }
+      ensureMapped(offset + record.capacity());
+      write(offset, record.array());
+      end += record.capacity();
+      return offset;
+    }
+
+    /**
+     * Returns the header of the record at the given offset, after checking that the whole record
+     * lies within the log.
+     */
+    private ByteBuffer recordHeader(long offset) throws IOException {
+      if (offset < LOG_HEADER_SIZE || offset + RECORD_HEADER_SIZE > end) {
+        throw new IOException("Record offset out of range: " + offset);
+      }
+      byte[] bytes = new byte[RECORD_HEADER_SIZE];
+      read(offset, bytes);
+      ByteBuffer header = ByteBuffer.wrap(bytes);
+      int keyLength = header.getInt(1);
+      int valueLength = header.getInt(5);
+      if (header.get(0) != RECORD_MAGIC || keyLength < 0 || valueLength < -1
+          || offset + RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0) > end) {
+        throw new IOException("Corrupted record at offset " + offset);
+      }
+      return header;
+    }
+
+    long recordSize(long offset) throws IOException {
+      ByteBuffer header = recordHeader(offset);
+      return RECORD_HEADER_SIZE + header.getInt(1) + Math.max(header.getInt(5), 0);
+    }
+
+    boolean isRemoval(long offset) throws IOException {
+      return recordHeader(offset).getInt(5) < 0;
+    }
+
+    byte[] readKey(long offset) throws IOException {
+      byte[] key = new byte[recordHeader(offset).getInt(1)];
+      read(offset + RECORD_HEADER_SIZE, key);
+      return key;
+    }
+
+    /**
+     * Returns the value of the record at the given offset, or null if it is a removal.
+     */
+    byte[] readValue(long offset) throws IOException {
+      ByteBuffer header = recordHeader(offset);
+      if (header.getInt(5) < 0) {
+        return null;
+      }
+      byte[] value = new byte[header.getInt(5)];
+      read(offset + RECORD_HEADER_SIZE + header.getInt(1), value);
+      return value;
+    }
+
+    void force() {
+      for (MappedByteBuffer region : regions) {
+        region.force();
+      }
+    }
+
+    void close() throws IOException {
+      // The mappings stay valid until they are garbage collected.
+      file.close();
+    }
+  }
+
+  /**
+   * An open-addressing hash table with linear probing, from key to the offset of its latest
+   * record in the log.
+   */
+  private static final class MappedIndex {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int used;
+
+    private MappedIndex(RandomAccessFile file, MappedByteBuffer buffer, int capacity) {
+      this.file = file;
+      this.buffer = buffer;
+      this.capacity = capacity;
+    }
+
+    static MappedIndex create(Path path, int capacity) throws IOException {
+      RandomAccessFile file = new RandomAccessFile(path.getPathFile(), "rw");
+      file.setLength(0);
+      MappedIndex index = new MappedIndex(file, file.getChannel().map(
+          MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE + 8L * capacity), capacity);
+      index.buffer.putLong(0, INDEX_MAGIC);
+      index.buffer.putLong(8, VERSION);
+      index.buffer.putLong(16, capacity);
+      return index;
+    }
+
+    /**
+     * Maps an existing index, or returns null if it is missing, unreadable, or not in sync with a
+     * log that ends at the given offset, in which case it must be rebuilt from the log.
+     */
+    static MappedIndex open(Path path, long logEnd) throws IOException {
+      if (!path.exists()) {
+        return null;
+      }
+      RandomAccessFile file = new RandomAccessFile(path.getPathFile(), "rw");
+      long length = file.length();
+      if (length >= INDEX_HEADER_SIZE) {
+        MappedByteBuffer buffer = file.getChannel().map(MapMode.READ_WRITE, 0, length);
+        long capacity = buffer.getLong(16);
+        if (buffer.getLong(0) == INDEX_MAGIC && buffer.getLong(8) == VERSION
+            && capacity >= MIN_INDEX_CAPACITY && capacity <= MAX_INDEX_CAPACITY
+            && Long.bitCount(capacity) == 1 && length == INDEX_HEADER_SIZE + 8 * capacity
+            && buffer.getLong(32) == logEnd) {
+          MappedIndex index = new MappedIndex(file, buffer, (int) capacity);
+          index.used = (int) buffer.getLong(24);
+          return index;
+        }
+      }
+      file.close();
+      return null;
+    }
+
+    long get(int slot) {
+      return buffer.getLong(INDEX_HEADER_SIZE + 8 * slot);
+    }
+
+    void set(int slot, long value) {
+      buffer.putLong(INDEX_HEADER_SIZE + 8 * slot, value);
+    }
+
+    /**
+     * Returns the slot holding the given key, or the empty slot where it would be inserted.
+     */
+    int find(MappedLog log, byte[] key, long hash) throws IOException {
+      int mask = capacity - 1;
+      for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+        long value = get(slot);
+        if (value == 0 || ((value >>> OFFSET_BITS) == (hash >>> OFFSET_BITS)
+            && Arrays.equals(key, log.readKey(value & OFFSET_MASK)))) {
+          return slot;
+        }
+      }
+    }
+
+    void writeHeader(long logEnd) {
+      buffer.putLong(24, used);
+      buffer.putLong(32, logEnd);
+    }
+
+    boolean isFull() {
+      return used * 2 > capacity;
+    }
+
+    void force() {
+      buffer.force();
+    }
+
+    void close() throws IOException {
+      file.close();
+    }
+  }
+
+  /**
+   * A log and the index over it. Only accessed with the cache lock held.
+   */
+  private static final class Store {
+    private final MappedLog log;
+    private MappedIndex index;
+    private Path indexPath;
+
+    private Store(MappedLog log, MappedIndex index, Path indexPath) {
+      this.log = log;
+      this.index = index;
+      this.indexPath = indexPath;
+    }
+
+    static Store create(Path logPath, Path indexPath, int regionSize, int capacity)
+        throws IOException {
+      return new Store(MappedLog.create(logPath, regionSize),
+          MappedIndex.create(indexPath, capacity), indexPath);
+    }
+
+    /**
+     * Opens an existing store, rebuilding the index by scanning the log if it is missing or out
+     * of date.
+     */
+    static Store open(Path logPath, Path indexPath, int regionSize) throws IOException {
+      MappedLog log = MappedLog.open(logPath, regionSize);
+      MappedIndex index = MappedIndex.open(indexPath, log.end);
+      if (index != null) {
+        return new Store(log, index, indexPath);
+      }
+      Store store = new Store(log, MappedIndex.create(indexPath, MIN_INDEX_CAPACITY), indexPath);
+      long end = log.end;
+      log.liveBytes = 0;
+      log.liveRecords = 0;
+      for (long offset = LOG_HEADER_SIZE; offset < end; ) {
+        long size;
+        try {
+          size = log.recordSize(offset);
+        } catch (IOException e) {
+          // A record that was being written when the server died; drop it and anything after it.
+          log.end = offset;
+          break;
+        }
+        byte[] key = log.readKey(offset);
+        store.link(key, hash(key), offset, size, log.isRemoval(offset));
+        offset += size;
+      }
+      log.writeHeader();
+      store.index.writeHeader(log.end);
+      return store;
+    }
+
+    /**
+     * Returns the offset of the key's live record, or -1 if it has none.
+     */
+    long lookup(byte[] key, long hash) throws IOException {
+      long value = index.get(index.find(log, key, hash));
+      if (value == 0 || log.isRemoval(value & OFFSET_MASK)) {
+        return -1;
+      }
+      return value & OFFSET_MASK;
+    }
+
+    /**
+     * Appends a record for the key and makes it the key's latest one. A null value removes the
+     * key.
+     */
+    void write(byte[] key, long hash, byte[] value) throws IOException {
+      long offset = log.append(key, value);
+      link(key, hash, offset, log.end - offset, value == null);
+    }
+
+    void remove(byte[] key, long hash) throws IOException {
+      if (lookup(key, hash) >= 0) {
+        write(key, hash, null);
+      }
+    }
+
+    private void link(byte[] key, long hash, long offset, long size, boolean removal)
+        throws IOException {
+      int slot = index.find(log, key, hash);
+      long previous = index.get(slot);
+      if (previous == 0) {
+        index.used++;
+      } else if (!log.isRemoval(previous & OFFSET_MASK)) {
+        log.liveBytes -= log.recordSize(previous & OFFSET_MASK);
+        log.liveRecords--;
+      }
+      if (!removal) {
+        log.liveBytes += size;
+        log.liveRecords++;
+      }
+      index.set(slot, (hash >>> OFFSET_BITS << OFFSET_BITS) | offset);
+      // The log header goes last, so that a crash in between leaves the index out of sync with it
+      // and gets it rebuilt on the next load.
+      index.writeHeader(log.end);
+      log.writeHeader();
+      if (index.isFull()) {
+        resizeIndex(index.capacity * 2);
+      }
+    }
+
+    private void resizeIndex(int capacity) throws IOException {
+      if (capacity > MAX_INDEX_CAPACITY) {
+        throw new IOException("Action cache index is full");
+      }
+      Path tempPath = indexPath.getParentDirectory().getChild(indexPath.getBaseName() + ".tmp");
+      MappedIndex resized = MappedIndex.create(tempPath, capacity);
+      for (int slot = 0; slot < index.capacity; slot++) {
+        long value = index.get(slot);
+        if (value != 0) {
+          byte[] key = log.readKey(value & OFFSET_MASK);
+          resized.set(resized.find(log, key, hash(key)), value);
+        }
+      }
+      resized.used = index.used;
+      resized.writeHeader(log.end);
+      tempPath.renameTo(indexPath);
+      index.close();
+      index = resized;
+    }
+
+    void renameTo(Path logPath, Path logTempPath, Path indexPath) throws IOException {
+      logTempPath.renameTo(logPath);
+      this.indexPath.renameTo(indexPath);
+      this.indexPath = indexPath;
+    }
+
+    void force() {
+      log.force();
+      index.force();
+    }
+
+    long size() {
+      return log.end + INDEX_HEADER_SIZE + 8L * index.capacity;
+    }
+
+    void close() throws IOException {
+      log.close();
+      index.close();
+    }
+  }
+
+  private final Path logPath;
+  private final Path indexPath;
+  private final int regionSize;
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("action-cache-compactor").setDaemon(true).build());
+
+  private Store store;
+  private boolean compacting;
+
+  /**
+   * If non-null, contains the message from an {@code IOException} thrown by a previously failed
+   * write. This error is deferred until the next call to {@link #save}.
+   */
+  private String deferredIOFailure;
+
+  public MappedActionCache(Path cacheRoot) throws IOException {
+    this(cacheRoot, DEFAULT_REGION_SIZE);
+  }
+
+  @VisibleForTesting
+  MappedActionCache(Path cacheRoot, int regionSize) throws IOException {
+    Preconditions.checkArgument(regionSize >= LOG_HEADER_SIZE, regionSize);
+    this.logPath = cacheFile(cacheRoot);
+    this.indexPath = indexFile(cacheRoot);
+    this.regionSize = regionSize;
+    try {
+      FileSystemUtils.createDirectoryAndParents(cacheRoot);
+      store = logPath.exists()
+          ? Store.open(logPath, indexPath, regionSize)
+          : Store.create(logPath, indexPath, regionSize, MIN_INDEX_CAPACITY);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+  }
+
+  /**
+   * Rename corrupted files so they could be analyzed later. This would also ensure
+   * that next initialization attempt will create empty cache.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    try {
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("mapped_action_*_" + version() + ".*")
+          .glob()) {
+        path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  /**
+   * Returns the version in the names of the cache files. Action keys and the digests of inputs
+   * are computed with the default {@link Fingerprint} function, so it is part of the version.
+   */
+  private static String version() {
+    return "v" + VERSION + Fingerprint.getDefaultFunction().getVersionSuffix();
+  }
+
+  public static Path cacheFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_log_" + version() + ".blaze");
+  }
+
+  public static Path indexFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_index_" + version() + ".blaze");
+  }
+
+  private static Path compactionFile(Path path) {
+    return FileSystemUtils.replaceExtension(path, ".compact");
+  }
+
+  private static long hash(byte[] key) {
+    return Hashing.murmur3_128().hashBytes(key).asLong();
+  }
+
+  @Override
+  public ActionCache.Entry createEntry(String key) {
+    return new ActionCache.Entry(key);
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    long hash = hash(keyBytes);
+    byte[] data;
+    try {
+      synchronized (this) {
+        long offset = store.lookup(keyBytes, hash);
+        data = offset >= 0 ? store.log.readValue(offset) : null;
+      }
+      return data != null ? decode(data) : null;
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return CompactPersistentActionCache.CORRUPTED;
+    }
+  }
+
+  @Override
+  public void put(String key, ActionCache.Entry entry) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    long hash = hash(keyBytes);
+    byte[] content = encode(entry);
+    synchronized (this) {
+      try {
+        store.write(keyBytes, hash, content);
+      } catch (IOException e) {
+        deferredIOFailure = e.getMessage() + " during action cache write";
+      }
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    long hash = hash(keyBytes);
+    synchronized (this) {
+      try {
+        store.remove(keyBytes, hash);
+      } catch (IOException e) {
+        deferredIOFailure = e.getMessage() + " during action cache write";
+      }
+    }
+  }
+
+  @Override
+  public synchronized long save() throws IOException {
+    if (deferredIOFailure != null) {
+      try {
+        throw new IOException(deferredIOFailure);
+      } finally {
+        deferredIOFailure = null;
+      }
+    }
+    store.force();
+    if (!compacting && store.log.end >= MIN_COMPACTION_BYTES
+        && store.log.liveBytes * 2 < store.log.end) {
+      compacting = true;
+      compactor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            compact();
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to compact action cache", e);
+          }
+        }
+      });
+    }
+    return store.size();
+  }
+
+  /**
+   * Rewrites the live records into a new log and index, then switches to them.
+   *
+   * <p>The records that are in the log when the compaction starts are copied one at a time, each
+   * under the cache lock, so that lookups and updates can proceed in between. The records
+   * appended meanwhile are then replayed in order, and the new files replace the old ones, with
+   * the lock held throughout.
+   */
+  @VisibleForTesting
+  void compact() throws IOException {
+    Path logTempPath = compactionFile(logPath);
+    Path indexTempPath = compactionFile(indexPath);
+    Store old;
+    long snapshotEnd;
+    int capacity;
+    synchronized (this) {
+      compacting = true;
+      old = store;
+      snapshotEnd = old.log.end;
+      capacity = MIN_INDEX_CAPACITY;
+      while (capacity < MAX_INDEX_CAPACITY && old.log.liveRecords * 2 > capacity) {
+        capacity *= 2;
+      }
+    }
+    Store compacted = null;
+    try {
+      compacted = Store.create(logTempPath, indexTempPath, regionSize, capacity);
+      for (long offset = LOG_HEADER_SIZE; offset < snapshotEnd; ) {
+        synchronized (this) {
+          byte[] key = old.log.readKey(offset);
+          long hash = hash(key);
+          if (old.lookup(key, hash) == offset) {
+            compacted.write(key, hash, old.log.readValue(offset));
+          }
+          offset += old.log.recordSize(offset);
+        }
+      }
+      synchronized (this) {
+        for (long offset = snapshotEnd; offset < old.log.end; offset += old.log.recordSize(offset)) {
+          byte[] key = old.log.readKey(offset);
+          long hash = hash(key);
+          byte[] value = old.log.readValue(offset);
+          if (value != null) {
+            compacted.write(key, hash, value);
+          } else {
+            compacted.remove(key, hash);
+          }
+        }
+        compacted.force();
+        compacted.renameTo(logPath, logTempPath, indexPath);
+        store = compacted;
+        compacted = null;
+        old.close();
+      }
+    } finally {
+      synchronized (this) {
+        compacting = false;
+      }
+      if (compacted != null) {
+        compacted.close();
+        logTempPath.delete();
+        indexTempPath.delete();
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("Action cache (" + store.log.liveRecords + " records):\n");
+    int size = store.log.liveRecords > 1000 ? 10 : (int) store.log.liveRecords;
+    int ct = 0;
+    try {
+      for (long offset = LOG_HEADER_SIZE; offset < store.log.end;
+          offset += store.log.recordSize(offset)) {
+        byte[] key = store.log.readKey(offset);
+        if (store.lookup(key, hash(key)) != offset) {
+          continue;
+        }
+        byte[] data = store.log.readValue(offset);
+        builder.append("-> ").append(new String(key, UTF_8)).append("\n")
+            .append(decodeToString(data)).append("  packed_len = ").append(data.length)
+            .append("\n");
+        if (++ct > size) {
+          builder.append("...");
+          break;
+        }
+      }
+    } catch (IOException e) {
+      builder.append(e).append("\n");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Dumps action cache content.
+   */
+  @Override
+  public synchronized void dump(PrintStream out) {
+    out.println("Action cache (" + store.log.liveRecords + " records, " + store.log.liveBytes
+        + " of " + store.log.end + " log bytes live):\n");
+    try {
+      for (long offset = LOG_HEADER_SIZE; offset < store.log.end;
+          offset += store.log.recordSize(offset)) {
+        byte[] key = store.log.readKey(offset);
+        if (store.lookup(key, hash(key)) != offset) {
+          continue;
+        }
+        byte[] data = store.log.readValue(offset);
+        out.println(offset + ", " + new String(key, UTF_8) + ":\n" + decodeToString(data)
+            + "\n      packed_len = " + data.length + "\n");
+      }
+    } catch (IOException e) {
+      out.println(e);
+    }
+  }
+
+  private static String decodeToString(byte[] data) {
+    try {
+      return decode(data).toString();
+    } catch (IOException e) {
+      return e + "\n";
+    }
+  }
+
+  /**
+   * @return action data encoded as a byte[] array.
+   */
+  private static byte[] encode(ActionCache.Entry entry) {
+    Preconditions.checkState(!entry.isCorrupted());
+
+    try {
+      byte[] actionKeyBytes = entry.getActionKey().getBytes(ISO_8859_1);
+      Collection<String> files = entry.getPaths();
+      ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+      VarInt.putVarInt(actionKeyBytes.length, sink);
+      sink.write(actionKeyBytes);
+
+      entry.getFileDigest().write(sink);
+
+      // Each file name is stored as the length of the prefix it shares with the previous one,
+      // followed by the rest of it.
+      VarInt.putVarInt(files.size(), sink);
+      byte[] previous = new byte[0];
+      for (String file : files) {
+        byte[] bytes = file.getBytes(UTF_8);
+        int shared = 0;
+        int max = Math.min(previous.length, bytes.length);
+        while (shared < max && previous[shared] == bytes[shared]) {
+          shared++;
+        }
+        VarInt.putVarInt(shared, sink);
+        VarInt.putVarInt(bytes.length - shared, sink);
+        sink.write(bytes, shared, bytes.length - shared);
+        previous = bytes;
+      }
+      return sink.toByteArray();
+    } catch (IOException e) {
+      // This Exception can never be thrown by ByteArrayOutputStream.
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Creates new action cache entry using given encoded entry data.
+   */
+  private static ActionCache.Entry decode(byte[] data) throws IOException {
+    try {
+      ByteBuffer source = ByteBuffer.wrap(data);
+
+      byte[] actionKeyBytes = new byte[VarInt.getVarInt(source)];
+      source.get(actionKeyBytes);
+      String actionKey = new String(actionKeyBytes, ISO_8859_1);
+
+      Digest digest = Digest.read(source);
+
+      int count = VarInt.getVarInt(source);
+      ImmutableList.Builder<String> builder = new ImmutableList.Builder<>();
+      byte[] previous = new byte[0];
+      for (int i = 0; i < count; i++) {
+        int shared = VarInt.getVarInt(source);
+        int rest = VarInt.getVarInt(source);
+        if (shared < 0 || shared > previous.length || rest < 0 || rest > source.remaining()) {
+          throw new IOException("Corrupted file name");
+        }
+        byte[] bytes = Arrays.copyOf(previous, shared + rest);
+        source.get(bytes, shared, rest);
+        builder.add(new String(bytes, UTF_8));
+        previous = bytes;
+      }
+      if (source.remaining() > 0) {
+        throw new IOException("serialized entry data has not been fully decoded");
+      }
+      return new Entry(actionKey, builder.build(), digest);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("encoded entry data is incomplete", e);
+    }
+  }
+}
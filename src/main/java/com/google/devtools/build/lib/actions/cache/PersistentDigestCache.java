@@ -0,0 +1,271 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the digests of files by path, along with the inode number, modification time, change
+ * time and size the file had when it was digested, and persists them in the output base so that
+ * a restarted server doesn't have to digest unchanged files again. A digest is only returned for
+ * a file whose status still matches in all of those.
+ *
+ * <p>Only digests of files that were last changed before digesting started are saved; for a file
+ * that was being written while it was digested, the status alone can't tell whether the digest is
+ * of the final contents. As file systems round timestamps down, to as much as two seconds on FAT,
+ * a file counts as changed before digesting started only if its timestamps are at least
+ * {@link #TIMESTAMP_GRANULARITY_MILLIS} older; otherwise a later write in the same tick would
+ * leave them unchanged. Entries that weren't used for {@link #MAX_UNUSED_SAVES} saves are dropped.
+ *
+ * <p>The file holds the entries sorted by path, each path stored as the length of the prefix it
+ * shares with the previous one and the rest.
+ */
+@ThreadSafe
+public final class PersistentDigestCache {
+  private static final int VERSION = 1;
+  private static final long MAGIC = 0x4d44354341434845L;
+
+  @VisibleForTesting
+  static final int MAX_UNUSED_SAVES = 10;
+
+  // The coarsest timestamp granularity of the file systems that files are digested on.
+  @VisibleForTesting
+  static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+  private static final class Entry {
+    private final long nodeId;
+    private final long modifiedTime;
+    private final long changeTime;
+    private final long size;
+    private final byte[] digest;
+    private final boolean settled;
+    private volatile int lastUsed;
+
+    private Entry(long nodeId, long modifiedTime, long changeTime, long size, byte[] digest,
+        boolean settled, int lastUsed) {
+      this.nodeId = nodeId;
+      this.modifiedTime = modifiedTime;
+      this.changeTime = changeTime;
+      this.size = size;
+      this.digest = digest;
+      this.settled = settled;
+      this.lastUsed = lastUsed;
+    }
+
+    private boolean matches(long nodeId, long modifiedTime, long changeTime, long size) {
+      return this.nodeId == nodeId && this.modifiedTime == modifiedTime
+          && this.changeTime == changeTime && this.size == size;
+    }
+  }
+
+  private final Path cacheFile;
+  private final Clock clock;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile int generation;
+  private volatile boolean dirty;
+
+  /**
+   * Loads the cache from the given directory, or creates an empty one if there is no cache file.
+   *
+   * @throws IOException if the cache file can't be read; a corrupted file is renamed to
+   *     {@code *.bad}, so that the next attempt starts with an empty cache
+   */
+  public PersistentDigestCache(Path cacheRoot, Clock clock) throws IOException {
+    this.cacheFile = cacheFile(cacheRoot);
+    this.clock = clock;
+    if (cacheFile.exists()) {
+      try {
+        load(ByteBuffer.wrap(FileSystemUtils.readContent(cacheFile)));
+      } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+        entries.clear();
+        cacheFile.renameTo(cacheRoot.getChild(cacheFile.getBaseName() + ".bad"));
+        throw new IOException("Failed to load digest cache data", e);
+      }
+    }
+  }
+
+  public static Path cacheFile(Path cacheRoot) {
+    return cacheRoot.getChild("digest_cache_v" + VERSION + ".blaze");
+  }
+
+  private void load(ByteBuffer buffer) throws IOException {
+    if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+      throw new IOException("Unexpected format");
+    }
+    generation = buffer.getInt();
+    int count = buffer.getInt();
+    byte[] previous = new byte[0];
+    for (int i = 0; i < count; i++) {
+      int shared = VarInt.getVarInt(buffer);
+      int rest = VarInt.getVarInt(buffer);
+      byte[] path = new byte[shared + rest];
+      System.arraycopy(previous, 0, path, 0, shared);
+      buffer.get(path, shared, rest);
+      long nodeId = buffer.getLong();
+      long modifiedTime = buffer.getLong();
+      long changeTime = buffer.getLong();
+      long size = buffer.getLong();
+      int lastUsed = generation - VarInt.getVarInt(buffer);
+      byte[] digest = new byte[VarInt.getVarInt(buffer)];
+      buffer.get(digest);
+      entries.put(new String(path, UTF_8),
+          new Entry(nodeId, modifiedTime, changeTime, size, digest, true, lastUsed));
+      previous = path;
+    }
+    if (buffer.hasRemaining()) {
+      throw new IOException("Trailing data");
+    }
+  }
+
+  /**
+   * Returns the digest of the file at {@code path}, or null if it is not in the cache or {@code
+   * stat} shows that it changed since it was digested.
+   */
+  @Nullable
+  public byte[] get(Path path, FileStatus stat) throws IOException {
+    Entry entry = entries.get(path.getPathString());
+    if (entry == null) {
+      return null;
+    }
+    try {
+      if (!entry.matches(stat.getNodeId(), stat.getLastModifiedTime(), stat.getLastChangeTime(),
+          stat.getSize())) {
+        return null;
+      }
+    } catch (UnsupportedOperationException e) {
+      return null;
+    }
+    if (entry.lastUsed != generation) {
+      entry.lastUsed = generation;
+      dirty |= entry.settled;
+    }
+    return entry.digest;
+  }
+
+  /**
+   * Records the digest of the file at {@code path}, whose status before it was digested was
+   * {@code stat}.
+   *
+   * @param digestStartTime the time in milliseconds at which digesting started
+   */
+  public void put(Path path, FileStatus stat, byte[] digest, long digestStartTime)
+      throws IOException {
+    Entry entry;
+    try {
+      long changeTime = stat.getLastChangeTime();
+      long modifiedTime = stat.getLastModifiedTime();
+      long settledBefore = digestStartTime - TIMESTAMP_GRANULARITY_MILLIS;
+      boolean settled = changeTime < settledBefore && modifiedTime < settledBefore;
+      entry = new Entry(stat.getNodeId(), modifiedTime, changeTime, stat.getSize(), digest,
+          settled, generation);
+    } catch (UnsupportedOperationException e) {
+      // The file system can't tell whether a file was replaced, so nothing can be cached.
+      return;
+    }
+    entries.put(path.getPathString(), entry);
+    dirty |= entry.settled;
+  }
+
+  /**
+   * Writes the cache to disk, if anything was added or used since it was loaded or last saved.
+   * Entries of files that were changed while they were digested aren't written, nor are ones
+   * that weren't used for {@link #MAX_UNUSED_SAVES} saves.
+   *
+   * @return the size of the cache file in bytes
+   */
+  public long save() throws IOException {
+    if (!dirty) {
+      return cacheFile.exists() ? cacheFile.getFileSize() : 0;
+    }
+    dirty = false;
+    int currentGeneration = generation;
+    // The iteration is weakly consistent, so concurrent updates are either saved or not.
+    TreeMap<String, Entry> sorted = new TreeMap<>();
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      Entry value = entry.getValue();
+      if (currentGeneration - value.lastUsed >= MAX_UNUSED_SAVES) {
+        entries.remove(entry.getKey(), value);
+      } else if (value.settled) {
+        sorted.put(entry.getKey(), value);
+      }
+    }
+
+    Path tmpFile = cacheFile.getParentDirectory().getChild(cacheFile.getBaseName() + ".tmp");
+    FileSystemUtils.createDirectoryAndParents(cacheFile.getParentDirectory());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tmpFile.getOutputStream()))) {
+      out.writeLong(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(currentGeneration + 1);
+      out.writeInt(sorted.size());
+      byte[] previous = new byte[0];
+      for (Map.Entry<String, Entry> entry : sorted.entrySet()) {
+        byte[] path = entry.getKey().getBytes(UTF_8);
+        int shared = 0;
+        int max = Math.min(previous.length, path.length);
+        while (shared < max && previous[shared] == path[shared]) {
+          shared++;
+        }
+        VarInt.putVarInt(shared, out);
+        VarInt.putVarInt(path.length - shared, out);
+        out.write(path, shared, path.length - shared);
+        Entry value = entry.getValue();
+        out.writeLong(value.nodeId);
+        out.writeLong(value.modifiedTime);
+        out.writeLong(value.changeTime);
+        out.writeLong(value.size);
+        VarInt.putVarInt(currentGeneration + 1 - value.lastUsed, out);
+        VarInt.putVarInt(value.digest.length, out);
+        out.write(value.digest);
+        previous = path;
+      }
+    }
+    tmpFile.renameTo(cacheFile);
+    generation = currentGeneration + 1;
+    return cacheFile.getFileSize();
+  }
+
+  /**
+   * Returns the current time in milliseconds, to be passed to {@link #put} as the time digesting
+   * started.
+   */
+  public long now() {
+    return clock.currentTimeMillis();
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+}
@@ -191,6 +191,15 @@ public class BuildView {
             help = "Only schedules extra_actions for top level targets.")
     public boolean extraActionTopLevelOnly;
 
+    @Option(name = "experimental_nested_set_expansion_cache",
+            defaultValue = "false",
+            category = "experimental",
+            help = "Keeps the expanded form of large stable and compile order nested sets, such as "
+                + "Java classpaths, and expands nested sets starting from the kept expansion of "
+                + "their first nested set. Uses more memory, which is given back under memory "
+                + "pressure.")
+    public boolean nestedSetExpansionCache;
+
     @Option(name = "version_window_for_dirty_node_gc",
             defaultValue = "0",
             category = "undocumented",
@@ -19,6 +19,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
+import com.google.devtools.build.lib.util.Fingerprint;
 
 /**
  * A representation of a command line to be executed by a SpawnAction.
@@ -29,6 +31,27 @@ public abstract class CommandLine {
    */
   public abstract Iterable<String> arguments();
 
+  /**
+   * Passes the arguments of the command line to {@code receiver} one by one, in the same order as
+   * {@link #arguments}. Command lines that can produce their arguments without building a list of
+   * all of them first override this, so that writing or fingerprinting them does not need one.
+   */
+  public void visitArguments(Receiver<String> receiver) {
+    for (String argument : arguments()) {
+      receiver.accept(argument);
+    }
+  }
+
+  /**
+   * Adds the arguments of the command line to {@code fingerprint}, using
+   * {@link #visitArguments}. Each argument is preceded by {@code true} and the last one is
+   * followed by {@code false}, so that the arguments can't run into whatever is added next.
+   */
+  public final void addToFingerprint(Fingerprint fingerprint) {
+    visitArguments(new FingerprintReceiver(fingerprint));
+    fingerprint.addBoolean(false);
+  }
+
   /**
    * Returns whether the command line represents a shell command with the given shell executable.
    * This is used to give better error messages.
@@ -88,6 +111,14 @@ public abstract class CommandLine {
         return Iterables.concat(executableArgs, commandLine.arguments());
       }
 
+      @Override
+      public void visitArguments(Receiver<String> receiver) {
+        for (String argument : executableArgs) {
+          receiver.accept(argument);
+        }
+        commandLine.visitArguments(receiver);
+      }
+
       @Override
       public boolean isShellCommand() {
         return isShellCommand;
@@ -109,6 +140,13 @@ public abstract class CommandLine {
         }
         return builder.build();
       }
+
+      @Override
+      public void visitArguments(Receiver<String> receiver) {
+        for (CharSequence arg : arguments) {
+          receiver.accept(arg.toString());
+        }
+      }
     };
   }
 
@@ -120,4 +158,18 @@ public abstract class CommandLine {
   public String toString() {
     return Joiner.on(' ').join(arguments());
   }
+
+  private static final class FingerprintReceiver implements Receiver<String> {
+    private final Fingerprint fingerprint;
+
+    private FingerprintReceiver(Fingerprint fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public void accept(String argument) {
+      fingerprint.addBoolean(true);
+      fingerprint.addString(argument);
+    }
+  }
 }
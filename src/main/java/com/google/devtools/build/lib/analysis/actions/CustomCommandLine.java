@@ -19,6 +19,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.collect.CollectionUtils;
 import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -33,7 +34,7 @@ import java.util.List;
 public final class CustomCommandLine extends CommandLine {
 
   private abstract static class ArgvFragment {
-    abstract void eval(ImmutableList.Builder<String> builder);
+    abstract void eval(Receiver<String> receiver);
   }
 
   // It's better to avoid anonymous classes if we want to serialize command lines
@@ -46,8 +47,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(arg.toString());
+    void eval(Receiver<String> receiver) {
+      receiver.accept(arg.toString());
     }
   }
 
@@ -62,8 +63,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Artifact.joinExecPaths(delimiter, artifacts));
+    void eval(Receiver<String> receiver) {
+      receiver.accept(Artifact.joinExecPaths(delimiter, artifacts));
     }
   }
 
@@ -78,9 +79,9 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
+    void eval(Receiver<String> receiver) {
       // PathFragment.toString() uses getPathString()
-      builder.add(String.format(template, (Object[]) paths));
+      receiver.accept(String.format(template, (Object[]) paths));
     }
   }
 
@@ -93,8 +94,8 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(argv());
+    void eval(Receiver<String> receiver) {
+      receiver.accept(argv());
     }
 
     public abstract String argv();
@@ -106,8 +107,10 @@ public final class CustomCommandLine extends CommandLine {
   public abstract static class CustomMultiArgv extends ArgvFragment {
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.addAll(argv());
+    void eval(Receiver<String> receiver) {
+      for (String arg : argv()) {
+        receiver.accept(arg);
+      }
     }
 
     public abstract Iterable<String> argv();
@@ -124,8 +127,8 @@ public final class CustomCommandLine extends CommandLine {
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      builder.add(Joiner.on(delimiter).join(paths));
+    void eval(Receiver<String> receiver) {
+      receiver.accept(Joiner.on(delimiter).join(paths));
     }
   }
 
@@ -145,6 +148,7 @@ public final class CustomCommandLine extends CommandLine {
    */
   private static final class InterspersingArgs extends ArgvFragment {
     private final Iterable<?> sequence;
+    private final boolean execPaths;
     private final String beforeEach;
     private final String formatEach;
 
@@ -152,8 +156,10 @@ public final class CustomCommandLine extends CommandLine {
      * Do not call from outside this class because this does not guarantee that {@code sequence} is
      * immutable.
      */
-    private InterspersingArgs(Iterable<?> sequence, String beforeEach, String formatEach) {
+    private InterspersingArgs(Iterable<?> sequence, boolean execPaths, String beforeEach,
+        String formatEach) {
       this.sequence = sequence;
+      this.execPaths = execPaths;
       this.beforeEach = beforeEach;
       this.formatEach = formatEach;
     }
@@ -161,31 +167,57 @@ public final class CustomCommandLine extends CommandLine {
     static InterspersingArgs fromStrings(
         Iterable<?> sequence, String beforeEach, String formatEach) {
       return new InterspersingArgs(
-          CollectionUtils.makeImmutable(sequence), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), false, beforeEach, formatEach);
     }
 
+    /**
+     * Middleman artifacts are skipped, like in {@link Artifact#toExecPaths}.
+     */
     static InterspersingArgs fromExecPaths(
         Iterable<Artifact> sequence, String beforeEach, String formatEach) {
       return new InterspersingArgs(
-          Artifact.toExecPaths(CollectionUtils.makeImmutable(sequence)), beforeEach, formatEach);
+          CollectionUtils.makeImmutable(sequence), true, beforeEach, formatEach);
     }
 
     @Override
-    void eval(ImmutableList.Builder<String> builder) {
-      for (Object item : sequence) {
-        if (item == null) {
-          continue;
+    void eval(final Receiver<String> receiver) {
+      // Nested sets are visited rather than iterated over, which would flatten them into a list.
+      if (sequence instanceof NestedSet) {
+        ((NestedSet<?>) sequence).forEachElement(new Receiver<Object>() {
+          @Override
+          public void accept(Object item) {
+            eval(item, receiver);
+          }
+        });
+      } else {
+        for (Object item : sequence) {
+          eval(item, receiver);
         }
+      }
+    }
 
-        if (beforeEach != null) {
-          builder.add(beforeEach);
-        }
-        String arg = item.toString();
-        if (formatEach != null) {
-          arg = String.format(formatEach, arg);
+    private void eval(Object item, Receiver<String> receiver) {
+      if (item == null) {
+        return;
+      }
+
+      String arg;
+      if (execPaths) {
+        Artifact artifact = (Artifact) item;
+        if (artifact.isMiddlemanArtifact()) {
+          return;
         }
-        builder.add(arg);
+        arg = artifact.getExecPathString();
+      } else {
+        arg = item.toString();
       }
+      if (beforeEach != null) {
+        receiver.accept(beforeEach);
+      }
+      if (formatEach != null) {
+        arg = String.format(formatEach, arg);
+      }
+      receiver.accept(arg);
     }
   }
 
@@ -226,14 +258,16 @@ public final class CustomCommandLine extends CommandLine {
     public Builder add(String arg, Iterable<String> args) {
       if (arg != null && args != null) {
         arguments.add(new ObjectArg(arg));
-        arguments.add(InterspersingArgs.fromStrings(args, /*beforeEach=*/null, "%s"));
+        arguments.add(
+            InterspersingArgs.fromStrings(args, /*beforeEach=*/null, /*formatEach=*/null));
       }
       return this;
     }
 
     public Builder add(Iterable<String> args) {
       if (args != null) {
-        arguments.add(InterspersingArgs.fromStrings(args, /*beforeEach=*/null, "%s"));
+        arguments.add(
+            InterspersingArgs.fromStrings(args, /*beforeEach=*/null, /*formatEach=*/null));
       }
       return this;
     }
@@ -249,14 +283,16 @@ public final class CustomCommandLine extends CommandLine {
     public Builder addExecPaths(String arg, Iterable<Artifact> artifacts) {
       if (arg != null && artifacts != null) {
         arguments.add(new ObjectArg(arg));
-        arguments.add(InterspersingArgs.fromExecPaths(artifacts, /*beforeEach=*/null, "%s"));
+        arguments.add(
+            InterspersingArgs.fromExecPaths(artifacts, /*beforeEach=*/null, /*formatEach=*/null));
       }
       return this;
     }
 
     public Builder addExecPaths(Iterable<Artifact> artifacts) {
       if (artifacts != null) {
-        arguments.add(InterspersingArgs.fromExecPaths(artifacts, /*beforeEach=*/null, "%s"));
+        arguments.add(
+            InterspersingArgs.fromExecPaths(artifacts, /*beforeEach=*/null, /*formatEach=*/null));
       }
       return this;
     }
@@ -292,21 +328,21 @@ public final class CustomCommandLine extends CommandLine {
 
     public Builder addBeforeEachPath(String repeated, Iterable<PathFragment> paths) {
       if (repeated != null && paths != null) {
-        arguments.add(InterspersingArgs.fromStrings(paths, repeated, "%s"));
+        arguments.add(InterspersingArgs.fromStrings(paths, repeated, /*formatEach=*/null));
       }
       return this;
     }
 
     public Builder addBeforeEach(String repeated, Iterable<String> strings) {
       if (repeated != null && strings != null) {
-        arguments.add(InterspersingArgs.fromStrings(strings, repeated, "%s"));
+        arguments.add(InterspersingArgs.fromStrings(strings, repeated, /*formatEach=*/null));
       }
       return this;
     }
 
     public Builder addBeforeEachExecPath(String repeated, Iterable<Artifact> artifacts) {
       if (repeated != null && artifacts != null) {
-        arguments.add(InterspersingArgs.fromExecPaths(artifacts, repeated, "%s"));
+        arguments.add(InterspersingArgs.fromExecPaths(artifacts, repeated, /*formatEach=*/null));
       }
       return this;
     }
@@ -349,10 +385,20 @@ public final class CustomCommandLine extends CommandLine {
 
   @Override
   public Iterable<String> arguments() {
-    ImmutableList.Builder<String> builder = ImmutableList.builder();
+    final ImmutableList.Builder<String> builder = ImmutableList.builder();
+    visitArguments(new Receiver<String>() {
+      @Override
+      public void accept(String arg) {
+        builder.add(arg);
+      }
+    });
+    return builder.build();
+  }
+
+  @Override
+  public void visitArguments(Receiver<String> receiver) {
     for (ArgvFragment arg : arguments) {
-      arg.eval(builder);
+      arg.eval(receiver);
     }
-    return builder.build();
   }
 }
@@ -20,13 +20,16 @@ import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.ShellEscaper;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 
 /**
@@ -74,10 +77,10 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
       public void writeOutputFile(OutputStream out) throws IOException {
         switch (type) {
           case SHELL_QUOTED :
-            writeContentQuoted(out);
+            writeContent(out, true);
             break;
           case UNQUOTED :
-            writeContentUnquoted(out);
+            writeContent(out, false);
             break;
           default :
             throw new AssertionError();
@@ -87,28 +90,16 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
   }
 
   /**
-   * Writes the arguments from the list into the parameter file.
+   * Writes the arguments into the parameter file, with shell quoting (if required) if
+   * {@code quoted} is set. The arguments are written one by one as the command line produces
+   * them, so that the list of all arguments is not needed.
    */
-  private void writeContentUnquoted(OutputStream outputStream) throws IOException {
-    OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : commandLine.arguments()) {
-      out.write(line);
-      out.write('\n');
-    }
-    out.flush();
-  }
-
-  /**
-   * Writes the arguments from the list into the parameter file with shell
-   * quoting (if required).
-   */
-  private void writeContentQuoted(OutputStream outputStream) throws IOException {
-    OutputStreamWriter out = new OutputStreamWriter(outputStream, charset);
-    for (String line : ShellEscaper.escapeAll(commandLine.arguments())) {
-      out.write(line);
-      out.write('\n');
-    }
-    out.flush();
+  private void writeContent(OutputStream outputStream, boolean quoted) throws IOException {
+    // Unlike an OutputStreamWriter, a BufferedWriter does not copy every string it writes.
+    LineWriter writer = new LineWriter(
+        new BufferedWriter(new OutputStreamWriter(outputStream, charset)), quoted);
+    commandLine.visitArguments(writer);
+    writer.flush();
   }
 
   @Override
@@ -116,7 +107,43 @@ public final class ParameterFileWriteAction extends AbstractFileWriteAction {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
     f.addString(String.valueOf(makeExecutable));
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
+
+  /**
+   * Writes every argument it receives on its own line. Since a receiver cannot throw an
+   * {@link IOException}, the first one is kept, the remaining arguments are dropped, and it is
+   * thrown by {@link #flush}.
+   */
+  private static final class LineWriter implements Receiver<String> {
+    private final Writer out;
+    private final boolean quoted;
+    private IOException error = null;
+
+    private LineWriter(Writer out, boolean quoted) {
+      this.out = out;
+      this.quoted = quoted;
+    }
+
+    @Override
+    public void accept(String argument) {
+      if (error != null) {
+        return;
+      }
+      try {
+        out.write(quoted ? ShellEscaper.escapeString(argument) : argument);
+        out.write('\n');
+      } catch (IOException e) {
+        error = e;
+      }
+    }
+
+    private void flush() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+      out.flush();
+    }
+  }
 }
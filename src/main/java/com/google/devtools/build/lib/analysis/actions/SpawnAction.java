@@ -34,6 +34,7 @@ import com.google.devtools.build.lib.actions.BaseSpawn;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
+import com.google.devtools.build.lib.actions.RemotableAction;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
@@ -64,7 +65,7 @@ import javax.annotation.CheckReturnValue;
 /**
  * An Action representing an arbitrary subprocess to be forked and exec'd.
  */
-public class SpawnAction extends AbstractAction {
+public class SpawnAction extends AbstractAction implements RemotableAction {
   private static class ExtraActionInfoSupplier<T> {
     private final GeneratedExtension<ExtraActionInfo, T> extension;
     private final T value;
@@ -274,7 +275,7 @@ public class SpawnAction extends AbstractAction {
   protected String computeKey() {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
-    f.addStrings(argv.arguments());
+    argv.addToFingerprint(f);
     f.addString(getMnemonic());
     f.addInt(inputManifests.size());
     for (Map.Entry<PathFragment, Artifact> input : inputManifests.entrySet()) {
@@ -366,8 +367,8 @@ public class SpawnAction extends AbstractAction {
   /**
    * Returns true if this can be run remotely.
    */
+  @Override
   public final boolean isRemotable() {
-    // TODO(bazel-team): get rid of this method.
     return !executionInfo.containsKey("local");
   }
 
@@ -286,7 +286,8 @@ public class BazelJavaSemantics implements JavaSemantics {
       Iterable<Artifact> classpath, boolean includeBuildData,
       Compression compression, Artifact launcher) {
     return DeployArchiveBuilder.defaultSingleJarCommandLine(output, mainClass, manifestLines, 
-        buildInfoFiles, resources, classpath, includeBuildData, compression, launcher).build();
+        buildInfoFiles, resources, classpath, includeBuildData, compression, launcher,
+        configuration.getFragment(JavaConfiguration.class).getIncrementalDeployJars()).build();
   }
 
   @Override
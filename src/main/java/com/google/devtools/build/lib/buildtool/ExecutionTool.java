@@ -41,11 +41,15 @@ import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
 import com.google.devtools.build.lib.actions.LocalHostCapacity;
+import com.google.devtools.build.lib.actions.LocalOutputCache;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -172,6 +176,9 @@ public class ExecutionTool {
   private final BuildRequest request;
   private BlazeExecutor executor;
   private ActionInputFileCache fileCache;
+  private LocalOutputCache outputCache;
+  private PersistentDigestCache digestCache;
+  private ActionDurationHistory durationHistory;
   private List<ActionContextProvider> actionContextProviders;
 
   private Map<String, SpawnActionContext> spawnStrategyMap = new HashMap<>();
@@ -348,6 +355,9 @@ public class ExecutionTool {
     }
 
     ActionCache actionCache = getActionCache();
+    digestCache = runtime.getPersistentDigestCache();
+    DigestUtils.configure(request.getOptions(ExecutionOptions.class).maxConcurrentDigests,
+        digestCache);
     Builder builder = createBuilder(request, executor, actionCache, skyframeExecutor);
 
     //
@@ -425,6 +435,10 @@ public class ExecutionTool {
 
       // Disable system load polling (noop if it was not enabled).
       ResourceManager.instance().setAutoSensing(false);
+      if (durationHistory != null) {
+        ResourceManager.instance().setActionDurationHistory(null);
+        getEventBus().unregister(durationHistory);
+      }
       executor.executionPhaseEnding();
       for (ActionContextProvider actionContextProvider : actionContextProviders) {
         actionContextProvider.executionPhaseEnding();
@@ -751,14 +765,30 @@ public class ExecutionTool {
     // Unfortunately, the exec root cache is not shared with caches in the remote execution
     // client.
     fileCache = createBuildSingleFileCache(executor.getExecRoot());
+    outputCache = createLocalOutputCache(request.getOptions(ExecutionOptions.class));
     skyframeExecutor.setActionOutputRoot(actionOutputRoot);
     return new SkyframeBuilder(skyframeExecutor,
         new ActionCacheChecker(actionCache, getView().getArtifactFactory(), executionFilter,
-            verboseExplanations),
+            verboseExplanations, outputCache),
         keepGoing, actualJobs, options.checkOutputFiles, fileCache,
         request.getBuildOptions().progressReportInterval);
   }
 
+  @Nullable
+  private LocalOutputCache createLocalOutputCache(ExecutionOptions options) {
+    if (options.localOutputCache == null) {
+      return null;
+    }
+    try {
+      return new LocalOutputCache(getWorkspace().getRelative(options.localOutputCache),
+          options.localOutputCacheSizeMb * 1024L * 1024L);
+    } catch (IOException e) {
+      getReporter().handle(Event.warn("Local output cache disabled, failed to create it: "
+          + e.getMessage()));
+      return null;
+    }
+  }
+
   private void configureResourceManager(BuildRequest request) {
     ResourceManager resourceMgr = ResourceManager.instance();
     ExecutionOptions options = request.getOptions(ExecutionOptions.class);
@@ -783,6 +813,13 @@ public class ExecutionTool {
         request.getExecutionOptions().usingLocalTestJobs()
             ? request.getExecutionOptions().localTestJobs : Integer.MAX_VALUE
     ));
+
+    durationHistory = options.criticalPathScheduling ? runtime.getActionDurationHistory() : null;
+    if (durationHistory != null) {
+      // Middlemen and cached actions are reported through the event bus.
+      getEventBus().register(durationHistory);
+    }
+    resourceMgr.setActionDurationHistory(durationHistory);
   }
 
   /**
@@ -810,6 +847,45 @@ public class ExecutionTool {
 
     runtime.getEventBus().post(new CachesSavedEvent(
         actionCacheSaveTime, actionCacheSizeInBytes));
+
+    if (digestCache != null) {
+      startTime = BlazeClock.nanoTime();
+      try {
+        digestCache.save();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("I/O error while writing the digest cache: "
+            + e.getMessage()));
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, BlazeClock.nanoTime(),
+                                          ProfilerTask.INFO, "Saving digest cache");
+      }
+    }
+
+    if (durationHistory != null) {
+      startTime = BlazeClock.nanoTime();
+      try {
+        durationHistory.save();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("I/O error while writing the action duration history: "
+            + e.getMessage()));
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, BlazeClock.nanoTime(),
+                                          ProfilerTask.INFO, "Saving action duration history");
+      }
+    }
+
+    if (outputCache != null) {
+      startTime = BlazeClock.nanoTime();
+      try {
+        outputCache.collectGarbage();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("I/O error while evicting from the local output cache: "
+            + e.getMessage()));
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, BlazeClock.nanoTime(),
+                                          ProfilerTask.INFO, "Collecting output cache garbage");
+      }
+    }
   }
 
   private ActionInputFileCache createBuildSingleFileCache(Path execRoot) {
@@ -244,6 +244,10 @@ public class SkyframeBuilder implements Builder {
     @Override
     public void invalidated(SkyValue node, InvalidationState state) {}
 
+    @Override
+    public void invalidationFinished(InvalidationState state, long nodeCount,
+        long elapsedNanos) {}
+
     @Override
     public void enqueueing(SkyKey skyKey) {
       if (ActionExecutionValue.isReportWorthyAction(skyKey)) {
@@ -0,0 +1,72 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+/**
+ * NestedSet implementation for every set that has transitive {@code NestedSet}s and needs an
+ * array for them: a single array holds the direct elements followed by the transitive
+ * {@code NestedSet}s, so no second array is needed for sets that have many of both.
+ *
+ * <p>The order is a field rather than a subclass, since it fits in the padding of the object.
+ */
+final class ArrayBackedNestedSet<E> extends MemoizedUniquefierNestedSet<E> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Order order;
+  private final Object[] children;
+  private Object memo;
+
+  /**
+   * Creates a set from the direct elements followed by the transitive {@code NestedSet}s, of which
+   * there must be at least one. The array is not copied.
+   */
+  ArrayBackedNestedSet(Order order, Object[] children) {
+    this.order = order;
+    this.children = children;
+  }
+
+  @Override
+  public Order getOrder() { return order; }
+
+  @Override
+  Object getMemo() { return memo; }
+
+  @Override
+  void setMemo(Object memo) { this.memo = memo; }
+
+  @Override
+  Object[] children() { return children; }
+
+  @Override
+  public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
+    if (this == other) {
+      return true;
+    }
+    return other != null
+        && order.equals(other.getOrder())
+        && other instanceof ArrayBackedNestedSet
+        && Arrays.equals(children, ((ArrayBackedNestedSet<? extends E>) other).children);
+  }
+
+  @Override
+  public int shallowHashCode() {
+    return Objects.hash(order, Arrays.hashCode(children));
+  }
+}
@@ -13,7 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 /**
  * A nested set expander that implements left-to-right postordering.
@@ -31,17 +31,20 @@ final class CompileOrderExpander<E> implements NestedSetExpander<E> {
   @SuppressWarnings("unchecked")
   @Override
   public void expandInto(NestedSet<E> set, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    for (NestedSet<E> subset : set.transitiveSets()) {
+      Receiver<? super E> receiver) {
+    Object[] children = set.children();
+    int directCount = NestedSet.directCount(children);
+    for (int i = directCount; i < children.length; i++) {
+      NestedSet<E> subset = (NestedSet<E>) children[i];
       if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        expandInto(subset, uniqueifier, builder);
+        expandInto(subset, uniqueifier, receiver);
       }
     }
 
     // This switch is here to compress the memo used by the uniqueifier
-    for (Object e : set.directMembers()) {
-      if (uniqueifier.isUnique(e)) {
-        builder.add((E) e);
+    for (int i = 0; i < directCount; i++) {
+      if (uniqueifier.isUnique(children[i])) {
+        receiver.accept((E) children[i]);
       }
     }
   }
@@ -35,32 +35,11 @@ final class CompileOrderNestedSetFactory implements NestedSetFactory {
     return new CompileOneDirectOneTransitiveNestedSet<>(direct, transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> manyDirectsOneTransitive(Object[] direct,
-      NestedSet<E> transitive) {
-    return new CompileManyDirectOneTransitiveNestedSet<>(direct, transitive);
-  }
-
   @Override
   public <E> NestedSet<E> onlyOneTransitive(NestedSet<E> transitive) {
     return new CompileOnlyOneTransitiveNestedSet<>(transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> onlyManyTransitives(NestedSet[] transitives) {
-    return new CompileOnlyTransitivesNestedSet<>(transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> oneDirectManyTransitive(Object direct, NestedSet[] transitives) {
-    return new CompileOneDirectManyTransitive<>(direct, transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> manyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-    return new CompileManyDirectManyTransitive<>(directs, transitives);
-  }
-
   @Override
   public <E> NestedSet<E> oneDirect(E element) {
     return new CompileSingleDirectNestedSet<>(element);
@@ -85,26 +64,6 @@ final class CompileOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.COMPILE_ORDER; }
   }
 
-  private static class CompileOneDirectManyTransitive<E> extends OneDirectManyTransitive<E> {
-
-    private CompileOneDirectManyTransitive(Object direct, NestedSet[] transitive) {
-      super(direct, transitive);
-    }
-
-    @Override
-    public Order getOrder() { return Order.COMPILE_ORDER; }
-  }
-
-  private static class CompileManyDirectManyTransitive<E> extends ManyDirectManyTransitive<E> {
-
-    private CompileManyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-      super(directs, transitives);
-    }
-
-    @Override
-    public Order getOrder() { return Order.COMPILE_ORDER; }
-  }
-
   private static class CompileOnlyOneTransitiveNestedSet<E> extends OnlyOneTransitiveNestedSet<E> {
 
     private CompileOnlyOneTransitiveNestedSet(NestedSet<E> transitive) { super(transitive); }
@@ -113,24 +72,6 @@ final class CompileOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.COMPILE_ORDER; }
   }
 
-  private static class CompileManyDirectOneTransitiveNestedSet<E> extends
-      ManyDirectOneTransitiveNestedSet<E> {
-
-    private CompileManyDirectOneTransitiveNestedSet(Object[] direct,
-        NestedSet<E> transitive) { super(direct, transitive); }
-
-    @Override
-    public Order getOrder() { return Order.COMPILE_ORDER; }
-  }
-
-  private static class CompileOnlyTransitivesNestedSet<E> extends OnlyTransitivesNestedSet<E> {
-
-    private CompileOnlyTransitivesNestedSet(NestedSet[] transitives) { super(transitives); }
-
-    @Override
-    public Order getOrder() { return Order.COMPILE_ORDER; }
-  }
-
   private static class CompileOrderImmutableListDirectsNestedSet<E> extends
       ImmutableListDirectsNestedSet<E> {
 
@@ -27,8 +27,7 @@ import javax.annotation.Nullable;
  * An empty nested set.
  */
 final class EmptyNestedSet<E> extends NestedSet<E> {
-  private static final NestedSet[] EMPTY_NESTED_SET = new NestedSet[0];
-  private static final Object[] EMPTY_ELEMENTS = new Object[0];
+  private static final Object[] EMPTY_CHILDREN = new Object[0];
   private final Order order;
 
   EmptyNestedSet(Order type) {
@@ -41,13 +40,8 @@ final class EmptyNestedSet<E> extends NestedSet<E> {
   }
 
   @Override
-  Object[] directMembers() {
-    return EMPTY_ELEMENTS;
-  }
-
-  @Override
-  NestedSet[] transitiveSets() {
-    return EMPTY_NESTED_SET;
+  Object[] children() {
+    return EMPTY_CHILDREN;
   }
 
   @Override
@@ -65,6 +59,10 @@ final class EmptyNestedSet<E> extends NestedSet<E> {
     return ImmutableSet.of();
   }
 
+  @Override
+  public void forEachElement(NestedSetVisitor.Receiver<? super E> receiver) {
+  }
+
   @Override
   public String toString() {
     return "{}";
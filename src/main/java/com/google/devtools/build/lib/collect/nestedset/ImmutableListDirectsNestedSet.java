@@ -27,9 +27,6 @@ import javax.annotation.Nullable;
  */
 abstract class ImmutableListDirectsNestedSet<E> extends NestedSet<E> {
 
-  @SuppressWarnings("rawtypes")
-  private static final NestedSet[] EMPTY = new NestedSet[0];
-
   private final ImmutableList<E> directDeps;
 
   public ImmutableListDirectsNestedSet(ImmutableList<E> directDeps) {
@@ -40,16 +37,10 @@ abstract class ImmutableListDirectsNestedSet<E> extends NestedSet<E> {
   public abstract Order getOrder();
 
   @Override
-  Object[] directMembers() {
+  Object[] children() {
     return directDeps.toArray();
   }
 
-  @SuppressWarnings({"cast", "unchecked"})
-  @Override
-  NestedSet<? extends E>[] transitiveSets() {
-    return (NestedSet<? extends E>[]) EMPTY;
-  }
-
   @Override
   public boolean isEmpty() {
     return directDeps.isEmpty();
@@ -71,6 +62,13 @@ abstract class ImmutableListDirectsNestedSet<E> extends NestedSet<E> {
     return ImmutableSet.copyOf(directDeps);
   }
 
+  @Override
+  public void forEachElement(NestedSetVisitor.Receiver<? super E> receiver) {
+    for (E e : directDeps) {
+      receiver.accept(e);
+    }
+  }
+
   @Override
   public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
     if (this == other) {
@@ -13,8 +13,10 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
-import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A nested set expander that implements a variation of left-to-right preordering.
@@ -31,7 +33,8 @@ import com.google.common.collect.ImmutableList;
  * possible, both for items and for references to nested sets.
  *
  * <p>The left-to-right pre-order-like ordering is implemented by running a
- * right-to-left postorder traversal and then reversing the result.
+ * right-to-left postorder traversal and then reversing the result. Unlike the other orders, this
+ * means that the elements are collected before they are passed on.
  *
  * <p>The reason naive left-to left-to-right preordering is not used here is that
  * it does not handle diamond-like structures properly. For example, take the
@@ -75,30 +78,31 @@ import com.google.common.collect.ImmutableList;
 final class LinkOrderExpander<E> implements NestedSetExpander<E> {
   @Override
   public void expandInto(NestedSet<E> nestedSet, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    ImmutableList.Builder<E> result = ImmutableList.builder();
+      Receiver<? super E> receiver) {
+    List<E> result = new ArrayList<>();
     internalEnumerate(nestedSet, uniqueifier, result);
-    builder.addAll(result.build().reverse());
+    for (int i = result.size() - 1; i >= 0; i--) {
+      receiver.accept(result.get(i));
+    }
   }
 
   // We suppress unchecked warning so that we can access the internal raw structure of the
   // NestedSet.
   @SuppressWarnings("unchecked")
-  private void internalEnumerate(NestedSet<E> set, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-    NestedSet[] transitiveSets = set.transitiveSets();
-    for (int i = transitiveSets.length - 1; i >= 0; i--) {
-      NestedSet<E> subset = transitiveSets[i];
+  private void internalEnumerate(NestedSet<E> set, Uniqueifier uniqueifier, List<E> result) {
+    Object[] children = set.children();
+    int directCount = NestedSet.directCount(children);
+    for (int i = children.length - 1; i >= directCount; i--) {
+      NestedSet<E> subset = (NestedSet<E>) children[i];
       if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        internalEnumerate(subset, uniqueifier, builder);
+        internalEnumerate(subset, uniqueifier, result);
       }
     }
 
-    Object[] directMembers = set.directMembers();
-    for (int i = directMembers.length - 1; i >= 0; i--) {
-      Object e = directMembers[i];
+    for (int i = directCount - 1; i >= 0; i--) {
+      Object e = children[i];
       if (uniqueifier.isUnique(e)) {
-        builder.add((E) e);
+        result.add((E) e);
       }
     }
   }
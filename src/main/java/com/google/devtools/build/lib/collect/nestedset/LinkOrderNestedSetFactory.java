@@ -35,32 +35,11 @@ final class LinkOrderNestedSetFactory implements NestedSetFactory {
     return new LinkOneDirectOneTransitiveNestedSet<>(direct, transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> manyDirectsOneTransitive(Object[] direct,
-      NestedSet<E> transitive) {
-    return new LinkManyDirectOneTransitiveNestedSet<>(direct, transitive);
-  }
-
   @Override
   public <E> NestedSet<E> onlyOneTransitive(NestedSet<E> transitive) {
     return new LinkOnlyOneTransitiveNestedSet<>(transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> onlyManyTransitives(NestedSet[] transitives) {
-    return new LinkOnlyTransitivesNestedSet<>(transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> oneDirectManyTransitive(Object direct, NestedSet[] transitives) {
-    return new LinkOneDirectManyTransitive<>(direct, transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> manyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-    return new LinkManyDirectManyTransitive<>(directs, transitives);
-  }
-
   @Override
   public <E> NestedSet<E> oneDirect(E element) {
     return new LinkSingleDirectNestedSet<>(element);
@@ -85,26 +64,6 @@ final class LinkOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.LINK_ORDER; }
   }
 
-  private static class LinkOneDirectManyTransitive<E> extends OneDirectManyTransitive<E> {
-
-    private LinkOneDirectManyTransitive(Object direct, NestedSet[] transitive) {
-      super(direct, transitive);
-    }
-
-    @Override
-    public Order getOrder() { return Order.LINK_ORDER; }
-  }
-
-  private static class LinkManyDirectManyTransitive<E> extends ManyDirectManyTransitive<E> {
-
-    private LinkManyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-      super(directs, transitives);
-    }
-
-    @Override
-    public Order getOrder() { return Order.LINK_ORDER; }
-  }
-
   private static class LinkOnlyOneTransitiveNestedSet<E> extends OnlyOneTransitiveNestedSet<E> {
 
     private LinkOnlyOneTransitiveNestedSet(NestedSet<E> transitive) { super(transitive); }
@@ -113,24 +72,6 @@ final class LinkOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.LINK_ORDER; }
   }
 
-  private static class LinkManyDirectOneTransitiveNestedSet<E> extends
-      ManyDirectOneTransitiveNestedSet<E> {
-
-    private LinkManyDirectOneTransitiveNestedSet(Object[] direct,
-        NestedSet<E> transitive) { super(direct, transitive); }
-
-    @Override
-    public Order getOrder() { return Order.LINK_ORDER; }
-  }
-
-  private static class LinkOnlyTransitivesNestedSet<E> extends OnlyTransitivesNestedSet<E> {
-
-    private LinkOnlyTransitivesNestedSet(NestedSet[] transitives) { super(transitives); }
-
-    @Override
-    public Order getOrder() { return Order.LINK_ORDER; }
-  }
-
   private static class LinkImmutableListDirectsNestedSet<E> extends
       ImmutableListDirectsNestedSet<E> {
 
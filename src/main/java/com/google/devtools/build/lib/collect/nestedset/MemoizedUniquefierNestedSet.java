@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.collect.nestedset;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 import java.util.List;
 import java.util.Set;
@@ -31,18 +32,35 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
 
   @Override
   public List<E> toList() {
+    ImmutableCollection<E> expansion = NestedSetExpansionCache.expand(this);
+    if (expansion != null) {
+      return expansion.asList();
+    }
     ImmutableList.Builder<E> builder = new ImmutableList.Builder<>();
-    memoizedFill(builder);
+    memoizedFill(addingTo(builder));
     return builder.build();
   }
 
   @Override
   public Set<E> toSet() {
+    ImmutableCollection<E> expansion = NestedSetExpansionCache.expand(this);
+    if (expansion != null) {
+      return ImmutableSet.copyOf(expansion);
+    }
     ImmutableSet.Builder<E> builder = new ImmutableSet.Builder<>();
-    memoizedFill(builder);
+    memoizedFill(addingTo(builder));
     return builder.build();
   }
 
+  /**
+   * Once the set has been expanded, the memoized uniqueifier tells which elements to skip, so
+   * passing on the elements needs neither a collection of them nor a set of the ones seen so far.
+   */
+  @Override
+  public void forEachElement(Receiver<? super E> receiver) {
+    memoizedFill(receiver);
+  }
+
   /**
    * It does not make sense to have a {@code MemoizedUniquefierNestedSet} if it is empty.
    */
@@ -54,21 +72,33 @@ public abstract class MemoizedUniquefierNestedSet<E> extends NestedSet<E> {
   abstract void setMemo(Object object);
 
   /**
-   * Fill a collection builder by using a memoized {@code Uniqueifier} for faster uniqueness check.
+   * Fill a receiver by using a memoized {@code Uniqueifier} for faster uniqueness check.
    */
-  final void memoizedFill(ImmutableCollection.Builder<E> builder) {
+  final void memoizedFill(Receiver<? super E> receiver) {
     Uniqueifier memoed;
     synchronized (this) {
       Object memo = getMemo();
       if (memo == null) {
         RecordingUniqueifier uniqueifier = new RecordingUniqueifier();
-        getOrder().<E>expander().expandInto(this, uniqueifier, builder);
+        getOrder().<E>expander().expandInto(this, uniqueifier, receiver);
         setMemo(uniqueifier.getMemo());
         return;
       } else {
         memoed = RecordingUniqueifier.createReplayUniqueifier(memo);
       }
     }
-    getOrder().<E>expander().expandInto(this, memoed, builder);
+    getOrder().<E>expander().expandInto(this, memoed, receiver);
+  }
+
+  /**
+   * Returns a receiver that adds the elements it receives to {@code builder}.
+   */
+  static <E> Receiver<E> addingTo(final ImmutableCollection.Builder<E> builder) {
+    return new Receiver<E>() {
+      @Override
+      public void accept(E e) {
+        builder.add(e);
+      }
+    };
   }
 }
@@ -13,7 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.collect.nestedset;
 
-import com.google.common.collect.ImmutableCollection;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 /**
  * A nested set expander that implements naive left-to-right preordering.
@@ -37,17 +37,19 @@ final class NaiveLinkOrderExpander<E> implements NestedSetExpander<E> {
   @SuppressWarnings("unchecked")
   @Override
   public void expandInto(NestedSet<E> set, Uniqueifier uniqueifier,
-      ImmutableCollection.Builder<E> builder) {
-
-    for (Object e : set.directMembers()) {
-      if (uniqueifier.isUnique(e)) {
-        builder.add((E) e);
+      Receiver<? super E> receiver) {
+    Object[] children = set.children();
+    int directCount = NestedSet.directCount(children);
+    for (int i = 0; i < directCount; i++) {
+      if (uniqueifier.isUnique(children[i])) {
+        receiver.accept((E) children[i]);
       }
     }
 
-    for (NestedSet<E> subset : set.transitiveSets()) {
+    for (int i = directCount; i < children.length; i++) {
+      NestedSet<E> subset = (NestedSet<E>) children[i];
       if (!subset.isEmpty() && uniqueifier.isUnique(subset)) {
-        expandInto(subset, uniqueifier, builder);
+        expandInto(subset, uniqueifier, receiver);
       }
     }
   }
@@ -35,32 +35,11 @@ final class NaiveLinkOrderNestedSetFactory implements NestedSetFactory {
     return new NaiveLinkOneDirectOneTransitiveNestedSet<>(direct, transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> manyDirectsOneTransitive(Object[] direct,
-      NestedSet<E> transitive) {
-    return new NaiveLinkManyDirectOneTransitiveNestedSet<>(direct, transitive);
-  }
-
   @Override
   public <E> NestedSet<E> onlyOneTransitive(NestedSet<E> transitive) {
     return new NaiveLinkOnlyOneTransitiveNestedSet<>(transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> onlyManyTransitives(NestedSet[] transitives) {
-    return new NaiveLinkOnlyTransitivesNestedSet<>(transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> oneDirectManyTransitive(Object direct, NestedSet[] transitives) {
-    return new NaiveLinkOneDirectManyTransitive<>(direct, transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> manyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-    return new NaiveLinkManyDirectManyTransitive<>(directs, transitives);
-  }
-
   @Override
   public <E> NestedSet<E> oneDirect(final E element) {
     return new NaiveLinkSingleDirectNestedSet<>(element);
@@ -85,26 +64,6 @@ final class NaiveLinkOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
   }
 
-  private static class NaiveLinkOneDirectManyTransitive<E> extends OneDirectManyTransitive<E> {
-
-    private NaiveLinkOneDirectManyTransitive(Object direct, NestedSet[] transitive) {
-      super(direct, transitive);
-    }
-
-    @Override
-    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
-  }
-
-  private static class NaiveLinkManyDirectManyTransitive<E> extends ManyDirectManyTransitive<E> {
-
-    private NaiveLinkManyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-      super(directs, transitives);
-    }
-
-    @Override
-    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
-  }
-
   private static class NaiveLinkOnlyOneTransitiveNestedSet<E>
       extends OnlyOneTransitiveNestedSet<E> {
 
@@ -114,24 +73,6 @@ final class NaiveLinkOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
   }
 
-  private static class NaiveLinkManyDirectOneTransitiveNestedSet<E> extends
-      ManyDirectOneTransitiveNestedSet<E> {
-
-    private NaiveLinkManyDirectOneTransitiveNestedSet(Object[] direct,
-        NestedSet<E> transitive) { super(direct, transitive); }
-
-    @Override
-    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
-  }
-
-  private static class NaiveLinkOnlyTransitivesNestedSet<E> extends OnlyTransitivesNestedSet<E> {
-
-    private NaiveLinkOnlyTransitivesNestedSet(NestedSet[] transitives) { super(transitives); }
-
-    @Override
-    public Order getOrder() { return Order.NAIVE_LINK_ORDER; }
-  }
-
   private static class NaiveLinkImmutableListDirectsNestedSet<E> extends
       ImmutableListDirectsNestedSet<E> {
 
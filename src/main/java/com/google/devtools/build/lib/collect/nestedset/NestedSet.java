@@ -14,8 +14,10 @@
 package com.google.devtools.build.lib.collect.nestedset;
 
 import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -38,10 +40,9 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
   public abstract Order getOrder();
 
   /**
-   * Returns a collection of elements added to this specific set in an implementation-specified
-   * order.
-   *
-   * <p>Elements from subsets are not taken into account.
+   * Returns the elements added to this specific set, in an implementation-specified order,
+   * followed by the sets included as subsets in this set. Elements of nested sets are never
+   * nested sets themselves, so {@link #directCount} tells the two apart.
    *
    * <p>The reason for using Object[] instead of E[] is that when we build the NestedSet we
    * would need to have access to the specific class that E represents in order to create an E
@@ -50,14 +51,39 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    *
    * <p>Callers of this method should only consume the objects and not modify the array.
    */
-  abstract Object[] directMembers();
+  abstract Object[] children();
 
   /**
-   * Returns the collection of sets included as subsets in this set.
+   * Returns the number of elements at the beginning of {@code children}, which are followed by
+   * nested sets.
+   */
+  static int directCount(Object[] children) {
+    int count = children.length;
+    while (count > 0 && children[count - 1] instanceof NestedSet) {
+      count--;
+    }
+    return count;
+  }
+
+  /**
+   * Returns a collection of elements added to this specific set in an implementation-specified
+   * order.
    *
-   * <p>Callers of this method should only consume the objects and not modify the array.
+   * <p>Elements from subsets are not taken into account.
    */
-  abstract NestedSet[] transitiveSets();
+  final Object[] directMembers() {
+    Object[] children = children();
+    return Arrays.copyOf(children, directCount(children));
+  }
+
+  /**
+   * Returns the collection of sets included as subsets in this set.
+   */
+  final NestedSet[] transitiveSets() {
+    Object[] children = children();
+    return Arrays.copyOfRange(children, directCount(children), children.length,
+        NestedSet[].class);
+  }
 
   /**
    * Returns true if the set is empty.
@@ -91,6 +117,15 @@ public abstract class NestedSet<E> implements Iterable<E>, Serializable {
    */
   public abstract Set<E> toSet();
 
+  /**
+   * Passes all unique elements of this set (including subsets) to {@code receiver}, in the same
+   * order as {@link #toList}.
+   *
+   * <p>Unlike iterating over the set, this does not build a collection of the elements, so use it
+   * when every element is only looked at once, for example to write or fingerprint them.
+   */
+  public abstract void forEachElement(Receiver<? super E> receiver);
+
   /**
    * Returns true if this set is equal to {@code other} based on the top-level
    * elements and object identity (==) of direct subsets.  As such, this function
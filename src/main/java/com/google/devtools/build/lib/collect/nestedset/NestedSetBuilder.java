@@ -151,42 +151,38 @@ public final class NestedSetBuilder<E> {
         return candidate;
       }
     }
-    int transitiveSize = transitiveSets.size();
-    int directSize = items.size();
-
-    switch (transitiveSize) {
-      case 0:
-        switch (directSize) {
-          case 0:
-            return order.emptySet();
-          case 1:
-            return order.factory.oneDirect(getOnlyElement(items));
-          default:
-            return order.factory.onlyDirects(items.toArray());
-        }
-      case 1:
-        switch (directSize) {
-          case 0:
-            return order.factory.onlyOneTransitive(getOnlyElement(transitiveSetsCast));
-          case 1:
-            return order.factory.oneDirectOneTransitive(getOnlyElement(items),
-                getOnlyElement(transitiveSetsCast));
-          default:
-            return order.factory.manyDirectsOneTransitive(items.toArray(),
-                getOnlyElement(transitiveSetsCast));
-        }
-      default:
-        switch (directSize) {
-          case 0:
-            return order.factory.onlyManyTransitives(
-                transitiveSetsCast.toArray(new NestedSet[transitiveSize]));
-          case 1:
-            return order.factory.oneDirectManyTransitive(getOnlyElement(items), transitiveSetsCast
-                .toArray(new NestedSet[transitiveSize]));
-          default:
-            return order.factory.manyDirectManyTransitive(items.toArray(),
-                transitiveSetsCast.toArray(new NestedSet[transitiveSize]));
-        }
+    checkElements(items);
+    if (transitiveSetsCast.isEmpty()) {
+      return items.size() == 1
+          ? order.factory.oneDirect(getOnlyElement(items))
+          : order.factory.<E>onlyDirects(items.toArray());
+    }
+    if (transitiveSetsCast.size() == 1) {
+      if (items.isEmpty()) {
+        return order.factory.onlyOneTransitive(getOnlyElement(transitiveSetsCast));
+      } else if (items.size() == 1) {
+        return order.factory.oneDirectOneTransitive(getOnlyElement(items),
+            getOnlyElement(transitiveSetsCast));
+      }
+    }
+    Object[] children = new Object[items.size() + transitiveSetsCast.size()];
+    int i = 0;
+    for (E item : items) {
+      children[i++] = item;
+    }
+    for (NestedSet<E> subset : transitiveSetsCast) {
+      children[i++] = subset;
+    }
+    return new ArrayBackedNestedSet<>(order, children);
+  }
+
+  /**
+   * Makes sure that no element is a nested set, which would be taken for a transitive set.
+   */
+  private static void checkElements(Iterable<?> elements) {
+    for (Object element : elements) {
+      Preconditions.checkArgument(!(element instanceof NestedSet),
+          "Use addTransitive to add nested sets: %s", element);
     }
   }
 
@@ -198,6 +194,7 @@ public final class NestedSetBuilder<E> {
    */
   public static <E> NestedSet<E> wrap(Order order, Iterable<E> wrappedItems) {
     ImmutableList<E> wrappedList = ImmutableList.copyOf(wrappedItems);
+    checkElements(wrappedList);
     if (wrappedList.isEmpty()) {
       return order.emptySet();
     } else if (wrappedList.size() == 1) {
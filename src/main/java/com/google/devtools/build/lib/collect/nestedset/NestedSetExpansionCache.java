@@ -0,0 +1,267 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the expanded form of large {@link Order#STABLE_ORDER} and {@link Order#COMPILE_ORDER}
+ * nested sets, and expands such a nested set by starting from the expansion of its first nested
+ * set, which is exactly the beginning of its own expansion in these orders.
+ *
+ * <p>This pays off for deep chains of nested sets, such as the classpaths of a long chain of
+ * java_library rules: without it, expanding every set of the chain walks the whole chain below
+ * it again. To keep the memory linear in the size of such a chain, expansions are only kept at
+ * checkpoints along the chain of first nested sets, where the expansion grew by a quarter since
+ * the previous checkpoint; the sets in between are expanded from the nearest checkpoint below.
+ * Expansions are only kept as long as their nested set is reachable and there is no memory
+ * pressure. Disabled by default.
+ */
+@ThreadSafe
+public final class NestedSetExpansionCache {
+
+  /** Expansions with fewer elements are cheap enough to compute again. */
+  @VisibleForTesting
+  static final int DEFAULT_MINIMUM_SIZE = 1024;
+
+  private static volatile Cache<NestedSet<?>, ImmutableSet<?>> cache = null;
+  private static volatile int minimumSize = DEFAULT_MINIMUM_SIZE;
+
+  private NestedSetExpansionCache() {
+  }
+
+  /**
+   * Turns the cache on or off. Turning it off, or on again, drops all the cached expansions.
+   */
+  public static synchronized void setEnabled(boolean enabled) {
+    if (!enabled) {
+      cache = null;
+    } else if (cache == null) {
+      // Weak keys are compared by identity, like nested sets themselves.
+      cache = CacheBuilder.newBuilder().weakKeys().softValues().build();
+    }
+  }
+
+  public static boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * Sets the number of elements from which expansions are cached.
+   */
+  @VisibleForTesting
+  static void setMinimumSize(int size) {
+    minimumSize = size;
+  }
+
+  /**
+   * Returns the expansion of {@code set}, either as an {@link ImmutableSet} if it is cached or
+   * as an {@link ImmutableList}, or null if the cache is disabled or doesn't handle the order of
+   * {@code set}.
+   */
+  @Nullable
+  static <E> ImmutableCollection<E> expand(NestedSet<E> set) {
+    Cache<NestedSet<?>, ImmutableSet<?>> currentCache = cache;
+    if (currentCache == null || !handles(set.getOrder())) {
+      return null;
+    }
+    return expand(currentCache, set);
+  }
+
+  private static boolean handles(Order order) {
+    return order == Order.STABLE_ORDER || order == Order.COMPILE_ORDER;
+  }
+
+  // The cache only holds expansions of nested sets of the same element type.
+  @SuppressWarnings("unchecked")
+  private static <E> ImmutableCollection<E> expand(Cache<NestedSet<?>, ImmutableSet<?>> cache,
+      NestedSet<E> set) {
+    ImmutableSet<E> cached = (ImmutableSet<E>) cache.getIfPresent(set);
+    if (cached != null) {
+      return cached;
+    }
+
+    // Walk down the first nested sets until one whose expansion is cached, or one that has no
+    // first nested set.
+    List<NestedSet<E>> path = new ArrayList<>();
+    NestedSet<E> current = set;
+    ImmutableCollection<E> prefix = null;
+    while (prefix == null) {
+      NestedSet<E> first = firstNestedSet(current);
+      if (first == null) {
+        prefix = expandWithoutPrefix(current);
+      } else {
+        path.add(current);
+        current = first;
+        prefix = (ImmutableSet<E>) cache.getIfPresent(current);
+      }
+    }
+    int checkpointSize = 0;
+    if (prefix instanceof ImmutableSet) {
+      checkpointSize = prefix.size();
+    } else if (isCheckpoint(prefix.size(), checkpointSize)) {
+      prefix = checkpoint(cache, current, prefix);
+      checkpointSize = prefix.size();
+    }
+    if (path.isEmpty()) {
+      return prefix;
+    }
+
+    // Then add everything but the first nested set of every set on the way back up.
+    ImmutableList.Builder<E> builder = ImmutableList.builder();
+    builder.addAll(prefix);
+    PrefixUniqueifier uniqueifier = new PrefixUniqueifier(prefix);
+    for (int i = path.size() - 1; i >= 0; i--) {
+      addAllButFirstNestedSet(cache, path.get(i), uniqueifier, builder);
+      if (isCheckpoint(uniqueifier.size(), checkpointSize)) {
+        ImmutableSet<E> expansion = checkpoint(cache, path.get(i), builder.build());
+        if (i == 0) {
+          return expansion;
+        }
+        checkpointSize = expansion.size();
+      }
+    }
+    return builder.build();
+  }
+
+  private static boolean isCheckpoint(int size, int checkpointSize) {
+    return size >= minimumSize && size - checkpointSize >= checkpointSize / 4;
+  }
+
+  private static <E> ImmutableSet<E> checkpoint(Cache<NestedSet<?>, ImmutableSet<?>> cache,
+      NestedSet<E> set, ImmutableCollection<E> expansion) {
+    ImmutableSet<E> result = ImmutableSet.copyOf(expansion);
+    cache.put(set, result);
+    return result;
+  }
+
+  /**
+   * Returns the first non-empty nested set of {@code set}, or null if there is none or if its
+   * expansion isn't the beginning of the expansion of {@code set}.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private static <E> NestedSet<E> firstNestedSet(NestedSet<E> set) {
+    Object[] children = set.children();
+    for (int i = NestedSet.directCount(children); i < children.length; i++) {
+      NestedSet<E> subset = (NestedSet<E>) children[i];
+      if (!subset.isEmpty()) {
+        // Only nested sets of the same order are added to a nested set, but don't rely on it.
+        return handles(subset.getOrder()) ? subset : null;
+      }
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> ImmutableList<E> expandWithoutPrefix(NestedSet<E> set) {
+    if (set instanceof MemoizedUniquefierNestedSet) {
+      ImmutableList.Builder<E> builder = ImmutableList.builder();
+      ((MemoizedUniquefierNestedSet<E>) set).memoizedFill(
+          MemoizedUniquefierNestedSet.addingTo(builder));
+      return builder.build();
+    }
+    return ImmutableList.copyOf(set.toList());
+  }
+
+  /**
+   * Adds the elements of {@code set} that come after the expansion of its first nested set, which
+   * {@code uniqueifier} has already seen.
+   */
+  @SuppressWarnings("unchecked")
+  private static <E> void addAllButFirstNestedSet(Cache<NestedSet<?>, ImmutableSet<?>> cache,
+      NestedSet<E> set, PrefixUniqueifier uniqueifier, ImmutableList.Builder<E> builder) {
+    NestedSetExpander<E> expander = set.getOrder().expander();
+    Object[] children = set.children();
+    int directCount = NestedSet.directCount(children);
+    boolean first = true;
+    for (int i = directCount; i < children.length; i++) {
+      NestedSet<E> subset = (NestedSet<E>) children[i];
+      if (subset.isEmpty()) {
+        continue;
+      }
+      if (first) {
+        first = false;
+      } else if (uniqueifier.isUnique(subset)) {
+        ImmutableSet<E> cached = (ImmutableSet<E>) cache.getIfPresent(subset);
+        if (cached == null) {
+          expander.expandInto(subset, uniqueifier,
+              MemoizedUniquefierNestedSet.addingTo(builder));
+        } else {
+          for (E e : cached) {
+            if (uniqueifier.isUnique(e)) {
+              builder.add(e);
+            }
+          }
+        }
+      }
+    }
+    for (int i = 0; i < directCount; i++) {
+      if (uniqueifier.isUnique(children[i])) {
+        builder.add((E) children[i]);
+      }
+    }
+  }
+
+  /**
+   * A uniqueifier that has already seen the elements of an expansion, without copying a cached
+   * expansion. Also counts the elements of the expansion it is used for.
+   */
+  private static final class PrefixUniqueifier implements Uniqueifier {
+    private final Set<?> prefix;
+    private final Set<Object> witnessed;
+    private int size;
+
+    PrefixUniqueifier(ImmutableCollection<?> prefix) {
+      if (prefix instanceof ImmutableSet) {
+        this.prefix = (ImmutableSet<?>) prefix;
+        this.witnessed = new HashSet<>();
+      } else {
+        this.prefix = ImmutableSet.of();
+        this.witnessed = new HashSet<Object>(prefix);
+      }
+      this.size = prefix.size();
+    }
+
+    @Override
+    public boolean isUnique(Object o) {
+      if (prefix.contains(o) || !witnessed.add(o)) {
+        return false;
+      }
+      // Nested sets are only seen to skip them.
+      if (!(o instanceof NestedSet)) {
+        size++;
+      }
+      return true;
+    }
+
+    /** Returns the number of elements seen so far, unless they include nested sets. */
+    int size() {
+      return size;
+    }
+  }
+}
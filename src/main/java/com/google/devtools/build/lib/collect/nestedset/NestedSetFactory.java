@@ -16,9 +16,10 @@ package com.google.devtools.build.lib.collect.nestedset;
 import com.google.common.collect.ImmutableList;
 
 /**
- * Factory methods for creating {@link NestedSet}s of specific shapes. This allows the
- * implementation to be memory efficient (e.g. a specialized implementation for the case where
- * there are only direct elements, etc).
+ * Factory methods for creating {@link NestedSet}s of specific shapes that need no array of
+ * children, or only an array of direct elements. This allows the implementation to be memory
+ * efficient (e.g. a specialized implementation for the case where there are only direct elements,
+ * etc). All other nested sets are {@link ArrayBackedNestedSet}s.
  *
  * <p>It's intended for each {@link Order} to have its own factory implementation. That way we can
  * be even more efficient since the {@link NestedSet}s instances don't need to store their
@@ -38,18 +39,6 @@ interface NestedSetFactory {
   /** Create a NestedSet with one direct element and one transitive {@code NestedSet}. */
   <E> NestedSet<E> oneDirectOneTransitive(E direct, NestedSet<E> transitive);
 
-  /** Create a NestedSet with many direct elements and one transitive {@code NestedSet}. */
-  <E> NestedSet<E> manyDirectsOneTransitive(Object[] direct, NestedSet<E> transitive);
-
   /** Create a NestedSet with no direct elements and one transitive {@code NestedSet.} */
   <E> NestedSet<E> onlyOneTransitive(NestedSet<E> transitive);
-
-  /** Create a NestedSet with no direct elements and many transitive {@code NestedSet}s. */
-  <E> NestedSet<E> onlyManyTransitives(NestedSet[] transitives);
-
-  /** Create a NestedSet with one direct elements and many transitive {@code NestedSet}s. */
-  <E> NestedSet<E> oneDirectManyTransitive(Object direct, NestedSet[] transitive);
-
-  /** Create a NestedSet with many direct elements and many transitive {@code NestedSet}s. */
-  <E> NestedSet<E> manyDirectManyTransitive(Object[] directs, NestedSet[] transitive);
 }
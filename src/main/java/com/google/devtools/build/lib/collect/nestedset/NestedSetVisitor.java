@@ -65,12 +65,14 @@ public final class NestedSetVisitor<E> {
       return;
     }
 
-    for (NestedSet<E> subset : nestedSet.transitiveSets()) {
-      visit(subset);
+    Object[] children = nestedSet.children();
+    int directCount = NestedSet.directCount(children);
+    for (int i = directCount; i < children.length; i++) {
+      visit((NestedSet<E>) children[i]);
     }
-    for (Object member : nestedSet.directMembers()) {
-      if (visited.add((E) member)) {
-        callback.accept((E) member);
+    for (int i = 0; i < directCount; i++) {
+      if (visited.add((E) children[i])) {
+        callback.accept((E) children[i]);
       }
     }
   }
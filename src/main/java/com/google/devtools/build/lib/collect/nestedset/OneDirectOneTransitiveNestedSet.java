@@ -39,10 +39,7 @@ abstract class OneDirectOneTransitiveNestedSet<E> extends MemoizedUniquefierNest
   void setMemo(Object memo) { this.memo = memo; }
 
   @Override
-  Object[] directMembers() { return new Object[]{direct}; }
-
-  @Override
-  NestedSet[] transitiveSets() { return new NestedSet[]{transitive}; }
+  Object[] children() { return new Object[]{direct, transitive}; }
 
   @Override
   public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
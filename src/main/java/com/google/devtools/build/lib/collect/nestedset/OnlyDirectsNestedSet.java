@@ -28,7 +28,6 @@ import javax.annotation.Nullable;
  */
 abstract class OnlyDirectsNestedSet<E> extends NestedSet<E> {
 
-  private static final NestedSet[] EMPTY = new NestedSet[0];
   private final Object[] directDeps;
 
   public OnlyDirectsNestedSet(Object[] directDeps) { this.directDeps = directDeps; }
@@ -37,15 +36,10 @@ abstract class OnlyDirectsNestedSet<E> extends NestedSet<E> {
   public abstract Order getOrder();
 
   @Override
-  Object[] directMembers() {
+  Object[] children() {
     return directDeps;
   }
 
-  @Override
-  NestedSet[] transitiveSets() {
-    return EMPTY;
-  }
-
   @Override
   public boolean isEmpty() {
     return false;
@@ -68,6 +62,14 @@ abstract class OnlyDirectsNestedSet<E> extends NestedSet<E> {
     return (Set<E>) ImmutableSet.copyOf(directDeps);
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public void forEachElement(NestedSetVisitor.Receiver<? super E> receiver) {
+    for (Object e : directDeps) {
+      receiver.accept((E) e);
+    }
+  }
+
   @Override
   public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
     if (this == other) {
@@ -25,8 +25,6 @@ import javax.annotation.Nullable;
  */
 abstract class OnlyOneTransitiveNestedSet<E> extends MemoizedUniquefierNestedSet<E> {
 
-  private static final Object[] EMPTY = new Object[0];
-
   private final NestedSet<E> transitive;
   private Object memo;
 
@@ -41,13 +39,8 @@ abstract class OnlyOneTransitiveNestedSet<E> extends MemoizedUniquefierNestedSet
   void setMemo(Object memo) { this.memo = memo; }
 
   @Override
-  Object[] directMembers() {
-    return EMPTY;
-  }
-
-  @Override
-  NestedSet[] transitiveSets() {
-    return new NestedSet[]{transitive};
+  Object[] children() {
+    return new Object[]{transitive};
   }
 
   @Override
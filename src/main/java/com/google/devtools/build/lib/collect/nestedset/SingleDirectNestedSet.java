@@ -29,7 +29,6 @@ import javax.annotation.Nullable;
  */
 public abstract class SingleDirectNestedSet<E> extends NestedSet<E> {
 
-  private static final NestedSet[] EMPTY = new NestedSet[0];
   private final E e;
 
   public SingleDirectNestedSet(E e) { this.e = Preconditions.checkNotNull(e); }
@@ -38,10 +37,7 @@ public abstract class SingleDirectNestedSet<E> extends NestedSet<E> {
   public Iterator<E> iterator() { return Iterators.singletonIterator(e); }
 
   @Override
-  Object[] directMembers() { return new Object[]{e}; }
-
-  @Override
-  NestedSet[] transitiveSets() { return EMPTY; }
+  Object[] children() { return new Object[]{e}; }
 
   @Override
   public boolean isEmpty() { return false; }
@@ -52,6 +48,9 @@ public abstract class SingleDirectNestedSet<E> extends NestedSet<E> {
   @Override
   public Set<E> toSet() { return ImmutableSet.of(e); }
 
+  @Override
+  public void forEachElement(NestedSetVisitor.Receiver<? super E> receiver) { receiver.accept(e); }
+
   @Override
   public boolean shallowEquals(@Nullable NestedSet<? extends E> other) {
     if (this == other) {
@@ -35,32 +35,11 @@ final class StableOrderNestedSetFactory implements NestedSetFactory {
     return new StableOneDirectOneTransitiveNestedSet<>(direct, transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> manyDirectsOneTransitive(Object[] direct,
-      NestedSet<E> transitive) {
-    return new StableManyDirectOneTransitiveNestedSet<>(direct, transitive);
-  }
-
   @Override
   public <E> NestedSet<E> onlyOneTransitive(NestedSet<E> transitive) {
     return new StableOnlyOneTransitiveNestedSet<>(transitive);
   }
 
-  @Override
-  public <E> NestedSet<E> onlyManyTransitives(NestedSet[] transitives) {
-    return new StableOnlyTransitivesNestedSet<>(transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> oneDirectManyTransitive(Object direct, NestedSet[] transitives) {
-    return new StableOneDirectManyTransitive<>(direct, transitives);
-  }
-
-  @Override
-  public <E> NestedSet<E> manyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-    return new StableManyDirectManyTransitive<>(directs, transitives);
-  }
-
   @Override
   public <E> NestedSet<E> oneDirect(final E element) {
     return new StableSingleDirectNestedSet<>(element);
@@ -85,26 +64,6 @@ final class StableOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.STABLE_ORDER; }
   }
 
-  private static class StableOneDirectManyTransitive<E> extends OneDirectManyTransitive<E> {
-
-    private StableOneDirectManyTransitive(Object direct, NestedSet[] transitive) {
-      super(direct, transitive);
-    }
-
-    @Override
-    public Order getOrder() { return Order.STABLE_ORDER; }
-  }
-
-  private static class StableManyDirectManyTransitive<E> extends ManyDirectManyTransitive<E> {
-
-    private StableManyDirectManyTransitive(Object[] directs, NestedSet[] transitives) {
-      super(directs, transitives);
-    }
-
-    @Override
-    public Order getOrder() { return Order.STABLE_ORDER; }
-  }
-
   private static class StableOnlyOneTransitiveNestedSet<E> extends OnlyOneTransitiveNestedSet<E> {
 
     private StableOnlyOneTransitiveNestedSet(NestedSet<E> transitive) { super(transitive); }
@@ -113,24 +72,6 @@ final class StableOrderNestedSetFactory implements NestedSetFactory {
     public Order getOrder() { return Order.STABLE_ORDER; }
   }
 
-  private static class StableManyDirectOneTransitiveNestedSet<E> extends
-      ManyDirectOneTransitiveNestedSet<E> {
-
-    private StableManyDirectOneTransitiveNestedSet(Object[] direct,
-        NestedSet<E> transitive) { super(direct, transitive); }
-
-    @Override
-    public Order getOrder() { return Order.STABLE_ORDER; }
-  }
-
-  private static class StableOnlyTransitivesNestedSet<E> extends OnlyTransitivesNestedSet<E> {
-
-    private StableOnlyTransitivesNestedSet(NestedSet[] transitives) { super(transitives); }
-
-    @Override
-    public Order getOrder() { return Order.STABLE_ORDER; }
-  }
-
   private static class StableImmutableListDirectsNestedSet<E> extends
       ImmutableListDirectsNestedSet<E> {
 
@@ -23,7 +23,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -49,6 +54,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <p>AbstractQueueVisitor supports interruption. If the main thread is
  * interrupted, tasks will no longer be added to the queue, and the
  * {@link #work(boolean)} method will throw {@link InterruptedException}.
+ *
+ * <p>The visitor may also be backed by a {@link ForkJoinPool}. In that case a task enqueued from
+ * one of the pool's own worker threads is pushed onto that thread's local deque instead of a
+ * shared queue; idle workers steal from the other end.
  */
 public class AbstractQueueVisitor {
 
@@ -89,9 +98,9 @@ public class AbstractQueueVisitor {
   /**
    * The thread pool. If !concurrent, always null. Created lazily on first
    * call to {@link #enqueue(Runnable)}, and removed after call to
-   * {@link #work(boolean)}.
+   * {@link #work(boolean)}. Either a {@link ThreadPoolExecutor} or a {@link ForkJoinPool}.
    */
-  private final ThreadPoolExecutor pool;
+  private final ExecutorService pool;
 
   /**
    * Flag used to record when the main thread (the thread which called
@@ -227,6 +236,28 @@ public class AbstractQueueVisitor {
     this(executor, true, failFastOnException, true);
   }
 
+  /**
+   * Create the AbstractQueueVisitor backed by a work-stealing pool. Tasks enqueued from the pool's
+   * worker threads are forked onto the enqueuing thread's deque, so the work a task spawns tends to
+   * run on the same thread, right after it.
+   *
+   * @param forkJoinPool The ForkJoinPool to use.
+   * @param shutdownOnCompletion If true, pass ownership of the pool to this class. The pool will be
+   *                             shut down after a call to work(). Callers must not shut down the
+   *                             pool while queue visitors use it.
+   * @param failFastOnException if true, don't run new actions after
+   *                            an uncaught exception.
+   * @param failFastOnInterrupt if true, don't run new actions after interrupt.
+   */
+  public AbstractQueueVisitor(ForkJoinPool forkJoinPool, boolean shutdownOnCompletion,
+      boolean failFastOnException, boolean failFastOnInterrupt) {
+    this.concurrent = true;
+    this.failFastOnException = failFastOnException;
+    this.failFastOnInterrupt = failFastOnInterrupt;
+    this.pool = Preconditions.checkNotNull(forkJoinPool);
+    this.ownThreadPool = shutdownOnCompletion;
+  }
+
   /**
    * Create the AbstractQueueVisitor.
    *
@@ -294,9 +325,15 @@ public class AbstractQueueVisitor {
     if (concurrent) {
       AtomicBoolean ranTask = new AtomicBoolean(false);
       try {
-        pool.execute(wrapRunnable(runnable, ranTask));
+        execute(wrapRunnable(runnable, ranTask));
       } catch (Throwable e) {
         if (!ranTask.get()) {
+          if (e instanceof RejectedExecutionException && isInterrupted()) {
+            // A ForkJoinPool has no rejected execution handler to install on interrupt, so drop
+            // the task here, just as the handler installed on a ThreadPoolExecutor does.
+            decrementRemainingTasks();
+            return;
+          }
           // Note that keeping track of ranTask is necessary to disambiguate the case where
           // execute() itself failed, vs. a caller-runs policy on pool exhaustion, where the
           // runnable threw. To be extra cautious, we decrement the task count in a finally
@@ -309,6 +346,17 @@ public class AbstractQueueVisitor {
     }
   }
 
+  private void execute(Runnable wrapped) {
+    Thread current = Thread.currentThread();
+    if (current instanceof ForkJoinWorkerThread
+        && ((ForkJoinWorkerThread) current).getPool() == pool) {
+      // Push onto this worker's own deque rather than the pool's shared submission queue.
+      ForkJoinTask.adapt(wrapped).fork();
+    } else {
+      pool.execute(wrapped);
+    }
+  }
+
   private void recordError(Throwable e) {
     catastrophe = e;
     try {
@@ -553,8 +601,8 @@ public class AbstractQueueVisitor {
   }
 
   private void setRejectedExecutionHandler() {
-    if (ownThreadPool) {
-      pool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+    if (ownThreadPool && pool instanceof ThreadPoolExecutor) {
+      ((ThreadPoolExecutor) pool).setRejectedExecutionHandler(new RejectedExecutionHandler() {
         @Override
         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
           decrementRemainingTasks();
@@ -17,6 +17,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -100,4 +103,25 @@ public class ExecutorShutdownUtil {
     });
     return pool;
   }
+
+  /**
+   * Create a work-stealing pool whose threads are named like those of {@link #newSlackPool}.
+   * Tasks that are never joined run in LIFO order on the thread that forked them, so a task
+   * spawned by another task usually runs next on the same thread while its inputs are still hot.
+   *
+   * @param threads parallelism of the pool
+   * @param name name of the pool
+   * @return the new ForkJoinPool
+   */
+  public static ForkJoinPool newWorkStealingPool(int threads, final String name) {
+    return new ForkJoinPool(threads, new ForkJoinWorkerThreadFactory() {
+      @Override
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread =
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(name + " " + thread.getPoolIndex());
+        return thread;
+      }
+    }, /*handler=*/null, /*asyncMode=*/false);
+  }
 }
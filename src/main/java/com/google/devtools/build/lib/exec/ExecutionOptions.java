@@ -111,6 +111,39 @@ public class ExecutionOptions extends OptionsBase {
           + "(flaky=1 attribute).")
   public int testAttempts;
 
+  @Option(name = "experimental_local_output_cache",
+      defaultValue = "null",
+      category = "strategy",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, outputs of actions are stored in a content-addressable cache in this "
+          + "directory, relative to the workspace, and restored from it instead of re-executing "
+          + "an action whose command line and input contents match a stored entry. The directory "
+          + "can be shared by several workspaces.")
+  public PathFragment localOutputCache;
+
+  @Option(name = "experimental_local_output_cache_size_mb",
+      defaultValue = "10240",
+      category = "strategy",
+      help = "The size above which the least recently used files are evicted from the "
+          + "--experimental_local_output_cache at the end of a build.")
+  public int localOutputCacheSizeMb;
+
+  @Option(name = "experimental_max_concurrent_digests",
+      defaultValue = "4",
+      category = "strategy",
+      help = "The number of files larger than 4096 bytes whose digests may be calculated at the "
+          + "same time, when the file system doesn't provide digests.")
+  public int maxConcurrentDigests;
+
+  @Option(name = "experimental_critical_path_scheduling",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If enabled, actions waiting for local resources are started in the order of the "
+          + "longest chain of actions that depended on them in previous builds, rather than in "
+          + "the order in which they became ready. The durations of the actions are kept in the "
+          + "output base.")
+  public boolean criticalPathScheduling;
+
   @Option(name = "test_tmpdir",
       defaultValue = "null",
       category = "testing",
@@ -139,4 +139,12 @@ public class PackageCacheOptions extends OptionsBase {
       category = "undocumented",
       help = "Threshold for number of loaded packages before skyframe-m1 cache eviction kicks in")
   public int minLoadedPkgCountForCtNodeEviction;
+
+  @Option(name = "skyframe_value_eviction_heap_budget_mb",
+      defaultValue = "0",
+      category = "undocumented",
+      help = "If positive, the used heap in megabytes above which Skyframe drops the values of "
+          + "globs and directory listings at the end of a build, least recently used first. "
+          + "Dropped values are recomputed from their dependencies when needed again.")
+  public int valueEvictionHeapBudgetMb;
 }
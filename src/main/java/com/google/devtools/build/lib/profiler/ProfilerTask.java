@@ -72,6 +72,9 @@ public enum ProfilerTask {
   CRITICAL_PATH("critical path", -1, 0x666699, 0),
   CRITICAL_PATH_COMPONENT("critical path component", -1, 0x666699, 0),
   IDE_BUILD_INFO("ide_build_info", -1, 0xCC6633, 0),
+  SKYFRAME_EVICTION("skyframe value eviction", -1, 0x996633, 0),
+  SKYFUNCTION_RECOMPUTE("recompute of evicted skyframe value", -1, 0xCC9966, 30),
+  SKYFUNCTION_METRICS("skyfunction evaluation metrics", -1, 0x669999, 0),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
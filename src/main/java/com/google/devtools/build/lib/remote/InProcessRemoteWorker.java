@@ -0,0 +1,221 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.shell.AbnormalTerminationException;
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.protobuf.ByteString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A reference {@link RemoteExecutionService} that runs commands on this machine, in a fresh
+ * directory under its root for each request. Blobs are kept as files under the root, and results
+ * of successful commands in memory.
+ *
+ * <p>It is meant for testing the remote strategy on one machine, and as an example for real
+ * services: it gives commands no isolation beyond their working directory, and since requests
+ * don't carry file modes, makes every input executable.
+ */
+@ThreadSafe
+public class InProcessRemoteWorker implements RemoteExecutionService {
+
+  private final Path casDirectory;
+  private final Path workDirectory;
+  private final ConcurrentMap<ByteString, RemoteWorkResult> results = new ConcurrentHashMap<>();
+
+  private final AtomicInteger findMissingBlobsCalls = new AtomicInteger();
+  private final AtomicInteger uploads = new AtomicInteger();
+  private final AtomicInteger executions = new AtomicInteger();
+
+  public InProcessRemoteWorker(Path root) throws IOException {
+    this.casDirectory = root.getChild("cas");
+    this.workDirectory = root.getChild("work");
+    FileSystemUtils.createDirectoryAndParents(casDirectory);
+    FileSystemUtils.createDirectoryAndParents(workDirectory);
+  }
+
+  @Override
+  public Set<ByteString> findMissingBlobs(Collection<ByteString> digests) {
+    findMissingBlobsCalls.incrementAndGet();
+    Set<ByteString> missing = new LinkedHashSet<>();
+    for (ByteString digest : digests) {
+      if (!getBlob(digest).exists()) {
+        missing.add(digest);
+      }
+    }
+    return missing;
+  }
+
+  @Override
+  public void uploadBlob(ByteString digest, InputStream content) throws IOException {
+    uploads.incrementAndGet();
+    Path tmp = newTmpPath();
+    try (OutputStream out = tmp.getOutputStream()) {
+      ByteStreams.copy(content, out);
+    }
+    ByteString actual = digestOf(tmp);
+    if (!actual.equals(digest)) {
+      tmp.delete();
+      throw new IOException(String.format("Uploaded blob %s has digest %s",
+          digest.toStringUtf8(), actual.toStringUtf8()));
+    }
+    tmp.renameTo(getBlob(digest));
+  }
+
+  @Override
+  public void downloadBlob(ByteString digest, OutputStream content) throws IOException {
+    try (InputStream in = getBlob(digest).getInputStream()) {
+      ByteStreams.copy(in, content);
+    }
+  }
+
+  @Override
+  @Nullable
+  public RemoteWorkResult getCachedResult(ByteString requestDigest) {
+    return results.get(requestDigest);
+  }
+
+  @Override
+  public RemoteWorkResult execute(RemoteWorkRequest request)
+      throws IOException, InterruptedException {
+    executions.incrementAndGet();
+    Path execRoot = newTmpPath();
+    try {
+      for (Map.Entry<String, ByteString> input : request.getInputs().entrySet()) {
+        Path blob = getBlob(input.getValue());
+        if (!blob.exists()) {
+          throw new IOException("Missing input " + input.getKey());
+        }
+        Path target = execRoot.getRelative(input.getKey());
+        FileSystemUtils.createDirectoryAndParents(target.getParentDirectory());
+        FileSystemUtils.copyFile(blob, target);
+        target.setExecutable(true);
+      }
+      for (String output : request.getOutputs()) {
+        FileSystemUtils.createDirectoryAndParents(
+            execRoot.getRelative(output).getParentDirectory());
+      }
+
+      ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+      ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+      int exitCode = run(request, execRoot, stdout, stderr);
+
+      Map<String, ByteString> outputs = new HashMap<>();
+      Set<String> executableOutputs = new HashSet<>();
+      for (String output : request.getOutputs()) {
+        Path path = execRoot.getRelative(output);
+        if (!path.isFile()) {
+          continue;
+        }
+        ByteString digest = digestOf(path);
+        if (!getBlob(digest).exists()) {
+          path.renameTo(getBlob(digest));
+          path = getBlob(digest);
+        }
+        outputs.put(output, digest);
+        if (path.isExecutable()) {
+          executableOutputs.add(output);
+        }
+      }
+      RemoteWorkResult result = new RemoteWorkResult(exitCode,
+          ByteString.copyFrom(stdout.toByteArray()), ByteString.copyFrom(stderr.toByteArray()),
+          outputs, executableOutputs);
+      if (exitCode == 0) {
+        results.put(request.getDigest(), result);
+      }
+      return result;
+    } finally {
+      FileSystemUtils.deleteTree(execRoot);
+    }
+  }
+
+  private static int run(RemoteWorkRequest request, Path execRoot, OutputStream stdout,
+      OutputStream stderr) throws IOException, InterruptedException {
+    String[] args = request.getArguments().toArray(new String[0]);
+    // The process is started from the server's working directory, so a relative path to the
+    // binary has to be resolved against the exec root.
+    if (args[0].indexOf('/') > 0 && !new PathFragment(args[0]).isAbsolute()) {
+      args[0] = execRoot.getRelative(args[0]).getPathString();
+    }
+    Command command = new Command(args, request.getEnvironment(), execRoot.getPathFile());
+    try {
+      command.execute(Command.NO_INPUT, Command.NO_OBSERVER, stdout, stderr,
+          /*killSubprocessOnInterrupt=*/true);
+      return 0;
+    } catch (AbnormalTerminationException e) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException();
+      }
+      TerminationStatus status = e.getResult().getTerminationStatus();
+      return status.exited() ? status.getExitCode() : 128 + status.getTerminatingSignal();
+    } catch (CommandException e) {
+      throw new IOException("Failed to run " + args[0], e);
+    }
+  }
+
+  private Path getBlob(ByteString digest) {
+    return casDirectory.getChild(digest.toStringUtf8());
+  }
+
+  private Path newTmpPath() {
+    return workDirectory.getChild(UUID.randomUUID().toString());
+  }
+
+  private static ByteString digestOf(Path path) throws IOException {
+    return ByteString.copyFrom(
+        BaseEncoding.base16().lowerCase().encode(path.getMD5Digest()).getBytes(US_ASCII));
+  }
+
+  @VisibleForTesting
+  int getFindMissingBlobsCalls() {
+    return findMissingBlobsCalls.get();
+  }
+
+  @VisibleForTesting
+  int getUploads() {
+    return uploads.get();
+  }
+
+  @VisibleForTesting
+  int getExecutions() {
+    return executions.get();
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A service that stores file contents by digest, and runs commands on inputs that it stores.
+ * Digests are the lowercase hex MD5 digests used by {@link
+ * com.google.devtools.build.lib.actions.ActionInputFileCache}.
+ *
+ * <p>Every method is one round trip to the service, so callers should check for many blobs at
+ * once, and may transfer blobs concurrently.
+ */
+@ThreadSafe
+public interface RemoteExecutionService {
+
+  /**
+   * Returns the digests among the given ones whose contents the service doesn't have.
+   */
+  Set<ByteString> findMissingBlobs(Collection<ByteString> digests) throws IOException;
+
+  /**
+   * Stores the contents read from the stream under the given digest.
+   */
+  void uploadBlob(ByteString digest, InputStream content) throws IOException;
+
+  /**
+   * Writes the contents stored under the given digest to the stream.
+   *
+   * @throws IOException if the service doesn't have the blob
+   */
+  void downloadBlob(ByteString digest, OutputStream content) throws IOException;
+
+  /**
+   * Returns the result of a successful earlier execution of a request with the given digest, or
+   * null if there is none.
+   */
+  @Nullable
+  RemoteWorkResult getCachedResult(ByteString requestDigest) throws IOException;
+
+  /**
+   * Runs the command of the request, whose inputs must all have been uploaded, and stores its
+   * outputs. A command that exits with a non-zero code is not an error.
+   */
+  RemoteWorkResult execute(RemoteWorkRequest request) throws IOException, InterruptedException;
+}
@@ -0,0 +1,108 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Executor.ActionContext;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.standalone.LocalSpawnStrategy;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.common.options.OptionsBase;
+
+import java.io.IOException;
+
+/**
+ * Provides the "remote" spawn strategy, selected with --spawn_strategy=remote. Spawns are executed
+ * by an {@link InProcessRemoteWorker} under the output base, which stands in for a remote
+ * execution service; it is kept across builds, so that its result cache is too.
+ */
+public class RemoteModule extends BlazeModule {
+  private BlazeRuntime runtime;
+  private BuildRequest buildRequest;
+  private InProcessRemoteWorker worker;
+
+  private class RemoteActionContextProvider implements ActionContextProvider {
+    private final RemoteSpawnStrategy strategy;
+
+    private RemoteActionContextProvider(RemoteExecutionService service) {
+      RemoteOptions options = buildRequest.getOptions(RemoteOptions.class);
+      boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+      this.strategy = new RemoteSpawnStrategy(runtime.getDirectories().getExecRoot(), service,
+          new LocalSpawnStrategy(runtime.getDirectories().getExecRoot(), verboseFailures),
+          options.remoteTransferThreads, options.remoteBlobBatchSize, verboseFailures);
+    }
+
+    @Override
+    public Iterable<ActionContext> getActionContexts() {
+      return ImmutableList.<ActionContext>of(strategy);
+    }
+
+    @Override
+    public void executorCreated(Iterable<ActionContext> usedContexts) {
+    }
+
+    @Override
+    public void executionPhaseStarting(ActionInputFileCache actionInputFileCache,
+        ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts) {
+    }
+
+    @Override
+    public void executionPhaseEnding() {
+      strategy.shutdown();
+    }
+  }
+
+  @Override
+  public void beforeCommand(BlazeRuntime runtime, Command command) throws AbruptExitException {
+    this.runtime = runtime;
+    runtime.getEventBus().register(this);
+    if (command.builds() && worker == null) {
+      try {
+        worker = new InProcessRemoteWorker(
+            runtime.getDirectories().getOutputBase().getRelative("remote_worker"));
+      } catch (IOException e) {
+        throw new AbruptExitException("Failed to create the remote worker: " + e.getMessage(),
+            ExitCode.LOCAL_ENVIRONMENTAL_ERROR, e);
+      }
+    }
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return command.builds()
+        ? ImmutableList.<Class<? extends OptionsBase>>of(RemoteOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
+  }
+
+  @Override
+  public ActionContextProvider getActionContextProvider() {
+    return new RemoteActionContextProvider(worker);
+  }
+
+  @Subscribe
+  public void buildStarting(BuildStartingEvent event) {
+    buildRequest = event.getRequest();
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options affecting how spawns are executed with --spawn_strategy=remote.
+ */
+public class RemoteOptions extends OptionsBase {
+  @Option(name = "remote_transfer_threads",
+      defaultValue = "8",
+      category = "strategy",
+      help = "The number of concurrent uploads and downloads of files to and from the remote "
+          + "execution service.")
+  public int remoteTransferThreads;
+
+  @Option(name = "remote_blob_batch_size",
+      defaultValue = "1000",
+      category = "strategy",
+      help = "The maximum number of files whose presence is checked in one request to the "
+          + "remote execution service.")
+  public int remoteBlobBatchSize;
+}
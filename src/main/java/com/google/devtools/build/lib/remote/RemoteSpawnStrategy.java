@@ -0,0 +1,366 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.base.Functions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.ActionInputPrefetcher;
+import com.google.devtools.build.lib.actions.ActionInputsPrefetchedEvent;
+import com.google.devtools.build.lib.actions.ActionMetadata;
+import com.google.devtools.build.lib.actions.DigestOfDirectoryException;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.CommandFailureUtils;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * Strategy that runs spawns on a {@link RemoteExecutionService}.
+ *
+ * <p>Before a spawn is executed, the service is asked which of its inputs it lacks, in batches,
+ * and only those are uploaded. Uploads and downloads run concurrently on a pool of transfer
+ * threads. Digests that the service is known to have, because they were checked, uploaded or
+ * produced by an earlier spawn of the build, are not checked again. If the service has the result
+ * of an identical earlier request, the spawn isn't executed at all.
+ *
+ * <p>Spawns that are not remotable, or that need runfiles or filesets, which are trees the
+ * service can't reproduce from a list of files, are executed by the fallback strategy.
+ *
+ * <p>The inputs of a remotable action are uploaded ahead of its execution, on a separate pool of
+ * prefetch threads. The upload overlaps with the wait for resources and with the lookup of the
+ * result in the service's cache, and execution only waits for what is left of it.
+ */
+@ExecutionStrategy(name = { "remote" }, contextType = SpawnActionContext.class)
+public class RemoteSpawnStrategy implements SpawnActionContext, ActionInputPrefetcher {
+  private final Path execRoot;
+  private final RemoteExecutionService service;
+  private final SpawnActionContext fallbackStrategy;
+  private final ListeningExecutorService transferPool;
+  private final ListeningExecutorService prefetchPool;
+  private final int batchSize;
+  private final boolean verboseFailures;
+  private final Set<ByteString> knownBlobs = Sets.newConcurrentHashSet();
+  private final ConcurrentMap<ActionMetadata, Prefetch> prefetches = new ConcurrentHashMap<>();
+
+  public RemoteSpawnStrategy(Path execRoot, RemoteExecutionService service,
+      SpawnActionContext fallbackStrategy, int transferThreads, int batchSize,
+      boolean verboseFailures) {
+    this.execRoot = execRoot;
+    this.service = service;
+    this.fallbackStrategy = fallbackStrategy;
+    this.transferPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+        transferThreads,
+        new ThreadFactoryBuilder().setNameFormat("remote-transfer-%d").setDaemon(true).build()));
+    // Prefetches wait for transfers, so they can't run on the transfer pool.
+    this.prefetchPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+        transferThreads,
+        new ThreadFactoryBuilder().setNameFormat("remote-prefetch-%d").setDaemon(true).build()));
+    this.batchSize = batchSize;
+    this.verboseFailures = verboseFailures;
+  }
+
+  /**
+   * Executes the given {@code spawn}.
+   */
+  @Override
+  public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    Prefetch prefetch = prefetches.remove(spawn.getResourceOwner());
+    if (!spawn.isRemotable() || !spawn.getRunfilesManifests().isEmpty()
+        || !spawn.getFilesetManifests().isEmpty()) {
+      cancel(prefetch);
+      fallbackStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+    ActionInputFileCache inputFileCache = actionExecutionContext.getActionInputFileCache();
+    Map<String, ByteString> inputs;
+    try {
+      inputs = digestInputs(ActionInputHelper.expandMiddlemen(spawn.getInputFiles(),
+          actionExecutionContext.getMiddlemanExpander()), inputFileCache);
+    } catch (DigestOfDirectoryException e) {
+      cancel(prefetch);
+      fallbackStrategy.exec(spawn, actionExecutionContext);
+      return;
+    } catch (IOException e) {
+      cancel(prefetch);
+      throw new EnvironmentalExecException("Failed to digest inputs: " + e.getMessage(), e);
+    }
+
+    Executor executor = actionExecutionContext.getExecutor();
+    if (executor.reportsSubcommands()) {
+      executor.reportSubcommand(Label.print(spawn.getOwner().getLabel()),
+          spawn.asShellCommand(executor.getExecRoot()));
+    }
+
+    // The exec root is different on the worker, so paths into it must be relative.
+    List<String> arguments = new ArrayList<>();
+    String execRootPrefix = execRoot.getPathString() + "/";
+    for (String arg : spawn.getArguments()) {
+      arguments.add(arg.startsWith(execRootPrefix) ? arg.substring(execRootPrefix.length()) : arg);
+    }
+    RemoteWorkRequest request = new RemoteWorkRequest(arguments, spawn.getEnvironment(), inputs,
+        ActionInputHelper.toExecPaths(spawn.getOutputFiles()));
+
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    RemoteWorkResult result;
+    try {
+      result = service.getCachedResult(request.getDigest());
+      if (result == null) {
+        if (prefetch != null) {
+          prefetch.await(spawn.getResourceOwner(), executor);
+        }
+        uploadMissingInputs(request.getInputs(), inputFileCache);
+        result = service.execute(request);
+      }
+      result.getStdout().writeTo(outErr.getOutputStream());
+      result.getStderr().writeTo(outErr.getErrorStream());
+      if (result.getExitCode() == 0) {
+        downloadOutputs(result);
+      }
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("Remote execution failed: " + e.getMessage(), e);
+    } finally {
+      cancel(prefetch);
+    }
+    if (result.getExitCode() != 0) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(),
+          execRoot.getPathString());
+      throw new UserExecException(
+          String.format("%s: Exit %d", message, result.getExitCode()));
+    }
+  }
+
+  @Override
+  public ListenableFuture<Void> prefetchInputs(ActionMetadata action,
+      final Iterable<? extends ActionInput> inputs, ActionExecutionContext actionExecutionContext) {
+    final ActionInputFileCache inputFileCache = actionExecutionContext.getActionInputFileCache();
+    long startNanos = BlazeClock.nanoTime();
+    ListenableFuture<Long> finishNanos = prefetchPool.submit(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException, InterruptedException {
+        try {
+          uploadMissingInputs(digestInputs(inputs, inputFileCache), inputFileCache);
+        } catch (DigestOfDirectoryException e) {
+          // The action will be executed by the fallback strategy.
+        }
+        return BlazeClock.nanoTime();
+      }
+    });
+    prefetches.put(action, new Prefetch(startNanos, finishNanos));
+    return Futures.transform(finishNanos, Functions.<Void>constant(null));
+  }
+
+  @Override
+  public void discardPrefetch(ActionMetadata action) {
+    cancel(prefetches.remove(action));
+  }
+
+  private static void cancel(Prefetch prefetch) {
+    if (prefetch != null) {
+      prefetch.finishNanos.cancel(true);
+    }
+  }
+
+  /** A prefetch of the inputs of an action that hasn't executed yet. */
+  private static class Prefetch {
+    private final long startNanos;
+    private final ListenableFuture<Long> finishNanos;
+
+    private Prefetch(long startNanos, ListenableFuture<Long> finishNanos) {
+      this.startNanos = startNanos;
+      this.finishNanos = finishNanos;
+    }
+
+    /**
+     * Waits for the prefetch, once the action needs its inputs, and reports how much of it
+     * overlapped with other work of the action.
+     */
+    private void await(ActionMetadata action, Executor executor) throws InterruptedException {
+      long neededNanos = BlazeClock.nanoTime();
+      long finished;
+      try {
+        finished = finishNanos.get();
+      } catch (ExecutionException e) {
+        // The inputs that are still missing are uploaded again, which reports a lasting failure.
+        return;
+      }
+      executor.getEventBus().post(new ActionInputsPrefetchedEvent(action, finished - startNanos,
+          Math.min(finished, neededNanos) - startNanos));
+    }
+  }
+
+  /**
+   * Returns the digests of the inputs by exec path.
+   */
+  private static Map<String, ByteString> digestInputs(Iterable<? extends ActionInput> inputs,
+      ActionInputFileCache inputFileCache) throws IOException {
+    Map<String, ByteString> digests = new HashMap<>();
+    for (ActionInput input : inputs) {
+      ByteString digest = inputFileCache.getDigest(input);
+      if (digest != null) {
+        digests.put(input.getExecPathString(), digest);
+      }
+    }
+    return digests;
+  }
+
+  private void uploadMissingInputs(Map<String, ByteString> inputs,
+      final ActionInputFileCache inputFileCache) throws IOException, InterruptedException {
+    final Map<ByteString, String> unknown = new HashMap<>();
+    for (Map.Entry<String, ByteString> input : inputs.entrySet()) {
+      if (!knownBlobs.contains(input.getValue())) {
+        unknown.put(input.getValue(), input.getKey());
+      }
+    }
+    List<ListenableFuture<Set<ByteString>>> checks = new ArrayList<>();
+    for (final List<ByteString> batch : Iterables.partition(unknown.keySet(), batchSize)) {
+      checks.add(transferPool.submit(new Callable<Set<ByteString>>() {
+        @Override
+        public Set<ByteString> call() throws IOException {
+          return service.findMissingBlobs(batch);
+        }
+      }));
+    }
+    Set<ByteString> missing = new HashSet<>();
+    for (Set<ByteString> batchMissing : waitFor(checks)) {
+      missing.addAll(batchMissing);
+    }
+    for (ByteString digest : unknown.keySet()) {
+      if (!missing.contains(digest)) {
+        knownBlobs.add(digest);
+      }
+    }
+
+    List<ListenableFuture<Void>> uploads = new ArrayList<>();
+    for (final ByteString digest : missing) {
+      uploads.add(transferPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          File file = inputFileCache.contentsAvailableLocally(digest)
+              ? inputFileCache.getFileFromDigest(digest)
+              : null;
+          try (InputStream in = file != null
+              ? new FileInputStream(file)
+              : execRoot.getRelative(unknown.get(digest)).getInputStream()) {
+            service.uploadBlob(digest, in);
+          }
+          knownBlobs.add(digest);
+          return null;
+        }
+      }));
+    }
+    waitFor(uploads);
+  }
+
+  private void downloadOutputs(final RemoteWorkResult result)
+      throws IOException, InterruptedException {
+    List<ListenableFuture<Void>> downloads = new ArrayList<>();
+    for (final Map.Entry<String, ByteString> output : result.getOutputs().entrySet()) {
+      downloads.add(transferPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          Path path = execRoot.getRelative(output.getKey());
+          FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+          try (OutputStream out = path.getOutputStream()) {
+            service.downloadBlob(output.getValue(), out);
+          }
+          if (result.getExecutableOutputs().contains(output.getKey())) {
+            path.setExecutable(true);
+          }
+          // Later spawns that take this output as an input needn't upload it.
+          knownBlobs.add(output.getValue());
+          return null;
+        }
+      }));
+    }
+    waitFor(downloads);
+  }
+
+  /**
+   * Waits for all the transfers, and rethrows the first failure. On interruption, cancels the
+   * transfers that are still running.
+   */
+  private static <T> List<T> waitFor(Collection<ListenableFuture<T>> transfers)
+      throws IOException, InterruptedException {
+    ListenableFuture<List<T>> all = Futures.allAsList(transfers);
+    try {
+      return all.get();
+    } catch (InterruptedException e) {
+      all.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * Stops the transfer and prefetch threads.
+   */
+  public void shutdown() {
+    prefetchPool.shutdownNow();
+    transferPool.shutdownNow();
+  }
+
+  @Override
+  public String strategyLocality(String mnemonic, boolean remotable) {
+    return remotable ? "remote" : fallbackStrategy.strategyLocality(mnemonic, remotable);
+  }
+
+  @Override
+  public boolean isRemotable(String mnemonic, boolean remotable) {
+    return remotable;
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.protobuf.ByteString;
+
+import java.util.Map;
+
+/**
+ * A command to run on a remote worker: its arguments and environment, the digests of its input
+ * files, and the output files to send back, all relative to the exec root.
+ */
+@Immutable
+public final class RemoteWorkRequest {
+  private final ImmutableList<String> arguments;
+  private final ImmutableSortedMap<String, String> environment;
+  private final ImmutableSortedMap<String, ByteString> inputs;
+  private final ImmutableList<String> outputs;
+  private final ByteString digest;
+
+  public RemoteWorkRequest(Iterable<String> arguments, Map<String, String> environment,
+      Map<String, ByteString> inputs, Iterable<String> outputs) {
+    this.arguments = ImmutableList.copyOf(arguments);
+    this.environment = ImmutableSortedMap.copyOf(environment);
+    this.inputs = ImmutableSortedMap.copyOf(inputs);
+    this.outputs = ImmutableList.copyOf(outputs);
+    this.digest = computeDigest();
+  }
+
+  private ByteString computeDigest() {
+    Fingerprint fp = new Fingerprint();
+    fp.addStrings(arguments);
+    fp.addStringMap(environment);
+    fp.addInt(inputs.size());
+    for (Map.Entry<String, ByteString> input : inputs.entrySet()) {
+      fp.addString(input.getKey());
+      fp.addBytes(input.getValue().toByteArray());
+    }
+    fp.addStrings(outputs);
+    return ByteString.copyFromUtf8(fp.hexDigestAndReset());
+  }
+
+  public ImmutableList<String> getArguments() {
+    return arguments;
+  }
+
+  public ImmutableSortedMap<String, String> getEnvironment() {
+    return environment;
+  }
+
+  /**
+   * Returns the digest of each input file, by exec path.
+   */
+  public ImmutableSortedMap<String, ByteString> getInputs() {
+    return inputs;
+  }
+
+  public ImmutableList<String> getOutputs() {
+    return outputs;
+  }
+
+  /**
+   * Returns a digest of the whole request, under which a service may cache its result.
+   */
+  public ByteString getDigest() {
+    return digest;
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.protobuf.ByteString;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of a {@link RemoteWorkRequest}: the exit code and console output of the command, and
+ * the digests of the output files it produced, whose contents are available from the service.
+ */
+@Immutable
+public final class RemoteWorkResult {
+  private final int exitCode;
+  private final ByteString stdout;
+  private final ByteString stderr;
+  private final ImmutableMap<String, ByteString> outputs;
+  private final ImmutableSet<String> executableOutputs;
+
+  public RemoteWorkResult(int exitCode, ByteString stdout, ByteString stderr,
+      Map<String, ByteString> outputs, Set<String> executableOutputs) {
+    this.exitCode = exitCode;
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.outputs = ImmutableMap.copyOf(outputs);
+    this.executableOutputs = ImmutableSet.copyOf(executableOutputs);
+  }
+
+  public int getExitCode() {
+    return exitCode;
+  }
+
+  public ByteString getStdout() {
+    return stdout;
+  }
+
+  public ByteString getStderr() {
+    return stderr;
+  }
+
+  /**
+   * Returns the digest of each output file that the command created, by exec path.
+   */
+  public ImmutableMap<String, ByteString> getOutputs() {
+    return outputs;
+  }
+
+  /**
+   * Returns the exec paths of the outputs that are executable.
+   */
+  public ImmutableSet<String> getExecutableOutputs() {
+    return executableOutputs;
+  }
+}
@@ -17,7 +17,6 @@ package com.google.devtools.build.lib.rules.cpp;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,6 +29,7 @@ import com.google.devtools.build.lib.analysis.RuleContext;
 import com.google.devtools.build.lib.analysis.actions.CommandLine;
 import com.google.devtools.build.lib.analysis.config.BuildConfiguration;
 import com.google.devtools.build.lib.collect.CollectionUtils;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.rules.cpp.Link.LinkStaticness;
 import com.google.devtools.build.lib.rules.cpp.Link.LinkTargetType;
@@ -39,7 +39,6 @@ import com.google.devtools.build.lib.util.ShellEscaper;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -355,7 +354,21 @@ public final class LinkCommandLine extends CommandLine {
    * @return raw link command line.
    */
   public List<String> getRawLinkArgv() {
-    List<String> argv = new ArrayList<>();
+    final List<String> argv = new ArrayList<>();
+    visitRawLinkArgv(new Receiver<String>() {
+      @Override
+      public void accept(String arg) {
+        argv.add(arg);
+      }
+    });
+    return argv;
+  }
+
+  /**
+   * Passes the arguments of {@link #getRawLinkArgv} to {@code argv}, in order, without collecting
+   * them into a list.
+   */
+  private void visitRawLinkArgv(final Receiver<String> argv) {
     switch (linkTargetType) {
       case EXECUTABLE:
         addCppArgv(argv);
@@ -363,21 +376,27 @@ public final class LinkCommandLine extends CommandLine {
 
       case DYNAMIC_LIBRARY:
         if (interfaceOutput != null) {
-          argv.add(configuration.getShExecutable().getPathString());
-          argv.add("-c");
-          argv.add("build_iface_so=\"$0\"; impl=\"$1\"; iface=\"$2\"; cmd=\"$3\"; shift 3; "
+          argv.accept(configuration.getShExecutable().getPathString());
+          argv.accept("-c");
+          argv.accept("build_iface_so=\"$0\"; impl=\"$1\"; iface=\"$2\"; cmd=\"$3\"; shift 3; "
               + "\"$cmd\" \"$@\" && \"$build_iface_so\" \"$impl\" \"$iface\"");
-          argv.add(interfaceSoBuilder.getExecPathString());
-          argv.add(output.getExecPathString());
-          argv.add(interfaceOutput.getExecPathString());
+          argv.accept(interfaceSoBuilder.getExecPathString());
+          argv.accept(output.getExecPathString());
+          argv.accept(interfaceOutput.getExecPathString());
         }
-        addCppArgv(argv);
         // -pie is not compatible with -shared and should be
         // removed when the latter is part of the link command. Should we need to further
         // distinguish between shared libraries and executables, we could add additional
         // command line / CROSSTOOL flags that distinguish them. But as long as this is
         // the only relevant use case we're just special-casing it here.
-        Iterables.removeIf(argv, Predicates.equalTo("-pie"));
+        addCppArgv(new Receiver<String>() {
+          @Override
+          public void accept(String arg) {
+            if (!arg.equals("-pie")) {
+              argv.accept(arg);
+            }
+          }
+        });
         break;
 
       case STATIC_LIBRARY:
@@ -386,10 +405,10 @@ public final class LinkCommandLine extends CommandLine {
       case ALWAYS_LINK_PIC_STATIC_LIBRARY:
         // The static library link command follows this template:
         // ar <cmd> <output_archive> <input_files...>
-        argv.add(cppConfiguration.getArExecutable().getPathString());
-        argv.addAll(
+        argv.accept(cppConfiguration.getArExecutable().getPathString());
+        acceptAll(argv,
             cppConfiguration.getArFlags(cppConfiguration.archiveType() == Link.ArchiveType.THIN));
-        argv.add(output.getExecPathString());
+        argv.accept(output.getExecPathString());
         addInputFileLinkOptions(argv, /*needWholeArchive=*/false,
             /*includeLinkopts=*/false);
         break;
@@ -400,10 +419,8 @@ public final class LinkCommandLine extends CommandLine {
 
     // Fission mode: debug info is in .dwo files instead of .o files. Inform the linker of this.
     if (!linkTargetType.isStaticLibraryLink() && cppConfiguration.useFission()) {
-      argv.add("-Wl,--gdb-index");
+      argv.accept("-Wl,--gdb-index");
     }
-
-    return argv;
   }
 
   @Override
@@ -411,6 +428,16 @@ public final class LinkCommandLine extends CommandLine {
     return finalizeWithLinkstampCommands(getRawLinkArgv());
   }
 
+  @Override
+  public void visitArguments(Receiver<String> receiver) {
+    if (linkstamps.isEmpty()) {
+      // Without linkstamps the raw link command is the final one.
+      visitRawLinkArgv(receiver);
+    } else {
+      super.visitArguments(receiver);
+    }
+  }
+
   /**
    * Takes a raw link command line and gives the final link command that will
    * also first compile any linkstamps necessary. Elements of rawLinkArgv are
@@ -577,21 +604,21 @@ public final class LinkCommandLine extends CommandLine {
    * Determine the arguments to pass to the C++ compiler when linking.
    * Add them to the {@code argv} parameter.
    */
-  private void addCppArgv(List<String> argv) {
-    argv.add(cppConfiguration.getCppExecutable().getPathString());
+  private void addCppArgv(Receiver<String> argv) {
+    argv.accept(cppConfiguration.getCppExecutable().getPathString());
 
     // When using gold to link an executable, output the number of used and unused symbols.
     if (symbolCountsOutput != null) {
-      argv.add("-Wl,--print-symbol-counts=" + symbolCountsOutput.getExecPathString());
+      argv.accept("-Wl,--print-symbol-counts=" + symbolCountsOutput.getExecPathString());
     }
 
     if (linkTargetType == LinkTargetType.DYNAMIC_LIBRARY) {
-      argv.add("-shared");
+      argv.accept("-shared");
     }
 
     // Add the outputs of any associated linkstamp compilations.
     for (Artifact linkstampOutput : linkstamps.values()) {
-      argv.add(linkstampOutput.getExecPathString());
+      argv.accept(linkstampOutput.getExecPathString());
     }
 
     boolean fullyStatic = (linkStaticness == LinkStaticness.FULLY_STATIC);
@@ -602,15 +629,18 @@ public final class LinkCommandLine extends CommandLine {
         || cppConfiguration.getLinkOptions().contains("-shared");
 
     if (output != null) {
-      argv.add("-o");
+      argv.accept("-o");
       String execpath = output.getExecPathString();
       if (mostlyStatic
           && linkTargetType == LinkTargetType.EXECUTABLE
           && cppConfiguration.skipStaticOutputs()) {
         // Linked binary goes to /dev/null; bogus dependency info in its place.
-        Collections.addAll(argv, "/dev/null", "-MMD", "-MF", execpath);  // thanks Ambrose
+        argv.accept("/dev/null");  // thanks Ambrose
+        argv.accept("-MMD");
+        argv.accept("-MF");
+        argv.accept(execpath);
       } else {
-        argv.add(execpath);
+        argv.accept(execpath);
       }
     }
 
@@ -618,28 +648,34 @@ public final class LinkCommandLine extends CommandLine {
 
     // Extra toolchain link options based on the output's link staticness.
     if (fullyStatic) {
-      argv.addAll(cppConfiguration.getFullyStaticLinkOptions(features, sharedLinkopts));
+      acceptAll(argv, cppConfiguration.getFullyStaticLinkOptions(features, sharedLinkopts));
     } else if (mostlyStatic) {
-      argv.addAll(cppConfiguration.getMostlyStaticLinkOptions(features, sharedLinkopts));
+      acceptAll(argv, cppConfiguration.getMostlyStaticLinkOptions(features, sharedLinkopts));
     } else {
-      argv.addAll(cppConfiguration.getDynamicLinkOptions(features, sharedLinkopts));
+      acceptAll(argv, cppConfiguration.getDynamicLinkOptions(features, sharedLinkopts));
     }
 
     // Extra test-specific link options.
     if (useTestOnlyFlags) {
-      argv.addAll(cppConfiguration.getTestOnlyLinkOptions());
+      acceptAll(argv, cppConfiguration.getTestOnlyLinkOptions());
     }
 
     if (configuration.isCodeCoverageEnabled()) {
-      argv.add("-lgcov");
+      argv.accept("-lgcov");
     }
 
     if (linkTargetType == LinkTargetType.EXECUTABLE && cppConfiguration.forcePic()) {
-      argv.add("-pie");
+      argv.accept("-pie");
     }
 
-    argv.addAll(cppConfiguration.getLinkOptions());
-    argv.addAll(cppConfiguration.getFdoSupport().getLinkOptions());
+    acceptAll(argv, cppConfiguration.getLinkOptions());
+    acceptAll(argv, cppConfiguration.getFdoSupport().getLinkOptions());
+  }
+
+  private static void acceptAll(Receiver<String> argv, Iterable<String> args) {
+    for (String arg : args) {
+      argv.accept(arg);
+    }
   }
 
   private static boolean isDynamicLibrary(LinkerInput linkInput) {
@@ -661,7 +697,7 @@ public final class LinkCommandLine extends CommandLine {
    * library objects (.lo) need to be wrapped with -Wl,-whole-archive and
    * -Wl,-no-whole-archive.
    */
-  private void addInputFileLinkOptions(List<String> argv, boolean globalNeedWholeArchive,
+  private void addInputFileLinkOptions(Receiver<String> argv, boolean globalNeedWholeArchive,
       boolean includeLinkopts) {
     // The Apple ld doesn't support -whole-archive/-no-whole-archive. It
     // does have -all_load/-noall_load, but -all_load is a global setting
@@ -670,7 +706,7 @@ public final class LinkCommandLine extends CommandLine {
     // bloated binaries.
     boolean macosx = cppConfiguration.getTargetLibc().equals("macosx");
     if (globalNeedWholeArchive) {
-      argv.add(macosx ? "-Wl,-all_load" : "-Wl,-whole-archive");
+      argv.accept(macosx ? "-Wl,-all_load" : "-Wl,-whole-archive");
     }
 
     // Used to collect -L and -Wl,-rpath options, ensuring that each used only once.
@@ -783,27 +819,27 @@ public final class LinkCommandLine extends CommandLine {
 
     // rpath ordering matters for performance; first add the one where most libraries are found.
     if (includeSolibDir && rpathRoot != null) {
-      argv.add(rpathRoot);
+      argv.accept(rpathRoot);
     }
     if (includeRuntimeSolibDir) {
-      argv.addAll(runtimeRpathEntries);
+      acceptAll(argv, runtimeRpathEntries);
     }
-    argv.addAll(libOpts);
+    acceptAll(argv, libOpts);
 
     // Need to wrap static libraries with whole-archive option
     for (String option : linkerInputs) {
       if (!globalNeedWholeArchive && Link.LINK_LIBRARY_FILETYPES.matches(option)) {
-        argv.add(macosx ? "-Wl,-all_load" : "-Wl,-whole-archive");
-        argv.add(option);
-        argv.add(macosx ? "-Wl,-noall_load" : "-Wl,-no-whole-archive");
+        argv.accept(macosx ? "-Wl,-all_load" : "-Wl,-whole-archive");
+        argv.accept(option);
+        argv.accept(macosx ? "-Wl,-noall_load" : "-Wl,-no-whole-archive");
       } else {
-        argv.add(option);
+        argv.accept(option);
       }
     }
 
     if (globalNeedWholeArchive) {
-      argv.add(macosx ? "-Wl,-noall_load" : "-Wl,-no-whole-archive");
-      argv.addAll(noWholeArchiveInputs);
+      argv.accept(macosx ? "-Wl,-noall_load" : "-Wl,-no-whole-archive");
+      acceptAll(argv, noWholeArchiveInputs);
     }
 
     if (includeLinkopts) {
@@ -819,7 +855,7 @@ public final class LinkCommandLine extends CommandLine {
        * (global defaults, per-target linkopts, and command-line linkopts),
        * we have no idea what the right order should be, or if anyone cares.
        */
-      argv.addAll(linkopts);
+      acceptAll(argv, linkopts);
     }
   }
 
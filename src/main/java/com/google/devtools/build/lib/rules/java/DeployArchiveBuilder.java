@@ -157,7 +157,7 @@ public class DeployArchiveBuilder {
       ImmutableList<String> deployManifestLines, Iterable<Artifact> buildInfoFiles,
       ImmutableList<Artifact> classpathResources,
       Iterable<Artifact> runtimeClasspath, boolean includeBuildData,
-      Compression compress, Artifact launcher) {
+      Compression compress, Artifact launcher, boolean incremental) {
 
     CustomCommandLine.Builder args = CustomCommandLine.builder();
     args.addExecPath("--output", outputJar);
@@ -187,6 +187,9 @@ public class DeployArchiveBuilder {
       args.add("--java_launcher");
       args.add(launcher.getExecPathString());
     }
+    if (incremental) {
+      args.add("--incremental");
+    }
 
     args.addExecPaths("--classpath_resources", classpathResources);
     args.addExecPaths("--sources", runtimeClasspath);
@@ -35,6 +35,7 @@ import com.google.devtools.build.lib.actions.EnvironmentalExecException;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.ParameterFile;
+import com.google.devtools.build.lib.actions.RemotableAction;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
@@ -61,6 +62,7 @@ import com.google.devtools.build.lib.util.StringCanonicalizer;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerSpawnStrategy;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -72,7 +74,7 @@ import java.util.List;
  * Action that represents a Java compilation.
  */
 @ThreadCompatible
-public class JavaCompileAction extends AbstractAction {
+public class JavaCompileAction extends AbstractAction implements RemotableAction {
 
   private static final String GUID = "786e174d-ed97-4e79-9f61-ae74430714cf";
 
@@ -355,8 +357,9 @@ public class JavaCompileAction extends AbstractAction {
       }
 
       final ImmutableList<ActionInput> finalOutputs = ImmutableList.copyOf(outputs);
+      // JavaBuilder can run as a persistent worker; see WorkerSpawnStrategy.
       Spawn spawn = new BaseSpawn(getCommand(), ImmutableMap.<String, String>of(),
-          ImmutableMap.<String, String>of(), this, LOCAL_RESOURCES) {
+          ImmutableMap.of(WorkerSpawnStrategy.SUPPORTS_WORKERS, ""), this, LOCAL_RESOURCES) {
         @Override
         public Collection<? extends ActionInput> getOutputFiles() {
           return finalOutputs;
@@ -374,7 +377,7 @@ public class JavaCompileAction extends AbstractAction {
   protected String computeKey() {
     Fingerprint f = new Fingerprint();
     f.addString(GUID);
-    f.addStrings(commandLine.arguments());
+    commandLine.addToFingerprint(f);
     return f.hexDigestAndReset();
   }
 
@@ -405,13 +408,18 @@ public class JavaCompileAction extends AbstractAction {
 
   @Override
   public String describeStrategy(Executor executor) {
-    return getContext(executor).strategyLocality(getMnemonic(), true);
+    return getContext(executor).strategyLocality(getMnemonic(), isRemotable());
+  }
+
+  @Override
+  public boolean isRemotable() {
+    return true;
   }
 
   @Override
   public ResourceSet estimateResourceConsumption(Executor executor) {
     SpawnActionContext context = getContext(executor);
-    if (context.isRemotable(getMnemonic(), true)) {
+    if (context.isRemotable(getMnemonic(), isRemotable())) {
       return ResourceSet.ZERO;
     }
     return LOCAL_RESOURCES;
@@ -55,6 +55,7 @@ public final class JavaConfiguration extends Fragment {
   private final ImmutableList<String> defaultJavaBuilderJvmOpts;
   private final Label javaLangtoolsJar;
   private final boolean useIjars;
+  private final boolean incrementalDeployJars;
   private final boolean generateJavaDeps;
   private final JavaClasspathMode experimentalJavaClasspath;
   private final ImmutableList<String> javaWarns;
@@ -80,6 +81,7 @@ public final class JavaConfiguration extends Fragment {
     this.defaultJavaBuilderJvmOpts = defaultJavaBuilderJvmOpts;
     this.javaLangtoolsJar = javaOptions.javaLangtoolsJar;
     this.useIjars = javaOptions.useIjars;
+    this.incrementalDeployJars = javaOptions.incrementalDeployJars;
     this.generateJavaDeps = generateJavaDeps;
     this.experimentalJavaClasspath = javaOptions.experimentalJavaClasspath;
     this.javaWarns = ImmutableList.copyOf(javaOptions.javaWarns);
@@ -169,6 +171,13 @@ public final class JavaConfiguration extends Fragment {
     return useIjars;
   }
 
+  /**
+   * Returns true iff deploy jars should be built from their previous version.
+   */
+  public boolean getIncrementalDeployJars() {
+    return incrementalDeployJars;
+  }
+
   /**
    * Returns true iff dependency information is generated after compilation.
    */
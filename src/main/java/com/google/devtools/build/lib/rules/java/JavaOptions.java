@@ -162,6 +162,14 @@ public class JavaOptions extends FragmentOptions {
       help = "No-op. Kept here for backwards compatibility.")
   public boolean incrementalIjars;
 
+  @Option(name = "experimental_incremental_deploy_jars",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If enabled, deploy jars are built from the previous version of the deploy jar, "
+          + "copying the entries of unchanged jars as they are. This keeps two extra files next "
+          + "to each deploy jar, and only helps if the deploy jar action runs locally.")
+  public boolean incrementalDeployJars;
+
   @Option(name = "java_deps",
       defaultValue = "true",
       category = "strategy",
@@ -37,6 +37,9 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
   /** We keep here the critical path time for the most expensive child. */
   private long childAggregatedElapsedTime = 0;
 
+  /** Time that prefetching the inputs of the action took off its elapsed time. */
+  private long prefetchSavedNanos = 0;
+
   /** The action for which we are storing the stat. */
   private final Action action;
 
@@ -72,6 +75,17 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
     return false;
   }
 
+  /**
+   * Records the time that prefetching the inputs of the action took off its elapsed time.
+   */
+  public synchronized void setPrefetchSavedNanos(long prefetchSavedNanos) {
+    this.prefetchSavedNanos = prefetchSavedNanos;
+  }
+
+  synchronized long getPrefetchSavedNanos() {
+    return prefetchSavedNanos;
+  }
+
   /** The action for which we are storing the stat. */
   public Action getAction() {
     return action;
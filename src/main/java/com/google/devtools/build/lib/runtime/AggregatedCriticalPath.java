@@ -24,10 +24,17 @@ import com.google.common.collect.ImmutableList;
 public class AggregatedCriticalPath<T extends AbstractCriticalPathComponent<?>> {
 
   private final long totalTime;
+  private final long prefetchSavedTime;
   private final ImmutableList<T> criticalPathComponents;
 
   protected AggregatedCriticalPath(long totalTime, ImmutableList<T> criticalPathComponents) {
+    this(totalTime, 0, criticalPathComponents);
+  }
+
+  protected AggregatedCriticalPath(long totalTime, long prefetchSavedTime,
+      ImmutableList<T> criticalPathComponents) {
     this.totalTime = totalTime;
+    this.prefetchSavedTime = prefetchSavedTime;
     this.criticalPathComponents = criticalPathComponents;
   }
 
@@ -36,6 +43,14 @@ public class AggregatedCriticalPath<T extends AbstractCriticalPathComponent<?>>
     return totalTime;
   }
 
+  /**
+   * Wall time in ms that prefetching the inputs of the critical path actions, while they waited
+   * for resources, took off the critical path.
+   */
+  public long prefetchSavedTime() {
+    return prefetchSavedTime;
+  }
+
   /** Returns a list of all the component stats for the critical path. */
   public ImmutableList<T> components() {
     return criticalPathComponents;
@@ -59,6 +74,9 @@ public class AggregatedCriticalPath<T extends AbstractCriticalPathComponent<?>>
     double totalMillis = totalTime;
     sb.append(String.format("%.2f", totalMillis / 1000.0));
     sb.append("s");
+    if (prefetchSavedTime > 0) {
+      sb.append(String.format(" (input prefetching saved %.2fs)", prefetchSavedTime / 1000.0));
+    }
     if (summary || criticalPathComponents.isEmpty()) {
       return sb.toString();
     }
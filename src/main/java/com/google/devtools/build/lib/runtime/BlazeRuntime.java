@@ -35,7 +35,10 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
 import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.MappedActionCache;
 import com.google.devtools.build.lib.actions.cache.NullActionCache;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
 import com.google.devtools.build.lib.analysis.BuildView;
@@ -51,6 +54,7 @@ import com.google.devtools.build.lib.analysis.config.ConfigurationFactory;
 import com.google.devtools.build.lib.analysis.config.DefaultsPackage;
 import com.google.devtools.build.lib.analysis.config.InvalidConfigurationException;
 import com.google.devtools.build.lib.buildtool.BuildTool;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetExpansionCache;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.OutputFilter;
 import com.google.devtools.build.lib.events.Reporter;
@@ -97,6 +101,7 @@ import com.google.devtools.build.lib.util.AbruptExitException;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.LoggingUtil;
 import com.google.devtools.build.lib.util.OS;
 import com.google.devtools.build.lib.util.OsUtils;
@@ -194,6 +199,8 @@ public final class BlazeRuntime {
   private final ConfiguredRuleClassProvider ruleClassProvider;
   private final BuildView view;
   private ActionCache actionCache;
+  private PersistentDigestCache digestCache;
+  private ActionDurationHistory durationHistory;
   private final TimestampGranularityMonitor timestampGranularityMonitor;
   private final Clock clock;
   private final BuildTool buildTool;
@@ -287,6 +294,9 @@ public final class BlazeRuntime {
       writeOutputBaseDoNotBuildHereFile();
     }
     setupExecRoot();
+    if (useGraphSnapshot()) {
+      restoreGraphSnapshot();
+    }
   }
 
   @Nullable private CoverageReportActionFactory getCoverageReportActionFactory(
@@ -643,7 +653,7 @@ public final class BlazeRuntime {
       }
       long startTime = Profiler.nanoTimeMaybe();
       try {
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = newPersistentActionCache();
       } catch (IOException e) {
         LOG.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
         LoggingUtil.logToRemote(Level.WARNING, "Failed to load action cache: "
@@ -652,7 +662,7 @@ public final class BlazeRuntime {
             Event.error("Error during action cache initialization: " + e.getMessage()
             + ". Corrupted files were renamed to '" + getCacheDirectory() + "/*.bad'. "
             + "Blaze will now reset action cache data, causing a full rebuild"));
-        actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+        actionCache = newPersistentActionCache();
       } finally {
         Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Loading action cache");
       }
@@ -660,12 +670,96 @@ public final class BlazeRuntime {
     return actionCache;
   }
 
+  private boolean useMappedActionCache() {
+    return startupOptionsProvider.getOptions(BlazeServerStartupOptions.class)
+        .experimentalMappedActionCache;
+  }
+
+  private ActionCache newPersistentActionCache() throws IOException {
+    return useMappedActionCache()
+        ? new MappedActionCache(getCacheDirectory())
+        : new CompactPersistentActionCache(getCacheDirectory(), clock);
+  }
+
+  /**
+   * Returns reference to the lazily instantiated persistent cache of file digests, or null if it
+   * can't be created. Like the action cache, it may be recreated between different build
+   * requests, so return value should not be cached.
+   */
+  @Nullable
+  public PersistentDigestCache getPersistentDigestCache() {
+    if (digestCache == null) {
+      long startTime = Profiler.nanoTimeMaybe();
+      try {
+        digestCache = newPersistentDigestCache();
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Loading digest cache");
+      }
+    }
+    return digestCache;
+  }
+
+  @Nullable
+  private PersistentDigestCache newPersistentDigestCache() {
+    try {
+      return new PersistentDigestCache(getCacheDirectory(), clock);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load digest cache: " + e.getMessage(), e);
+      getReporter().handle(Event.warn("Error during digest cache initialization: "
+          + e.getMessage() + ". Files will be digested again"));
+    }
+    try {
+      // A corrupted cache file has been renamed, so this starts with an empty cache.
+      return new PersistentDigestCache(getCacheDirectory(), clock);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns reference to the lazily instantiated history of action durations, or null if it
+   * can't be created. Like the action cache, it may be recreated between different build
+   * requests, so return value should not be cached.
+   */
+  @Nullable
+  public ActionDurationHistory getActionDurationHistory() {
+    if (durationHistory == null) {
+      long startTime = Profiler.nanoTimeMaybe();
+      try {
+        durationHistory = newActionDurationHistory();
+      } finally {
+        Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO,
+            "Loading action duration history");
+      }
+    }
+    return durationHistory;
+  }
+
+  @Nullable
+  private ActionDurationHistory newActionDurationHistory() {
+    try {
+      return new ActionDurationHistory(getCacheDirectory());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load action duration history: " + e.getMessage(), e);
+      getReporter().handle(Event.warn("Error during action duration history initialization: "
+          + e.getMessage() + ". Actions will be scheduled without it"));
+    }
+    try {
+      // A corrupted history file has been renamed, so this starts with an empty history.
+      return new ActionDurationHistory(getCacheDirectory());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
   /**
    * Removes in-memory caches.
    */
   public void clearCaches() throws IOException {
     clearSkyframeRelevantCaches();
     actionCache = null;
+    digestCache = null;
+    durationHistory = null;
     FileSystemUtils.deleteTree(getCacheDirectory());
   }
 
@@ -753,10 +847,12 @@ public final class BlazeRuntime {
 
     // Fail fast in the case where a Blaze command forgets to install the package path correctly.
     skyframeExecutor.setActive(false);
+    BuildView.Options viewOptions = optionsParser.getOptions(BuildView.Options.class);
     // Let skyframe figure out if it needs to store graph edges for this build.
     skyframeExecutor.decideKeepIncrementalState(
-        startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).batch,
-        optionsParser.getOptions(BuildView.Options.class));
+        startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).batch, viewOptions);
+    NestedSetExpansionCache.setEnabled(
+        viewOptions != null && viewOptions.nestedSetExpansionCache);
 
     // Conditionally enable profiling
     // We need to compensate for launchTimeNanos (measurements taken outside of the jvm).
@@ -835,6 +931,7 @@ public final class BlazeRuntime {
     }
 
     clearEventBus();
+    skyframeExecutor.reportSkyFunctionMetrics();
 
     try {
       Profiler.instance().stop();
@@ -903,7 +1000,9 @@ public final class BlazeRuntime {
    */
   public String[] getCrashData() {
     return new String[]{
-        getFileSizeString(CompactPersistentActionCache.cacheFile(getCacheDirectory()),
+        getFileSizeString(useMappedActionCache()
+                              ? MappedActionCache.cacheFile(getCacheDirectory())
+                              : CompactPersistentActionCache.cacheFile(getCacheDirectory()),
                           "action cache"),
         commandIdString(),
     };
@@ -1001,11 +1100,52 @@ public final class BlazeRuntime {
   }
 
   public void shutdown() {
+    if (useGraphSnapshot()) {
+      writeGraphSnapshot();
+    }
     for (BlazeModule module : blazeModules) {
       module.blazeShutdown();
     }
   }
 
+  private boolean useGraphSnapshot() {
+    return startupOptionsProvider.getOptions(BlazeServerStartupOptions.class)
+        .experimentalGraphSnapshot;
+  }
+
+  private Path getGraphSnapshotFile() {
+    return getCacheDirectory().getChild("skyframe_graph");
+  }
+
+  private void writeGraphSnapshot() {
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      int nodes = skyframeExecutor.writeGraphSnapshot(getGraphSnapshotFile());
+      LOG.info("Saved " + nodes + " Skyframe nodes to " + getGraphSnapshotFile());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to save Skyframe graph: " + e.getMessage(), e);
+    } finally {
+      Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Saving Skyframe graph");
+    }
+  }
+
+  private void restoreGraphSnapshot() {
+    long startTime = Profiler.nanoTimeMaybe();
+    try {
+      int nodes = skyframeExecutor.restoreGraphSnapshot(getGraphSnapshotFile());
+      LOG.info("Restored " + nodes + " Skyframe nodes from " + getGraphSnapshotFile());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to restore Skyframe graph: " + e.getMessage(), e);
+      getReporter().handle(Event.warn("Error while restoring the Skyframe graph: "
+          + e.getMessage() + ". Files will be checked from scratch"));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      skyframeExecutor.resetEvaluator();
+    } finally {
+      Profiler.instance().logSimpleTask(startTime, ProfilerTask.INFO, "Restoring Skyframe graph");
+    }
+  }
+
   /**
    * Throws the exception currently queued by a Blaze module.
    *
@@ -1432,6 +1572,8 @@ public final class BlazeRuntime {
     PathFragment outputBase = startupOptions.outputBase;
 
     OsUtils.maybeForceJNI(installBase);  // Must be before first use of JNI.
+    // Must be before the first fingerprint is computed.
+    Fingerprint.setDefaultFunction(startupOptions.fingerprintFunction);
 
     // From the point of view of the Java program --install_base and --output_base
     // are mandatory options, despite the comment in their declarations.
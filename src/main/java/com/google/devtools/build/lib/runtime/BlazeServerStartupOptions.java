@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.runtime;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.util.DigestFunction;
 import com.google.devtools.build.lib.util.OptionsUtils;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.common.options.Converter;
@@ -217,6 +218,30 @@ public class BlazeServerStartupOptions extends OptionsBase {
           + "changes instead of scanning every file for a change.")
   public boolean watchFS;
 
+  @Option(name = "experimental_mapped_action_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the action cache is kept in memory-mapped files and only the entries that "
+          + "are looked up are read, instead of loading the whole cache at server startup.")
+  public boolean experimentalMappedActionCache;
+
+  @Option(name = "experimental_graph_snapshot",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, the server saves the file system part of the Skyframe graph when it shuts "
+          + "down, and the next server restores it and only checks the saved files for changes "
+          + "instead of statting and listing them from scratch.")
+  public boolean experimentalGraphSnapshot;
+
+  @Option(name = "experimental_fingerprint_function",
+      defaultValue = "md5",
+      category = "undocumented",
+      converter = DigestFunction.Converter.class,
+      help = "The hash function of action keys, configuration keys and other fingerprints. "
+          + "'murmur3' is faster than 'md5', but not cryptographic. The action cache is kept "
+          + "separately for each function.")
+  public DigestFunction fingerprintFunction;
+
   @Option(name = "use_webstatusserver",
       defaultValue = "0",
       category = "server startup",
@@ -20,6 +20,7 @@ import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCompletionEvent;
+import com.google.devtools.build.lib.actions.ActionInputsPrefetchedEvent;
 import com.google.devtools.build.lib.actions.ActionMiddlemanEvent;
 import com.google.devtools.build.lib.actions.ActionStartedEvent;
 import com.google.devtools.build.lib.actions.Actions;
@@ -178,6 +179,17 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
     finalizeActionStat(event.getRelativeActionStartTime(), action, component);
   }
 
+  /**
+   * Records how much time prefetching the inputs of an action saved it.
+   */
+  @Subscribe
+  public void inputsPrefetched(ActionInputsPrefetchedEvent event) {
+    C component = outputArtifactToComponent.get(event.getAction().getPrimaryOutput());
+    if (component != null) {
+      component.setPrefetchSavedNanos(event.getSavedNanos());
+    }
+  }
+
   /** Maximum critical path component found during the build. */
   protected C getMaxCriticalPath() {
     synchronized (lock) {
@@ -17,6 +17,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.util.Clock;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Computes the critical path during a build.
  */
@@ -46,13 +48,15 @@ public class SimpleCriticalPathComputer
     if (maxCriticalPath == null) {
       return new AggregatedCriticalPath<>(0, components.build());
     }
+    long prefetchSavedNanos = 0;
     SimpleCriticalPathComponent child = maxCriticalPath;
     while (child != null) {
       components.add(child);
+      prefetchSavedNanos += child.getPrefetchSavedNanos();
       child = child.getChild();
     }
     return new AggregatedCriticalPath<>(maxCriticalPath.getAggregatedElapsedTimeMillis(),
-        components.build());
+        TimeUnit.NANOSECONDS.toMillis(prefetchSavedNanos), components.build());
   }
 }
 
@@ -22,21 +22,31 @@ import com.google.devtools.build.lib.actions.Action.MiddlemanType;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.skyframe.ContentFingerprintedValue;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
 /**
  * A value representing an executed action.
+ *
+ * <p>Actions that are rerun but produce the same outputs get the same content fingerprint, so that
+ * the actions consuming their outputs are not rerun.
  */
 @Immutable
 @ThreadSafe
-public class ActionExecutionValue implements SkyValue {
+public class ActionExecutionValue implements ContentFingerprintedValue {
+  /** Marks {@link #contentFingerprint} as computed, but not available. */
+  private static final byte[] NO_FINGERPRINT = new byte[0];
+
   private final ImmutableMap<Artifact, FileValue> artifactData;
   private final ImmutableMap<Artifact, FileArtifactValue> additionalOutputData;
+  private volatile byte[] contentFingerprint = null;
 
   /**
    * @param artifactData Map from Artifacts to corresponding FileValues.
@@ -78,6 +88,57 @@ public class ActionExecutionValue implements SkyValue {
     return artifactData;
   }
 
+  /**
+   * Returns a digest of the paths, sizes and digests of the outputs, or null if some output has
+   * no digest or is observed by its consumers by more than its content: directories, symlinks and
+   * empty files, whose modification time is used instead of their digest.
+   */
+  @Override
+  @Nullable
+  public byte[] getContentFingerprint() {
+    byte[] result = contentFingerprint;
+    if (result == null) {
+      result = computeContentFingerprint();
+      contentFingerprint = result == null ? NO_FINGERPRINT : result;
+    }
+    return result == NO_FINGERPRINT ? null : result;
+  }
+
+  @Nullable
+  private byte[] computeContentFingerprint() {
+    // Sorted by path, so that the fingerprint does not depend on the order the outputs were
+    // recorded in.
+    Map<String, Artifact> outputs = new TreeMap<>();
+    for (Artifact artifact : artifactData.keySet()) {
+      outputs.put(artifact.getExecPathString(), artifact);
+    }
+    for (Artifact artifact : additionalOutputData.keySet()) {
+      outputs.put(artifact.getExecPathString(), artifact);
+    }
+    Fingerprint fp = new Fingerprint();
+    for (Map.Entry<String, Artifact> output : outputs.entrySet()) {
+      fp.addString(output.getKey());
+      FileArtifactValue metadata = additionalOutputData.get(output.getValue());
+      if (metadata != null) {
+        if (metadata.getDigest() == null || metadata.getSize() == 0) {
+          return null;
+        }
+        fp.addInt(0).addLong(metadata.getSize()).addBytes(metadata.getDigest());
+        continue;
+      }
+      FileValue data = artifactData.get(output.getValue());
+      if (!data.exists()) {
+        fp.addInt(1);
+        continue;
+      }
+      if (!data.isFile() || data.isSymlink() || data.getDigest() == null || data.getSize() == 0) {
+        return null;
+      }
+      fp.addInt(2).addLong(data.getSize()).addBytes(data.getDigest());
+    }
+    return fp.digestAndReset();
+  }
+
   @ThreadSafe
   @VisibleForTesting
   public static SkyKey key(Action action) {
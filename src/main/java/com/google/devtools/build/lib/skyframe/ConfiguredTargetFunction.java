@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -109,6 +110,24 @@ final class ConfiguredTargetFunction implements SkyFunction {
     }
   };
 
+  /**
+   * The parts of the computation that do not change when the function is restarted for missing
+   * deps: the configuration conditions and the labels and configurations of the deps, with the
+   * errors reported while computing them.
+   */
+  private static class State implements SkyFunction.ComputeState {
+    private Set<ConfigMatchingProvider> configConditions = null;
+    private ListMultimap<Attribute, Dependency> depValueNames = null;
+    private StoredEventHandler depValueNamesEvents = null;
+  }
+
+  private static final Supplier<State> NEW_STATE = new Supplier<State>() {
+    @Override
+    public State get() {
+      return new State();
+    }
+  };
+
   private final BuildViewProvider buildViewProvider;
 
   ConfiguredTargetFunction(BuildViewProvider buildViewProvider) {
@@ -158,19 +177,38 @@ final class ConfiguredTargetFunction implements SkyFunction {
       return null;
     }
 
+    State state = env.getState(NEW_STATE);
     try {
-      // Get the configuration targets that trigger this rule's configurable attributes.
-      Set<ConfigMatchingProvider> configConditions =
-          getConfigConditions(ctgValue.getTarget(), env, resolver, ctgValue);
-      if (configConditions == null) {
-        // Those targets haven't yet been resolved.
-        return null;
+      if (state.configConditions == null) {
+        // Get the configuration targets that trigger this rule's configurable attributes.
+        state.configConditions =
+            getConfigConditions(ctgValue.getTarget(), env, resolver, ctgValue);
+        if (state.configConditions == null) {
+          // Those targets haven't yet been resolved.
+          return null;
+        }
+      }
+      ListMultimap<Attribute, Dependency> depValueNames = state.depValueNames;
+      if (depValueNames == null) {
+        StoredEventHandler depValueNamesEvents = new StoredEventHandler();
+        depValueNames = getDependentNodeMap(env,
+            view.createDependencyResolver(env, depValueNamesEvents), ctgValue, null,
+            state.configConditions);
+        if (!env.valuesMissing()) {
+          // The map is complete. The events of a call that returns null are dropped, so keep them
+          // with the map and replay them on every call.
+          state.depValueNames = depValueNames;
+          state.depValueNamesEvents = depValueNamesEvents;
+        }
+        depValueNamesEvents.replayOn(env.getListener());
+      } else {
+        state.depValueNamesEvents.replayOn(env.getListener());
       }
 
       ListMultimap<Attribute, ConfiguredTarget> depValueMap =
-          computeDependencies(env, resolver, ctgValue, null, configConditions);
+          resolveDependencies(env, ctgValue, depValueNames);
       return createConfiguredTarget(
-          view, env, target, configuration, depValueMap, configConditions);
+          view, env, target, configuration, depValueMap, state.configConditions);
     } catch (DependencyEvaluationException e) {
       throw new ConfiguredTargetFunctionException(e.getRootCauseSkyKey(), e.getCause());
     }
@@ -197,16 +235,34 @@ final class ConfiguredTargetFunction implements SkyFunction {
       Environment env, SkyframeDependencyResolver resolver, TargetAndConfiguration ctgValue,
       AspectDefinition aspectDefinition, Set<ConfigMatchingProvider> configConditions)
       throws DependencyEvaluationException {
+    return resolveDependencies(env, ctgValue,
+        getDependentNodeMap(env, resolver, ctgValue, aspectDefinition, configConditions));
+  }
 
-    // 1. Create the map from attributes to list of (target, configuration) pairs.
-    ListMultimap<Attribute, Dependency> depValueNames;
+  /**
+   * Creates the map from attributes to list of (target, configuration) pairs of the direct
+   * dependencies of a node. This does not request any Skyframe values.
+   */
+  private static ListMultimap<Attribute, Dependency> getDependentNodeMap(Environment env,
+      SkyframeDependencyResolver resolver, TargetAndConfiguration ctgValue,
+      AspectDefinition aspectDefinition, Set<ConfigMatchingProvider> configConditions)
+      throws DependencyEvaluationException {
     try {
-      depValueNames = resolver.dependentNodeMap(ctgValue, aspectDefinition, configConditions);
+      return resolver.dependentNodeMap(ctgValue, aspectDefinition, configConditions);
     } catch (EvalException e) {
       env.getListener().handle(Event.error(e.getLocation(), e.getMessage()));
       throw new DependencyEvaluationException(new ConfiguredValueCreationException(e.print()));
     }
+  }
 
+  /**
+   * Resolves the direct dependencies computed by {@link #getDependentNodeMap} to configured
+   * targets and their aspects. Returns null if Skyframe hasn't evaluated them yet.
+   */
+  @Nullable
+  private static ListMultimap<Attribute, ConfiguredTarget> resolveDependencies(Environment env,
+      TargetAndConfiguration ctgValue, ListMultimap<Attribute, Dependency> depValueNames)
+      throws DependencyEvaluationException {
     // 2. Resolve configured target dependencies and handle errors.
     Map<SkyKey, ConfiguredTarget> depValues =
         resolveConfiguredTargetDependencies(env, depValueNames.values(), ctgValue.getTarget());
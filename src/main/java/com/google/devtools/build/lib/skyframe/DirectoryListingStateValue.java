@@ -23,13 +23,17 @@ import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -55,6 +59,31 @@ final class DirectoryListingStateValue implements SkyValue {
     return new DirectoryListingStateValue(dirents);
   }
 
+  /** Writes {@code value} to a graph snapshot; see {@link FileSystemValueCodecs}. */
+  static void write(DirectoryListingStateValue value, DataOutput out) throws IOException {
+    CompactSortedDirents dirents = value.compactSortedDirents;
+    out.writeInt(dirents.size());
+    for (Dirent dirent : dirents) {
+      out.writeUTF(dirent.getName());
+      out.writeByte(dirent.getType().ordinal());
+    }
+  }
+
+  /** Reads back a value written by {@link #write}. */
+  static DirectoryListingStateValue read(DataInput in) throws IOException {
+    int size = in.readInt();
+    List<Dirent> dirents = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      String name = in.readUTF();
+      int type = in.readByte();
+      if (type < 0 || type >= Dirent.Type.values().length) {
+        throw new IOException("Invalid dirent type " + type);
+      }
+      dirents.add(new Dirent(name, Dirent.Type.values()[type]));
+    }
+    return new DirectoryListingStateValue(dirents);
+  }
+
   @ThreadSafe
   public static SkyKey key(RootedPath rootedPath) {
     return new SkyKey(SkyFunctions.DIRECTORY_LISTING_STATE, rootedPath);
@@ -15,11 +15,16 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.skyframe.ContentFingerprintedValue;
 import com.google.devtools.build.skyframe.SkyKey;
-import com.google.devtools.build.skyframe.SkyValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -37,7 +42,7 @@ import java.util.Objects;
  */
 @Immutable
 @ThreadSafe
-abstract class DirectoryListingValue implements SkyValue {
+abstract class DirectoryListingValue implements ContentFingerprintedValue {
 
   /**
    * Returns the directory entries for this directory, in a stable order.
@@ -46,6 +51,17 @@ abstract class DirectoryListingValue implements SkyValue {
    */
   public abstract Iterable<Dirent> getDirents();
 
+  /** The dirents are all that dependents can observe, whatever the real path of the directory. */
+  @Override
+  public byte[] getContentFingerprint() {
+    Fingerprint fingerprint = new Fingerprint();
+    for (Dirent dirent : getDirents()) {
+      fingerprint.addString(dirent.getName());
+      fingerprint.addInt(dirent.getType().ordinal());
+    }
+    return fingerprint.digestAndReset();
+  }
+
   /**
    * Returns a {@link SkyKey} for getting the directory entries of the given directory. The
    * given path is assumed to be an existing directory (e.g. via {@link FileValue#isDirectory} or
@@ -64,6 +80,31 @@ abstract class DirectoryListingValue implements SkyValue {
             realDirectoryListingStateValue);
   }
 
+  /** Writes {@code value} to a graph snapshot; see {@link FileSystemValueCodecs}. */
+  static void write(DirectoryListingValue value, DataOutput out) throws IOException {
+    if (value instanceof DifferentRealPathDirectoryListingValue) {
+      DifferentRealPathDirectoryListingValue different =
+          (DifferentRealPathDirectoryListingValue) value;
+      out.writeBoolean(true);
+      FileSystemValueCodecs.writeRootedPath(different.realDirRootedPath, out);
+      DirectoryListingStateValue.write(different.directoryListingStateValue, out);
+    } else {
+      out.writeBoolean(false);
+      DirectoryListingStateValue.write(
+          ((RegularDirectoryListingValue) value).directoryListingStateValue, out);
+    }
+  }
+
+  /** Reads back a value written by {@link #write}, with paths on {@code fileSystem}. */
+  static DirectoryListingValue read(DataInput in, FileSystem fileSystem) throws IOException {
+    if (in.readBoolean()) {
+      RootedPath realDirRootedPath = FileSystemValueCodecs.readRootedPath(in, fileSystem);
+      return new DifferentRealPathDirectoryListingValue(realDirRootedPath,
+          DirectoryListingStateValue.read(in));
+    }
+    return new RegularDirectoryListingValue(DirectoryListingStateValue.read(in));
+  }
+
   @ThreadSafe
   private static final class RegularDirectoryListingValue extends DirectoryListingValue {
 
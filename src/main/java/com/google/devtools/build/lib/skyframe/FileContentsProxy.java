@@ -40,6 +40,14 @@ public final class FileContentsProxy implements Serializable {
     return new FileContentsProxy(mtime, valueId);
   }
 
+  public long getMtime() {
+    return mtime;
+  }
+
+  public long getValueId() {
+    return valueId;
+  }
+
   @Override
   public boolean equals(Object other) {
     if (other == this) {
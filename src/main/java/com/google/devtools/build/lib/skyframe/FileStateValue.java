@@ -26,6 +26,8 @@ import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Objects;
@@ -100,6 +102,59 @@ abstract class FileStateValue implements SkyValue {
 
   abstract Type getType();
 
+  /** Writes {@code value} to a graph snapshot; see {@link FileSystemValueCodecs}. */
+  static void write(FileStateValue value, DataOutput out) throws IOException {
+    out.writeByte(value.getType().ordinal());
+    switch (value.getType()) {
+      case FILE:
+        FileFileStateValue file = (FileFileStateValue) value;
+        out.writeLong(file.size);
+        out.writeLong(file.mtime);
+        if (file.digest != null) {
+          out.writeInt(file.digest.length);
+          out.write(file.digest);
+        } else {
+          out.writeInt(-1);
+          out.writeLong(file.contentsProxy.getMtime());
+          out.writeLong(file.contentsProxy.getValueId());
+        }
+        break;
+      case SYMLINK:
+        out.writeUTF(value.getSymlinkTarget().getPathString());
+        break;
+      default:
+        break;
+    }
+  }
+
+  /** Reads back a value written by {@link #write}. */
+  static FileStateValue read(DataInput in) throws IOException {
+    int type = in.readByte();
+    if (type < 0 || type >= Type.values().length) {
+      throw new IOException("Invalid file state type " + type);
+    }
+    switch (Type.values()[type]) {
+      case FILE:
+        long size = in.readLong();
+        long mtime = in.readLong();
+        int digestLength = in.readInt();
+        if (digestLength >= 0) {
+          byte[] digest = new byte[digestLength];
+          in.readFully(digest);
+          return new FileFileStateValue(size, mtime, digest, null);
+        }
+        long proxyMtime = in.readLong();
+        return new FileFileStateValue(size, mtime, null,
+            FileContentsProxy.create(proxyMtime, in.readLong()));
+      case DIRECTORY:
+        return DIRECTORY_FILE_STATE_NODE;
+      case SYMLINK:
+        return new SymlinkFileStateValue(new PathFragment(in.readUTF()));
+      default:
+        return NONEXISTENT_FILE_STATE_NODE;
+    }
+  }
+
   PathFragment getSymlinkTarget() {
     throw new IllegalStateException();
   }
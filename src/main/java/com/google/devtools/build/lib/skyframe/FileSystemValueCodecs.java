@@ -0,0 +1,118 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.skyframe.GraphSnapshot;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyValue;
+import com.google.devtools.build.skyframe.SkyValueCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The {@link SkyValueCodec}s with which the file system part of the graph, that is the
+ * {@link FileStateValue}s, {@link FileValue}s, {@link DirectoryListingStateValue}s and
+ * {@link DirectoryListingValue}s, is saved in a {@link GraphSnapshot}.
+ *
+ * <p>All of these are keyed by a {@link RootedPath}. File state values of files outside the package
+ * roots depend on the build id, which has no codec, so they are never saved.
+ */
+final class FileSystemValueCodecs {
+
+  private FileSystemValueCodecs() {}
+
+  /** Returns the codecs, reading paths back on {@code fileSystem}. */
+  static ImmutableMap<SkyFunctionName, SkyValueCodec> create(final FileSystem fileSystem) {
+    return ImmutableMap.<SkyFunctionName, SkyValueCodec>of(
+        SkyFunctions.FILE_STATE, new RootedPathCodec(fileSystem) {
+          @Override
+          public void writeValue(SkyValue value, DataOutput out) throws IOException {
+            FileStateValue.write((FileStateValue) value, out);
+          }
+
+          @Override
+          public SkyValue readValue(DataInput in) throws IOException {
+            return FileStateValue.read(in);
+          }
+        },
+        SkyFunctions.FILE, new RootedPathCodec(fileSystem) {
+          @Override
+          public void writeValue(SkyValue value, DataOutput out) throws IOException {
+            FileValue.write((FileValue) value, out);
+          }
+
+          @Override
+          public SkyValue readValue(DataInput in) throws IOException {
+            return FileValue.read(in, fileSystem);
+          }
+        },
+        SkyFunctions.DIRECTORY_LISTING_STATE, new RootedPathCodec(fileSystem) {
+          @Override
+          public void writeValue(SkyValue value, DataOutput out) throws IOException {
+            DirectoryListingStateValue.write((DirectoryListingStateValue) value, out);
+          }
+
+          @Override
+          public SkyValue readValue(DataInput in) throws IOException {
+            return DirectoryListingStateValue.read(in);
+          }
+        },
+        SkyFunctions.DIRECTORY_LISTING, new RootedPathCodec(fileSystem) {
+          @Override
+          public void writeValue(SkyValue value, DataOutput out) throws IOException {
+            DirectoryListingValue.write((DirectoryListingValue) value, out);
+          }
+
+          @Override
+          public SkyValue readValue(DataInput in) throws IOException {
+            return DirectoryListingValue.read(in, fileSystem);
+          }
+        });
+  }
+
+  static void writeRootedPath(RootedPath rootedPath, DataOutput out) throws IOException {
+    out.writeUTF(rootedPath.getRoot().getPathString());
+    out.writeUTF(rootedPath.getRelativePath().getPathString());
+  }
+
+  static RootedPath readRootedPath(DataInput in, FileSystem fileSystem) throws IOException {
+    String root = in.readUTF();
+    return RootedPath.toRootedPath(fileSystem.getPath(root), new PathFragment(in.readUTF()));
+  }
+
+  /** A codec for the values of a function whose arguments are {@link RootedPath}s. */
+  private abstract static class RootedPathCodec implements SkyValueCodec {
+    private final FileSystem fileSystem;
+
+    private RootedPathCodec(FileSystem fileSystem) {
+      this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public void writeArgument(Object argument, DataOutput out) throws IOException {
+      writeRootedPath((RootedPath) argument, out);
+    }
+
+    @Override
+    public Object readArgument(DataInput in) throws IOException {
+      return readRootedPath(in, fileSystem);
+    }
+  }
+}
@@ -17,11 +17,15 @@ import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.skyframe.FileStateValue.Type;
+import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Objects;
 
 import javax.annotation.Nullable;
@@ -133,6 +137,38 @@ public abstract class FileValue implements SkyValue {
     }
   }
 
+  /** Writes {@code value} to a graph snapshot; see {@link FileSystemValueCodecs}. */
+  static void write(FileValue value, DataOutput out) throws IOException {
+    if (value instanceof RegularFileValue) {
+      out.writeByte(0);
+    } else if (value instanceof SymlinkFileValue) {
+      out.writeByte(2);
+      out.writeUTF(value.getUnresolvedLinkTarget().getPathString());
+    } else {
+      out.writeByte(1);
+    }
+    FileSystemValueCodecs.writeRootedPath(value.realRootedPath(), out);
+    FileStateValue.write(value.realFileStateValue(), out);
+  }
+
+  /** Reads back a value written by {@link #write}, with paths on {@code fileSystem}. */
+  static FileValue read(DataInput in, FileSystem fileSystem) throws IOException {
+    int kind = in.readByte();
+    PathFragment linkTarget = kind == 2 ? new PathFragment(in.readUTF()) : null;
+    RootedPath realRootedPath = FileSystemValueCodecs.readRootedPath(in, fileSystem);
+    FileStateValue realFileStateValue = FileStateValue.read(in);
+    switch (kind) {
+      case 0:
+        return new RegularFileValue(realRootedPath, realFileStateValue);
+      case 1:
+        return new DifferentRealPathFileValue(realRootedPath, realFileStateValue);
+      case 2:
+        return new SymlinkFileValue(realRootedPath, realFileStateValue, linkTarget);
+      default:
+        throw new IOException("Invalid file value kind " + kind);
+    }
+  }
+
   /**
    * Implementation of {@link FileValue} for files whose fully resolved path is the same as the
    * requested path. For example, this is the case for the path "foo/bar/baz" if neither 'foo' nor
@@ -29,6 +29,8 @@ import com.google.devtools.build.skyframe.SkyFunctionException.Transience;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -72,44 +74,66 @@ final class GlobFunction implements SkyFunction {
       }
     }
 
-    String pattern = glob.getPattern();
-    // Split off the first path component of the pattern.
-    int slashPos = pattern.indexOf('/');
-    String patternHead;
-    String patternTail;
-    if (slashPos == -1) {
-      patternHead = pattern;
-      patternTail = null;
-    } else {
-      // Substrings will share the backing array of the original glob string. That should be fine.
-      patternHead = pattern.substring(0, slashPos);
-      patternTail = pattern.substring(slashPos + 1);
-    }
-
     NestedSetBuilder<PathFragment> matches = NestedSetBuilder.stableOrder();
 
-    // "**" also matches an empty segment, so try the case where it is not present.
-    if ("**".equals(patternHead)) {
-      if (patternTail == null) {
+    // "**" also matches an empty segment, so the rest of the pattern applies to this directory as
+    // well. All the patterns that apply to this directory are matched here against a single
+    // listing, so that a change to the directory only re-evaluates one glob for it.
+    List<String> patterns = new ArrayList<>(2);
+    for (String pattern = glob.getPattern(); pattern != null; ) {
+      patterns.add(pattern);
+      if (pattern.equals("**")) {
         if (!glob.excludeDirs()) {
           matches.add(globSubdir);
         }
+        pattern = null;
       } else {
-        SkyKey globKey = GlobValue.internalKey(
-            glob.getPackageId(), globSubdir, patternTail, glob.excludeDirs());
-        GlobValue globValue = (GlobValue) env.getValue(globKey);
-        if (globValue == null) {
-          return null;
-        }
-        matches.addTransitive(globValue.getMatches());
+        pattern = pattern.startsWith("**/") ? pattern.substring(3) : null;
+      }
+    }
+
+    // Split off the first path component of each pattern.
+    int patternCount = patterns.size();
+    String[] patternHeads = new String[patternCount];
+    String[] patternTails = new String[patternCount];
+    boolean listingNeeded = false;
+    for (int i = 0; i < patternCount; i++) {
+      String pattern = patterns.get(i);
+      int slashPos = pattern.indexOf('/');
+      if (slashPos == -1) {
+        patternHeads[i] = pattern;
+      } else {
+        // Substrings will share the backing array of the original glob string. That should be
+        // fine.
+        patternHeads[i] = pattern.substring(0, slashPos);
+        patternTails[i] = pattern.substring(slashPos + 1);
       }
+      listingNeeded |= containsGlobs(patternHeads[i]);
     }
 
     PathFragment dirPathFragment = glob.getPackageId().getPackageFragment().getRelative(globSubdir);
     RootedPath dirRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
         dirPathFragment);
-    if (containsGlobs(patternHead)) {
-      // Pattern contains globs, so a directory listing is required.
+    for (int i = 0; i < patternCount; i++) {
+      if (containsGlobs(patternHeads[i])) {
+        continue;
+      }
+      // Pattern does not contain globs, so a direct stat is enough.
+      String fileName = patternHeads[i];
+      RootedPath fileRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
+          dirPathFragment.getRelative(fileName));
+      FileValue fileValue = (FileValue) env.getValue(FileValue.key(fileRootedPath));
+      if (fileValue == null) {
+        continue;
+      }
+      if (fileValue.exists()) {
+        addFile(fileName, glob, patternTails[i], patternTails[i] == null,
+            fileValue.isDirectory(), matches, env);
+      }
+    }
+
+    if (listingNeeded) {
+      // Some pattern contains globs, so a directory listing is required.
       //
       // Note that we have good reason to believe the directory exists: if this is the
       // top-level directory of the package, the package's existence implies the directory's
@@ -125,48 +149,50 @@ final class GlobFunction implements SkyFunction {
       for (Dirent dirent : listingValue.getDirents()) {
         Type direntType = dirent.getType();
         String fileName = dirent.getName();
-
-        boolean isDirectory = (direntType == Dirent.Type.DIRECTORY);
-
-        if (!UnixGlob.matches(patternHead, fileName, regexPatternCache)) {
+        if (direntType == Dirent.Type.UNKNOWN) {
+          // Like the legacy globber, leave out fifos, sockets and the like.
           continue;
         }
 
-        if (direntType == Dirent.Type.SYMLINK) {
-          // TODO(bazel-team): Consider extracting the symlink resolution logic.
-          // For symlinks, look up the corresponding FileValue. This ensures that if the symlink
-          // changes and "switches types" (say, from a file to a directory), this value will be
-          // invalidated.
-          RootedPath symlinkRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
-              dirPathFragment.getRelative(fileName));
-          FileValue symlinkFileValue = (FileValue) env.getValue(FileValue.key(symlinkRootedPath));
-          if (symlinkFileValue == null) {
+        boolean isDirectory = (direntType == Dirent.Type.DIRECTORY);
+        boolean symlinkResolved = (direntType != Dirent.Type.SYMLINK);
+
+        for (int i = 0; i < patternCount; i++) {
+          String patternHead = patternHeads[i];
+          if (!containsGlobs(patternHead)
+              || !UnixGlob.matches(patternHead, fileName, regexPatternCache)) {
             continue;
           }
-          if (!symlinkFileValue.isSymlink()) {
-            throw new GlobFunctionException(new InconsistentFilesystemException(
-                "readdir and stat disagree about whether " + symlinkRootedPath.asPath()
-                    + " is a symlink."), Transience.TRANSIENT);
+
+          if (!symlinkResolved) {
+            // TODO(bazel-team): Consider extracting the symlink resolution logic.
+            // For symlinks, look up the corresponding FileValue. This ensures that if the symlink
+            // changes and "switches types" (say, from a file to a directory), this value will be
+            // invalidated.
+            RootedPath symlinkRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
+                dirPathFragment.getRelative(fileName));
+            FileValue symlinkFileValue =
+                (FileValue) env.getValue(FileValue.key(symlinkRootedPath));
+            if (symlinkFileValue == null) {
+              break;
+            }
+            if (!symlinkFileValue.isSymlink()) {
+              throw new GlobFunctionException(new InconsistentFilesystemException(
+                  "readdir and stat disagree about whether " + symlinkRootedPath.asPath()
+                      + " is a symlink."), Transience.TRANSIENT);
+            }
+            if (!symlinkFileValue.exists()) {
+              // Like the legacy globber, leave out dangling symlinks.
+              break;
+            }
+            isDirectory = symlinkFileValue.isDirectory();
+            symlinkResolved = true;
           }
-          isDirectory = symlinkFileValue.isDirectory();
-        }
 
-        String subdirPattern = "**".equals(patternHead) ? glob.getPattern() : patternTail;
-        addFile(fileName, glob, subdirPattern, patternTail == null, isDirectory,
-            matches, env);
-      }
-    } else {
-      // Pattern does not contain globs, so a direct stat is enough.
-      String fileName = patternHead;
-      RootedPath fileRootedPath = RootedPath.toRootedPath(globPkgLookupValue.getRoot(),
-          dirPathFragment.getRelative(fileName));
-      FileValue fileValue = (FileValue) env.getValue(FileValue.key(fileRootedPath));
-      if (fileValue == null) {
-        return null;
-      }
-      if (fileValue.exists()) {
-        addFile(fileName, glob, patternTail, patternTail == null,
-            fileValue.isDirectory(), matches, env);
+          String subdirPattern = "**".equals(patternHead) ? patterns.get(i) : patternTails[i];
+          addFile(fileName, glob, subdirPattern, patternTails[i] == null, isDirectory,
+              matches, env);
+        }
       }
     }
 
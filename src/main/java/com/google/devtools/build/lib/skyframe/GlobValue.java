@@ -20,17 +20,18 @@ import com.google.devtools.build.lib.collect.nestedset.Order;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.UnixGlob;
+import com.google.devtools.build.skyframe.ContentFingerprintedValue;
 import com.google.devtools.build.skyframe.SkyKey;
-import com.google.devtools.build.skyframe.SkyValue;
 
 /**
  * A value corresponding to a glob.
  */
 @Immutable
 @ThreadSafe
-final class GlobValue implements SkyValue {
+final class GlobValue implements ContentFingerprintedValue {
 
   static final GlobValue EMPTY = new GlobValue(
       NestedSetBuilder.<PathFragment>emptySet(Order.STABLE_ORDER));
@@ -68,6 +69,12 @@ final class GlobValue implements SkyValue {
     return matches.shallowHashCode();
   }
 
+  /** Unlike {@link #equals}, detects equal matches in differently shaped nested sets. */
+  @Override
+  public byte[] getContentFingerprint() {
+    return new Fingerprint().addPaths(matches).digestAndReset();
+  }
+
   /**
    * Constructs a {@link SkyKey} for a glob lookup. {@code packageName} is assumed to be an
    * existing package. Trying to glob into a non-package is undefined behavior.
@@ -14,12 +14,14 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.Constants;
@@ -31,6 +33,7 @@ import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
+import com.google.devtools.build.lib.packages.GlobCache.BadGlobException;
 import com.google.devtools.build.lib.packages.InvalidPackageNameException;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
@@ -68,13 +71,15 @@ import com.google.devtools.build.skyframe.ValueOrException3;
 import com.google.devtools.build.skyframe.ValueOrException4;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -89,7 +94,6 @@ public class PackageFunction implements SkyFunction {
   private final EventHandler reporter;
   private final PackageFactory packageFactory;
   private final CachingPackageLocator packageLocator;
-  private final ConcurrentMap<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache;
   private final AtomicBoolean showLoadingProgress;
   private final AtomicReference<EventBus> eventBus;
   private final AtomicInteger numPackagesLoaded;
@@ -105,16 +109,32 @@ public class PackageFunction implements SkyFunction {
     Preconditions.checkArgument(!PRELUDE_FILE_FRAGMENT.isAbsolute());
   }
 
+  /**
+   * The package being loaded, kept between reruns of the PackageFunction because of missing
+   * dependencies to avoid loading the same package twice (first time loading to find subincludes
+   * and declare value dependencies).
+   */
+  // TODO(bazel-team): remove this once we have skyframe-native package loading
+  // [skyframe-loading]
+  private static class State implements SkyFunction.ComputeState {
+    private Package.LegacyBuilder legacyPkgBuilder = null;
+  }
+
+  private static final Supplier<State> NEW_STATE = new Supplier<State>() {
+    @Override
+    public State get() {
+      return new State();
+    }
+  };
+
   public PackageFunction(Reporter reporter, PackageFactory packageFactory,
       CachingPackageLocator pkgLocator, AtomicBoolean showLoadingProgress,
-      ConcurrentMap<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache,
       AtomicReference<EventBus> eventBus, AtomicInteger numPackagesLoaded) {
     this.reporter = reporter;
 
     this.packageFactory = packageFactory;
     this.packageLocator = pkgLocator;
     this.showLoadingProgress = showLoadingProgress;
-    this.packageFunctionCache = packageFunctionCache;
     this.eventBus = eventBus;
     this.numPackagesLoaded = numPackagesLoaded;
   }
@@ -383,19 +403,33 @@ public class PackageFunction implements SkyFunction {
     if (packageName.equals(EXTERNAL_PACKAGE_NAME)) {
       return getExternalPackage(env, packageLookupValue.getRoot());
     }
-    PackageValue externalPackage = (PackageValue) env.getValue(
-        PackageValue.key(PackageIdentifier.createInDefaultRepo(EXTERNAL_PACKAGE_NAME)));
+    SkyKey externalPackageKey =
+        PackageValue.key(PackageIdentifier.createInDefaultRepo(EXTERNAL_PACKAGE_NAME));
+    PathFragment buildFileFragment = packageNameFragment.getChild("BUILD");
+    RootedPath buildFileRootedPath = RootedPath.toRootedPath(packageLookupValue.getRoot(),
+        buildFileFragment);
+    SkyKey buildFileKey = FileValue.key(buildFileRootedPath);
+    SkyKey astLookupKey = null;
+    try {
+      astLookupKey = ASTFileLookupValue.key(PRELUDE_FILE_FRAGMENT);
+    } catch (ASTLookupInputException e) {
+      // There's a static check ensuring that PRELUDE_FILE_FRAGMENT is relative.
+      throw new IllegalStateException(e);
+    }
+    // None of these depend on each other, so request them as one group: a package whose deps are
+    // all new then restarts once instead of once per dep. Errors are handled below, where each dep
+    // is requested again.
+    env.getValues(ImmutableList.of(externalPackageKey, buildFileKey, astLookupKey));
+
+    PackageValue externalPackage = (PackageValue) env.getValue(externalPackageKey);
     if (externalPackage == null) {
       return null;
     }
     Package externalPkg = externalPackage.getPackage();
 
-    PathFragment buildFileFragment = packageNameFragment.getChild("BUILD");
-    RootedPath buildFileRootedPath = RootedPath.toRootedPath(packageLookupValue.getRoot(),
-        buildFileFragment);
     FileValue buildFileValue;
     try {
-      buildFileValue = (FileValue) env.getValueOrThrow(FileValue.key(buildFileRootedPath),
+      buildFileValue = (FileValue) env.getValueOrThrow(buildFileKey,
           IOException.class, FileSymlinkCycleException.class,
           InconsistentFilesystemException.class);
     } catch (IOException | FileSymlinkCycleException | InconsistentFilesystemException e) {
@@ -423,13 +457,6 @@ public class PackageFunction implements SkyFunction {
     }
 
     ASTFileLookupValue astLookupValue = null;
-    SkyKey astLookupKey = null;
-    try {
-      astLookupKey = ASTFileLookupValue.key(PRELUDE_FILE_FRAGMENT);
-    } catch (ASTLookupInputException e) {
-      // There's a static check ensuring that PRELUDE_FILE_FRAGMENT is relative.
-      throw new IllegalStateException(e);
-    }
     try {
       astLookupValue = (ASTFileLookupValue) env.getValueOrThrow(astLookupKey,
           ErrorReadingSkylarkExtensionException.class, InconsistentFilesystemException.class);
@@ -446,9 +473,10 @@ public class PackageFunction implements SkyFunction {
     // Load the BUILD file AST and handle Skylark dependencies. This way BUILD files are
     // only loaded twice if there are unavailable Skylark or package dependencies or an
     // IOException occurs. Note that the BUILD files are still parsed two times.
+    State state = env.getState(NEW_STATE);
     ParserInputSource inputSource;
     try {
-      if (showLoadingProgress.get() && !packageFunctionCache.containsKey(packageId)) {
+      if (showLoadingProgress.get() && state.legacyPkgBuilder == null) {
         // TODO(bazel-team): don't duplicate the loading message if there are unavailable
         // Skylark dependencies.
         reporter.handle(Event.progress("Loading package: " + packageName));
@@ -466,21 +494,20 @@ public class PackageFunction implements SkyFunction {
       return null;
     }
 
-    Package.LegacyBuilder legacyPkgBuilder = loadPackage(externalPkg, inputSource,
+    Package.LegacyBuilder legacyPkgBuilder = loadPackage(state, externalPkg, inputSource,
         replacementContents, packageId, buildFilePath, defaultVisibility, preludeStatements,
-        importResult);
+        importResult, env);
     legacyPkgBuilder.buildPartial();
     try {
       handleLabelsCrossingSubpackagesAndPropagateInconsistentFilesystemExceptions(
           packageLookupValue.getRoot(), packageId, legacyPkgBuilder, env);
     } catch (InternalInconsistentFilesystemException e) {
-      packageFunctionCache.remove(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
     if (env.valuesMissing()) {
-      // The package we just loaded will be in the {@code packageFunctionCache} next when this
-      // SkyFunction is called again.
+      // The package we just loaded will be in the state next when this SkyFunction is called
+      // again.
       return null;
     }
     Collection<Pair<String, Boolean>> globPatterns = legacyPkgBuilder.getGlobPatterns();
@@ -493,7 +520,6 @@ public class PackageFunction implements SkyFunction {
           markDependenciesAndPropagateInconsistentFilesystemExceptions(pkg, env,
               globPatterns, subincludes);
     } catch (InternalInconsistentFilesystemException e) {
-      packageFunctionCache.remove(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
@@ -501,8 +527,6 @@ public class PackageFunction implements SkyFunction {
     if (env.valuesMissing()) {
       return null;
     }
-    // We know this SkyFunction will not be called again, so we can remove the cache entry.
-    packageFunctionCache.remove(packageId);
 
     if (packageShouldBeConsideredInError) {
       throw new PackageFunctionException(new BuildFileContainsErrorsException(pkg,
@@ -533,13 +557,22 @@ public class PackageFunction implements SkyFunction {
     Map<PathFragment, SkylarkEnvironment> importMap = new HashMap<>();
     ImmutableList.Builder<SkylarkFileDependency> fileDependencies = ImmutableList.builder();
     try {
+      Map<PathFragment, SkyKey> importLookupKeys = new LinkedHashMap<>();
       for (PathFragment importFile : imports) {
-        SkyKey importsLookupKey =
-            SkylarkImportLookupValue.key(repo, buildFileFragment, importFile);
+        importLookupKeys.put(importFile,
+            SkylarkImportLookupValue.key(repo, buildFileFragment, importFile));
+      }
+      // Request all imports as one group, so that they are checked in parallel on incremental
+      // builds.
+      Map<SkyKey, ValueOrException4<SkylarkImportFailedException, InconsistentFilesystemException,
+          ASTLookupInputException, BuildFileNotFoundException>> importLookupValues =
+          env.getValuesOrThrow(importLookupKeys.values(), SkylarkImportFailedException.class,
+              InconsistentFilesystemException.class, ASTLookupInputException.class,
+              BuildFileNotFoundException.class);
+      for (Map.Entry<PathFragment, SkyKey> importEntry : importLookupKeys.entrySet()) {
+        PathFragment importFile = importEntry.getKey();
         SkylarkImportLookupValue importLookupValue = (SkylarkImportLookupValue)
-            env.getValueOrThrow(importsLookupKey, SkylarkImportFailedException.class,
-                InconsistentFilesystemException.class, ASTLookupInputException.class,
-                BuildFileNotFoundException.class);
+            importLookupValues.get(importEntry.getValue()).get();
         if (importLookupValue != null) {
           importMap.put(importFile, importLookupValue.getImportedEnvironment());
           fileDependencies.add(importLookupValue.getDependency());
@@ -713,21 +746,22 @@ public class PackageFunction implements SkyFunction {
    * Constructs a {@link Package} object for the given package using legacy package loading.
    * Note that the returned package may be in error.
    */
-  private Package.LegacyBuilder loadPackage(Package externalPkg,
+  private Package.LegacyBuilder loadPackage(State state, Package externalPkg,
       ParserInputSource inputSource, @Nullable String replacementContents,
       PackageIdentifier packageId, Path buildFilePath, RuleVisibility defaultVisibility,
-      List<Statement> preludeStatements, SkylarkImportResult importResult)
+      List<Statement> preludeStatements, SkylarkImportResult importResult, Environment env)
           throws InterruptedException {
     ParserInputSource replacementSource = replacementContents == null ? null
         : ParserInputSource.create(replacementContents, buildFilePath);
-    Package.LegacyBuilder pkgBuilder = packageFunctionCache.get(packageId);
+    Package.LegacyBuilder pkgBuilder = state.legacyPkgBuilder;
     if (pkgBuilder == null) {
       Clock clock = new JavaClock();
       long startTime = clock.nanoTime();
       profiler.startTask(ProfilerTask.CREATE_PACKAGE, packageId.toString());
       try {
-        Globber globber = packageFactory.createLegacyGlobber(buildFilePath.getParentDirectory(),
-            packageId, packageLocator);
+        Globber globber = new SkyframeHybridGlobber(packageId, env,
+            packageFactory.createLegacyGlobber(buildFilePath.getParentDirectory(), packageId,
+                packageLocator));
         StoredEventHandler localReporter = new StoredEventHandler();
         Preprocessor.Result preprocessingResult = replacementSource == null
             ? packageFactory.preprocess(packageId, buildFilePath, inputSource, globber,
@@ -747,7 +781,7 @@ public class PackageFunction implements SkyFunction {
               !pkgBuilder.containsErrors()));
         }
         numPackagesLoaded.incrementAndGet();
-        packageFunctionCache.put(packageId, pkgBuilder);
+        state.legacyPkgBuilder = pkgBuilder;
       } finally {
         profiler.completeTask(ProfilerTask.CREATE_PACKAGE);
       }
@@ -755,6 +789,173 @@ public class PackageFunction implements SkyFunction {
     return pkgBuilder;
   }
 
+  /**
+   * A {@link Globber} that uses the {@link GlobValue}s already computed by Skyframe, and the
+   * legacy globber for globs whose values are not available.
+   *
+   * <p>Glob values are computed one directory at a time, so when a package is reloaded after a
+   * change to one of its directories, only the values of that directory and its parents are
+   * computed again, instead of every glob of the package going over the whole package again.
+   * When a package is loaded for the first time, its glob values are not available yet; they
+   * are requested here, so they are computed for the next load while the legacy globber runs.
+   *
+   * <p>The glob values are requested as one group when the first glob is fetched, by which time
+   * the globs of the whole BUILD file have been started. Skyframe re-evaluates a package as soon
+   * as one of its dependency groups has changed, without checking the groups after it, so with
+   * one group per glob a reloaded package would find the globs after the changed one missing.
+   */
+  private static class SkyframeHybridGlobber implements Globber {
+    private final PackageIdentifier packageId;
+    private final Environment env;
+    private final Globber legacyGlobber;
+    private final Set<Pair<String, Boolean>> globPatterns = Sets.newHashSet();
+    private final Set<SkyKey> keysToRequest = new LinkedHashSet<>();
+    private final Map<SkyKey, ValueOrException4<IOException, BuildFileNotFoundException,
+        FileSymlinkCycleException, InconsistentFilesystemException>> globValues = new HashMap<>();
+
+    private SkyframeHybridGlobber(PackageIdentifier packageId, Environment env,
+        Globber legacyGlobber) {
+      this.packageId = packageId;
+      this.env = env;
+      this.legacyGlobber = legacyGlobber;
+    }
+
+    private static class SkyframeToken extends Globber.Token {
+      private final List<String> includes;
+      private final List<String> excludes;
+      private final boolean excludeDirs;
+      private final List<SkyKey> includeKeys;
+      private final List<SkyKey> excludeKeys;
+
+      private SkyframeToken(List<String> includes, List<String> excludes, boolean excludeDirs,
+          List<SkyKey> includeKeys, List<SkyKey> excludeKeys) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.excludeDirs = excludeDirs;
+        this.includeKeys = includeKeys;
+        this.excludeKeys = excludeKeys;
+      }
+    }
+
+    @Override
+    public Set<Pair<String, Boolean>> getGlobPatterns() {
+      return globPatterns;
+    }
+
+    @Override
+    public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs)
+        throws BadGlobException {
+      List<SkyKey> includeKeys = Lists.newArrayListWithCapacity(includes.size());
+      List<SkyKey> excludeKeys = Lists.newArrayListWithCapacity(excludes.size());
+      try {
+        for (String pattern : includes) {
+          includeKeys.add(GlobValue.key(packageId, pattern, excludeDirs));
+        }
+        for (String pattern : excludes) {
+          excludeKeys.add(GlobValue.key(packageId, pattern, excludeDirs));
+        }
+      } catch (InvalidGlobPatternException e) {
+        // Let the legacy globber report the error.
+        return legacyGlobber.runAsync(includes, excludes, excludeDirs);
+      }
+      for (String pattern : Iterables.concat(includes, excludes)) {
+        globPatterns.add(Pair.of(pattern, excludeDirs));
+      }
+      for (SkyKey key : Iterables.concat(includeKeys, excludeKeys)) {
+        if (!globValues.containsKey(key)) {
+          keysToRequest.add(key);
+        }
+      }
+      return new SkyframeToken(includes, excludes, excludeDirs, includeKeys, excludeKeys);
+    }
+
+    /**
+     * Returns the values of the given glob keys, or null if any of them is missing or in error.
+     */
+    @Nullable
+    private List<GlobValue> getGlobValues(List<SkyKey> keys) {
+      List<GlobValue> result = Lists.newArrayListWithCapacity(keys.size());
+      for (SkyKey key : keys) {
+        GlobValue value;
+        try {
+          value = (GlobValue) globValues.get(key).get();
+        } catch (IOException | BuildFileNotFoundException | FileSymlinkCycleException
+            | InconsistentFilesystemException e) {
+          // Errors are not handled here but in
+          // markGlobDepsAndPropagateInconsistentFilesystemExceptions, so the legacy globber is
+          // used for globs in error.
+          return null;
+        }
+        if (value == null) {
+          return null;
+        }
+        result.add(value);
+      }
+      return result;
+    }
+
+    /**
+     * Returns the matches of a glob like the legacy globber does: sorted, and without the package
+     * directory itself, which is not a valid label.
+     */
+    private static List<String> getMatches(GlobValue value) {
+      List<PathFragment> matches = Ordering.natural().sortedCopy(value.getMatches());
+      List<String> result = Lists.newArrayListWithCapacity(matches.size());
+      for (PathFragment match : matches) {
+        String relative = match.getPathString();
+        if (!relative.isEmpty()) {
+          result.add(relative);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public List<String> fetch(Globber.Token token) throws IOException, InterruptedException {
+      if (!(token instanceof SkyframeToken)) {
+        return legacyGlobber.fetch(token);
+      }
+      SkyframeToken skyframeToken = (SkyframeToken) token;
+      if (!keysToRequest.isEmpty()) {
+        globValues.putAll(env.getValuesOrThrow(keysToRequest, IOException.class,
+            BuildFileNotFoundException.class, FileSymlinkCycleException.class,
+            InconsistentFilesystemException.class));
+        keysToRequest.clear();
+      }
+      List<GlobValue> includeValues = getGlobValues(skyframeToken.includeKeys);
+      List<GlobValue> excludeValues = getGlobValues(skyframeToken.excludeKeys);
+      if (includeValues == null || excludeValues == null) {
+        Globber.Token legacyToken;
+        try {
+          legacyToken = legacyGlobber.runAsync(skyframeToken.includes, skyframeToken.excludes,
+              skyframeToken.excludeDirs);
+        } catch (BadGlobException e) {
+          // The patterns were already checked by GlobValue.key.
+          throw new IllegalStateException(e);
+        }
+        return legacyGlobber.fetch(legacyToken);
+      }
+      Set<String> results = new LinkedHashSet<>();
+      for (GlobValue include : includeValues) {
+        results.addAll(getMatches(include));
+      }
+      for (GlobValue exclude : excludeValues) {
+        results.removeAll(getMatches(exclude));
+      }
+      return new ArrayList<>(results);
+    }
+
+    @Override
+    public void onInterrupt() {
+      legacyGlobber.onInterrupt();
+    }
+
+    @Override
+    public void onCompletion() {
+      legacyGlobber.onCompletion();
+    }
+  }
+
   private static class InternalInconsistentFilesystemException extends NoSuchPackageException {
     private boolean isTransient;
 
@@ -32,6 +32,8 @@ import com.google.devtools.build.lib.actions.ActionExecutionStatusReporter;
 import com.google.devtools.build.lib.actions.ActionGraph;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.ActionInputPrefetcher;
 import com.google.devtools.build.lib.actions.ActionLogBufferPathGenerator;
 import com.google.devtools.build.lib.actions.ActionMiddlemanEvent;
 import com.google.devtools.build.lib.actions.ActionStartedEvent;
@@ -42,14 +44,18 @@ import com.google.devtools.build.lib.actions.Artifact.MiddlemanExpander;
 import com.google.devtools.build.lib.actions.ArtifactPrefixConflictException;
 import com.google.devtools.build.lib.actions.CachedActionEvent;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.LocalOutputCache;
 import com.google.devtools.build.lib.actions.MapBasedActionGraph;
 import com.google.devtools.build.lib.actions.MutableActionGraph;
 import com.google.devtools.build.lib.actions.MutableActionGraph.ActionConflictException;
 import com.google.devtools.build.lib.actions.NotifyOnActionCacheHit;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
+import com.google.devtools.build.lib.actions.RemotableAction;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TargetOutOfDateException;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
 import com.google.devtools.build.lib.actions.cache.Digest;
 import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.actions.cache.Metadata;
@@ -62,6 +68,7 @@ import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.util.io.OutErr;
@@ -765,8 +772,23 @@ public final class SkyframeActionExecutor {
     }
 
     postEvent(new ActionStartedEvent(action, actionStartTime));
+    LocalOutputCache outputCache = actionCacheChecker.getOutputCache();
+    String outputCacheKey = outputCache != null
+        ? outputCache.getKey(action, context.getMetadataHandler())
+        : null;
+    if (outputCacheKey != null && outputCache.restore(outputCacheKey, action)) {
+      // The outputs were produced by an identical action in this or another workspace.
+      try {
+        completeAction(action, token, context.getMetadataHandler(), context.getFileOutErr(),
+            /*outputAlreadyDumped=*/false);
+      } finally {
+        postEvent(new ActionCompletionEvent(actionStartTime, action));
+      }
+      return;
+    }
     ResourceSet estimate = action.estimateResourceConsumption(executorEngine);
     ActionExecutionStatusReporter statusReporter = statusReporterRef.get();
+    ActionInputPrefetcher prefetcher = startInputPrefetch(action, context);
     try {
       if (estimate == null || estimate == ResourceSet.ZERO) {
         statusReporter.setRunningFromBuildData(action);
@@ -775,10 +797,22 @@ public final class SkyframeActionExecutor {
         // resource manager when it knows what resources are needed.
         resourceManager.acquireResources(action, estimate);
       }
+      long executionStartTime = BlazeClock.nanoTime();
       boolean outputDumped = executeActionTask(action, context);
       completeAction(action, token, context.getMetadataHandler(),
           context.getFileOutErr(), outputDumped);
+      // Actions that acquire their resources themselves, or need none, are recorded as well.
+      ActionDurationHistory durationHistory = resourceManager.getActionDurationHistory();
+      if (durationHistory != null) {
+        durationHistory.actionExecuted(action, BlazeClock.nanoTime() - executionStartTime);
+      }
+      if (outputCacheKey != null) {
+        outputCache.store(outputCacheKey, action, context.getMetadataHandler());
+      }
     } finally {
+      if (prefetcher != null) {
+        prefetcher.discardPrefetch(action);
+      }
       if (estimate != null) {
         resourceManager.releaseResources(action, estimate);
       }
@@ -787,6 +821,32 @@ public final class SkyframeActionExecutor {
     }
   }
 
+  /**
+   * Hands the inputs of the action to the prefetcher of its spawn strategy, if it has one and will
+   * run the spawn of the action remotely, so that the prefetch overlaps with the wait for resources
+   * and with the work the strategy does before it needs the inputs.
+   *
+   * <p>Returns the prefetcher, which must be told to discard the prefetch once the action has
+   * executed, or null if the inputs aren't prefetched.
+   */
+  @Nullable
+  ActionInputPrefetcher startInputPrefetch(Action action, ActionExecutionContext context) {
+    if (!(action instanceof RemotableAction)) {
+      return null;
+    }
+    SpawnActionContext strategy = executorEngine.getSpawnActionContext(action.getMnemonic());
+    // Inputs of spawns that fall back to local execution needn't go anywhere.
+    if (!(strategy instanceof ActionInputPrefetcher)
+        || !strategy.isRemotable(action.getMnemonic(), ((RemotableAction) action).isRemotable())) {
+      return null;
+    }
+    ActionInputPrefetcher prefetcher = (ActionInputPrefetcher) strategy;
+    prefetcher.prefetchInputs(action,
+        ActionInputHelper.expandMiddlemen(action.getInputs(), context.getMiddlemanExpander()),
+        context);
+    return prefetcher;
+  }
+
   private ActionExecutionException processAndThrow(
       ActionExecutionException e, Action action, FileOutErr outErrBuffer)
       throws ActionExecutionException {
@@ -414,8 +414,18 @@ public final class SkyframeBuildView {
 
   @Nullable
   SkyframeDependencyResolver createDependencyResolver(Environment env) {
+    return createDependencyResolver(env, env.getListener());
+  }
+
+  /**
+   * Same as {@link #createDependencyResolver(Environment)}, but reports errors in the dependencies
+   * on {@code eventHandler}.
+   */
+  @Nullable
+  SkyframeDependencyResolver createDependencyResolver(Environment env,
+      EventHandler eventHandler) {
     BuildConfigurationCollection configurations = getBuildConfigurationCollection(env);
-    return configurations == null ? null : new SkyframeDependencyResolver(env);
+    return configurations == null ? null : new SkyframeDependencyResolver(env, eventHandler);
   }
 
   /**
@@ -490,6 +500,10 @@ public final class SkyframeBuildView {
       }
     }
 
+    @Override
+    public void invalidationFinished(InvalidationState state, long nodeCount,
+        long elapsedNanos) {}
+
     @Override
     public void enqueueing(SkyKey skyKey) {}
 
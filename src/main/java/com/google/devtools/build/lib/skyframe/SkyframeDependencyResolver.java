@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.skyframe;
 import com.google.devtools.build.lib.analysis.DependencyResolver;
 import com.google.devtools.build.lib.analysis.TargetAndConfiguration;
 import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.packages.TargetUtils;
@@ -32,21 +33,28 @@ import javax.annotation.Nullable;
 public final class SkyframeDependencyResolver extends DependencyResolver {
 
   private final Environment env;
+  private final EventHandler eventHandler;
 
   public SkyframeDependencyResolver(Environment env) {
+    this(env, env.getListener());
+  }
+
+  /** Creates a resolver that reports errors in the dependencies on {@code eventHandler}. */
+  public SkyframeDependencyResolver(Environment env, EventHandler eventHandler) {
     this.env = env;
+    this.eventHandler = eventHandler;
   }
 
   @Override
   protected void invalidVisibilityReferenceHook(TargetAndConfiguration value, Label label) {
-    env.getListener().handle(
+    eventHandler.handle(
         Event.error(TargetUtils.getLocationMaybe(value.getTarget()), String.format(
             "Label '%s' in visibility attribute does not refer to a package group", label)));
   }
 
   @Override
   protected void invalidPackageGroupReferenceHook(TargetAndConfiguration value, Label label) {
-    env.getListener().handle(
+    eventHandler.handle(
         Event.error(TargetUtils.getLocationMaybe(value.getTarget()), String.format(
             "label '%s' does not refer to a package group", label)));
   }
@@ -79,6 +79,8 @@ import com.google.devtools.build.lib.pkgcache.PackageManager;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompletedReceiver;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
 import com.google.devtools.build.lib.syntax.Label;
@@ -87,6 +89,7 @@ import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.ResourceUsage;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.ModifiedFileSet;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -99,10 +102,14 @@ import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.ErrorInfo;
 import com.google.devtools.build.skyframe.EvaluationProgressReceiver;
 import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
 import com.google.devtools.build.skyframe.Injectable;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
 import com.google.devtools.build.skyframe.MemoizingEvaluator.EvaluatorSupplier;
 import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics.FunctionMetrics;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics.PruningMetrics;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
@@ -110,6 +117,8 @@ import com.google.devtools.build.skyframe.WalkableGraph;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -120,7 +129,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -155,13 +164,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   @VisibleForTesting
   public static final int DEFAULT_THREAD_COUNT = 200;
 
-  // Stores Packages between reruns of the PackageFunction (because of missing dependencies,
-  // within the same evaluate() run) to avoid loading the same package twice (first time loading
-  // to find subincludes and declare value dependencies).
-  // TODO(bazel-team): remove this cache once we have skyframe-native package loading
-  // [skyframe-loading]
-  private final ConcurrentMap<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache =
-      Maps.newConcurrentMap();
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
 
   protected SkyframeBuildView skyframeBuildView;
@@ -233,6 +235,17 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private MutableSupplier<Set<Package>> configurationPackages = new MutableSupplier<>();
   private SkyKey configurationSkyKey = null;
 
+  /**
+   * Functions whose values are read only through their Skyframe deps, and so can be evicted from
+   * the graph and recomputed from those deps later.
+   */
+  private static final ImmutableSet<SkyFunctionName> EVICTABLE_FUNCTIONS = ImmutableSet.of(
+      SkyFunctions.GLOB,
+      SkyFunctions.DIRECTORY_LISTING);
+
+  // Used heap above which values of EVICTABLE_FUNCTIONS are evicted, or 0 to never evict.
+  private long valueEvictionHeapBudgetBytes = 0;
+
   private static final Logger LOG = Logger.getLogger(SkyframeExecutor.class.getName());
 
   protected SkyframeExecutor(
@@ -300,8 +313,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.TARGET_PATTERN, new TargetPatternFunction(pkgLocator));
     map.put(SkyFunctions.RECURSIVE_PKG, new RecursivePkgFunction());
     map.put(SkyFunctions.PACKAGE, new PackageFunction(
-        reporter, pkgFactory, packageManager, showLoadingProgress, packageFunctionCache,
-        eventBus, numPackagesLoaded));
+        reporter, pkgFactory, packageManager, showLoadingProgress, eventBus,
+        numPackagesLoaded));
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction());
     map.put(SkyFunctions.CONFIGURED_TARGET,
@@ -355,6 +368,34 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.batchStatter = batchStatter;
   }
 
+  /**
+   * Writes the per-function evaluation counts and timings collected since the last call to the
+   * log and, if a profile is being recorded, to the profile, and starts collecting anew. Also logs
+   * which value classes most often defeated change pruning. Called at the end of each command.
+   */
+  public void reportSkyFunctionMetrics() {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator)) {
+      return;
+    }
+    SkyFunctionMetrics skyFunctionMetrics =
+        ((InMemoryMemoizingEvaluator) memoizingEvaluator).getSkyFunctionMetrics();
+    Map<Class<?>, PruningMetrics> pruning = skyFunctionMetrics.getAndResetPruning();
+    if (!pruning.isEmpty()) {
+      LOG.info("Change pruning of rebuilt values by class:\n"
+          + SkyFunctionMetrics.formatPruningTable(pruning));
+    }
+    Map<SkyFunctionName, FunctionMetrics> metrics = skyFunctionMetrics.getAndReset();
+    if (metrics.isEmpty()) {
+      return;
+    }
+    LOG.info("Skyframe evaluations by function:\n" + SkyFunctionMetrics.formatTable(metrics));
+    for (Map.Entry<SkyFunctionName, FunctionMetrics> entry :
+        SkyFunctionMetrics.byComputeTime(metrics)) {
+      Profiler.instance().logEvent(ProfilerTask.SKYFUNCTION_METRICS,
+          SkyFunctionMetrics.format(entry.getKey(), entry.getValue()));
+    }
+  }
+
   /**
    * Notify listeners about changed files, and release any associated memory afterwards.
    */
@@ -425,6 +466,71 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         skyFunctions, evaluatorDiffer(), progressReceiver, emittedEventState,
         hasIncrementalState());
     buildDriver = newBuildDriver();
+    updateValueEviction();
+  }
+
+  private void updateValueEviction() {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator) || !hasIncrementalState()) {
+      return;
+    }
+    InMemoryMemoizingEvaluator evaluator = (InMemoryMemoizingEvaluator) memoizingEvaluator;
+    if (valueEvictionHeapBudgetBytes > 0) {
+      evaluator.enableValueEviction(EVICTABLE_FUNCTIONS, valueEvictionHeapBudgetBytes);
+    } else {
+      evaluator.disableValueEviction();
+    }
+  }
+
+  /**
+   * Saves the file system part of the graph to {@code file}, so that a later server can restore
+   * it with {@link #restoreGraphSnapshot} instead of statting and listing every file again. Does
+   * nothing if the graph isn't kept incrementally. Returns the number of nodes saved.
+   */
+  public int writeGraphSnapshot(Path file) throws IOException {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator) || !hasIncrementalState()) {
+      return 0;
+    }
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+    Path tempFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+    int nodes;
+    try (OutputStream out = tempFile.getOutputStream()) {
+      nodes = ((InMemoryMemoizingEvaluator) memoizingEvaluator).writeSnapshot(
+          FileSystemValueCodecs.create(directories.getOutputBase().getFileSystem()), out);
+    }
+    tempFile.renameTo(file);
+    return nodes;
+  }
+
+  /**
+   * Fills the graph, which must not have evaluated anything yet, from a snapshot written by
+   * {@link #writeGraphSnapshot}, and deletes the snapshot. Every restored file and directory
+   * listing is then checked against the file system, and those that changed are invalidated, so
+   * the restored graph is as correct as one built from scratch. Returns the number of nodes
+   * restored, or 0 if there is no snapshot.
+   */
+  public int restoreGraphSnapshot(Path file) throws IOException, InterruptedException {
+    if (!(memoizingEvaluator instanceof InMemoryMemoizingEvaluator) || !hasIncrementalState()
+        || !file.exists()) {
+      return 0;
+    }
+    int nodes;
+    try (InputStream in = file.getInputStream()) {
+      nodes = ((InMemoryMemoizingEvaluator) memoizingEvaluator).restoreSnapshot(
+          FileSystemValueCodecs.create(directories.getOutputBase().getFileSystem()), in);
+    } catch (IOException e) {
+      // Don't evaluate against part of a snapshot.
+      resetEvaluator();
+      throw e;
+    } finally {
+      file.delete();
+    }
+    Differencer.Diff diff =
+        new FilesystemValueChecker(memoizingEvaluator, tsgm, null).getDirtyFilesystemSkyKeys();
+    invalidate(Predicates.in(ImmutableSet.<SkyKey>builder()
+        .addAll(diff.changedKeysWithoutNewValues())
+        .addAll(diff.changedKeysWithNewValues().keySet())
+        .build()));
+    return nodes;
   }
 
   /**
@@ -747,8 +853,6 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     checkPreprocessorFactory();
     emittedEventState.clear();
 
-    // If the PackageFunction was interrupted, there may be stale entries here.
-    packageFunctionCache.clear();
     numPackagesLoaded.set(0);
 
     // Reset the stateful SkyframeCycleReporter, which contains cycles from last run.
@@ -1327,7 +1431,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
     /** Same as {@link PackageManager#partiallyClear}. */
     void partiallyClear() {
-      packageFunctionCache.clear();
+      // Partially loaded packages are kept by the PackageFunction nodes themselves, and dropped as
+      // soon as those are done, so there is nothing to clear here.
     }
   }
 
@@ -1380,6 +1485,12 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         defaultsPackageContents, commandId);
     setDeletedPackages(ImmutableSet.copyOf(packageCacheOptions.deletedPackages));
+    long valueEvictionHeapBudgetBytes =
+        Math.max(0, packageCacheOptions.valueEvictionHeapBudgetMb) * 1024L * 1024L;
+    if (valueEvictionHeapBudgetBytes != this.valueEvictionHeapBudgetBytes) {
+      this.valueEvictionHeapBudgetBytes = valueEvictionHeapBudgetBytes;
+      updateValueEviction();
+    }
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
     invalidateTransientErrors();
@@ -1503,6 +1614,16 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       }
     }
 
+    @Override
+    public void invalidationFinished(InvalidationState state, long nodeCount, long elapsedNanos) {
+      if (nodeCount == 0) {
+        return;
+      }
+      LOG.info(String.format("Invalidation (%s) processed %d nodes in %d ms (%d nodes/s)",
+          state, nodeCount, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+          nodeCount * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos)));
+    }
+
     @Override
     public void enqueueing(SkyKey skyKey) {
       if (ignoreInvalidations) {
@@ -0,0 +1,120 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.devtools.common.options.EnumConverter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The hash functions that a {@link Fingerprint} can compute.
+ *
+ * <p>MURMUR3 is not a cryptographic hash, but it is several times faster than MD5, and its 128
+ * bits make accidental collisions between action keys as unlikely. It should not be used where
+ * fingerprints may be forged, e.g. when they are shared with other users.
+ */
+public enum DigestFunction {
+  MD5("MD5"),
+  SHA256("SHA-256"),
+  MURMUR3(Hashing.murmur3_128());
+
+  /** Converter for options that select a digest function. */
+  public static class Converter extends EnumConverter<DigestFunction> {
+    public Converter() {
+      super(DigestFunction.class, "digest function");
+    }
+  }
+
+  private final String algorithm;
+  private final HashFunction hashFunction;
+
+  private DigestFunction(String algorithm) {
+    this.algorithm = algorithm;
+    this.hashFunction = null;
+  }
+
+  private DigestFunction(HashFunction hashFunction) {
+    this.algorithm = null;
+    this.hashFunction = hashFunction;
+  }
+
+  /**
+   * Returns a new digest computer for this function; if this fails, Java must be installed
+   * incorrectly.
+   */
+  MessageDigest newMessageDigest() {
+    if (hashFunction != null) {
+      return new HashFunctionMessageDigest(name(), hashFunction);
+    }
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(algorithm + " not available");
+    }
+  }
+
+  /**
+   * Returns the suffix that caches whose contents depend on this function add to their version,
+   * so that caches written with different functions don't mix. It is empty for MD5, the original
+   * function.
+   */
+  public String getVersionSuffix() {
+    return this == MD5 ? "" : "-" + name().toLowerCase();
+  }
+
+  /**
+   * Exposes a Guava hash function as a {@link MessageDigest}. It can't be cloned.
+   */
+  private static final class HashFunctionMessageDigest extends MessageDigest {
+    private final HashFunction hashFunction;
+    private Hasher hasher;
+
+    private HashFunctionMessageDigest(String name, HashFunction hashFunction) {
+      super(name);
+      this.hashFunction = hashFunction;
+      this.hasher = hashFunction.newHasher();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+      return hashFunction.bits() / 8;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      hasher.putByte(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      hasher.putBytes(input, offset, len);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+      byte[] digest = hasher.hash().asBytes();
+      hasher = hashFunction.newHasher();
+      return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+      hasher = hashFunction.newHasher();
+    }
+  }
+}
@@ -21,30 +21,60 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.UUID;
 
 /**
- * Simplified wrapper for MD5 message digests. See also
- * com.google.math.crypto.MD5HMAC for a similar interface.
+ * Simplified wrapper for message digests, MD5 unless another {@link DigestFunction} is chosen. See
+ * also com.google.math.crypto.MD5HMAC for a similar interface.
+ *
+ * <p>The default function is used for action keys, configuration keys and other fingerprints
+ * that are only compared with fingerprints computed by the same server. Fingerprints that are
+ * persisted should be computed with a fixed function, or the function should be recorded with
+ * them.
  *
  * @see java.security.MessageDigest
  */
 public final class Fingerprint {
 
+  private static volatile DigestFunction defaultFunction = DigestFunction.MD5;
+
+  /** Longer strings are encoded into a new array rather than into {@link #stringBuffer}. */
+  private static final int MAX_BUFFERED_STRING_LENGTH = 1024;
+
   private final MessageDigest md;
 
+  // Reused to pass numbers and short strings to the digest, so that fingerprinting many of them,
+  // such as the arguments of an action, allocates little.
+  private final byte[] numberBuffer = new byte[8];
+  private byte[] stringBuffer = null;
+
   /**
-   * Creates and initializes a new MD5 object; if this fails, Java must be
-   * installed incorrectly.
+   * Creates and initializes a new digest computer for the default function.
    */
   public Fingerprint() {
-    try {
-      md = MessageDigest.getInstance("md5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("MD5 not available");
-    }
+    this(defaultFunction);
+  }
+
+  /**
+   * Creates and initializes a new digest computer for the given function; if this fails, Java
+   * must be installed incorrectly.
+   */
+  public Fingerprint(DigestFunction function) {
+    md = function.newMessageDigest();
+  }
+
+  /**
+   * Sets the function of fingerprints created with {@link #Fingerprint()}. Must be called before
+   * any such fingerprint is computed, since fingerprints computed with different functions can't
+   * be compared.
+   */
+  public static void setDefaultFunction(DigestFunction function) {
+    defaultFunction = function;
+  }
+
+  public static DigestFunction getDefaultFunction() {
+    return defaultFunction;
   }
 
   /**
@@ -52,7 +82,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 16-byte array
+   * @return the digest, a 16-byte array for MD5
    * @see java.security.MessageDigest#digest()
    */
   public byte[] digestAndReset() {
@@ -64,7 +94,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 32-character string of hexadecimal digits
+   * @return the digest as a string of hexadecimal digits, 32 for MD5
    * @see com.google.math.crypto.MD5HMAC#toString()
    */
   public String hexDigestAndReset() {
@@ -97,7 +127,7 @@ public final class Fingerprint {
   @Override
   public String toString() {
     try {
-      // MD5 does support cloning, so this should not fail
+      // MD5 and SHA-256 do support cloning
       return hexDigest(((MessageDigest) md.clone()).digest());
     } catch (CloneNotSupportedException e) {
       // MessageDigest does not support cloning,
@@ -134,7 +164,7 @@ public final class Fingerprint {
    * Updates the digest with a boolean value.
    */
   public Fingerprint addBoolean(boolean input) {
-    addBytes(new byte[] { (byte) (input ? 1 : 0) });
+    md.update((byte) (input ? 1 : 0));
     return this;
   }
 
@@ -144,13 +174,11 @@ public final class Fingerprint {
    * @param input the integer with which to update the digest
    */
   public Fingerprint addInt(int input) {
-    md.update(new byte[] {
-        (byte) input,
-        (byte) (input >>  8),
-        (byte) (input >> 16),
-        (byte) (input >> 24),
-    });
-
+    numberBuffer[0] = (byte) input;
+    numberBuffer[1] = (byte) (input >> 8);
+    numberBuffer[2] = (byte) (input >> 16);
+    numberBuffer[3] = (byte) (input >> 24);
+    md.update(numberBuffer, 0, 4);
     return this;
   }
 
@@ -160,17 +188,10 @@ public final class Fingerprint {
    * @param input the long with which to update the digest
    */
   public Fingerprint addLong(long input) {
-    md.update(new byte[]{
-        (byte) input,
-        (byte) (input >> 8),
-        (byte) (input >> 16),
-        (byte) (input >> 24),
-        (byte) (input >> 32),
-        (byte) (input >> 40),
-        (byte) (input >> 48),
-        (byte) (input >> 56),
-    });
-
+    for (int i = 0; i < 8; i++) {
+      numberBuffer[i] = (byte) (input >> (8 * i));
+    }
+    md.update(numberBuffer, 0, 8);
     return this;
   }
 
@@ -192,6 +213,21 @@ public final class Fingerprint {
    * @see java.security.MessageDigest#update(byte[])
    */
   public Fingerprint addString(String input) {
+    // Most strings are ASCII, whose UTF8 encoding is one byte per character.
+    int length = input.length();
+    byte[] buffer = stringBuffer(length);
+    if (buffer != null) {
+      int i = 0;
+      while (i < length && input.charAt(i) < 0x80) {
+        buffer[i] = (byte) input.charAt(i);
+        i++;
+      }
+      if (i == length) {
+        addInt(length);
+        md.update(buffer, 0, length);
+        return this;
+      }
+    }
     byte[] bytes = input.getBytes(UTF_8);
     addInt(bytes.length);
     md.update(bytes);
@@ -205,15 +241,33 @@ public final class Fingerprint {
    * @see java.security.MessageDigest#update(byte[])
    */
   public Fingerprint addStringLatin1(String input) {
-    addInt(input.length());
-    byte[] bytes = new byte[input.length()];
-    for (int i = 0; i < input.length(); i++) {
+    int length = input.length();
+    addInt(length);
+    byte[] bytes = stringBuffer(length);
+    if (bytes == null) {
+      bytes = new byte[length];
+    }
+    for (int i = 0; i < length; i++) {
       bytes[i] = (byte) input.charAt(i);
     }
-    md.update(bytes);
+    md.update(bytes, 0, length);
     return this;
   }
 
+  /**
+   * Returns the buffer for encoding a string of the given length, or null if it is too long to
+   * keep a buffer for.
+   */
+  private byte[] stringBuffer(int length) {
+    if (length > MAX_BUFFERED_STRING_LENGTH) {
+      return null;
+    }
+    if (stringBuffer == null || stringBuffer.length < length) {
+      stringBuffer = new byte[Math.max(length, 64)];
+    }
+    return stringBuffer;
+  }
+
   /**
    * Updates the digest with a Path.
    *
@@ -312,7 +366,7 @@ public final class Fingerprint {
    * @param input the String from which to compute the digest
    */
   public static String md5Digest(String input) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(DigestFunction.MD5);
     f.addBytes(input.getBytes(UTF_8));
     return f.hexDigestAndReset();
   }
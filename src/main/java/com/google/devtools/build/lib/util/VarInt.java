@@ -283,4 +283,17 @@ public class VarInt {
       sink.put((byte) (bits | 0x80));
     }
   }
+
+  /**
+   * Encodes a long integer in a variable-length encoding, 7 bits per byte, and
+   * writes it to the given OutputStream.
+   *
+   * @param v the value to encode
+   * @param outputStream the OutputStream to write to
+   */
+  public static void putVarLong(long v, OutputStream outputStream) throws IOException {
+    byte[] bytes = new byte[varLongSize(v)];
+    putVarLong(v, ByteBuffer.wrap(bytes));
+    outputStream.write(bytes);
+  }
 }
@@ -463,6 +463,16 @@ public abstract class FileSystem {
   protected abstract void createSymbolicLink(Path linkPath, PathFragment targetFragment)
       throws IOException;
 
+  /**
+   * Creates a hard link. See {@link Path#createHardLink(Path)} for specification.
+   *
+   * <p>Note: {@link FileSystem}s that do not support hard links throw an
+   * {@link UnsupportedOperationException}, which is the default.
+   */
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    throw new UnsupportedOperationException("Hard links are not supported by " + getClass());
+  }
+
   /**
    * Returns the target of a symbolic link. See {@link Path#readSymbolicLink}
    * for specification.
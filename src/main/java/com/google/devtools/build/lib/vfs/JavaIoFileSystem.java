@@ -21,9 +21,15 @@ import com.google.devtools.build.lib.unix.FileAccessException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 
@@ -48,6 +54,11 @@ public class JavaIoFileSystem extends AbstractFileSystem {
   protected static final String ERR_NO_SUCH_FILE_OR_DIR = " (No such file or directory)";
   protected static final String ERR_NOT_A_DIRECTORY = " (Not a directory)";
 
+  // Files at least this large are digested through memory mappings of at most MAPPED_CHUNK_SIZE
+  // bytes, which saves copying their contents through a buffer on the heap.
+  private static final long MAPPED_DIGEST_THRESHOLD = 1 << 20;
+  private static final long MAPPED_CHUNK_SIZE = 64 << 20;
+
   protected File getIoFile(Path path) {
     return new File(path.toString());
   }
@@ -279,6 +290,20 @@ public class JavaIoFileSystem extends AbstractFileSystem {
     }
   }
 
+  @Override
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    File file = getIoFile(linkPath);
+    try {
+      Files.createLink(file.toPath(), getIoFile(originalPath).toPath());
+    } catch (java.nio.file.FileAlreadyExistsException e) {
+      throw new IOException(linkPath + ERR_FILE_EXISTS);
+    } catch (java.nio.file.AccessDeniedException e) {
+      throw new IOException(linkPath + ERR_PERMISSION_DENIED);
+    } catch (java.nio.file.NoSuchFileException e) {
+      throw new FileNotFoundException(linkPath + ERR_NO_SUCH_FILE_OR_DIR);
+    }
+  }
+
   @Override
   protected PathFragment readSymbolicLink(Path path) throws IOException {
     File file = getIoFile(path);
@@ -398,8 +423,28 @@ public class JavaIoFileSystem extends AbstractFileSystem {
   protected byte[] getMD5Digest(Path path) throws IOException {
     String name = path.toString();
     long startTime = Profiler.nanoTimeMaybe();
-    try {
-      return super.getMD5Digest(path);
+    try (FileChannel channel =
+        FileChannel.open(getIoFile(path).toPath(), StandardOpenOption.READ)) {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      long size = channel.size();
+      if (size < MAPPED_DIGEST_THRESHOLD) {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (channel.read(buffer) >= 0) {
+          buffer.flip();
+          md5.update(buffer);
+          buffer.clear();
+        }
+      } else {
+        for (long position = 0; position < size; position += MAPPED_CHUNK_SIZE) {
+          md5.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+              Math.min(MAPPED_CHUNK_SIZE, size - position)));
+        }
+      }
+      return md5.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(path + ERR_NO_SUCH_FILE_OR_DIR);
     } finally {
       profiler.logSimpleTask(startTime, ProfilerTask.VFS_MD5, name);
     }
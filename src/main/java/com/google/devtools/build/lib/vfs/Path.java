@@ -739,6 +739,22 @@ public class Path implements Comparable<Path>, Serializable {
     fileSystem.createSymbolicLink(this, target.asFragment());
   }
 
+  /**
+   * Creates a hard link with the name of the current path to the existing
+   * regular file {@code originalPath}, which then share their contents and
+   * permissions.
+   *
+   * @throws IOException if the creation of the hard link was unsuccessful
+   *         for any reason, for instance because the two paths are on
+   *         different devices
+   * @throws UnsupportedOperationException if the file system does not
+   *         support hard links
+   */
+  public void createHardLink(Path originalPath) throws IOException {
+    checkSameFilesystem(originalPath);
+    fileSystem.createHardLink(this, originalPath);
+  }
+
   /**
    * Creates a symbolic link with the name of the current path, following
    * symbolic links. The referent of the created symlink is is the path fragment
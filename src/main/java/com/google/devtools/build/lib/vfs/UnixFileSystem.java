@@ -322,6 +322,13 @@ public class UnixFileSystem extends AbstractFileSystem {
     }
   }
 
+  @Override
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    synchronized (linkPath) {
+      FilesystemUtils.link(originalPath.toString(), linkPath.toString());
+    }
+  }
+
   @Override
   protected PathFragment readSymbolicLink(Path path) throws IOException {
     String name = path.toString();
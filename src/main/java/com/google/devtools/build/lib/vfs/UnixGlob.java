@@ -99,6 +99,10 @@ public final class UnixGlob {
     return list;
   }
 
+  private static boolean isWildcard(String pattern) {
+    return pattern.contains("*") || pattern.contains("?");
+  }
+
   /**
    * @return whether or not {@code pattern} contains illegal characters
    */
@@ -720,14 +724,13 @@ public final class UnixGlob {
           = getRelevantExcludes(base, excludePatterns, excludeIdx, cache);
       final String pattern = patternParts[idx];
 
-      // ** is special: it can match nothing at all.
-      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
       if ("**".equals(pattern)) {
-        queueGlob(base, baseIsDir, patternParts, idx + 1, excludeDirectories,
-            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+        globRecursively(base, patternParts, idx, excludeDirectories, excludePatterns,
+            relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+        return;
       }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
+      if (!isWildcard(pattern)) {
         // We do not need to do a readdir in this case, just a stat.
         Path child = base.getChild(pattern);
         FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
@@ -755,25 +758,116 @@ public final class UnixGlob {
         String text = dent.getName();
         Path child = base.getChild(text);
 
-        if ("**".equals(pattern)) {
-          // Recurse without shifting the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          }
-        }
         if (matches(pattern, text, cache)) {
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == patternParts.length &&
-                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
-              results.add(child);
-            }
+          consumeSegment(child, childIsDir, patternParts, idx, excludeDirectories,
+              relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+        }
+      }
+    }
+
+    /**
+     * Globs {@code base} for a pattern whose segment {@code idx} is <code>**</code>.
+     *
+     * <p><code>**</code> is special: it can match nothing at all. For example, x/** matches x,
+     * **&#47;y matches y, and x/**&#47;y matches x/y. Instead of globbing the directory again for
+     * the rest of the pattern, its entries are matched against both segments at once, and so the
+     * directory is only read once and every subdirectory is only visited once for this
+     * <code>**</code>.
+     */
+    private void globRecursively(Path base, String[] patternParts, int idx,
+        boolean excludeDirectories,
+        List<String[]> excludePatterns,
+        List<String[]> relevantExcludes,
+        int excludeIdx,
+        Collection<Path> results, Cache<String, Pattern> cache,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) throws IOException {
+      String next = null;
+      if (idx + 1 == patternParts.length) {
+        // The base case for matching nothing.
+        if (!excludeDirectories && !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
+          results.add(base);
+        }
+      } else if ("**".equals(patternParts[idx + 1])) {
+        queueGlob(base, true, patternParts, idx + 1, excludeDirectories,
+            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+      } else {
+        next = patternParts[idx + 1];
+      }
+
+      Collection<Dirent> dents = syscalls.readdir(base, Symlinks.FOLLOW);
+      boolean nextIsLiteral = next != null && !isWildcard(next);
+      boolean literalFound = false;
+      boolean literalMayDifferInCase = false;
+
+      for (Dirent dent : dents) {
+        Dirent.Type type = dent.getType();
+        if (type == Dirent.Type.UNKNOWN) {
+          // The file is a dangling symlink, fifo, etc.
+          continue;
+        }
+        boolean childIsDir = (type == Dirent.Type.DIRECTORY);
+        String text = dent.getName();
+        Path child = base.getChild(text);
+
+        // Let ** match the child: recurse without shifting the pattern, or match a file.
+        if (childIsDir) {
+          queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
+              relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+        } else {
+          consumeSegment(child, childIsDir, patternParts, idx, excludeDirectories,
+              relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+        }
+
+        // Let ** match nothing, and the next segment match the child. If the entry has exactly
+        // the name of a literal segment, its type tells whether it is a directory, so there's no
+        // need to stat it.
+        if (nextIsLiteral) {
+          if (next.equals(text)) {
+            literalFound = true;
+            consumeSegment(child, childIsDir, patternParts, idx + 1, excludeDirectories,
+                relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+          } else if (next.equalsIgnoreCase(text)) {
+            literalMayDifferInCase = true;
           }
+        } else if (next != null && matches(next, text, cache)) {
+          consumeSegment(child, childIsDir, patternParts, idx + 1, excludeDirectories,
+              relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+        }
+      }
+
+      if (literalMayDifferInCase && !literalFound) {
+        // On a case-insensitive file system, a literal segment names an entry that only differs
+        // from it in case. Resolve it with a stat, like a literal segment that doesn't follow **.
+        Path child = base.getChild(next);
+        FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
+        if (status != null && (status.isDirectory() || status.isFile())) {
+          consumeSegment(child, status.isDirectory(), patternParts, idx + 1, excludeDirectories,
+              relevantExcludes, excludeIdx, results, cache, dirPred, syscalls);
+        }
+      }
+    }
+
+    /**
+     * Continues the glob after segment {@code idx} of the pattern matched {@code child}, an entry
+     * of a directory that matched segment {@code idx - 1}.
+     */
+    private void consumeSegment(Path child, boolean childIsDir, String[] patternParts, int idx,
+        boolean excludeDirectories,
+        List<String[]> relevantExcludes,
+        int excludeIdx,
+        Collection<Path> results, Cache<String, Pattern> cache,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) {
+      // Recurse and consume one segment of the pattern.
+      if (childIsDir) {
+        queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
+            relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+      } else {
+        // Instead of using an async call, just repeat the base case above.
+        if (idx + 1 == patternParts.length &&
+            !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
+          results.add(child);
         }
       }
     }
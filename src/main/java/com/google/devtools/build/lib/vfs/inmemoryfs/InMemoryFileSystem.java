@@ -713,6 +713,28 @@ public class InMemoryFileSystem extends ScopeEscapableFileSystem {
     getDelegatedPath(parent.getEscapingPath(), path).createSymbolicLink(targetFragment);
   }
 
+  @Override
+  protected void createHardLink(Path linkPath, Path originalPath) throws IOException {
+    if (linkPath.equals(rootPath)) { throw Error.EACCES.exception(linkPath); }
+
+    synchronized (this) {
+      InMemoryDirectoryInfo parent = getDirectory(linkPath.getParentDirectory());
+      InMemoryContentInfo original = scopeLimitedStat(originalPath, false);
+      if (!parent.outOfScope() && !original.outOfScope()) {
+        if (original.isDirectory()) { throw Error.EISDIR.exception(originalPath); }
+        if (parent.getChild(linkPath.getBaseName()) != null) {
+          throw Error.EEXIST.exception(linkPath);
+        }
+        // Both names refer to the same inode, and so to the same contents and permissions.
+        insert(parent, linkPath.getBaseName(), original, linkPath);
+        return;
+      }
+    }
+
+    // If we get here, one of the paths is out of scope, and may be on another file system.
+    throw new IOException(linkPath + " -> " + originalPath + " (Invalid cross-device link)");
+  }
+
   @Override
   protected PathFragment readSymbolicLink(Path path) throws IOException {
     InMemoryContentInfo status = scopeLimitedStat(path, false);
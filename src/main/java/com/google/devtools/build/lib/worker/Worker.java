@@ -0,0 +1,88 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A persistent worker process, which serves one request at a time. Its standard error, which
+ * is not part of the responses, goes to a log file.
+ */
+@ThreadCompatible
+final class Worker {
+  private final WorkerKey key;
+  private final Process process;
+  private final OutputStream requests;
+  private final InputStream responses;
+
+  private Worker(WorkerKey key, Process process) {
+    this.key = key;
+    this.process = process;
+    this.requests = new BufferedOutputStream(process.getOutputStream());
+    this.responses = new BufferedInputStream(process.getInputStream());
+  }
+
+  /**
+   * Starts a worker for the given key.
+   */
+  static Worker create(WorkerKey key, Path logFile) throws IOException {
+    List<String> args = new ArrayList<>(key.getArgs());
+    args.add(WorkerProtocol.PERSISTENT_WORKER_FLAG);
+    ProcessBuilder builder = new ProcessBuilder(args)
+        .directory(key.getWorkDir().getPathFile())
+        .redirectError(ProcessBuilder.Redirect.appendTo(logFile.getPathFile()));
+    builder.environment().clear();
+    builder.environment().putAll(key.getEnv());
+    return new Worker(key, builder.start());
+  }
+
+  WorkerKey getKey() {
+    return key;
+  }
+
+  /**
+   * Sends a request and waits for its response.
+   *
+   * @throws IOException if the worker couldn't be talked to or exited; it is then unusable
+   */
+  WorkerProtocol.Response exec(List<String> arguments) throws IOException {
+    WorkerProtocol.writeRequest(requests, arguments);
+    return WorkerProtocol.readResponse(responses);
+  }
+
+  boolean isAlive() {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Kills the worker.
+   */
+  void destroy() {
+    process.destroy();
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.vfs.Path;
+
+/**
+ * Identifies the workers that can serve a request: those started with the same command line and
+ * environment in the same directory, from the same tool files.
+ */
+@Immutable
+final class WorkerKey {
+  private final ImmutableList<String> args;
+  private final ImmutableMap<String, String> env;
+  private final Path workDir;
+  // Changes when the tool is rebuilt, so that stale workers aren't used.
+  private final String toolDigest;
+
+  WorkerKey(ImmutableList<String> args, ImmutableMap<String, String> env, Path workDir,
+      String toolDigest) {
+    this.args = args;
+    this.env = env;
+    this.workDir = workDir;
+    this.toolDigest = toolDigest;
+  }
+
+  /**
+   * Returns the command line that starts a worker, without
+   * {@link WorkerProtocol#PERSISTENT_WORKER_FLAG}.
+   */
+  ImmutableList<String> getArgs() {
+    return args;
+  }
+
+  ImmutableMap<String, String> getEnv() {
+    return env;
+  }
+
+  Path getWorkDir() {
+    return workDir;
+  }
+
+  /**
+   * Returns whether the workers of both keys are started the same way, possibly from different
+   * versions of the tool.
+   */
+  boolean hasSameCommandAs(WorkerKey that) {
+    return args.equals(that.args) && env.equals(that.env) && workDir.equals(that.workDir);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof WorkerKey)) {
+      return false;
+    }
+    WorkerKey that = (WorkerKey) o;
+    return hasSameCommandAs(that) && toolDigest.equals(that.toolDigest);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(args, env, workDir, toolDigest);
+  }
+
+  @Override
+  public String toString() {
+    return args.toString();
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionGraph;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Executor.ActionContext;
+import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.BlazeRuntime;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.standalone.LocalSpawnStrategy;
+import com.google.devtools.common.options.Options;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Provides the "worker" spawn strategy, selected with --spawn_strategy=worker. Its workers are
+ * kept across builds, and shut down with the server.
+ */
+public class WorkerModule extends BlazeModule {
+  private BlazeRuntime runtime;
+  private BuildRequest buildRequest;
+  private WorkerPool workers;
+
+  private class WorkerActionContextProvider implements ActionContextProvider {
+    private final WorkerSpawnStrategy strategy;
+
+    private WorkerActionContextProvider() {
+      boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+      WorkerOptions options = buildRequest.getOptions(WorkerOptions.class);
+      workers.setMaxIdlePerKey(options.workerMaxInstances);
+      workers.setMaxIdleSecs(options.workerMaxIdleSecs);
+      this.strategy = new WorkerSpawnStrategy(runtime.getDirectories().getExecRoot(), workers,
+          new LocalSpawnStrategy(runtime.getDirectories().getExecRoot(), verboseFailures),
+          verboseFailures);
+    }
+
+    @Override
+    public Iterable<ActionContext> getActionContexts() {
+      return ImmutableList.<ActionContext>of(strategy);
+    }
+
+    @Override
+    public void executorCreated(Iterable<ActionContext> usedContexts) {
+    }
+
+    @Override
+    public void executionPhaseStarting(ActionInputFileCache actionInputFileCache,
+        ActionGraph actionGraph, Iterable<Artifact> topLevelArtifacts) {
+    }
+
+    @Override
+    public void executionPhaseEnding() {
+    }
+  }
+
+  @Override
+  public void beforeCommand(BlazeRuntime runtime, Command command) {
+    this.runtime = runtime;
+    runtime.getEventBus().register(this);
+    if (command.builds() && workers == null) {
+      WorkerOptions defaults = Options.getDefaults(WorkerOptions.class);
+      workers = new WorkerPool(runtime.getDirectories().getOutputBase().getRelative("worker-logs"),
+          defaults.workerMaxInstances);
+      workers.setMaxIdleSecs(defaults.workerMaxIdleSecs);
+    }
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return command.builds()
+        ? ImmutableList.<Class<? extends OptionsBase>>of(WorkerOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
+  }
+
+  @Override
+  public ActionContextProvider getActionContextProvider() {
+    return new WorkerActionContextProvider();
+  }
+
+  @Subscribe
+  public void buildStarting(BuildStartingEvent event) {
+    buildRequest = event.getRequest();
+  }
+
+  @Override
+  public void blazeShutdown() {
+    if (workers != null) {
+      workers.close();
+    }
+  }
+}
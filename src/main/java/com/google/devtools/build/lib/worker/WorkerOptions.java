@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options affecting how spawns are executed with --spawn_strategy=worker.
+ */
+public class WorkerOptions extends OptionsBase {
+  @Option(name = "worker_max_instances",
+      defaultValue = "4",
+      category = "strategy",
+      help = "The number of idle workers that are kept between actions and between builds for "
+          + "each tool and set of startup flags. More workers than that are started if more "
+          + "actions run at once, but are shut down once their action finished.")
+  public int workerMaxInstances;
+
+  @Option(name = "worker_max_idle_secs",
+      defaultValue = "300",
+      category = "strategy",
+      help = "The number of seconds after which an idle worker is shut down. Idle workers of a "
+          + "tool that was rebuilt since are shut down when the new version is first used.")
+  public int workerMaxIdleSecs;
+}
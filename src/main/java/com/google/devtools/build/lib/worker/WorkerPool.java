@@ -0,0 +1,198 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps idle workers between requests, and between builds.
+ *
+ * <p>A worker is lent to one request at a time. If no idle worker with the right key is there, a
+ * new one is started, so there are at most as many workers busy as there are concurrent
+ * requests; of those, at most {@code maxIdlePerKey} per key are kept when they are returned.
+ *
+ * <p>Idle workers are killed once they have been idle for longer than {@code maxIdleSecs}, and
+ * as soon as a worker for the same command is started from a different version of the tool, since
+ * no request will ask for the old version again.
+ */
+@ThreadSafe
+public final class WorkerPool {
+  /** An idle worker, and when it was returned. */
+  private static final class IdleWorker {
+    final Worker worker;
+    final long idleSinceMillis;
+
+    IdleWorker(Worker worker, long idleSinceMillis) {
+      this.worker = worker;
+      this.idleSinceMillis = idleSinceMillis;
+    }
+  }
+
+  private final Path logDir;
+  private final Clock clock;
+  private final Map<WorkerKey, Deque<IdleWorker>> idleWorkers = new HashMap<>();
+  private int maxIdlePerKey;
+  private long maxIdleMillis = Long.MAX_VALUE;
+  private int createdWorkers = 0;
+  private boolean closed = false;
+
+  public WorkerPool(Path logDir, int maxIdlePerKey) {
+    this(logDir, maxIdlePerKey, BlazeClock.instance());
+  }
+
+  @VisibleForTesting
+  WorkerPool(Path logDir, int maxIdlePerKey, Clock clock) {
+    this.logDir = logDir;
+    this.maxIdlePerKey = maxIdlePerKey;
+    this.clock = clock;
+  }
+
+  public synchronized void setMaxIdlePerKey(int maxIdlePerKey) {
+    this.maxIdlePerKey = maxIdlePerKey;
+  }
+
+  public synchronized void setMaxIdleSecs(int maxIdleSecs) {
+    this.maxIdleMillis = maxIdleSecs * 1000L;
+  }
+
+  /**
+   * Returns an idle worker with the given key, or starts a new one.
+   */
+  Worker borrowWorker(WorkerKey key) throws IOException {
+    List<Worker> evicted = new ArrayList<>();
+    try {
+      synchronized (this) {
+        evictExpiredWorkers(evicted);
+        Deque<IdleWorker> idle = idleWorkers.get(key);
+        while (idle != null && !idle.isEmpty()) {
+          Worker worker = idle.pop().worker;
+          if (worker.isAlive()) {
+            return worker;
+          }
+        }
+        evictStaleWorkers(key, evicted);
+        createdWorkers++;
+      }
+    } finally {
+      destroyAll(evicted);
+    }
+    FileSystemUtils.createDirectoryAndParents(logDir);
+    return Worker.create(key, logDir.getChild("worker-" + Math.abs(key.hashCode()) + ".log"));
+  }
+
+  /**
+   * Takes back a worker whose request was answered.
+   */
+  void returnWorker(Worker worker) {
+    List<Worker> evicted = new ArrayList<>();
+    synchronized (this) {
+      evictExpiredWorkers(evicted);
+      Deque<IdleWorker> idle = idleWorkers.get(worker.getKey());
+      if (idle == null) {
+        idle = new ArrayDeque<>();
+        idleWorkers.put(worker.getKey(), idle);
+      }
+      if (!closed && idle.size() < maxIdlePerKey) {
+        idle.push(new IdleWorker(worker, clock.currentTimeMillis()));
+      } else {
+        evicted.add(worker);
+      }
+    }
+    destroyAll(evicted);
+  }
+
+  /**
+   * Kills all idle workers; workers that are returned later are killed too.
+   */
+  public void close() {
+    List<Worker> evicted = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      for (Deque<IdleWorker> idle : idleWorkers.values()) {
+        for (IdleWorker idleWorker : idle) {
+          evicted.add(idleWorker.worker);
+        }
+      }
+      idleWorkers.clear();
+    }
+    destroyAll(evicted);
+  }
+
+  /** Moves the workers that have been idle for too long to {@code evicted}. */
+  private void evictExpiredWorkers(List<Worker> evicted) {
+    long now = clock.currentTimeMillis();
+    Iterator<Deque<IdleWorker>> it = idleWorkers.values().iterator();
+    while (it.hasNext()) {
+      Deque<IdleWorker> idle = it.next();
+      // The least recently returned workers are at the end.
+      while (!idle.isEmpty() && now - idle.peekLast().idleSinceMillis > maxIdleMillis) {
+        evicted.add(idle.removeLast().worker);
+      }
+      if (idle.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Moves the idle workers that run the same command as {@code key} from another version of the
+   * tool to {@code evicted}.
+   */
+  private void evictStaleWorkers(WorkerKey key, List<Worker> evicted) {
+    Iterator<Map.Entry<WorkerKey, Deque<IdleWorker>>> it = idleWorkers.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<WorkerKey, Deque<IdleWorker>> entry = it.next();
+      if (!entry.getKey().equals(key) && entry.getKey().hasSameCommandAs(key)) {
+        for (IdleWorker idleWorker : entry.getValue()) {
+          evicted.add(idleWorker.worker);
+        }
+        it.remove();
+      }
+    }
+  }
+
+  private static void destroyAll(List<Worker> workers) {
+    for (Worker worker : workers) {
+      worker.destroy();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getIdleWorkers() {
+    int count = 0;
+    for (Deque<IdleWorker> idle : idleWorkers.values()) {
+      count += idle.size();
+    }
+    return count;
+  }
+
+  @VisibleForTesting
+  synchronized int getCreatedWorkers() {
+    return createdWorkers;
+  }
+}
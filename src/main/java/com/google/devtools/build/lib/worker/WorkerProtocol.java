@@ -0,0 +1,137 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The protocol between Blaze and persistent worker processes.
+ *
+ * <p>A tool that supports it is started with {@link #PERSISTENT_WORKER_FLAG} as its last argument
+ * instead of the arguments of a single invocation. It then reads requests from its standard input
+ * and answers each with a response on its standard output, until its standard input is closed.
+ * A request holds the arguments of one invocation; a response holds the exit code and the
+ * combined output that the invocation would have had.
+ *
+ * <p>Requests are the number of arguments followed by the arguments, responses the exit code
+ * followed by the output. Numbers are 4-byte big-endian integers and arguments and the output are
+ * prefixed by their length in bytes; arguments are encoded in UTF-8.
+ *
+ * <p>This class is also used by the tools, so it must not depend on anything else in Blaze.
+ */
+public final class WorkerProtocol {
+
+  /** The flag that makes a tool run as a persistent worker. */
+  public static final String PERSISTENT_WORKER_FLAG = "--persistent_worker";
+
+  /** The outcome of a request. */
+  public static final class Response {
+    private final int exitCode;
+    private final byte[] output;
+
+    public Response(int exitCode, byte[] output) {
+      this.exitCode = exitCode;
+      this.output = output;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public byte[] getOutput() {
+      return output;
+    }
+  }
+
+  private WorkerProtocol() {
+  }
+
+  /**
+   * Returns true if the tool was started as a persistent worker.
+   */
+  public static boolean isPersistentWorker(String[] args) {
+    return args.length > 0 && args[args.length - 1].equals(PERSISTENT_WORKER_FLAG);
+  }
+
+  public static void writeRequest(OutputStream out, List<String> arguments) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(arguments.size());
+    for (String argument : arguments) {
+      writeBytes(data, argument.getBytes(UTF_8));
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads the arguments of the next request, or returns null if the input was closed.
+   */
+  public static List<String> readRequest(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    int count;
+    try {
+      count = data.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    List<String> arguments = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      arguments.add(new String(readBytes(data), UTF_8));
+    }
+    return Collections.unmodifiableList(arguments);
+  }
+
+  public static void writeResponse(OutputStream out, int exitCode, byte[] output)
+      throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(exitCode);
+    writeBytes(data, output);
+    data.flush();
+  }
+
+  /**
+   * Reads the next response.
+   *
+   * @throws EOFException if the worker exited before it responded
+   */
+  public static Response readResponse(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    int exitCode = data.readInt();
+    return new Response(exitCode, readBytes(data));
+  }
+
+  private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream data) throws IOException {
+    int length = data.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid length " + length);
+    }
+    byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return bytes;
+  }
+}
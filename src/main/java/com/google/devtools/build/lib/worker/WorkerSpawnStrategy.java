@@ -0,0 +1,173 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.devtools.build.lib.util.CommandFailureUtils;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Strategy that sends spawns to persistent worker processes, which avoids starting a new process,
+ * and for tools written in Java, a new JVM that has to warm up, for each spawn.
+ *
+ * <p>Only spawns that declare that their tool supports the {@link WorkerProtocol}, with the
+ * {@code "supports-workers"} execution info, and whose last argument is a parameter file, are sent
+ * to workers: the parameter file is the request, and the arguments before it start the worker.
+ * All other spawns are executed by the fallback strategy, as are spawns whose worker fails to
+ * start or exits; those are executed once more by the fallback strategy, as a separate process.
+ */
+@ExecutionStrategy(name = { "worker" }, contextType = SpawnActionContext.class)
+public class WorkerSpawnStrategy implements SpawnActionContext {
+  private static final Logger LOG = Logger.getLogger(WorkerSpawnStrategy.class.getName());
+
+  /** The execution info key that spawns whose tool supports the worker protocol have. */
+  public static final String SUPPORTS_WORKERS = "supports-workers";
+
+  // Tool paths appear in arguments like "-jar", "path", "-cp=path:path" or "-Xbootclasspath/p:path".
+  private static final Splitter PATH_SPLITTER = Splitter.on(CharMatcher.anyOf("=:"));
+
+  private final Path execRoot;
+  private final WorkerPool workers;
+  private final SpawnActionContext fallbackStrategy;
+  private final boolean verboseFailures;
+
+  public WorkerSpawnStrategy(Path execRoot, WorkerPool workers,
+      SpawnActionContext fallbackStrategy, boolean verboseFailures) {
+    this.execRoot = execRoot;
+    this.workers = workers;
+    this.fallbackStrategy = fallbackStrategy;
+    this.verboseFailures = verboseFailures;
+  }
+
+  /**
+   * Executes the given {@code spawn}.
+   */
+  @Override
+  public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+      throws ExecException, InterruptedException {
+    List<String> arguments = spawn.getArguments();
+    if (!spawn.getExecutionInfo().containsKey(SUPPORTS_WORKERS) || arguments.size() < 2
+        || !arguments.get(arguments.size() - 1).startsWith("@")
+        || !spawn.getRunfilesManifests().isEmpty() || !spawn.getFilesetManifests().isEmpty()) {
+      fallbackStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+
+    Executor executor = actionExecutionContext.getExecutor();
+    if (executor.reportsSubcommands()) {
+      executor.reportSubcommand(Label.print(spawn.getOwner().getLabel()),
+          spawn.asShellCommand(executor.getExecRoot()));
+    }
+
+    ImmutableList<String> startupArgs =
+        ImmutableList.copyOf(arguments.subList(0, arguments.size() - 1));
+    WorkerProtocol.Response response;
+    try {
+      WorkerKey key = new WorkerKey(startupArgs, spawn.getEnvironment(), execRoot,
+          digestTools(spawn, startupArgs, actionExecutionContext.getActionInputFileCache()));
+      response = execInWorker(key, arguments.get(arguments.size() - 1));
+    } catch (IOException e) {
+      LOG.warning("Worker for " + spawn.getMnemonic() + " failed, running the spawn on its own: "
+          + e.getMessage());
+      fallbackStrategy.exec(spawn, actionExecutionContext);
+      return;
+    }
+
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    try {
+      outErr.getErrorStream().write(response.getOutput());
+    } catch (IOException e) {
+      throw new EnvironmentalExecException("Failed to write worker output: " + e.getMessage(), e);
+    }
+    if (response.getExitCode() != 0) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, arguments, spawn.getEnvironment(), execRoot.getPathString());
+      throw new UserExecException(
+          String.format("%s: Exit %d", message, response.getExitCode()));
+    }
+  }
+
+  private WorkerProtocol.Response execInWorker(WorkerKey key, String paramFile)
+      throws IOException {
+    Worker worker = workers.borrowWorker(key);
+    boolean healthy = false;
+    try {
+      WorkerProtocol.Response response = worker.exec(ImmutableList.of(paramFile));
+      healthy = true;
+      return response;
+    } finally {
+      if (healthy && !Thread.currentThread().isInterrupted()) {
+        workers.returnWorker(worker);
+      } else {
+        worker.destroy();
+      }
+    }
+  }
+
+  /**
+   * Returns a digest of the inputs of the spawn that appear in the arguments that start the
+   * worker, such as the jar of a Java tool, so that workers aren't reused once the tool changed.
+   */
+  private static String digestTools(Spawn spawn, List<String> startupArgs,
+      ActionInputFileCache inputFileCache) throws IOException {
+    Map<String, ActionInput> inputs = new HashMap<>();
+    for (ActionInput input : spawn.getInputFiles()) {
+      inputs.put(input.getExecPathString(), input);
+    }
+    Fingerprint fingerprint = new Fingerprint();
+    for (String arg : startupArgs) {
+      for (String path : PATH_SPLITTER.split(arg)) {
+        ActionInput input = inputs.get(path);
+        if (input != null) {
+          ByteString digest = inputFileCache.getDigest(input);
+          fingerprint.addString(path);
+          fingerprint.addBytes(digest == null ? new byte[0] : digest.toByteArray());
+        }
+      }
+    }
+    return fingerprint.hexDigestAndReset();
+  }
+
+  @Override
+  public String strategyLocality(String mnemonic, boolean remotable) {
+    return "worker";
+  }
+
+  @Override
+  public boolean isRemotable(String mnemonic, boolean remotable) {
+    return false;
+  }
+}
@@ -169,6 +169,12 @@ final class BuildingState {
    */
   private Iterator<Iterable<SkyKey>> dirtyDirectDepIterator = null;
 
+  /**
+   * State stashed by the {@link SkyFunction} computing this node across restarts. See
+   * {@link SkyFunction.Environment#getState}.
+   */
+  private SkyFunction.ComputeState computeState = null;
+
   BuildingState() {
     lastBuildDirectDeps = null;
     lastBuildValue = null;
@@ -293,13 +299,15 @@ final class BuildingState {
   }
 
   /**
-   * Returns true if {@code newValue}.equals the value from the last time this node was built, and
-   * the deps requested during this evaluation are exactly those requested the last time this node
-   * was built, in the same order. Should only be used by {@link NodeEntry#setValue}.
+   * Returns true if {@code newValue} has the same content as the value from the last time this node
+   * was built (see {@link ValueWithMetadata#sameContent}), and the deps requested during this
+   * evaluation are exactly those requested the last time this node was built, in the same order.
+   * Should only be used by {@link NodeEntry#setValue}.
    */
   boolean unchangedFromLastBuild(SkyValue newValue) {
     checkNotProcessing();
-    return lastBuildValue.equals(newValue) && lastBuildDirectDeps.equals(directDeps);
+    return lastBuildDirectDeps.equals(directDeps)
+        && ValueWithMetadata.sameContent(lastBuildValue, newValue);
   }
 
   boolean noDepsLastBuild() {
@@ -384,7 +392,6 @@ final class BuildingState {
    * @see NodeEntry#addReverseDepAndCheckIfDone(SkyKey)
    */
   void addReverseDepToSignal(SkyKey newReverseDep) {
-    REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
     REVERSE_DEPS_UTIL.addReverseDeps(this, Collections.singleton(newReverseDep));
   }
 
@@ -406,6 +413,16 @@ final class BuildingState {
     directDeps.remove(unfinishedDeps);
   }
 
+  /** @see NodeEntry#getComputeState */
+  SkyFunction.ComputeState getComputeState() {
+    return computeState;
+  }
+
+  /** @see NodeEntry#setComputeState */
+  void setComputeState(SkyFunction.ComputeState computeState) {
+    this.computeState = computeState;
+  }
+
   @Override
   @SuppressWarnings("deprecation")
   public String toString() {
@@ -417,6 +434,7 @@ final class BuildingState {
         .add("reverseDepsToSignal", REVERSE_DEPS_UTIL.toString(this))
         .add("lastBuildDirectDeps", lastBuildDirectDeps)
         .add("lastBuildValue", lastBuildValue)
-        .add("dirtyDirectDepIterator", dirtyDirectDepIterator).toString();
+        .add("dirtyDirectDepIterator", dirtyDirectDepIterator)
+        .add("computeState", computeState).toString();
   }
 }
@@ -0,0 +1,75 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An {@link InMemoryGraph} that interns each {@link SkyKey} to an int id once, and whose nodes
+ * store their edges as packed arrays of those ids. See {@link CompactNodeEntry}.
+ *
+ * <p>Ids of deleted nodes are not released one by one, as other nodes may still hold them, for
+ * example in reverse dep removals that haven't been applied yet. Instead, once most ids belong to
+ * keys without a node, every node is reindexed into a new index, which only interns the keys that
+ * some node still refers to, and the old index with the keys of the deleted nodes is dropped.
+ *
+ * <p>This class is public only for use in alternative graph implementations.
+ */
+public class CompactInMemoryGraph extends InMemoryGraph {
+
+  /** Fewer unused ids than this are never worth a pass over the whole graph. */
+  private static final int MIN_UNUSED_IDS_TO_COMPACT = 1024;
+
+  private volatile SkyKeyIndex index = new SkyKeyIndex();
+
+  public CompactInMemoryGraph(boolean keepEdges) {
+    super(keepEdges);
+  }
+
+  @Override
+  protected NodeEntry newNodeEntry() {
+    return keepsEdges() ? new CompactNodeEntry(index) : new EdgelessCompactNodeEntry(index);
+  }
+
+  @Override
+  void compactAfterDeletion() {
+    // Not every node has an id, so at least this many ids belong to keys without a node.
+    int unusedIds = index.size() - nodeMap.size();
+    if (unusedIds < MIN_UNUSED_IDS_TO_COMPACT || unusedIds < nodeMap.size()) {
+      return;
+    }
+    SkyKeyIndex newIndex = new SkyKeyIndex();
+    for (NodeEntry entry : nodeMap.values()) {
+      ((CompactNodeEntry) entry).reindex(newIndex);
+    }
+    index = newIndex;
+  }
+
+  @VisibleForTesting
+  int indexSize() {
+    return index.size();
+  }
+
+  /** See {@link EdgelessInMemoryNodeEntry}. */
+  private static class EdgelessCompactNodeEntry extends CompactNodeEntry {
+    private EdgelessCompactNodeEntry(SkyKeyIndex index) {
+      super(index);
+    }
+
+    @Override
+    public boolean keepEdges() {
+      return false;
+    }
+  }
+}
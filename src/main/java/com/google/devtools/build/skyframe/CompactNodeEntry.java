@@ -0,0 +1,582 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.lib.util.Pair;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link NodeEntry} that stores the edges of a done node as packed arrays of the int ids
+ * assigned by a {@link SkyKeyIndex}, instead of as lists of {@link SkyKey} references. Transient
+ * state during evaluation is kept in a {@link BuildingState}, exactly as in {@link
+ * InMemoryNodeEntry}, so only the steady-state footprint of the graph changes.
+ *
+ * <p>Direct deps are encoded group by group. A group with a single element is stored as that
+ * element's id; a group of {@code n > 1} elements is stored as {@code -n} followed by the {@code n}
+ * ids. Ids are non-negative, so the two cannot be confused.
+ *
+ * <p>Reverse deps are a growable int array. As in {@link ReverseDepsUtil}, a single reverse dep is
+ * stored without an array, and removals are logged and applied in bulk, with the same triggers.
+ *
+ * <p>All operations on this class are thread-safe.
+ */
+class CompactNodeEntry implements NodeEntry {
+  private static final int NO_ID = -1;
+  private static final int[] EMPTY = new int[0];
+
+  /** The index that the ids stored in this entry belong to. Replaced by {@link #reindex}. */
+  private SkyKeyIndex index;
+
+  /** Actual data stored in this entry when it is done. */
+  private SkyValue value = null;
+
+  /** See {@link InMemoryNodeEntry#version}. */
+  private Version version = MinimalVersion.INSTANCE;
+
+  /** Direct deps of a done node, encoded as described in the class comment. */
+  private int[] directDeps = null;
+
+  /**
+   * Reverse dep ids, of which only the first {@link #reverseDepsSizeOrSingleId} are valid. Null if
+   * this node has fewer than two reverse deps.
+   */
+  private int[] reverseDeps = null;
+
+  /**
+   * If {@link #reverseDeps} is non-null, the number of reverse deps. Otherwise, the id of the only
+   * reverse dep, or {@link #NO_ID} if there is none.
+   */
+  private int reverseDepsSizeOrSingleId = NO_ID;
+
+  /**
+   * Ids of reverse deps queued for removal. Element 0 holds the number of queued ids, which
+   * follow it. Null if nothing is queued.
+   */
+  private int[] reverseDepsToRemove = null;
+
+  /** See {@link InMemoryNodeEntry#buildingState}. */
+  private BuildingState buildingState = new BuildingState();
+
+  CompactNodeEntry(SkyKeyIndex index) {
+    this.index = Preconditions.checkNotNull(index);
+  }
+
+  @Override
+  public boolean keepEdges() {
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return buildingState == null;
+  }
+
+  @Override
+  public synchronized SkyValue getValue() {
+    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+    return ValueWithMetadata.justValue(value);
+  }
+
+  @Override
+  public synchronized ValueWithMetadata getValueWithMetadata() {
+    Preconditions.checkState(isDone(), "no value until done: %s", this);
+    return ValueWithMetadata.wrapWithMetadata(value);
+  }
+
+  @Override
+  public synchronized SkyValue toValue() {
+    if (isDone()) {
+      return getErrorInfo() == null ? getValue() : null;
+    } else if (isChanged() || isDirty()) {
+      return (buildingState.getLastBuildValue() == null)
+          ? null
+          : ValueWithMetadata.justValue(buildingState.getLastBuildValue());
+    }
+    throw new AssertionError("Value in bad state: " + this);
+  }
+
+  @Override
+  public synchronized Iterable<SkyKey> getDirectDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
+    ImmutableSet.Builder<SkyKey> builder = ImmutableSet.builder();
+    for (int id : directDeps) {
+      if (id >= 0) {
+        builder.add(index.getKey(id));
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public synchronized Iterable<Iterable<SkyKey>> getGroupedDirectDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
+    return decodeDirectDeps(directDeps);
+  }
+
+  @Override
+  @Nullable
+  public synchronized ErrorInfo getErrorInfo() {
+    Preconditions.checkState(isDone(), "no errors until done. ValueEntry: %s", this);
+    return ValueWithMetadata.getMaybeErrorInfo(value);
+  }
+
+  private synchronized Set<SkyKey> setStateFinishedAndReturnReverseDeps() {
+    // Get reverse deps that need to be signaled.
+    ImmutableSet<SkyKey> reverseDepsToSignal = buildingState.getReverseDepsToSignal();
+    if (keepEdges()) {
+      consolidateReverseDepsRemovals();
+      for (SkyKey reverseDep : reverseDepsToSignal) {
+        appendReverseDep(index.intern(reverseDep));
+      }
+      directDeps = encodeDirectDeps(buildingState.getFinishedDirectDeps());
+    }
+    // Set state of entry to done.
+    buildingState = null;
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  public synchronized Set<SkyKey> getInProgressReverseDeps() {
+    Preconditions.checkState(!isDone(), this);
+    return buildingState.getReverseDepsToSignal();
+  }
+
+  @Override
+  public synchronized Set<SkyKey> setValue(SkyValue value, Version version) {
+    Preconditions.checkState(isReady(), "%s %s", this, value);
+    // This check may need to be removed when we move to a non-linear versioning sequence.
+    Preconditions.checkState(this.version.atMost(version),
+        "%s %s %s", this, version, value);
+
+    if (isDirty() && buildingState.unchangedFromLastBuild(value)) {
+      // If the value is the same as before, just use the old value. Note that we don't use the new
+      // value, because preserving == equality is even better than .equals() equality.
+      this.value = buildingState.getLastBuildValue();
+    } else {
+      // If this is a new value, or it has changed since the last build, set the version to the
+      // current graph version.
+      this.version = version;
+      this.value = value;
+    }
+
+    return setStateFinishedAndReturnReverseDeps();
+  }
+
+  @Override
+  public synchronized DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+    if (reverseDep != null) {
+      int id = NO_ID;
+      if (keepEdges()) {
+        // Pending removals are not consolidated here. See ReverseDepsUtil.
+        id = index.intern(reverseDep);
+        maybeCheckReverseDepNotPresent(id);
+      }
+      if (isDone()) {
+        if (keepEdges()) {
+          appendReverseDep(id);
+        }
+      } else {
+        // Parent should never register itself twice in the same build.
+        buildingState.addReverseDepToSignal(reverseDep);
+      }
+    }
+    if (isDone()) {
+      return DependencyState.DONE;
+    }
+    return buildingState.startEvaluating() ? DependencyState.NEEDS_SCHEDULING
+                                           : DependencyState.ADDED_DEP;
+  }
+
+  @Override
+  public synchronized void removeReverseDep(SkyKey reverseDep) {
+    if (!keepEdges()) {
+      return;
+    }
+    int id = index.intern(reverseDep);
+    if (reverseDeps == null) {
+      // This removal is cheap so let's do it and not queue it. A mismatch should only happen in
+      // case of catastrophe.
+      if (reverseDepsSizeOrSingleId == id) {
+        reverseDepsSizeOrSingleId = NO_ID;
+      }
+    } else {
+      queueReverseDepRemoval(id);
+    }
+    if (!isDone()) {
+      // See InMemoryNodeEntry#removeReverseDep.
+      buildingState.removeReverseDepToSignal(reverseDep);
+    }
+  }
+
+  @Override
+  public synchronized Iterable<SkyKey> getReverseDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone() || buildingState.getReverseDepsToSignal().isEmpty(),
+        "Reverse deps should only be queried before the build has begun "
+            + "or after the node is done %s", this);
+    consolidateReverseDepsRemovals();
+    if (reverseDeps == null) {
+      return reverseDepsSizeOrSingleId == NO_ID
+          ? ImmutableSet.<SkyKey>of()
+          : ImmutableSet.of(index.getKey(reverseDepsSizeOrSingleId));
+    }
+    ImmutableSet.Builder<SkyKey> builder = ImmutableSet.builder();
+    for (int i = 0; i < reverseDepsSizeOrSingleId; i++) {
+      builder.add(index.getKey(reverseDeps[i]));
+    }
+    ImmutableSet<SkyKey> set = builder.build();
+    Preconditions.checkState(set.size() == reverseDepsSizeOrSingleId,
+        "Duplicate reverse deps present in %s: %s", this, set);
+    return set;
+  }
+
+  @Override
+  public synchronized boolean signalDep() {
+    return signalDep(/*childVersion=*/new IntVersion(Long.MAX_VALUE));
+  }
+
+  @Override
+  public synchronized boolean signalDep(Version childVersion) {
+    Preconditions.checkState(!isDone(), "Value must not be done in signalDep %s", this);
+    return buildingState.signalDep(/*childChanged=*/!childVersion.atMost(getVersion()));
+  }
+
+  @Override
+  public synchronized boolean isDirty() {
+    return !isDone() && buildingState.isDirty();
+  }
+
+  @Override
+  public synchronized boolean isChanged() {
+    return !isDone() && buildingState.isChanged();
+  }
+
+  /** Checks that a caller is not trying to access not-stored graph edges. */
+  private void assertKeepEdges() {
+    Preconditions.checkState(keepEdges(), "Graph edges not stored. %s", this);
+  }
+
+  @Override
+  @Nullable
+  public synchronized Pair<? extends Iterable<SkyKey>, ? extends SkyValue> markDirty(
+      boolean isChanged) {
+    assertKeepEdges();
+    if (isDone()) {
+      GroupedList<SkyKey> lastDirectDeps = decodeDirectDeps(directDeps);
+      buildingState = BuildingState.newDirtyState(isChanged, lastDirectDeps, value);
+      Pair<? extends Iterable<SkyKey>, ? extends SkyValue> result =
+          Pair.of(lastDirectDeps.toSet(), value);
+      value = null;
+      directDeps = null;
+      return result;
+    }
+    // See InMemoryNodeEntry#markDirty for why racing markers are allowed.
+    Preconditions.checkState(isChanged != isChanged(),
+        "Cannot mark node dirty twice or changed twice: %s", this);
+    Preconditions.checkState(value == null, "Value should have been reset already %s", this);
+    Preconditions.checkState(directDeps == null, "direct deps not already reset %s", this);
+    if (isChanged) {
+      buildingState.markChanged();
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized Set<SkyKey> markClean() {
+    this.value = buildingState.getLastBuildValue();
+    // This checks both the value and the direct deps, but since we're passing in the same value,
+    // the value check should be trivial.
+    Preconditions.checkState(buildingState.unchangedFromLastBuild(this.value),
+        "Direct deps must be the same as those found last build for node to be marked clean: %s",
+        this);
+    Preconditions.checkState(isDirty(), this);
+    Preconditions.checkState(!buildingState.isChanged(), "shouldn't be changed: %s", this);
+    return setStateFinishedAndReturnReverseDeps();
+  }
+
+  @Override
+  public synchronized void forceRebuild() {
+    buildingState.forceChanged();
+  }
+
+  @Override
+  public synchronized Version getVersion() {
+    return version;
+  }
+
+  @Override
+  public synchronized NodeEntry.DirtyState getDirtyState() {
+    return buildingState.getDirtyState();
+  }
+
+  @Override
+  public synchronized Collection<SkyKey> getNextDirtyDirectDeps() {
+    return buildingState.getNextDirtyDirectDeps();
+  }
+
+  @Override
+  public synchronized Set<SkyKey> getTemporaryDirectDeps() {
+    Preconditions.checkState(!isDone(), "temporary shouldn't be done: %s", this);
+    return buildingState.getDirectDepsForBuild();
+  }
+
+  @Override
+  public synchronized boolean noDepsLastBuild() {
+    return buildingState.noDepsLastBuild();
+  }
+
+  @Override
+  public synchronized void removeUnfinishedDeps(Set<SkyKey> unfinishedDeps) {
+    buildingState.removeDirectDeps(unfinishedDeps);
+  }
+
+  @Override
+  public synchronized void addTemporaryDirectDeps(GroupedListHelper<SkyKey> helper) {
+    Preconditions.checkState(!isDone(), "add temp shouldn't be done: %s %s", helper, this);
+    buildingState.addDirectDeps(helper);
+  }
+
+  @Override
+  public synchronized SkyFunction.ComputeState getComputeState() {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    return buildingState.getComputeState();
+  }
+
+  @Override
+  public synchronized void setComputeState(SkyFunction.ComputeState computeState) {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    buildingState.setComputeState(computeState);
+  }
+
+  @Override
+  public synchronized boolean isReady() {
+    Preconditions.checkState(!isDone(), "can't be ready if done: %s", this);
+    return buildingState.isReady();
+  }
+
+  /**
+   * Replaces the ids stored in this entry with the ids of the same keys in {@code newIndex}, and
+   * makes this entry use that index from now on.
+   */
+  synchronized void reindex(SkyKeyIndex newIndex) {
+    if (directDeps != null) {
+      reindex(directDeps, 0, directDeps.length, newIndex);
+    }
+    if (reverseDeps != null) {
+      reindex(reverseDeps, 0, reverseDepsSizeOrSingleId, newIndex);
+    } else if (reverseDepsSizeOrSingleId != NO_ID) {
+      reverseDepsSizeOrSingleId = newIndex.intern(index.getKey(reverseDepsSizeOrSingleId));
+    }
+    if (reverseDepsToRemove != null) {
+      reindex(reverseDepsToRemove, 1, reverseDepsToRemove[0] + 1, newIndex);
+    }
+    index = newIndex;
+  }
+
+  /** Reindexes the ids in {@code ids[from..to)}, skipping the negative group sizes. */
+  private void reindex(int[] ids, int from, int to, SkyKeyIndex newIndex) {
+    for (int i = from; i < to; i++) {
+      if (ids[i] >= 0) {
+        ids[i] = newIndex.intern(index.getKey(ids[i]));
+      }
+    }
+  }
+
+  private int[] encodeDirectDeps(GroupedList<SkyKey> deps) {
+    if (deps.isEmpty()) {
+      return EMPTY;
+    }
+    int length = 0;
+    for (Iterable<SkyKey> group : deps) {
+      int groupSize = sizeOf(group);
+      length += groupSize == 1 ? 1 : groupSize + 1;
+    }
+    int[] encoded = new int[length];
+    int i = 0;
+    for (Iterable<SkyKey> group : deps) {
+      int groupSize = sizeOf(group);
+      if (groupSize > 1) {
+        encoded[i++] = -groupSize;
+      }
+      for (SkyKey dep : group) {
+        encoded[i++] = index.intern(dep);
+      }
+    }
+    return encoded;
+  }
+
+  private GroupedList<SkyKey> decodeDirectDeps(int[] encoded) {
+    GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+    int i = 0;
+    while (i < encoded.length) {
+      if (encoded[i] >= 0) {
+        helper.add(index.getKey(encoded[i++]));
+      } else {
+        int end = i + 1 - encoded[i];
+        helper.startGroup();
+        for (i++; i < end; i++) {
+          helper.add(index.getKey(encoded[i]));
+        }
+        helper.endGroup();
+      }
+    }
+    GroupedList<SkyKey> result = new GroupedList<>();
+    result.append(helper);
+    return result;
+  }
+
+  private static int sizeOf(Iterable<SkyKey> group) {
+    return group instanceof Collection ? ((Collection<?>) group).size() : 1;
+  }
+
+  private void appendReverseDep(int id) {
+    if (reverseDeps == null) {
+      if (reverseDepsSizeOrSingleId == NO_ID) {
+        reverseDepsSizeOrSingleId = id;
+        return;
+      }
+      reverseDeps = new int[] {reverseDepsSizeOrSingleId, id, NO_ID, NO_ID};
+      reverseDepsSizeOrSingleId = 2;
+      return;
+    }
+    if (reverseDepsSizeOrSingleId == reverseDeps.length) {
+      reverseDeps = Arrays.copyOf(reverseDeps, reverseDeps.length + (reverseDeps.length >> 1));
+    }
+    reverseDeps[reverseDepsSizeOrSingleId++] = id;
+  }
+
+  /**
+   * We check that the reverse dependency is not already present. We only do that if reverseDeps is
+   * small and has no pending removals, so that it does not impact performance.
+   */
+  private void maybeCheckReverseDepNotPresent(int id) {
+    if (reverseDepsToRemove != null) {
+      return;
+    }
+    if (reverseDeps == null) {
+      Preconditions.checkState(reverseDepsSizeOrSingleId != id,
+          "Reverse dep %s already present", index.getKey(id));
+      return;
+    }
+    if (reverseDepsSizeOrSingleId < ReverseDepsUtil.MAYBE_CHECK_THRESHOLD) {
+      for (int i = 0; i < reverseDepsSizeOrSingleId; i++) {
+        Preconditions.checkState(reverseDeps[i] != id, "Reverse dep %s already present in %s",
+            index.getKey(id), this);
+      }
+    }
+  }
+
+  private void queueReverseDepRemoval(int id) {
+    if (reverseDepsToRemove == null) {
+      reverseDepsToRemove = new int[] {0, NO_ID};
+    }
+    int count = reverseDepsToRemove[0];
+    if (count + 1 == reverseDepsToRemove.length) {
+      reverseDepsToRemove = Arrays.copyOf(reverseDepsToRemove, reverseDepsToRemove.length * 2);
+    }
+    reverseDepsToRemove[count + 1] = id;
+    reverseDepsToRemove[0] = count + 1;
+    if (count + 1 > reverseDepsSizeOrSingleId / 2) {
+      // See ReverseDepsUtil#removeReverseDep.
+      consolidateReverseDepsRemovals();
+    }
+  }
+
+  /** See {@link ReverseDepsUtil#consolidateReverseDepsRemovals}. */
+  private void consolidateReverseDepsRemovals() {
+    if (reverseDepsToRemove == null) {
+      return;
+    }
+    Preconditions.checkState(reverseDeps != null,
+        "We do not use reverseDepsToRemove for single lists: %s", this);
+    int expectedRemovals = reverseDepsToRemove[0];
+    int[] toRemove = Arrays.copyOfRange(reverseDepsToRemove, 1, expectedRemovals + 1);
+    Arrays.sort(toRemove);
+    // Each removal cancels exactly one occurrence, so that a parent that was removed and added
+    // back since the last consolidation stays present.
+    boolean[] used = new boolean[toRemove.length];
+    int oldSize = reverseDepsSizeOrSingleId;
+    int newSize = 0;
+    for (int i = 0; i < oldSize; i++) {
+      if (!useRemoval(toRemove, used, reverseDeps[i])) {
+        reverseDeps[newSize++] = reverseDeps[i];
+      }
+    }
+    Preconditions.checkState(newSize == oldSize - expectedRemovals,
+        "Could not remove some elements from %s. %s", Arrays.toString(toRemove), this);
+    reverseDepsToRemove = null;
+    if (newSize == 0) {
+      reverseDeps = null;
+      reverseDepsSizeOrSingleId = NO_ID;
+    } else if (newSize == 1) {
+      reverseDepsSizeOrSingleId = reverseDeps[0];
+      reverseDeps = null;
+    } else {
+      reverseDeps = Arrays.copyOf(reverseDeps, newSize);
+      reverseDepsSizeOrSingleId = newSize;
+    }
+  }
+
+  /**
+   * Marks one unused occurrence of {@code id} in the sorted array {@code toRemove} as used, and
+   * returns whether there was one.
+   */
+  private static boolean useRemoval(int[] toRemove, boolean[] used, int id) {
+    int low = 0;
+    int high = toRemove.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (toRemove[mid] < id) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < toRemove.length && toRemove[i] == id; i++) {
+      if (!used[i]) {
+        used[i] = true;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public String toString() {
+    return Objects.toStringHelper(this)  // MoreObjects is not in Guava
+        .add("value", value)
+        .add("version", version)
+        .add("directDeps", directDeps == null ? null : Arrays.toString(directDeps))
+        .add("reverseDeps", reverseDeps == null
+            ? reverseDepsSizeOrSingleId
+            : Arrays.toString(Arrays.copyOf(reverseDeps, reverseDepsSizeOrSingleId)))
+        .add("reverseDepsToRemove", reverseDepsToRemove == null
+            ? null
+            : Arrays.toString(reverseDepsToRemove))
+        .add("buildingState", buildingState).toString();
+  }
+}
@@ -0,0 +1,40 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+/**
+ * An {@link InMemoryGraph} whose nodes are {@link ConcurrentNodeEntry}s, so that evaluation does
+ * not contend on the monitors of popular nodes.
+ *
+ * <p>This class is public only for use in alternative graph implementations.
+ */
+public class ConcurrentInMemoryGraph extends InMemoryGraph {
+
+  public ConcurrentInMemoryGraph(boolean keepEdges) {
+    super(keepEdges);
+  }
+
+  @Override
+  protected NodeEntry newNodeEntry() {
+    return keepsEdges() ? new ConcurrentNodeEntry() : new EdgelessConcurrentNodeEntry();
+  }
+
+  /** See {@link EdgelessInMemoryNodeEntry}. */
+  private static class EdgelessConcurrentNodeEntry extends ConcurrentNodeEntry {
+    @Override
+    public boolean keepEdges() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,701 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.devtools.build.lib.util.GroupedList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.lib.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link NodeEntry} whose hot operations do not take the entry's monitor. It has the same
+ * contract as {@link InMemoryNodeEntry}, and the two can be used interchangeably by
+ * {@link ParallelEvaluator}.
+ *
+ * <p>All of the lifecycle state of the entry (done, evaluating, the {@link DirtyState} and the
+ * number of signaled deps) is packed into a single {@code long} that is updated with
+ * compare-and-set. Reverse deps are kept in append-only linked stacks that are also updated with
+ * compare-and-set, so that the very common case of many parents concurrently registering
+ * themselves with a popular done node (the {@code PrecomputedValue} keys, {@code FileValue}s of
+ * widely-included headers) never blocks.
+ *
+ * <p>The atomicity of {@link #setValue} with respect to {@link #addReverseDepAndCheckIfDone} (see
+ * the class comment of {@link InMemoryNodeEntry}) is achieved by sealing the stack of reverse deps
+ * to signal: {@link #setValue} atomically swaps it for a sentinel, and a parent that fails to push
+ * itself onto a sealed stack knows that the entry is done and that it will not be signaled.
+ *
+ * <p>The only operation that takes the monitor is the consolidation of pending reverse dep
+ * removals. It happens when reverse deps are read, which is not on the evaluation hot path, and
+ * at most once per build when the first parent registers itself after an invalidation.
+ *
+ * <p>The trade-off is memory: each reverse dep costs a small linked node instead of an array slot.
+ * This entry is intended for large machines where monitor contention, rather than heap, is the
+ * bottleneck.
+ *
+ * <p>This class is public only for the benefit of alternative graph implementations outside of the
+ * package.
+ */
+public class ConcurrentNodeEntry implements NodeEntry {
+
+  /** Number of deps that have signaled this entry in the current evaluation. */
+  private static final long SIGNALED_MASK = 0xFFFFFFFFL;
+  /** Set once the entry has been scheduled for evaluation. See {@link BuildingState}. */
+  private static final long EVALUATING = 1L << 32;
+  /** Set when the entry is done. All other bits are clear in that case. */
+  private static final long DONE = 1L << 33;
+  /** Two bits holding the {@link DirtyState} (plus one), or zero if the entry is not dirty. */
+  private static final int DIRTY_SHIFT = 34;
+  private static final long DIRTY_MASK = 3L << DIRTY_SHIFT;
+  /** Set when the last group of deps from the previous build has been handed out to be checked. */
+  private static final long LAST_DIRTY_GROUP = 1L << 36;
+
+  private static final AtomicLongFieldUpdater<ConcurrentNodeEntry> STATE_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(ConcurrentNodeEntry.class, "state");
+  private static final AtomicReferenceFieldUpdater<ConcurrentNodeEntry, KeyNode>
+      REVERSE_DEPS_TO_SIGNAL_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+          ConcurrentNodeEntry.class, KeyNode.class, "reverseDepsToSignal");
+  private static final AtomicReferenceFieldUpdater<ConcurrentNodeEntry, KeyNode>
+      REVERSE_DEPS_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+          ConcurrentNodeEntry.class, KeyNode.class, "reverseDeps");
+  private static final AtomicReferenceFieldUpdater<ConcurrentNodeEntry, KeyNode>
+      REVERSE_DEPS_TO_REMOVE_UPDATER = AtomicReferenceFieldUpdater.newUpdater(
+          ConcurrentNodeEntry.class, KeyNode.class, "reverseDepsToRemove");
+
+  /** Element of an immutable singly-linked stack of keys. The empty stack is {@code null}. */
+  private static final class KeyNode {
+    private final SkyKey key;
+    private final KeyNode next;
+
+    private KeyNode(SkyKey key, KeyNode next) {
+      this.key = key;
+      this.next = next;
+    }
+  }
+
+  /** Marks {@link #reverseDepsToSignal} as no longer accepting new parents. */
+  private static final KeyNode SEALED = new KeyNode(null, null);
+
+  private volatile long state = 0;
+
+  /** Actual data stored in this entry when it is done. */
+  private volatile SkyValue value = null;
+
+  /** See {@link InMemoryNodeEntry#version}. */
+  private volatile Version version = MinimalVersion.INSTANCE;
+
+  /** The compressed {@link GroupedList} of direct deps, once the entry is done. */
+  private volatile Object directDeps = null;
+
+  /**
+   * Direct deps discovered in this build. Only ever mutated by the thread evaluating this entry;
+   * the size is published separately in {@link #directDepsForBuildSize} so that signaling threads
+   * can check readiness without looking at the list.
+   */
+  private volatile GroupedList<SkyKey> directDepsForBuild = new GroupedList<>();
+  private volatile int directDepsForBuildSize = 0;
+
+  /** See {@link BuildingState#lastBuildDirectDeps}. Null unless the entry is dirty. */
+  private volatile GroupedList<SkyKey> lastBuildDirectDeps = null;
+  private volatile SkyValue lastBuildValue = null;
+  private Iterator<Iterable<SkyKey>> dirtyDirectDepIterator = null;
+
+  /** See {@link BuildingState#computeState}. Only accessed by the thread evaluating the entry. */
+  private SkyFunction.ComputeState computeState = null;
+
+  /** Parents registered while the entry is not done. {@link #SEALED} once the entry is done. */
+  private volatile KeyNode reverseDepsToSignal = null;
+
+  /** Parents of this entry as of the last time it was done. */
+  private volatile KeyNode reverseDeps = null;
+
+  /** Removals from {@link #reverseDeps} that have not been applied yet. */
+  private volatile KeyNode reverseDepsToRemove = null;
+
+  /**
+   * Construct a ConcurrentNodeEntry. Use ONLY in Skyframe evaluation and graph implementations.
+   */
+  public ConcurrentNodeEntry() {
+  }
+
+  @Override
+  public boolean keepEdges() {
+    return true;
+  }
+
+  @Override
+  public boolean isDone() {
+    return isDone(state);
+  }
+
+  @Override
+  public SkyValue getValue() {
+    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+    return ValueWithMetadata.justValue(value);
+  }
+
+  @Override
+  public ValueWithMetadata getValueWithMetadata() {
+    Preconditions.checkState(isDone(), "no value until done: %s", this);
+    return ValueWithMetadata.wrapWithMetadata(value);
+  }
+
+  @Override
+  public SkyValue toValue() {
+    long current = state;
+    if (isDone(current)) {
+      return getErrorInfo() == null ? getValue() : null;
+    } else if (getDirtyState(current) != null) {
+      SkyValue lastValue = lastBuildValue;
+      return lastValue == null ? null : ValueWithMetadata.justValue(lastValue);
+    }
+    throw new AssertionError("Value in bad state: " + this);
+  }
+
+  @Override
+  public Iterable<SkyKey> getDirectDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
+    return GroupedList.<SkyKey>create(directDeps).toSet();
+  }
+
+  @Override
+  public Iterable<Iterable<SkyKey>> getGroupedDirectDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
+    return GroupedList.<SkyKey>create(directDeps);
+  }
+
+  @Override
+  @Nullable
+  public ErrorInfo getErrorInfo() {
+    Preconditions.checkState(isDone(), "no errors until done. ValueEntry: %s", this);
+    return ValueWithMetadata.getMaybeErrorInfo(value);
+  }
+
+  @Override
+  public Set<SkyKey> getInProgressReverseDeps() {
+    Preconditions.checkState(!isDone(), this);
+    KeyNode head = reverseDepsToSignal;
+    return head == SEALED ? ImmutableSet.<SkyKey>of() : toSet(head);
+  }
+
+  @Override
+  public Set<SkyKey> setValue(SkyValue value, Version version) {
+    Preconditions.checkState(isReady(), "%s %s", this, value);
+    // This check may need to be removed when we move to a non-linear versioning sequence.
+    Preconditions.checkState(this.version.atMost(version),
+        "%s %s %s", this, version, value);
+
+    if (isDirty() && unchangedFromLastBuild(value)) {
+      // If the value is the same as before, just use the old value. Note that we don't use the new
+      // value, because preserving == equality is even better than .equals() equality.
+      this.value = lastBuildValue;
+    } else {
+      // If this is a new value, or it has changed since the last build, set the version to the
+      // current graph version.
+      this.version = version;
+      this.value = value;
+    }
+    return setStateFinishedAndReturnReverseDeps();
+  }
+
+  /**
+   * Publishes the value and deps written by the caller and transitions the entry to done. Parents
+   * that try to register themselves after this point see either the {@link #DONE} bit or the
+   * {@link #SEALED} stack, and will not expect to be signaled.
+   */
+  private Set<SkyKey> setStateFinishedAndReturnReverseDeps() {
+    this.directDeps = keepEdges() ? directDepsForBuild.compress() : null;
+    directDepsForBuild = null;
+    directDepsForBuildSize = 0;
+    lastBuildDirectDeps = null;
+    lastBuildValue = null;
+    dirtyDirectDepIterator = null;
+    computeState = null;
+
+    // Volatile write: everything written above is visible to whoever observes the entry as done.
+    state = DONE;
+    KeyNode toSignal = REVERSE_DEPS_TO_SIGNAL_UPDATER.getAndSet(this, SEALED);
+    Preconditions.checkState(toSignal != SEALED, "Entry finished twice: %s", this);
+    ImmutableSet<SkyKey> reverseDepsToSignal = toSet(toSignal);
+    if (keepEdges()) {
+      for (KeyNode node = toSignal; node != null; node = node.next) {
+        push(REVERSE_DEPS_UPDATER, node.key);
+      }
+    }
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  public DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+    if (reverseDep != null && !isDone()) {
+      // Parent should never register itself twice in the same build.
+      if (pushIfNotSealed(reverseDep)) {
+        // We were registered before the entry finished, so it will signal us.
+        return startEvaluating() ? DependencyState.NEEDS_SCHEDULING : DependencyState.ADDED_DEP;
+      }
+      // The entry finished after we checked it. It did not see us, and will not signal us.
+      Preconditions.checkState(isDone(), this);
+    }
+    if (isDone()) {
+      if (reverseDep != null && keepEdges()) {
+        if (reverseDepsToRemove != null) {
+          // Removals from the last invalidation are still pending. Apply them now, so that the
+          // stacks do not grow with stale entries from build to build. Only the first parent to
+          // register itself this build pays for this.
+          consolidateReverseDepsRemovals();
+        }
+        push(REVERSE_DEPS_UPDATER, reverseDep);
+      }
+      return DependencyState.DONE;
+    }
+    return startEvaluating() ? DependencyState.NEEDS_SCHEDULING : DependencyState.ADDED_DEP;
+  }
+
+  /**
+   * Puts the entry in the "evaluating" state if it is not already in it, and returns whether this
+   * call made the transition. See {@link BuildingState#startEvaluating}. An entry that finished
+   * concurrently with the caller's registration was necessarily already evaluating.
+   */
+  private boolean startEvaluating() {
+    while (true) {
+      long current = state;
+      if ((current & EVALUATING) != 0 || isDone(current)) {
+        return false;
+      }
+      if (STATE_UPDATER.compareAndSet(this, current, current | EVALUATING)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public void removeReverseDep(SkyKey reverseDep) {
+    if (!keepEdges()) {
+      return;
+    }
+    if (!isDone() && removeFromReverseDepsToSignal(reverseDep)) {
+      // This is currently unnecessary -- the only time we remove a reverse dep that was added this
+      // build is during the clean following a build failure. In that case, this node that is not
+      // done will be deleted soon, so clearing the reverse dep is not required. A parent that
+      // registered itself this build is not in reverseDeps, so there is nothing else to remove.
+      return;
+    }
+    // Always logged, even if reverseDeps looks empty: a concurrent consolidation may be about to
+    // publish the parent again.
+    push(REVERSE_DEPS_TO_REMOVE_UPDATER, reverseDep);
+  }
+
+  /** Returns whether {@code reverseDep} was removed from {@link #reverseDepsToSignal}. */
+  private boolean removeFromReverseDepsToSignal(SkyKey reverseDep) {
+    while (true) {
+      KeyNode head = reverseDepsToSignal;
+      if (head == SEALED || !containsKey(head, reverseDep)) {
+        return false;
+      }
+      KeyNode newHead = null;
+      for (KeyNode node = head; node != null; node = node.next) {
+        if (!node.key.equals(reverseDep)) {
+          newHead = new KeyNode(node.key, newHead);
+        }
+      }
+      if (REVERSE_DEPS_TO_SIGNAL_UPDATER.compareAndSet(this, head, newHead)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public Iterable<SkyKey> getReverseDeps() {
+    assertKeepEdges();
+    Preconditions.checkState(isDone() || getInProgressReverseDeps().isEmpty(),
+        "Reverse deps should only be queried before the build has begun "
+            + "or after the node is done %s", this);
+    return consolidateAndGetReverseDeps();
+  }
+
+  /**
+   * Applies any pending removals to {@link #reverseDeps}. Only this method rewrites
+   * {@link #reverseDeps}, and only one thread runs it at a time. The consolidated stack is built
+   * aside and swapped in with compare-and-set, so the live stack never looks empty while it still
+   * has parents, and a parent appended concurrently makes the swap fail and be retried.
+   *
+   * <p>Since appends do not wait for earlier removals to be applied, a parent that was dirtied and
+   * re-evaluated several times since the last consolidation legitimately appears several times in
+   * both stacks. Removals are therefore matched against occurrences, not keys. As in
+   * {@link ReverseDepsUtil#removeReverseDep}, removals from an entry without reverse deps are
+   * ignored.
+   */
+  private synchronized void consolidateReverseDepsRemovals() {
+    KeyNode removals = REVERSE_DEPS_TO_REMOVE_UPDATER.getAndSet(this, null);
+    if (removals == null) {
+      return;
+    }
+    while (true) {
+      KeyNode all = reverseDeps;
+      if (all == null) {
+        return;
+      }
+      Multiset<SkyKey> toRemove = HashMultiset.create(toList(removals));
+      KeyNode kept = null;
+      for (KeyNode node = all; node != null; node = node.next) {
+        if (!toRemove.remove(node.key)) {
+          kept = new KeyNode(node.key, kept);
+        }
+      }
+      if (REVERSE_DEPS_UPDATER.compareAndSet(this, all, kept)) {
+        Preconditions.checkState(toRemove.isEmpty(),
+            "Could not remove some elements from %s.\nReverse deps to remove: %s. %s",
+            toList(all), toRemove, this);
+        return;
+      }
+    }
+  }
+
+  /** Returns a copy of the consolidated reverse deps, checking that there are no duplicates. */
+  private synchronized ImmutableSet<SkyKey> consolidateAndGetReverseDeps() {
+    consolidateReverseDepsRemovals();
+    List<SkyKey> reverseDepsList = toList(reverseDeps);
+    ImmutableSet<SkyKey> set = ImmutableSet.copyOf(reverseDepsList);
+    Preconditions.checkState(set.size() == reverseDepsList.size(),
+        "Duplicate reverse deps present in %s: %s", this, reverseDepsList);
+    return set;
+  }
+
+  @Override
+  public boolean signalDep() {
+    return signalDep(/*childVersion=*/new IntVersion(Long.MAX_VALUE));
+  }
+
+  /**
+   * See {@link BuildingState#signalDep}. The increment of the signal count and the corresponding
+   * {@link DirtyState} transition are a single compare-and-set, so exactly one signaling thread
+   * observes the entry becoming ready.
+   */
+  @Override
+  public boolean signalDep(Version childVersion) {
+    boolean childChanged = !childVersion.atMost(version);
+    while (true) {
+      long current = state;
+      Preconditions.checkState(!isDone(current), "Value must not be done in signalDep %s", this);
+      long signaled = (current & SIGNALED_MASK) + 1;
+      int directDepsSize = directDepsForBuildSize;
+      Preconditions.checkState(signaled <= directDepsSize, "%s %s", directDepsSize, this);
+      boolean ready = signaled == directDepsSize;
+      DirtyState dirtyState = getDirtyState(current);
+      if (dirtyState != null && dirtyState != DirtyState.REBUILDING) {
+        if (childChanged) {
+          dirtyState = DirtyState.REBUILDING;
+        } else if (dirtyState == DirtyState.CHECK_DEPENDENCIES && ready
+            && (current & LAST_DIRTY_GROUP) != 0) {
+          // No other dep already marked this as REBUILDING, no deps outstanding, and this was
+          // the last block of deps to be checked.
+          dirtyState = DirtyState.VERIFIED_CLEAN;
+        }
+      }
+      long next = withDirtyState((current & ~SIGNALED_MASK) | signaled, dirtyState);
+      if (STATE_UPDATER.compareAndSet(this, current, next)) {
+        return ready;
+      }
+    }
+  }
+
+  @Override
+  public boolean isDirty() {
+    return getDirtyState(state) != null;
+  }
+
+  @Override
+  public boolean isChanged() {
+    return getDirtyState(state) == DirtyState.REBUILDING;
+  }
+
+  /** Checks that a caller is not trying to access not-stored graph edges. */
+  private void assertKeepEdges() {
+    Preconditions.checkState(keepEdges(), "Graph edges not stored. %s", this);
+  }
+
+  @Override
+  @Nullable
+  public Pair<? extends Iterable<SkyKey>, ? extends SkyValue> markDirty(boolean isChanged) {
+    assertKeepEdges();
+    DirtyState newDirtyState =
+        isChanged ? DirtyState.REBUILDING : DirtyState.CHECK_DEPENDENCIES;
+    while (true) {
+      long current = state;
+      if (isDone(current)) {
+        if (!STATE_UPDATER.compareAndSet(this, current, withDirtyState(0L, newDirtyState))) {
+          continue;
+        }
+        // We won the race to dirty this entry. No parent can register itself until the entry is
+        // evaluated again, so the building fields can be set up without further coordination.
+        GroupedList<SkyKey> lastDirectDeps = GroupedList.create(directDeps);
+        SkyValue lastValue = value;
+        Preconditions.checkState(isChanged || !lastDirectDeps.isEmpty(),
+            "is being marked dirty, not changed, but has no children that could have dirtied it",
+            this);
+        lastBuildDirectDeps = lastDirectDeps;
+        lastBuildValue = Preconditions.checkNotNull(lastValue, this);
+        directDepsForBuild = new GroupedList<>();
+        directDepsForBuildSize = 0;
+        dirtyDirectDepIterator = isChanged ? null : lastDirectDeps.iterator();
+        value = null;
+        directDeps = null;
+        reverseDepsToSignal = null;
+        return Pair.of(lastDirectDeps.toSet(), lastValue);
+      }
+      // The caller may be simultaneously trying to mark this node dirty and changed, and the dirty
+      // thread may have lost the race, but it is the caller's responsibility not to try to mark
+      // this node changed twice. The end result of racing markers must be a changed node, since
+      // one of the markers is trying to mark the node changed.
+      DirtyState dirtyState = getDirtyState(current);
+      Preconditions.checkState(isChanged != (dirtyState == DirtyState.REBUILDING),
+          "Cannot mark node dirty twice or changed twice: %s", this);
+      if (!isChanged) {
+        return null;
+      }
+      // If the changed marker lost the race, we just need to mark changed in this method -- all
+      // other work was done by the dirty marker.
+      Preconditions.checkState(dirtyState != null, this);
+      Preconditions.checkState((current & EVALUATING) == 0, this);
+      if (STATE_UPDATER.compareAndSet(this, current,
+          withDirtyState(current, DirtyState.REBUILDING))) {
+        return null;
+      }
+    }
+  }
+
+  @Override
+  public Set<SkyKey> markClean() {
+    this.value = lastBuildValue;
+    // This checks both the value and the direct deps, but since we're passing in the same value,
+    // the value check should be trivial.
+    Preconditions.checkState(unchangedFromLastBuild(this.value),
+        "Direct deps must be the same as those found last build for node to be marked clean: %s",
+        this);
+    Preconditions.checkState(isDirty(), this);
+    Preconditions.checkState(!isChanged(), "shouldn't be changed: %s", this);
+    return setStateFinishedAndReturnReverseDeps();
+  }
+
+  /** See {@link BuildingState#unchangedFromLastBuild}. */
+  private boolean unchangedFromLastBuild(SkyValue newValue) {
+    long current = state;
+    DirtyState dirtyState = getDirtyState(current);
+    Preconditions.checkState((current & EVALUATING) != 0, "not started building %s", this);
+    Preconditions.checkState(dirtyState == null || dirtyState == DirtyState.VERIFIED_CLEAN
+        || dirtyState == DirtyState.REBUILDING, "not done building %s", this);
+    Preconditions.checkState(isReady(), "not done building %s", this);
+    return lastBuildDirectDeps.equals(directDepsForBuild)
+        && ValueWithMetadata.sameContent(lastBuildValue, newValue);
+  }
+
+  @Override
+  public void forceRebuild() {
+    while (true) {
+      long current = state;
+      DirtyState dirtyState = getDirtyState(current);
+      Preconditions.checkState(dirtyState != null, this);
+      Preconditions.checkState(dirtyState != DirtyState.REBUILDING, this);
+      Preconditions.checkState((current & EVALUATING) != 0, this);
+      Preconditions.checkState(isReady(), this);
+      if (STATE_UPDATER.compareAndSet(this, current,
+          withDirtyState(current, DirtyState.REBUILDING))) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  public Version getVersion() {
+    return version;
+  }
+
+  @Override
+  public DirtyState getDirtyState() {
+    long current = state;
+    DirtyState dirtyState = getDirtyState(current);
+    // Entry may not be ready if being built just for its errors.
+    Preconditions.checkState(dirtyState != null, "must be dirty to get dirty state %s", this);
+    Preconditions.checkState((current & EVALUATING) != 0,
+        "must be evaluating to get dirty state %s", this);
+    return dirtyState;
+  }
+
+  /** See {@link BuildingState#getNextDirtyDirectDeps}. */
+  @Override
+  public Collection<SkyKey> getNextDirtyDirectDeps() {
+    Preconditions.checkState(getDirtyState() == DirtyState.CHECK_DEPENDENCIES, this);
+    List<SkyKey> nextDeps = ImmutableList.copyOf(dirtyDirectDepIterator.next());
+    if (!dirtyDirectDepIterator.hasNext()) {
+      // Done checking deps. If this last group is clean, the state will become VERIFIED_CLEAN.
+      dirtyDirectDepIterator = null;
+      while (true) {
+        long current = state;
+        if (STATE_UPDATER.compareAndSet(this, current, current | LAST_DIRTY_GROUP)) {
+          break;
+        }
+      }
+    }
+    return nextDeps;
+  }
+
+  @Override
+  public Set<SkyKey> getTemporaryDirectDeps() {
+    Preconditions.checkState(!isDone(), "temporary shouldn't be done: %s", this);
+    return directDepsForBuild.toSet();
+  }
+
+  @Override
+  public boolean noDepsLastBuild() {
+    return lastBuildDirectDeps.isEmpty();
+  }
+
+  @Override
+  public void removeUnfinishedDeps(Set<SkyKey> unfinishedDeps) {
+    GroupedList<SkyKey> deps = directDepsForBuild;
+    deps.remove(unfinishedDeps);
+    directDepsForBuildSize = deps.size();
+  }
+
+  @Override
+  public void addTemporaryDirectDeps(GroupedListHelper<SkyKey> helper) {
+    Preconditions.checkState(!isDone(), "add temp shouldn't be done: %s %s", helper, this);
+    GroupedList<SkyKey> deps = directDepsForBuild;
+    deps.append(helper);
+    // Publish the new size only after the deps themselves. The caller registers itself with the
+    // new deps only after this returns, so no signal for them can arrive before this write.
+    directDepsForBuildSize = deps.size();
+  }
+
+  @Override
+  public SkyFunction.ComputeState getComputeState() {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    return computeState;
+  }
+
+  @Override
+  public void setComputeState(SkyFunction.ComputeState computeState) {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    this.computeState = computeState;
+  }
+
+  @Override
+  public boolean isReady() {
+    long current = state;
+    Preconditions.checkState(!isDone(current), "can't be ready if done: %s", this);
+    long signaled = current & SIGNALED_MASK;
+    int directDepsSize = directDepsForBuildSize;
+    Preconditions.checkState(signaled <= directDepsSize, "%s %s", directDepsSize, this);
+    return signaled == directDepsSize;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public String toString() {
+    long current = state;
+    KeyNode toSignal = reverseDepsToSignal;
+    return Objects.toStringHelper(this)  // MoreObjects is not in Guava
+        .add("value", value)
+        .add("version", version)
+        .add("done", isDone(current))
+        .add("evaluating", (current & EVALUATING) != 0)
+        .add("dirtyState", getDirtyState(current))
+        .add("signaledDeps", current & SIGNALED_MASK)
+        .add("directDeps", directDeps == null ? null : GroupedList.create(directDeps))
+        .add("directDepsForBuild", directDepsForBuild)
+        .add("reverseDeps", toList(reverseDeps))
+        .add("reverseDepsToSignal", toSignal == SEALED ? "sealed" : toList(toSignal))
+        .add("reverseDepsToRemove", toList(reverseDepsToRemove))
+        .add("lastBuildDirectDeps", lastBuildDirectDeps)
+        .add("lastBuildValue", lastBuildValue).toString();
+  }
+
+  /**
+   * Pushes {@code reverseDep} onto {@link #reverseDepsToSignal}, unless the entry was sealed by
+   * {@link #setStateFinishedAndReturnReverseDeps}. Returns whether the push happened.
+   */
+  private boolean pushIfNotSealed(SkyKey reverseDep) {
+    while (true) {
+      KeyNode head = reverseDepsToSignal;
+      if (head == SEALED) {
+        return false;
+      }
+      if (REVERSE_DEPS_TO_SIGNAL_UPDATER.compareAndSet(this, head, new KeyNode(reverseDep, head))) {
+        return true;
+      }
+    }
+  }
+
+  private void push(AtomicReferenceFieldUpdater<ConcurrentNodeEntry, KeyNode> updater,
+      SkyKey key) {
+    while (true) {
+      KeyNode head = updater.get(this);
+      if (updater.compareAndSet(this, head, new KeyNode(key, head))) {
+        return;
+      }
+    }
+  }
+
+  private static boolean isDone(long state) {
+    return (state & DONE) != 0;
+  }
+
+  @Nullable
+  private static DirtyState getDirtyState(long state) {
+    int ordinal = (int) ((state & DIRTY_MASK) >>> DIRTY_SHIFT);
+    return ordinal == 0 ? null : DirtyState.values()[ordinal - 1];
+  }
+
+  private static long withDirtyState(long state, @Nullable DirtyState dirtyState) {
+    long bits = dirtyState == null ? 0L : ((long) dirtyState.ordinal() + 1) << DIRTY_SHIFT;
+    return (state & ~DIRTY_MASK) | bits;
+  }
+
+  private static boolean containsKey(@Nullable KeyNode head, SkyKey key) {
+    for (KeyNode node = head; node != null; node = node.next) {
+      if (node.key.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<SkyKey> toList(@Nullable KeyNode head) {
+    List<SkyKey> result = new ArrayList<>();
+    for (KeyNode node = head; node != null; node = node.next) {
+      result.add(node.key);
+    }
+    return result;
+  }
+
+  private static ImmutableSet<SkyKey> toSet(@Nullable KeyNode head) {
+    return ImmutableSet.copyOf(toList(head));
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SkyValue} that can summarize its content in a fingerprint, typically computed with
+ * {@link com.google.devtools.build.lib.util.Fingerprint}.
+ *
+ * <p>When a dirty node is rebuilt to a value that is not {@code equals} to the old one, but both
+ * are of the same class and have the same non-null fingerprint, the node is considered unchanged
+ * and its parents are not rebuilt. This is for values that have no {@code equals}, or whose
+ * {@code equals} compares more than what their dependents can observe.
+ */
+public interface ContentFingerprintedValue extends SkyValue {
+
+  /**
+   * Returns a digest of everything that nodes depending on this value can observe, or null if
+   * this value can't be summarized, in which case it is never considered unchanged based on its
+   * fingerprint. Values with the same fingerprint must be interchangeable.
+   *
+   * <p>May be called more than once per value, so implementations with expensive fingerprints
+   * should cache them.
+   */
+  @Nullable
+  byte[] getContentFingerprint();
+}
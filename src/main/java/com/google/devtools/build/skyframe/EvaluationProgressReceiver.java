@@ -56,6 +56,15 @@ public interface EvaluationProgressReceiver {
   @ThreadSafety.ThreadSafe
   void invalidated(SkyValue value, InvalidationState state);
 
+  /**
+   * Notifies that an invalidation pass has finished, having dirtied or deleted, as indicated by
+   * {@code state}, {@code nodeCount} nodes in {@code elapsedNanos} of wall time. Their ratio is the
+   * invalidation throughput.
+   *
+   * <p>Not called if the pass was interrupted or failed.
+   */
+  void invalidationFinished(InvalidationState state, long nodeCount, long elapsedNanos);
+
   /**
    * Notifies that {@code skyKey} is about to get queued for evaluation.
    *
@@ -73,6 +82,8 @@ public interface EvaluationProgressReceiver {
    * <p>{@code state} indicates the new state of the node.
    *
    * <p>If the value builder threw an error when building this node, then {@code value} is null.
+   * It is also null if the node was re-validated as {@link EvaluationState#CLEAN} while its value
+   * was evicted by a {@link ValueEvictor}, since reporting it would mean recomputing it.
    */
   @ThreadSafety.ThreadSafe
   void evaluated(SkyKey skyKey, @Nullable SkyValue value, EvaluationState state);
@@ -0,0 +1,252 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the done part of an {@link InMemoryGraph} to a stream and restores it into an empty graph,
+ * so that a new server can start from the graph of the previous one instead of from scratch.
+ *
+ * <p>A node is saved if it is done, is not in error, has a {@link SkyValueCodec} for its function,
+ * and all of its direct deps are saved. The last condition keeps the restored graph closed under
+ * dependencies, so invalidating a restored node always reaches every restored node built from it.
+ * Nodes are written deps first, with edges as indices of previously written nodes, so that the
+ * graph can be rebuilt in a single streaming pass. Reverse deps are not written; they are
+ * re-created from the direct deps.
+ *
+ * <p>The restored graph is only as current as the snapshot. Callers must invalidate whatever
+ * changed since the snapshot was written before evaluating against it, as they must after any
+ * server restart for which no diff is available.
+ */
+public final class GraphSnapshot {
+  private static final int MAGIC = 0x536b7947;
+  private static final int FORMAT_VERSION = 1;
+
+  private GraphSnapshot() {}
+
+  /**
+   * Writes the saveable nodes of {@code graph}, as described in the class comment, to {@code out}.
+   * Must not be called during an evaluation or invalidation. Returns the number of nodes written.
+   */
+  public static int write(InMemoryGraph graph, Map<SkyFunctionName, SkyValueCodec> codecs,
+      OutputStream out) throws IOException {
+    Preconditions.checkState(graph.keepsEdges(), "Cannot snapshot a graph without edges");
+    List<SkyKey> order = computeWriteOrder(graph, codecs);
+    Map<SkyFunctionName, Integer> functionIndices = new HashMap<>();
+    List<SkyFunctionName> functions = new ArrayList<>();
+    long maxVersion = -1;
+    for (SkyKey key : order) {
+      if (!functionIndices.containsKey(key.functionName())) {
+        functionIndices.put(key.functionName(), functions.size());
+        functions.add(key.functionName());
+      }
+      maxVersion = Math.max(maxVersion, versionOf(graph.get(key)));
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT_VERSION);
+    data.writeLong(maxVersion);
+    data.writeInt(functions.size());
+    for (SkyFunctionName function : functions) {
+      data.writeUTF(function.toString());
+      data.writeBoolean(function.isComputed());
+    }
+    data.writeInt(order.size());
+    Map<SkyKey, Integer> nodeIndices = new HashMap<>();
+    for (SkyKey key : order) {
+      NodeEntry entry = graph.get(key);
+      SkyValueCodec codec = codecs.get(key.functionName());
+      data.writeInt(functionIndices.get(key.functionName()));
+      codec.writeArgument(key.argument(), data);
+      data.writeLong(versionOf(entry));
+      codec.writeValue(entry.getValue(), data);
+      List<Iterable<SkyKey>> groups = ImmutableList.copyOf(entry.getGroupedDirectDeps());
+      data.writeInt(groups.size());
+      for (Iterable<SkyKey> group : groups) {
+        Collection<SkyKey> deps = ImmutableList.copyOf(group);
+        data.writeInt(deps.size());
+        for (SkyKey dep : deps) {
+          data.writeInt(nodeIndices.get(dep));
+        }
+      }
+      nodeIndices.put(key, nodeIndices.size());
+    }
+    data.flush();
+    return order.size();
+  }
+
+  /**
+   * Restores the nodes written by {@link #write} into {@code graph}, which must be empty. Versions
+   * are shifted so that the newest restored node has version -1. A fresh evaluator, whose first
+   * evaluation is at version 0, therefore sees every restored node as built before that first
+   * evaluation, and change pruning works across the restart. Returns the number of nodes restored.
+   */
+  public static int restore(InMemoryGraph graph, Map<SkyFunctionName, SkyValueCodec> codecs,
+      InputStream in) throws IOException {
+    Preconditions.checkState(graph.keepsEdges(), "Cannot restore into a graph without edges");
+    Preconditions.checkState(graph.getAllValues().isEmpty(),
+        "Can only restore a snapshot into an empty graph");
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a Skyframe graph snapshot");
+    }
+    int formatVersion = data.readInt();
+    if (formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported graph snapshot format " + formatVersion);
+    }
+    long versionShift = data.readLong() + 1;
+    // Skyframe users compare function names by identity, so restored keys must use the instances
+    // that the codecs are registered under rather than equal copies.
+    Map<SkyFunctionName, SkyFunctionName> knownFunctions = new HashMap<>();
+    for (SkyFunctionName function : codecs.keySet()) {
+      knownFunctions.put(function, function);
+    }
+    SkyFunctionName[] functions = new SkyFunctionName[data.readInt()];
+    SkyValueCodec[] functionCodecs = new SkyValueCodec[functions.length];
+    for (int i = 0; i < functions.length; i++) {
+      SkyFunctionName function = new SkyFunctionName(data.readUTF(), data.readBoolean());
+      functions[i] = knownFunctions.get(function);
+      if (functions[i] == null) {
+        throw new IOException("No codec for " + function + " in graph snapshot");
+      }
+      functionCodecs[i] = codecs.get(functions[i]);
+    }
+    int numNodes = data.readInt();
+    List<SkyKey> keys = new ArrayList<>(numNodes);
+    for (int i = 0; i < numNodes; i++) {
+      int function = data.readInt();
+      SkyKey key = new SkyKey(functions[function], functionCodecs[function].readArgument(data));
+      IntVersion version = new IntVersion(data.readLong() - versionShift);
+      SkyValue value = functionCodecs[function].readValue(data);
+      NodeEntry entry = graph.createIfAbsent(key);
+      Preconditions.checkState(
+          entry.addReverseDepAndCheckIfDone(null) == DependencyState.NEEDS_SCHEDULING,
+          "Duplicate node %s in graph snapshot", key);
+      List<SkyKey> deps = new ArrayList<>();
+      GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+      int numGroups = data.readInt();
+      for (int group = 0; group < numGroups; group++) {
+        int groupSize = data.readInt();
+        if (groupSize > 1) {
+          helper.startGroup();
+        }
+        for (int j = 0; j < groupSize; j++) {
+          SkyKey dep = keys.get(data.readInt());
+          helper.add(dep);
+          deps.add(dep);
+        }
+        if (groupSize > 1) {
+          helper.endGroup();
+        }
+      }
+      entry.addTemporaryDirectDeps(helper);
+      for (SkyKey dep : deps) {
+        NodeEntry depEntry = graph.get(dep);
+        Preconditions.checkState(
+            depEntry.addReverseDepAndCheckIfDone(key) == DependencyState.DONE, "%s %s", key, dep);
+        entry.signalDep(depEntry.getVersion());
+      }
+      entry.setValue(value, version);
+      keys.add(key);
+    }
+    return numNodes;
+  }
+
+  private static long versionOf(NodeEntry entry) {
+    Version version = entry.getVersion();
+    Preconditions.checkState(version instanceof IntVersion,
+        "Only IntVersions can be saved: %s", entry);
+    return ((IntVersion) version).getVal();
+  }
+
+  /**
+   * Returns the saveable nodes of {@code graph}, each after all of its direct deps. Uses an
+   * explicit stack, since dependency chains can be far deeper than the thread stack allows.
+   */
+  private static List<SkyKey> computeWriteOrder(InMemoryGraph graph,
+      Map<SkyFunctionName, SkyValueCodec> codecs) {
+    // Absent until visited, false while in progress and for unsaveable nodes.
+    Map<SkyKey, Boolean> saveable = new HashMap<>();
+    List<SkyKey> order = new ArrayList<>();
+    Deque<Visit> stack = new ArrayDeque<>();
+    for (SkyKey root : graph.getAllValues().keySet()) {
+      if (saveable.containsKey(root)) {
+        continue;
+      }
+      stack.push(new Visit(root, graph.get(root), codecs));
+      saveable.put(root, false);
+      while (!stack.isEmpty()) {
+        Visit visit = stack.peek();
+        if (visit.saveable && visit.deps.hasNext()) {
+          SkyKey dep = visit.deps.next();
+          Boolean depSaveable = saveable.get(dep);
+          if (depSaveable == null) {
+            saveable.put(dep, false);
+            stack.push(new Visit(dep, graph.get(dep), codecs));
+          } else if (!depSaveable) {
+            visit.saveable = false;
+          }
+          continue;
+        }
+        stack.pop();
+        if (visit.saveable) {
+          saveable.put(visit.key, true);
+          order.add(visit.key);
+        }
+        if (!stack.isEmpty() && !visit.saveable) {
+          stack.peek().saveable = false;
+        }
+      }
+    }
+    return order;
+  }
+
+  /** A node on the stack of {@link #computeWriteOrder}. */
+  private static final class Visit {
+    private final SkyKey key;
+    private final Iterator<SkyKey> deps;
+    /** Whether the node and all of its deps visited so far are saveable. */
+    private boolean saveable;
+
+    private Visit(SkyKey key, NodeEntry entry, Map<SkyFunctionName, SkyValueCodec> codecs) {
+      this.key = key;
+      this.saveable = entry != null && entry.isDone() && entry.getErrorInfo() == null
+          && codecs.containsKey(key.functionName());
+      this.deps = saveable
+          ? entry.getDirectDeps().iterator()
+          : ImmutableList.<SkyKey>of().iterator();
+    }
+  }
+}
@@ -58,11 +58,16 @@ public class InMemoryGraph implements ProcessableGraph {
 
   @Override
   public NodeEntry createIfAbsent(SkyKey key) {
-    NodeEntry newval = keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+    NodeEntry newval = newNodeEntry();
     NodeEntry oldval = nodeMap.putIfAbsent(key, newval);
     return oldval == null ? newval : oldval;
   }
 
+  /** Returns a fresh entry for {@link #createIfAbsent}. Subclasses may use other entry types. */
+  protected NodeEntry newNodeEntry() {
+    return keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+  }
+
   /** Only done nodes exist to the outside world. */
   private static final Predicate<NodeEntry> NODE_DONE_PREDICATE =
       new Predicate<NodeEntry>() {
@@ -123,4 +128,10 @@ public class InMemoryGraph implements ProcessableGraph {
   boolean keepsEdges() {
     return keepEdges;
   }
+
+  /**
+   * Called between evaluations, once nodes due for deletion have been deleted, when no other thread
+   * uses the graph. Subclasses may reclaim memory that deleted nodes no longer need.
+   */
+  void compactAfterDeletion() {}
 }
@@ -28,6 +28,9 @@ import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DirtyingInvali
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationState;
 import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -76,6 +79,15 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
 
   private final AtomicBoolean evaluating = new AtomicBoolean(false);
 
+  // Whether evaluations are scheduled on a work-stealing pool. See #setUseForkJoinPool.
+  private boolean useForkJoinPool = false;
+
+  // Counts and timings of evaluations per function, across evaluate calls.
+  private final SkyFunctionMetrics metrics = new SkyFunctionMetrics();
+
+  // Bounds the heap used by values of cheap functions. See #enableValueEviction.
+  @Nullable private ValueEvictor valueEvictor = null;
+
   public InMemoryMemoizingEvaluator(
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer) {
     this(skyFunctions, differencer, null);
@@ -91,12 +103,24 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
       @Nullable EvaluationProgressReceiver invalidationReceiver,
       EmittedEventState emittedEventState, boolean keepEdges) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState,
+        new InMemoryGraph(keepEdges));
+  }
+
+  /**
+   * Creates an evaluator backed by the given, initially empty, graph. Whether edges are kept is
+   * determined by the graph.
+   */
+  public InMemoryMemoizingEvaluator(
+      Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState, InMemoryGraph graph) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = invalidationReceiver;
-    this.graph = new InMemoryGraph(keepEdges);
+    this.graph = Preconditions.checkNotNull(graph);
     this.emittedEventState = emittedEventState;
-    this.keepEdges = keepEdges;
+    this.keepEdges = graph.keepsEdges();
   }
 
   private void invalidate(Iterable<SkyKey> diff) {
@@ -155,10 +179,16 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       performInvalidation();
       injectValues(intVersion);
 
+      EvaluationProgressReceiver evaluationReceiver = valueEvictor == null
+          ? progressReceiver
+          : valueEvictor.trackUsage(progressReceiver, intVersion.getVal());
       ParallelEvaluator evaluator = new ParallelEvaluator(graph, intVersion,
-          skyFunctions, eventHandler, emittedEventState, keepGoing, numThreads, progressReceiver,
-          dirtyKeyTracker);
+          skyFunctions, eventHandler, emittedEventState, keepGoing, numThreads, evaluationReceiver,
+          dirtyKeyTracker, useForkJoinPool, metrics);
       EvaluationResult<T> result = evaluator.eval(roots);
+      if (valueEvictor != null) {
+        valueEvictor.maybeEvict();
+      }
       return EvaluationResult.<T>builder()
           .mergeFrom(result)
           .setWalkableGraph(new DelegatingWalkableGraph(graph))
@@ -235,6 +265,7 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     // build has a large set of dirty values, subsequent operations (even clearing) will be slower.
     // Instead, just start afresh with a new LinkedHashSet.
     valuesToDelete = new LinkedHashSet<>();
+    graph.compactAfterDeletion();
 
     EagerInvalidator.invalidate(graph, valuesToDirty, progressReceiver, invalidatorState,
         dirtyKeyTracker);
@@ -268,6 +299,82 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     return (entry == null || !entry.isDone()) ? null : entry.getErrorInfo();
   }
 
+  /**
+   * Sets whether subsequent evaluations run on a work-stealing {@link
+   * java.util.concurrent.ForkJoinPool} instead of a pool with a single shared work queue. The
+   * graph is unaffected, so the two schedulers can be compared on the same graph across builds.
+   * Must not be called during an evaluation.
+   */
+  public void setUseForkJoinPool(boolean useForkJoinPool) {
+    Preconditions.checkState(!evaluating.get(), "Cannot change scheduler during evaluation");
+    this.useForkJoinPool = useForkJoinPool;
+  }
+
+  /**
+   * Returns the per-function counts and timings of the evaluations of this evaluator. They
+   * accumulate until the caller resets them with {@link SkyFunctionMetrics#getAndReset}.
+   */
+  public SkyFunctionMetrics getSkyFunctionMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Makes the values of nodes of {@code evictableFunctions} evictable once the used heap exceeds
+   * {@code heapBudgetBytes} at the end of an evaluation; see {@link ValueEvictor}. The functions
+   * must compute the same value whenever their deps have the same values. Replaces any previous
+   * eviction policy and its statistics. Requires a graph that keeps edges. Must not be called
+   * during an evaluation.
+   */
+  public void enableValueEviction(Set<SkyFunctionName> evictableFunctions, long heapBudgetBytes) {
+    Preconditions.checkState(!evaluating.get(), "Cannot enable eviction during evaluation");
+    valueEvictor = new ValueEvictor(graph, skyFunctions, evictableFunctions, heapBudgetBytes);
+  }
+
+  /**
+   * Stops evicting values. Values that are already evicted are still recomputed when read. Must
+   * not be called during an evaluation.
+   */
+  public void disableValueEviction() {
+    Preconditions.checkState(!evaluating.get(), "Cannot disable eviction during evaluation");
+    valueEvictor = null;
+  }
+
+  /**
+   * Returns eviction statistics per evictable function, or an empty map if eviction is not
+   * enabled.
+   */
+  public ImmutableMap<SkyFunctionName, ValueEvictor.FunctionStats> getValueEvictionStats() {
+    return valueEvictor == null
+        ? ImmutableMap.<SkyFunctionName, ValueEvictor.FunctionStats>of()
+        : valueEvictor.getStats();
+  }
+
+  /**
+   * Writes the done part of the graph to {@code out}; see {@link GraphSnapshot}. Only nodes whose
+   * functions have a codec in {@code codecs}, and whose deps are all written, are included. Must
+   * not be called during an evaluation. Returns the number of nodes written.
+   */
+  public int writeSnapshot(Map<SkyFunctionName, SkyValueCodec> codecs, OutputStream out)
+      throws IOException {
+    Preconditions.checkState(!evaluating.get(), "Cannot snapshot during evaluation");
+    return GraphSnapshot.write(graph, codecs, out);
+  }
+
+  /**
+   * Fills the graph of this evaluator, which must not have evaluated anything yet, from a snapshot
+   * written by {@link #writeSnapshot}. Restored nodes are not checked against the current state
+   * of the world: callers must invalidate whatever changed since the snapshot was written, for
+   * instance by checking every file in the graph against the file system, before the first
+   * evaluation. Returns the number of nodes restored.
+   */
+  public int restoreSnapshot(Map<SkyFunctionName, SkyValueCodec> codecs, InputStream in)
+      throws IOException {
+    Preconditions.checkState(!evaluating.get(), "Cannot restore during evaluation");
+    Preconditions.checkState(lastGraphVersion == null,
+        "Can only restore before the first evaluation, not after %s", lastGraphVersion);
+    return GraphSnapshot.restore(graph, codecs, in);
+  }
+
   public void setGraphForTesting(InMemoryGraph graph) {
     this.graph = graph;
   }
@@ -318,4 +425,35 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
           emittedEventState, keepEdges);
     }
   };
+
+  /**
+   * Supplies evaluators whose graph nodes are {@link ConcurrentNodeEntry}s rather than
+   * {@link InMemoryNodeEntry}s. Intended for machines with many cores, where contention on the
+   * monitors of popular nodes dominates evaluation.
+   */
+  public static final EvaluatorSupplier CONCURRENT_NODE_ENTRY_SUPPLIER = new EvaluatorSupplier() {
+    @Override
+    public MemoizingEvaluator create(
+        Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+        @Nullable EvaluationProgressReceiver invalidationReceiver,
+        EmittedEventState emittedEventState, boolean keepEdges) {
+      return new InMemoryMemoizingEvaluator(skyFunctions, differencer, invalidationReceiver,
+          emittedEventState, new ConcurrentInMemoryGraph(keepEdges));
+    }
+  };
+
+  /**
+   * Supplies evaluators whose graph stores edges as packed arrays of interned key ids rather than
+   * lists of {@link SkyKey}s. Trades some cpu on edge reads for a smaller steady-state heap.
+   */
+  public static final EvaluatorSupplier COMPACT_GRAPH_SUPPLIER = new EvaluatorSupplier() {
+    @Override
+    public MemoizingEvaluator create(
+        Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+        @Nullable EvaluationProgressReceiver invalidationReceiver,
+        EmittedEventState emittedEventState, boolean keepEdges) {
+      return new InMemoryMemoizingEvaluator(skyFunctions, differencer, invalidationReceiver,
+          emittedEventState, new CompactInMemoryGraph(keepEdges));
+    }
+  };
 }
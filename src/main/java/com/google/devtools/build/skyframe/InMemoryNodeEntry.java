@@ -87,10 +87,10 @@ public class InMemoryNodeEntry implements NodeEntry {
    * removing them from {@code reverseDeps}. That is because removals from reverseDeps are O(N).
    * Originally reverseDeps was a HashSet, but because of memory consumption we switched to a list.
    *
-   * <p>This requires that any usage of reverseDeps (contains, add, the list of reverse deps) call
-   * {@code consolidateReverseDepsRemovals} first. While this operation is not free, it can be done
-   * more effectively than trying to remove each dirty reverse dependency individually (O(N) each
-   * time).
+   * <p>This requires that any read of reverseDeps (contains, the list of reverse deps) call
+   * {@code consolidateReverseDepsRemovals} first. Additions need not, see {@link ReverseDepsUtil}.
+   * While this operation is not free, it can be done more effectively than trying to remove each
+   * dirty reverse dependency individually (O(N) each time).
    */
   private List<SkyKey> reverseDepsToRemove = null;
 
@@ -151,27 +151,94 @@ public class InMemoryNodeEntry implements NodeEntry {
   }
 
   @Override
-  public synchronized SkyValue getValue() {
-    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
-    return ValueWithMetadata.justValue(value);
+  public SkyValue getValue() {
+    return ValueWithMetadata.justValue(getResidentOrRecomputedValue());
   }
 
   @Override
-  public synchronized ValueWithMetadata getValueWithMetadata() {
-    Preconditions.checkState(isDone(), "no value until done: %s", this);
-    return ValueWithMetadata.wrapWithMetadata(value);
+  public ValueWithMetadata getValueWithMetadata() {
+    return ValueWithMetadata.wrapWithMetadata(getResidentOrRecomputedValue());
+  }
+
+  /**
+   * Returns the value of this done node, recomputing it if it was evicted. The recomputation reads
+   * other nodes and runs the node's function, so it must not hold this node's lock: that would
+   * block other readers, and could deadlock with a thread reading the nodes in another order. Its
+   * result is only published if the node still holds the same placeholder afterwards.
+   */
+  private SkyValue getResidentOrRecomputedValue() {
+    ValueEvictor.EvictedValue evicted;
+    Set<SkyKey> deps;
+    synchronized (this) {
+      Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+      if (!(value instanceof ValueEvictor.EvictedValue)) {
+        return value;
+      }
+      evicted = (ValueEvictor.EvictedValue) value;
+      // The deps cannot have changed since the value was evicted, or this node would be dirty.
+      deps = GroupedList.<SkyKey>create(directDeps).toSet();
+    }
+    return publishRecomputedValue(evicted, evicted.recompute(deps));
+  }
+
+  /**
+   * Replaces {@code evicted} with {@code recomputed} if this node still holds {@code evicted}, and
+   * returns the value readers should see. If another reader published its recomputation first,
+   * that one is returned, so that all readers see the same instance.
+   */
+  private synchronized SkyValue publishRecomputedValue(ValueEvictor.EvictedValue evicted,
+      SkyValue recomputed) {
+    if (value == evicted) {
+      value = recomputed;
+    } else if (isDone() && value != null && !(value instanceof ValueEvictor.EvictedValue)) {
+      return value;
+    }
+    return recomputed;
+  }
+
+  /**
+   * Replaces the value of this done node with a placeholder from which {@code evictor} recomputes
+   * it on the next read. Edges and version are kept, so invalidation works as before, and the
+   * placeholder keeps the value's content fingerprint, so that change pruning does too. Returns
+   * false, and does nothing, if the value is already evicted, carries errors or events, which
+   * recomputing would not reproduce, or has no content fingerprint.
+   */
+  synchronized boolean evictValue(SkyKey key, ValueEvictor evictor) {
+    if (!isDone() || !keepEdges() || !(value instanceof ContentFingerprintedValue)) {
+      return false;
+    }
+    byte[] contentFingerprint = ((ContentFingerprintedValue) value).getContentFingerprint();
+    if (contentFingerprint == null) {
+      return false;
+    }
+    value = new ValueEvictor.EvictedValue(key, evictor, value.getClass(), contentFingerprint);
+    return true;
+  }
+
+  /** Whether this node is done and its value has been evicted. */
+  synchronized boolean isEvicted() {
+    return isDone() && value instanceof ValueEvictor.EvictedValue;
   }
 
   @Override
-  public synchronized SkyValue toValue() {
-    if (isDone()) {
-      return getErrorInfo() == null ? getValue() : null;
-    } else if (isChanged() || isDirty()) {
-      return (buildingState.getLastBuildValue() == null)
-              ? null
-          : ValueWithMetadata.justValue(buildingState.getLastBuildValue());
+  public SkyValue toValue() {
+    synchronized (this) {
+      if (!isDone()) {
+        if (isChanged() || isDirty()) {
+          SkyValue lastBuildValue = buildingState.getLastBuildValue();
+          // An evicted value cannot be recomputed once the deps it was computed from are dirty.
+          // Its placeholder still serves change pruning; see ValueWithMetadata#sameContent.
+          return (lastBuildValue == null || lastBuildValue instanceof ValueEvictor.EvictedValue)
+                  ? null
+              : ValueWithMetadata.justValue(lastBuildValue);
+        }
+        throw new AssertionError("Value in bad state: " + this);
+      }
+      if (getErrorInfo() != null) {
+        return null;
+      }
     }
-    throw new AssertionError("Value in bad state: " + this);
+    return getValue();
   }
 
   @Override
@@ -181,10 +248,7 @@ public class InMemoryNodeEntry implements NodeEntry {
     return GroupedList.<SkyKey>create(directDeps).toSet();
   }
 
-  /**
-   * If {@code isDone()}, returns the ordered list of sets of grouped direct dependencies that were
-   * added in {@link addTemporaryDirectDeps}.
-   */
+  @Override
   public synchronized Iterable<Iterable<SkyKey>> getGroupedDirectDeps() {
     assertKeepEdges();
     Preconditions.checkState(isDone(), "no deps until done. ValueEntry: %s", this);
@@ -246,7 +310,7 @@ public class InMemoryNodeEntry implements NodeEntry {
   public synchronized DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
     if (reverseDep != null) {
       if (keepEdges()) {
-        REVERSE_DEPS_UTIL.consolidateReverseDepsRemovals(this);
+        // Pending removals are not consolidated here. See ReverseDepsUtil.
         REVERSE_DEPS_UTIL.maybeCheckReverseDepNotPresent(this, reverseDep);
       }
       if (isDone()) {
@@ -322,8 +386,10 @@ public class InMemoryNodeEntry implements NodeEntry {
     if (isDone()) {
       GroupedList<SkyKey> lastDirectDeps = GroupedList.create(directDeps);
       buildingState = BuildingState.newDirtyState(isChanged, lastDirectDeps, value);
-      Pair<? extends Iterable<SkyKey>, ? extends SkyValue> result =
-          Pair.of(lastDirectDeps.toSet(), value);
+      // An evicted value stays the last build value, so that markClean restores it, but it is not
+      // handed out, since it can no longer be recomputed.
+      Pair<? extends Iterable<SkyKey>, ? extends SkyValue> result = Pair.of(
+          lastDirectDeps.toSet(), value instanceof ValueEvictor.EvictedValue ? null : value);
       value = null;
       directDeps = null;
       return result;
@@ -401,6 +467,18 @@ public class InMemoryNodeEntry implements NodeEntry {
     buildingState.addDirectDeps(helper);
   }
 
+  @Override
+  public synchronized SkyFunction.ComputeState getComputeState() {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    return buildingState.getComputeState();
+  }
+
+  @Override
+  public synchronized void setComputeState(SkyFunction.ComputeState computeState) {
+    Preconditions.checkState(!isDone(), "compute state of done entry: %s", this);
+    buildingState.setComputeState(computeState);
+  }
+
   @Override
   public synchronized boolean isReady() {
     Preconditions.checkState(!isDone(), "can't be ready if done: %s", this);
@@ -16,16 +16,23 @@ package com.google.devtools.build.skyframe;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.util.Pair;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -41,6 +48,11 @@ import javax.annotation.Nullable;
  * transitive dependencies must be in the {@link #pendingVisitations} set. Furthermore, reverse dep
  * pointers must always point to existing nodes.
  *
+ * <p>Nodes are processed in batches: each task dirties or deletes up to {@link #MAX_BATCH_SIZE}
+ * nodes, then visits the union of their reverse deps, and only then removes its nodes from
+ * {@link #pendingVisitations}. The set of already-visited nodes is split into shards by hash, each
+ * with its own lock, so that threads walking a wide reverse closure rarely touch the same shard.
+ *
  * <p>Thread-safety: This class should only be instantiated and called on a single thread, but
  * internally it spawns many worker threads to process the graph. The thread-safety of the workers
  * on the graph can be delicate, and is documented below. Moreover, no other modifications to the
@@ -55,6 +67,12 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
   // We may consider increasing this in the future.
   private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
 
+  /**
+   * Upper bound on the number of nodes processed by a single task. Smaller frontiers are split
+   * evenly across the threads instead, so that batching never serializes a narrow invalidation.
+   */
+  private static final int MAX_BATCH_SIZE = 64;
+
   private static final boolean MUST_EXIST = true;
 
   protected final DirtiableGraph graph;
@@ -63,9 +81,18 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
   // Aliased to InvalidationState.pendingVisitations.
   protected final Set<Pair<SkyKey, InvalidationType>> pendingVisitations;
 
+  /** How reverse deps of an invalidated node are invalidated in turn. */
+  private final InvalidationType reverseDepInvalidationType;
+  /** What the invalidation receiver is told about the nodes processed by this visitor. */
+  private final EvaluationProgressReceiver.InvalidationState receiverState;
+  /** Number of nodes actually dirtied or deleted, for throughput reporting. */
+  private final AtomicLong invalidatedNodeCount = new AtomicLong();
+
   protected InvalidatingNodeVisitor(
       DirtiableGraph graph, @Nullable EvaluationProgressReceiver invalidationReceiver,
-      InvalidationState state, DirtyKeyTracker dirtyKeyTracker) {
+      InvalidationState state, DirtyKeyTracker dirtyKeyTracker,
+      InvalidationType reverseDepInvalidationType,
+      EvaluationProgressReceiver.InvalidationState receiverState) {
     super(/*concurrent*/true,
         /*corePoolSize*/DEFAULT_THREAD_COUNT,
         /*maxPoolSize*/DEFAULT_THREAD_COUNT,
@@ -77,24 +104,35 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
     this.invalidationReceiver = invalidationReceiver;
     this.dirtyKeyTracker = Preconditions.checkNotNull(dirtyKeyTracker);
     this.pendingVisitations = state.pendingValues;
+    this.reverseDepInvalidationType = Preconditions.checkNotNull(reverseDepInvalidationType);
+    this.receiverState = Preconditions.checkNotNull(receiverState);
   }
 
   /**
    * Initiates visitation and waits for completion.
    */
   void run() throws InterruptedException {
+    long startTime = System.nanoTime();
     // Make a copy to avoid concurrent modification confusing us as to which nodes were passed by
     // the caller, and which are added by other threads during the run. Since no tasks have been
-    // started yet (the queueDirtying calls start them), this is thread-safe.
+    // started yet (the visit calls start them), this is thread-safe.
+    ListMultimap<InvalidationType, SkyKey> keysByType = ArrayListMultimap.create();
     for (Pair<SkyKey, InvalidationType> visitData : ImmutableList.copyOf(pendingVisitations)) {
+      keysByType.put(visitData.second, visitData.first);
+    }
+    for (InvalidationType invalidationType : keysByType.keySet()) {
       // The caller may have specified non-existent SkyKeys, or there may be stale SkyKeys in
       // pendingVisitations that have already been deleted. In both these cases, the nodes will not
       // exist in the graph, so we must be tolerant of that case.
-      visit(visitData.first, visitData.second, !MUST_EXIST);
+      visit(keysByType.get(invalidationType), invalidationType, !MUST_EXIST);
     }
     work(/*failFastOnInterrupt=*/true);
     Preconditions.checkState(pendingVisitations.isEmpty(),
         "All dirty nodes should have been processed: %s", pendingVisitations);
+    if (invalidationReceiver != null) {
+      invalidationReceiver.invalidationFinished(receiverState, invalidatedNodeCount.get(),
+          System.nanoTime() - startTime);
+    }
   }
 
   protected void informInvalidationReceiver(SkyValue value,
@@ -105,10 +143,88 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
   }
 
   /**
-   * Enqueues a node for invalidation.
+   * Enqueues nodes for invalidation. Nodes that this visitor has already visited with the same
+   * invalidation type are skipped.
+   */
+  @ThreadSafe
+  abstract void visit(Iterable<SkyKey> keys, InvalidationType invalidationType, boolean mustExist);
+
+  /**
+   * Invalidates the node named by {@code key}, adding the reverse deps that must be invalidated in
+   * turn to {@code reverseDepsToVisit}. Returns whether the node was actually dirtied or deleted.
+   * Must not touch {@link #pendingVisitations}.
+   */
+  @ThreadSafe
+  abstract boolean invalidate(SkyKey key, InvalidationType invalidationType, boolean mustExist,
+      List<SkyKey> reverseDepsToVisit);
+
+  /**
+   * Marks the given not-yet-visited nodes as pending and enqueues tasks that invalidate them in
+   * batches.
+   */
+  protected void enqueueBatches(List<SkyKey> keys, final InvalidationType invalidationType,
+      final boolean mustExist) {
+    if (keys.isEmpty()) {
+      return;
+    }
+    for (SkyKey key : keys) {
+      pendingVisitations.add(Pair.of(key, invalidationType));
+    }
+    int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE,
+        (keys.size() + DEFAULT_THREAD_COUNT - 1) / DEFAULT_THREAD_COUNT));
+    for (final List<SkyKey> batch : Lists.partition(keys, batchSize)) {
+      enqueue(new Runnable() {
+        @Override
+        public void run() {
+          List<SkyKey> reverseDepsToVisit = new ArrayList<>();
+          long invalidated = 0;
+          for (SkyKey key : batch) {
+            if (invalidate(key, invalidationType, mustExist, reverseDepsToVisit)) {
+              invalidated++;
+            }
+          }
+          // Reverse deps must be pending before the nodes that led to them stop being pending.
+          visit(reverseDepsToVisit, reverseDepInvalidationType, MUST_EXIST);
+          invalidatedNodeCount.addAndGet(invalidated);
+          // Remove the nodes from the set as the last operation.
+          for (SkyKey key : batch) {
+            pendingVisitations.remove(Pair.of(key, invalidationType));
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * A set split into independently locked shards by hash code. Threads adding different elements
+   * contend only when the elements land in the same shard.
    */
   @ThreadSafe
-  abstract void visit(SkyKey key, InvalidationType second, boolean mustExist);
+  static final class ShardedSet<T> {
+    private final List<Set<T>> shards;
+
+    ShardedSet(int minShards) {
+      int numShards = Integer.highestOneBit(Math.max(1, minShards - 1)) << 1;
+      shards = new ArrayList<>(numShards);
+      for (int i = 0; i < numShards; i++) {
+        shards.add(new HashSet<T>());
+      }
+    }
+
+    /** Adds {@code element}, returning whether it was absent. */
+    boolean add(T element) {
+      int hash = element.hashCode();
+      Set<T> shard = shards.get((hash ^ (hash >>> 16)) & (shards.size() - 1));
+      synchronized (shard) {
+        return shard.add(element);
+      }
+    }
+  }
+
+  /** Returns a visited set sharded finely enough for all invalidation threads. */
+  static <T> ShardedSet<T> newVisitedSet() {
+    return new ShardedSet<>(4 * DEFAULT_THREAD_COUNT);
+  }
 
   @VisibleForTesting
   enum InvalidationType {
@@ -178,71 +294,71 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
    */
   static class DeletingNodeVisitor extends InvalidatingNodeVisitor {
 
-    private final Set<SkyKey> visitedValues = Sets.newConcurrentHashSet();
+    private final ShardedSet<SkyKey> visitedValues = newVisitedSet();
     private final boolean traverseGraph;
 
     protected DeletingNodeVisitor(DirtiableGraph graph,
         EvaluationProgressReceiver invalidationReceiver, InvalidationState state,
         boolean traverseGraph, DirtyKeyTracker dirtyKeyTracker) {
-      super(graph, invalidationReceiver, state, dirtyKeyTracker);
+      super(graph, invalidationReceiver, state, dirtyKeyTracker, InvalidationType.DELETED,
+          EvaluationProgressReceiver.InvalidationState.DELETED);
       this.traverseGraph = traverseGraph;
     }
 
     @Override
-    public void visit(final SkyKey key, InvalidationType invalidationType, boolean mustExist) {
-      Preconditions.checkState(invalidationType == InvalidationType.DELETED, key);
-      if (!visitedValues.add(key)) {
-        return;
+    public void visit(Iterable<SkyKey> keys, InvalidationType invalidationType,
+        boolean mustExist) {
+      Preconditions.checkState(invalidationType == InvalidationType.DELETED, keys);
+      List<SkyKey> unvisited = new ArrayList<>();
+      for (SkyKey key : keys) {
+        if (visitedValues.add(key)) {
+          unvisited.add(key);
+        }
       }
-      final Pair<SkyKey, InvalidationType> invalidationPair = Pair.of(key, invalidationType);
-      pendingVisitations.add(invalidationPair);
-      enqueue(new Runnable() {
-        @Override
-        public void run() {
-          NodeEntry entry = graph.get(key);
-          if (entry == null) {
-            pendingVisitations.remove(invalidationPair);
-            return;
-          }
+      enqueueBatches(unvisited, invalidationType, mustExist);
+    }
 
-          if (traverseGraph) {
-            // Propagate deletion upwards.
-            for (SkyKey reverseDep : entry.getReverseDeps()) {
-              visit(reverseDep, InvalidationType.DELETED, !MUST_EXIST);
-            }
-          }
+    @Override
+    boolean invalidate(SkyKey key, InvalidationType invalidationType, boolean mustExist,
+        List<SkyKey> reverseDepsToVisit) {
+      NodeEntry entry = graph.get(key);
+      if (entry == null) {
+        return false;
+      }
+
+      if (traverseGraph) {
+        // Propagate deletion upwards.
+        Iterables.addAll(reverseDepsToVisit, entry.getReverseDeps());
+      }
 
-          if (entry.isDone()) {
-            // Only process this node's value and children if it is done, since dirty nodes have
-            // no awareness of either.
-
-            // Unregister this node from direct deps, since reverse dep edges cannot point to
-            // non-existent nodes.
-            if (traverseGraph) {
-              for (SkyKey directDep : entry.getDirectDeps()) {
-                NodeEntry dep = graph.get(directDep);
-                if (dep != null) {
-                  dep.removeReverseDep(key);
-                }
-              }
+      if (entry.isDone()) {
+        // Only process this node's value and children if it is done, since dirty nodes have
+        // no awareness of either.
+
+        // Unregister this node from direct deps, since reverse dep edges cannot point to
+        // non-existent nodes.
+        if (traverseGraph) {
+          for (SkyKey directDep : entry.getDirectDeps()) {
+            NodeEntry dep = graph.get(directDep);
+            if (dep != null) {
+              dep.removeReverseDep(key);
             }
-            // Allow custom Value-specific logic to update dirtiness status.
-            informInvalidationReceiver(entry.getValue(),
-                EvaluationProgressReceiver.InvalidationState.DELETED);
           }
-          if (traverseGraph) {
-            // Force reverseDeps consolidation (validates that attempts to remove reverse deps were
-            // really successful.
-            entry.getReverseDeps();
-          }
-          // Actually remove the node.
-          graph.remove(key);
-          dirtyKeyTracker.notDirty(key);
-
-          // Remove the node from the set as the last operation.
-          pendingVisitations.remove(invalidationPair);
         }
-      });
+        // Allow custom Value-specific logic to update dirtiness status. Evicted values are not
+        // recomputed just to be reported: their deps may already be gone.
+        informInvalidationReceiver(ValueEvictor.getResidentValue(entry),
+            EvaluationProgressReceiver.InvalidationState.DELETED);
+      }
+      if (traverseGraph) {
+        // Force reverseDeps consolidation (validates that attempts to remove reverse deps were
+        // really successful.
+        entry.getReverseDeps();
+      }
+      // Actually remove the node.
+      graph.remove(key);
+      dirtyKeyTracker.notDirty(key);
+      return true;
     }
   }
 
@@ -251,16 +367,17 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
    */
   static class DirtyingNodeVisitor extends InvalidatingNodeVisitor {
 
-    private final Set<Pair<SkyKey, InvalidationType>> visited = Sets.newConcurrentHashSet();
+    private final ShardedSet<Pair<SkyKey, InvalidationType>> visited = newVisitedSet();
 
     protected DirtyingNodeVisitor(DirtiableGraph graph,
         EvaluationProgressReceiver invalidationReceiver, InvalidationState state,
         DirtyKeyTracker dirtyKeyTracker) {
-      super(graph, invalidationReceiver, state, dirtyKeyTracker);
+      super(graph, invalidationReceiver, state, dirtyKeyTracker, InvalidationType.DIRTIED,
+          EvaluationProgressReceiver.InvalidationState.DIRTY);
     }
 
     /**
-     * Queues a task to dirty the node named by {@code key}. May be called from multiple threads.
+     * Queues tasks to dirty the nodes named by {@code keys}. May be called from multiple threads.
      * It is possible that the same node is enqueued many times. However, we require that a node
      * is only actually marked dirty/changed once, with two exceptions:
      *
@@ -287,64 +404,59 @@ public abstract class InvalidatingNodeVisitor extends AbstractQueueVisitor {
      */
     @Override
     @ThreadSafe
-    public void visit(final SkyKey key, final InvalidationType invalidationType,
-        final boolean mustExist) {
-      Preconditions.checkState(invalidationType != InvalidationType.DELETED, key);
-      final boolean isChanged = (invalidationType == InvalidationType.CHANGED);
-      final Pair<SkyKey, InvalidationType> invalidationPair = Pair.of(key, invalidationType);
-      if (!visited.add(invalidationPair)) {
-        return;
+    public void visit(Iterable<SkyKey> keys, InvalidationType invalidationType,
+        boolean mustExist) {
+      Preconditions.checkState(invalidationType != InvalidationType.DELETED, keys);
+      List<SkyKey> unvisited = new ArrayList<>();
+      for (SkyKey key : keys) {
+        if (visited.add(Pair.of(key, invalidationType))) {
+          unvisited.add(key);
+        }
       }
-      pendingVisitations.add(invalidationPair);
-      enqueue(new Runnable() {
-        @Override
-        public void run() {
-          NodeEntry entry = graph.get(key);
-
-          if (entry == null) {
-            Preconditions.checkState(!mustExist,
-                "%s does not exist in the graph but was enqueued for dirtying by another node",
-                key);
-            pendingVisitations.remove(invalidationPair);
-            return;
-          }
+      enqueueBatches(unvisited, invalidationType, mustExist);
+    }
 
-          if (entry.isChanged() || (!isChanged && entry.isDirty())) {
-            // If this node is already marked changed, or we are only marking this node dirty, and
-            // it already is, move along.
-            pendingVisitations.remove(invalidationPair);
-            return;
-          }
+    @Override
+    boolean invalidate(SkyKey key, InvalidationType invalidationType, boolean mustExist,
+        List<SkyKey> reverseDepsToVisit) {
+      boolean isChanged = (invalidationType == InvalidationType.CHANGED);
+      NodeEntry entry = graph.get(key);
+
+      if (entry == null) {
+        Preconditions.checkState(!mustExist,
+            "%s does not exist in the graph but was enqueued for dirtying by another node", key);
+        return false;
+      }
 
-          // This entry remains in the graph in this dirty state until it is re-evaluated.
-          Pair<? extends Iterable<SkyKey>, ? extends SkyValue> depsAndValue =
-              entry.markDirty(isChanged);
-          // It is not safe to interrupt the logic from this point until the end of the method.
-          // Any exception thrown should be unrecoverable.
-          if (depsAndValue == null) {
-            // Another thread has already dirtied this node. Don't do anything in this thread.
-            pendingVisitations.remove(invalidationPair);
-            return;
-          }
-          // Propagate dirtiness upwards and mark this node dirty/changed. Reverse deps should only
-          // be marked dirty (because only a dependency of theirs has changed).
-          for (SkyKey reverseDep : entry.getReverseDeps()) {
-            visit(reverseDep, InvalidationType.DIRTIED, MUST_EXIST);
-          }
+      if (entry.isChanged() || (!isChanged && entry.isDirty())) {
+        // If this node is already marked changed, or we are only marking this node dirty, and
+        // it already is, move along.
+        return false;
+      }
 
-          // Remove this node as a reverse dep from its children, since we have reset it and it no
-          // longer lists its children as direct deps.
-          for (SkyKey dep : depsAndValue.first) {
-            graph.get(dep).removeReverseDep(key);
-          }
+      // This entry remains in the graph in this dirty state until it is re-evaluated.
+      Pair<? extends Iterable<SkyKey>, ? extends SkyValue> depsAndValue =
+          entry.markDirty(isChanged);
+      // It is not safe to interrupt the logic from this point until the end of the method.
+      // Any exception thrown should be unrecoverable.
+      if (depsAndValue == null) {
+        // Another thread has already dirtied this node. Don't do anything in this thread.
+        return false;
+      }
+      // Propagate dirtiness upwards and mark this node dirty/changed. Reverse deps should only
+      // be marked dirty (because only a dependency of theirs has changed).
+      Iterables.addAll(reverseDepsToVisit, entry.getReverseDeps());
+
+      // Remove this node as a reverse dep from its children, since we have reset it and it no
+      // longer lists its children as direct deps.
+      for (SkyKey dep : depsAndValue.first) {
+        graph.get(dep).removeReverseDep(key);
+      }
 
-          SkyValue value = ValueWithMetadata.justValue(depsAndValue.second);
-          informInvalidationReceiver(value, EvaluationProgressReceiver.InvalidationState.DIRTY);
-          dirtyKeyTracker.dirty(key);
-          // Remove the node from the set as the last operation.
-          pendingVisitations.remove(invalidationPair);
-        }
-      });
+      SkyValue value = ValueWithMetadata.justValue(depsAndValue.second);
+      informInvalidationReceiver(value, EvaluationProgressReceiver.InvalidationState.DIRTY);
+      dirtyKeyTracker.dirty(key);
+      return true;
     }
   }
 }
@@ -110,6 +110,13 @@ public interface NodeEntry {
   @ThreadSafe
   Iterable<SkyKey> getDirectDeps();
 
+  /**
+   * Returns the direct deps of this node in the groups in which they were requested, as passed to
+   * {@link #addTemporaryDirectDeps}. Same restrictions as {@link #getDirectDeps}.
+   */
+  @ThreadSafe
+  Iterable<Iterable<SkyKey>> getGroupedDirectDeps();
+
   /**
    * Returns the error, if any, associated to this node. This method may only be called after
    * the evaluation of this node is complete, i.e., after {@link #setValue} has been called.
@@ -307,6 +314,24 @@ public interface NodeEntry {
   @ThreadSafe
   void addTemporaryDirectDeps(GroupedListHelper<SkyKey> helper);
 
+  /**
+   * Returns the state stashed by the {@link SkyFunction} computing this entry, or null if none.
+   * This may only be called while the node is being evaluated, that is, before {@link #setValue}
+   * and after {@link #markDirty}.
+   *
+   * @see SkyFunction.Environment#getState
+   */
+  @ThreadSafe
+  @Nullable
+  SkyFunction.ComputeState getComputeState();
+
+  /**
+   * Stashes state of the {@link SkyFunction} computing this entry until the entry is done. This
+   * may only be called while the node is being evaluated.
+   */
+  @ThreadSafe
+  void setComputeState(SkyFunction.ComputeState computeState);
+
   /**
    * Returns true if the node is ready to be evaluated, i.e., it has been signaled exactly as many
    * times as it has temporary dependencies. This may only be called while the node is being
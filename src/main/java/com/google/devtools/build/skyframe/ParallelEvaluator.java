@@ -17,6 +17,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -61,6 +62,7 @@ import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -114,7 +116,9 @@ public final class ParallelEvaluator implements Evaluator {
   private final NestedSetVisitor<TaggedEvents> replayingNestedSetEventVisitor;
   private final boolean keepGoing;
   private final int threadCount;
+  private final boolean useForkJoinPool;
   @Nullable private final EvaluationProgressReceiver progressReceiver;
+  @Nullable private final SkyFunctionMetrics metrics;
   private final DirtyKeyTracker dirtyKeyTracker;
   private final AtomicBoolean errorEncountered = new AtomicBoolean(false);
 
@@ -127,13 +131,47 @@ public final class ParallelEvaluator implements Evaluator {
                     boolean keepGoing, int threadCount,
                     @Nullable EvaluationProgressReceiver progressReceiver,
                     DirtyKeyTracker dirtyKeyTracker) {
+    this(graph, graphVersion, skyFunctions, reporter, emittedEventState, keepGoing, threadCount,
+        progressReceiver, dirtyKeyTracker, /*useForkJoinPool=*/false);
+  }
+
+  /**
+   * @param useForkJoinPool if true, nodes are evaluated on a work-stealing pool, and a parent
+   *     made ready by a finished child is queued on the thread that signaled it rather than on a
+   *     queue shared by all threads.
+   */
+  public ParallelEvaluator(ProcessableGraph graph, Version graphVersion,
+                    ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+                    final EventHandler reporter,
+                    MemoizingEvaluator.EmittedEventState emittedEventState,
+                    boolean keepGoing, int threadCount,
+                    @Nullable EvaluationProgressReceiver progressReceiver,
+                    DirtyKeyTracker dirtyKeyTracker, boolean useForkJoinPool) {
+    this(graph, graphVersion, skyFunctions, reporter, emittedEventState, keepGoing, threadCount,
+        progressReceiver, dirtyKeyTracker, useForkJoinPool, /*metrics=*/null);
+  }
+
+  /**
+   * @param metrics if not null, receives the counts and timings of the evaluations of each
+   *     function
+   */
+  public ParallelEvaluator(ProcessableGraph graph, Version graphVersion,
+                    ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+                    final EventHandler reporter,
+                    MemoizingEvaluator.EmittedEventState emittedEventState,
+                    boolean keepGoing, int threadCount,
+                    @Nullable EvaluationProgressReceiver progressReceiver,
+                    DirtyKeyTracker dirtyKeyTracker, boolean useForkJoinPool,
+                    @Nullable SkyFunctionMetrics metrics) {
     this.graph = graph;
     this.skyFunctions = skyFunctions;
     this.graphVersion = graphVersion;
     this.reporter = Preconditions.checkNotNull(reporter);
     this.keepGoing = keepGoing;
     this.threadCount = threadCount;
+    this.useForkJoinPool = useForkJoinPool;
     this.progressReceiver = progressReceiver;
+    this.metrics = metrics;
     this.dirtyKeyTracker = Preconditions.checkNotNull(dirtyKeyTracker);
     this.replayingNestedSetEventVisitor =
         new NestedSetVisitor<>(new NestedSetEventReceiver(reporter), emittedEventState);
@@ -525,6 +563,24 @@ public final class ParallelEvaluator implements Evaluator {
       return eventHandler;
     }
 
+    @Override
+    public <T extends SkyFunction.ComputeState> T getState(Supplier<T> stateSupplier) {
+      checkActive();
+      if (bubbleErrorInfo != null) {
+        // Error bubbling calls the function once and throws away the node, so there is nothing to
+        // stash the state for.
+        return stateSupplier.get();
+      }
+      NodeEntry entry = graph.get(skyKey);
+      @SuppressWarnings("unchecked")
+      T state = (T) entry.getComputeState();
+      if (state == null) {
+        state = Preconditions.checkNotNull(stateSupplier.get(), skyKey);
+        entry.setComputeState(state);
+      }
+      return state;
+    }
+
     private void doneBuilding() {
       building = false;
     }
@@ -570,6 +626,7 @@ public final class ParallelEvaluator implements Evaluator {
       // We could consider using max(childVersions) here instead of graphVersion. When full
       // versioning is implemented, this would allow evaluation at a version between
       // max(childVersions) and graphVersion to re-use this result.
+      boolean wasDirty = primaryEntry.isDirty();
       Set<SkyKey> reverseDeps = primaryEntry.setValue(valueWithMetadata, graphVersion);
       // Note that if this update didn't actually change the value entry, this version may not
       // be the graph version.
@@ -577,6 +634,13 @@ public final class ParallelEvaluator implements Evaluator {
       Preconditions.checkState(valueVersion.atMost(graphVersion),
           "%s should be at most %s in the version partial ordering",
           valueVersion, graphVersion);
+      if (metrics != null) {
+        metrics.recordBuilt(skyKey.functionName(), valueVersion.equals(graphVersion),
+            /*error=*/errorInfo != null);
+        if (wasDirty && errorInfo == null) {
+          metrics.recordDirtyRebuild(value, /*pruned=*/!valueVersion.equals(graphVersion));
+        }
+      }
       if (progressReceiver != null) {
         // Tell the receiver that this value was built. If valueVersion.equals(graphVersion), it
         // was evaluated this run, and so was changed. Otherwise, it is less than graphVersion,
@@ -675,6 +739,13 @@ public final class ParallelEvaluator implements Evaluator {
           "skyframe-evaluator");
     }
 
+    private ValueVisitor(ForkJoinPool forkJoinPool) {
+      super(forkJoinPool,
+          /*shutdownOnCompletion*/true,
+          /*failFastOnException*/true,
+          /*failFastOnInterrupt*/true);
+    }
+
     @Override
     protected boolean isCriticalError(Throwable e) {
       return e instanceof RuntimeException;
@@ -725,10 +796,13 @@ public final class ParallelEvaluator implements Evaluator {
     private final ValueVisitor visitor;
     /** The name of the value to be evaluated. */
     private final SkyKey skyKey;
+    /** When this was enqueued, if metrics are collected. */
+    private final long enqueueNanos;
 
     private Evaluate(ValueVisitor visitor, SkyKey skyKey) {
       this.visitor = visitor;
       this.skyKey = skyKey;
+      this.enqueueNanos = metrics == null ? 0 : System.nanoTime();
     }
 
     private void enqueueChild(SkyKey skyKey, NodeEntry entry, SkyKey child) {
@@ -767,6 +841,9 @@ public final class ParallelEvaluator implements Evaluator {
       NodeEntry state = graph.get(skyKey);
       Preconditions.checkNotNull(state, "%s %s", skyKey, state);
       Preconditions.checkState(state.isReady(), "%s %s", skyKey, state);
+      if (metrics != null) {
+        metrics.recordQueueTime(skyKey.functionName(), System.nanoTime() - enqueueNanos);
+      }
 
       if (state.isDirty()) {
         switch (state.getDirtyState()) {
@@ -809,7 +886,10 @@ public final class ParallelEvaluator implements Evaluator {
             // without any re-evaluation.
             visitor.notifyDone(skyKey);
             Set<SkyKey> reverseDeps = state.markClean();
-            SkyValue value = state.getValue();
+            if (metrics != null) {
+              metrics.recordVerifiedClean(skyKey.functionName());
+            }
+            SkyValue value = ValueEvictor.getResidentValue(state);
             if (progressReceiver != null) {
               // Tell the receiver that the value was not actually changed this run.
               progressReceiver.evaluated(skyKey, value, EvaluationState.CLEAN);
@@ -836,6 +916,7 @@ public final class ParallelEvaluator implements Evaluator {
       Preconditions.checkState(factory != null, "%s %s", functionName, state);
 
       SkyValue value = null;
+      long computeStartNanos = metrics == null ? 0 : System.nanoTime();
       Profiler.instance().startTask(ProfilerTask.SKYFUNCTION, skyKey);
       try {
         // TODO(bazel-team): count how many of these calls returns null vs. non-null
@@ -882,6 +963,9 @@ public final class ParallelEvaluator implements Evaluator {
       } finally {
         env.doneBuilding();
         Profiler.instance().completeTask(ProfilerTask.SKYFUNCTION);
+        if (metrics != null) {
+          metrics.recordCompute(functionName, System.nanoTime() - computeStartNanos);
+        }
       }
 
       GroupedListHelper<SkyKey> newDirectDeps = env.newlyRequestedDeps;
@@ -951,6 +1035,9 @@ public final class ParallelEvaluator implements Evaluator {
         return;
       }
 
+      if (metrics != null) {
+        metrics.recordRestart(functionName);
+      }
       for (SkyKey newDirectDep : newDirectDeps) {
         enqueueChild(skyKey, state, newDirectDep);
       }
@@ -1110,7 +1197,10 @@ public final class ParallelEvaluator implements Evaluator {
 
     Profiler.instance().startTask(ProfilerTask.SKYFRAME_EVAL, skyKeySet);
     try {
-      return eval(skyKeySet, new ValueVisitor(threadCount));
+      return eval(skyKeySet, useForkJoinPool
+          ? new ValueVisitor(ExecutorShutdownUtil.newWorkStealingPool(threadCount,
+              "skyframe-evaluator"))
+          : new ValueVisitor(threadCount));
     } finally {
       Profiler.instance().completeTask(ProfilerTask.SKYFRAME_EVAL);
     }
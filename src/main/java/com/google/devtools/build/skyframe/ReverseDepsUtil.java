@@ -15,21 +15,31 @@ package com.google.devtools.build.skyframe;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Multiset;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 
 /**
  * A utility class that allows us to keep the reverse dependencies as an array list instead of a
  * set. This is more memory-efficient. At the same time it allows us to group the removals and
  * uniqueness checks so that it also performs well.
  *
+ * <p>Additions are appended to the list right away, and removals are appended to a separate log.
+ * Neither requires the other to be applied first: a parent that is removed and then added again
+ * before consolidation simply appears twice in the list and once in the removal log. Since each
+ * parent is present at most once after any valid sequence of operations, consolidation only needs
+ * to cancel each logged removal against one occurrence in the list. Consolidation is therefore
+ * deferred until somebody reads the reverse deps, the node finishes building, or the removal log
+ * grows to half the size of the list. It used to run on every addition that followed a removal,
+ * which was quadratic for nodes with many reverse deps whose parents add and remove themselves in
+ * turn.
+ *
  * <p>The reason of this class it to share non-trivial code between BuildingState and NodeEntry. We
  * could simply make those two classes extend this class instead, but we would be less
  * memory-efficient since object memory alignment does not cross classes ( you would have two memory
@@ -53,9 +63,13 @@ abstract class ReverseDepsUtil<T> {
 
   /**
    * We check that the reverse dependency is not already present. We only do that if reverseDeps is
-   * small, so that it does not impact performance.
+   * small and has no pending removals, so that it does not impact performance.
    */
   void maybeCheckReverseDepNotPresent(T container, SkyKey reverseDep) {
+    if (getReverseDepsToRemove(container) != null) {
+      // The list may legitimately contain reverseDep if its removal is pending.
+      return;
+    }
     if (isSingleReverseDep(container)) {
       Preconditions.checkState(!getReverseDepsObject(container).equals(reverseDep),
           "Reverse dep %s already present", reverseDep);
@@ -126,6 +140,11 @@ abstract class ReverseDepsUtil<T> {
       setReverseDepsToRemove(container, reverseDepsToRemove);
     }
     reverseDepsToRemove.add(reverseDep);
+    if (reverseDepsToRemove.size() > reverseDepsAsList.size() / 2) {
+      // Nobody may read this node's reverse deps for many builds. Bound the log by the size of the
+      // list, which keeps the cost of consolidation amortized constant per removal.
+      consolidateReverseDepsRemovals(container);
+    }
   }
 
   ImmutableSet<SkyKey> getReverseDeps(T container) {
@@ -160,11 +179,10 @@ abstract class ReverseDepsUtil<T> {
         "Could not remove %s elements from %s.\nReverse deps to remove: %s. %s",
         reverseDepsToRemove.size(), reverseDeps, reverseDepsToRemove, container);
 
-    Set<SkyKey> toRemove = Sets.newHashSet(reverseDepsToRemove);
-    int expectedRemovals = toRemove.size();
-    Preconditions.checkState(expectedRemovals == reverseDepsToRemove.size(),
-        "A reverse dependency tried to remove itself twice: %s. %s", reverseDepsToRemove,
-        container);
+    // Each removal cancels exactly one occurrence, so that a parent that was removed and added
+    // back since the last consolidation stays present.
+    Multiset<SkyKey> toRemove = HashMultiset.create(reverseDepsToRemove);
+    int expectedRemovals = reverseDepsToRemove.size();
 
     @SuppressWarnings("unchecked")
     List<SkyKey> reverseDepsAsList = (List<SkyKey>) reverseDeps;
@@ -172,11 +190,20 @@ abstract class ReverseDepsUtil<T> {
         .newArrayListWithExpectedSize(Math.max(0, reverseDepsAsList.size() - expectedRemovals));
 
     for (SkyKey reverseDep : reverseDepsAsList) {
-      if (!toRemove.contains(reverseDep)) {
+      if (!toRemove.remove(reverseDep)) {
         newReverseDeps.add(reverseDep);
       }
     }
-    Preconditions.checkState(newReverseDeps.size() == reverseDepsAsList.size() - expectedRemovals,
+    if (!toRemove.isEmpty()) {
+      // A parent that was removed more often than it was added has removed itself twice. Only
+      // computed on failure, since it needs a set of the list.
+      ImmutableSet<SkyKey> present = ImmutableSet.copyOf(reverseDepsAsList);
+      for (SkyKey reverseDep : toRemove.elementSet()) {
+        Preconditions.checkState(!present.contains(reverseDep),
+            "A reverse dependency tried to remove itself twice: %s. %s", reverseDep, container);
+      }
+    }
+    Preconditions.checkState(toRemove.isEmpty(),
         "Could not remove some elements from %s.\nReverse deps to remove: %s. %s", reverseDeps,
         toRemove, container);
 
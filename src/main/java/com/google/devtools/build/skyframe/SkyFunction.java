@@ -14,6 +14,7 @@
 package com.google.devtools.build.skyframe;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
 import com.google.devtools.build.lib.events.EventHandler;
 
 import java.util.Map;
@@ -58,6 +59,16 @@ public interface SkyFunction {
   @Nullable
   String extractTag(SkyKey skyKey);
 
+  /**
+   * Partial results of a {@link #compute} call that returned null because of missing deps, kept
+   * for the next call on the same node so that it does not redo the work. See
+   * {@link Environment#getState}.
+   *
+   * <p>Implementations are only ever accessed by the thread computing the node, and only until
+   * the node is done, so they need not be thread-safe.
+   */
+  interface ComputeState {}
+
   /**
    * The services provided to the value builder by the graph implementation.
    */
@@ -180,6 +191,18 @@ public interface SkyFunction {
      */
     EventHandler getListener();
 
+    /**
+     * Returns the state that an earlier call to {@link SkyFunction#compute} for this node stashed
+     * in this evaluation, before returning null for missing deps. If there is none, stores and
+     * returns {@code stateSupplier.get()}.
+     *
+     * <p>The state is discarded once the node is done, and when an evaluation is aborted, so it
+     * may only hold results computed from deps already requested from this environment. Callers
+     * must not assume the state survives: it is fresh on every call while bubbling errors, for
+     * example.
+     */
+    <T extends ComputeState> T getState(Supplier<T> stateSupplier);
+
     /** Returns whether we are currently in error bubbling. */
     @VisibleForTesting
     boolean inErrorBubblingForTesting();
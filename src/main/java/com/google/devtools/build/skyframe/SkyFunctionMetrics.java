@@ -0,0 +1,332 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of Skyframe evaluations, per {@link SkyFunctionName}, and change
+ * pruning outcomes per value class. Filled in by {@link ParallelEvaluator}; accumulates over
+ * evaluations until {@link #getAndReset} and {@link #getAndResetPruning} are called, typically once
+ * per command.
+ *
+ * <p>Recording costs a few atomic increments and two {@link System#nanoTime} calls per node
+ * visit, so it can stay enabled in production.
+ */
+@ThreadSafe
+public final class SkyFunctionMetrics {
+
+  /** A histogram of durations, with one bucket per power of two nanoseconds. */
+  @ThreadSafe
+  public static final class Histogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void add(long nanos) {
+      nanos = Math.max(0, nanos);
+      // Bucket i holds durations in [2^i, 2^(i+1)). Zero goes in bucket 0.
+      buckets.incrementAndGet(nanos == 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos));
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max;
+      do {
+        max = maxNanos.get();
+      } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    /**
+     * Returns an upper bound on the given percentile, between 0 and 100, of the recorded
+     * durations. The bound is within a factor of two of the real value.
+     */
+    public long getPercentileNanos(double percentile) {
+      long total = count.get();
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) {
+          return Math.min((2L << i) - 1, maxNanos.get());
+        }
+      }
+      return maxNanos.get();
+    }
+  }
+
+  /** The metrics of one function. */
+  @ThreadSafe
+  public static final class FunctionMetrics {
+    private final AtomicLong evaluations = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+    private final AtomicLong rebuiltUnchanged = new AtomicLong();
+    private final AtomicLong verifiedClean = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Histogram computeTime = new Histogram();
+    private final Histogram queueTime = new Histogram();
+
+    /** Number of calls to {@link SkyFunction#compute}, including restarts. */
+    public long getEvaluations() {
+      return evaluations.get();
+    }
+
+    /**
+     * Number of calls to {@link SkyFunction#compute} that returned null and requested new deps,
+     * so that the node has to be computed again once those are done.
+     */
+    public long getRestarts() {
+      return restarts.get();
+    }
+
+    /** Number of nodes built to a new value. */
+    public long getChanged() {
+      return changed.get();
+    }
+
+    /** Number of dirty nodes rebuilt to a value equal to the old one, which prunes their parents. */
+    public long getRebuiltUnchanged() {
+      return rebuiltUnchanged.get();
+    }
+
+    /** Number of dirty nodes found clean by checking their deps, without being rebuilt. */
+    public long getVerifiedClean() {
+      return verifiedClean.get();
+    }
+
+    /** Number of nodes committed in error. */
+    public long getErrors() {
+      return errors.get();
+    }
+
+    /** Time spent in {@link SkyFunction#compute}, per call. */
+    public Histogram getComputeTime() {
+      return computeTime;
+    }
+
+    /** Time from enqueueing a node for evaluation to a thread starting on it, per visit. */
+    public Histogram getQueueTime() {
+      return queueTime;
+    }
+  }
+
+  /**
+   * How often rebuilding dirty nodes with values of one class produced a value with the same
+   * content as before, so that their parents did not have to be rebuilt.
+   */
+  @ThreadSafe
+  public static final class PruningMetrics {
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+
+    /** Number of dirty nodes rebuilt to a value of this class. */
+    public long getRebuilds() {
+      return rebuilds.get();
+    }
+
+    /** Number of those that kept their old value, so that their parents were not rebuilt. */
+    public long getPruned() {
+      return pruned.get();
+    }
+  }
+
+  private volatile ConcurrentMap<SkyFunctionName, FunctionMetrics> metrics =
+      new ConcurrentHashMap<>();
+  private volatile ConcurrentMap<Class<?>, PruningMetrics> pruning = new ConcurrentHashMap<>();
+
+  FunctionMetrics forFunction(SkyFunctionName functionName) {
+    ConcurrentMap<SkyFunctionName, FunctionMetrics> current = metrics;
+    FunctionMetrics result = current.get(functionName);
+    if (result == null) {
+      FunctionMetrics newMetrics = new FunctionMetrics();
+      result = current.putIfAbsent(functionName, newMetrics);
+      if (result == null) {
+        result = newMetrics;
+      }
+    }
+    return result;
+  }
+
+  void recordQueueTime(SkyFunctionName functionName, long nanos) {
+    forFunction(functionName).queueTime.add(nanos);
+  }
+
+  void recordCompute(SkyFunctionName functionName, long nanos) {
+    FunctionMetrics functionMetrics = forFunction(functionName);
+    functionMetrics.evaluations.incrementAndGet();
+    functionMetrics.computeTime.add(nanos);
+  }
+
+  void recordRestart(SkyFunctionName functionName) {
+    forFunction(functionName).restarts.incrementAndGet();
+  }
+
+  void recordBuilt(SkyFunctionName functionName, boolean changed, boolean error) {
+    FunctionMetrics functionMetrics = forFunction(functionName);
+    if (error) {
+      functionMetrics.errors.incrementAndGet();
+    }
+    (changed ? functionMetrics.changed : functionMetrics.rebuiltUnchanged).incrementAndGet();
+  }
+
+  void recordVerifiedClean(SkyFunctionName functionName) {
+    forFunction(functionName).verifiedClean.incrementAndGet();
+  }
+
+  /** Records the outcome of change pruning for a dirty node rebuilt to {@code value}. */
+  void recordDirtyRebuild(SkyValue value, boolean pruned) {
+    ConcurrentMap<Class<?>, PruningMetrics> current = pruning;
+    PruningMetrics valueMetrics = current.get(value.getClass());
+    if (valueMetrics == null) {
+      PruningMetrics newMetrics = new PruningMetrics();
+      valueMetrics = current.putIfAbsent(value.getClass(), newMetrics);
+      if (valueMetrics == null) {
+        valueMetrics = newMetrics;
+      }
+    }
+    valueMetrics.rebuilds.incrementAndGet();
+    if (pruned) {
+      valueMetrics.pruned.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the metrics collected since the last call and starts collecting anew. Metrics recorded
+   * concurrently with this call may be lost.
+   */
+  public ImmutableMap<SkyFunctionName, FunctionMetrics> getAndReset() {
+    Map<SkyFunctionName, FunctionMetrics> result = metrics;
+    metrics = new ConcurrentHashMap<>();
+    return ImmutableMap.copyOf(result);
+  }
+
+  /**
+   * Returns the change pruning metrics collected since the last call, per value class, and starts
+   * collecting anew.
+   */
+  public ImmutableMap<Class<?>, PruningMetrics> getAndResetPruning() {
+    Map<Class<?>, PruningMetrics> result = pruning;
+    pruning = new ConcurrentHashMap<>();
+    return ImmutableMap.copyOf(result);
+  }
+
+  /**
+   * Formats {@code pruning} as a table, one value class per line, the classes whose rebuilds most
+   * often changed the value, and so rebuilt the parents, first. The last two columns tell whether
+   * the class overrides {@code equals} and implements {@link ContentFingerprintedValue}: a class
+   * with neither can never be pruned.
+   */
+  public static String formatPruningTable(Map<Class<?>, PruningMetrics> pruning) {
+    List<Map.Entry<Class<?>, PruningMetrics>> entries = new ArrayList<>(pruning.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<Class<?>, PruningMetrics>>() {
+      @Override
+      public int compare(Map.Entry<Class<?>, PruningMetrics> a,
+          Map.Entry<Class<?>, PruningMetrics> b) {
+        return Long.compare(b.getValue().getRebuilds() - b.getValue().getPruned(),
+            a.getValue().getRebuilds() - a.getValue().getPruned());
+      }
+    });
+    StringBuilder table = new StringBuilder(String.format("%-40s %9s %9s %8s %7s %12s%n",
+        "value_class", "rebuilds", "pruned", "pruned%", "equals", "fingerprint"));
+    for (Map.Entry<Class<?>, PruningMetrics> entry : entries) {
+      Class<?> valueClass = entry.getKey();
+      PruningMetrics m = entry.getValue();
+      table.append(String.format("%-40s %9d %9d %7d%% %7s %12s%n",
+          valueClass.getSimpleName().isEmpty() ? valueClass.getName() : valueClass.getSimpleName(),
+          m.getRebuilds(), m.getPruned(),
+          m.getPruned() * 100 / Math.max(1, m.getRebuilds()),
+          overridesEquals(valueClass) ? "yes" : "no",
+          ContentFingerprintedValue.class.isAssignableFrom(valueClass) ? "yes" : "no"));
+    }
+    return table.toString();
+  }
+
+  private static boolean overridesEquals(Class<?> valueClass) {
+    try {
+      return valueClass.getMethod("equals", Object.class).getDeclaringClass() != Object.class;
+    } catch (NoSuchMethodException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Formats {@code metrics} as a table, one function per line, functions with the most time in
+   * {@link SkyFunction#compute} first.
+   */
+  public static String formatTable(Map<SkyFunctionName, FunctionMetrics> metrics) {
+    StringBuilder table = new StringBuilder(String.format(
+        "%-28s %9s %9s %9s %9s %9s %10s %9s %9s %10s %9s%n",
+        "function", "evals", "restarts", "changed", "unchanged", "clean",
+        "compute_ms", "p50_us", "p99_us", "queue_ms", "q_p99_us"));
+    for (Map.Entry<SkyFunctionName, FunctionMetrics> entry : byComputeTime(metrics)) {
+      table.append(format(entry.getKey(), entry.getValue())).append(String.format("%n"));
+    }
+    return table.toString();
+  }
+
+  /** Formats the metrics of one function as a line of the table of {@link #formatTable}. */
+  public static String format(SkyFunctionName functionName, FunctionMetrics m) {
+    return String.format("%-28s %9d %9d %9d %9d %9d %10d %9d %9d %10d %9d",
+        functionName, m.getEvaluations(), m.getRestarts(), m.getChanged(),
+        m.getRebuiltUnchanged(), m.getVerifiedClean(),
+        TimeUnit.NANOSECONDS.toMillis(m.computeTime.getTotalNanos()),
+        TimeUnit.NANOSECONDS.toMicros(m.computeTime.getPercentileNanos(50)),
+        TimeUnit.NANOSECONDS.toMicros(m.computeTime.getPercentileNanos(99)),
+        TimeUnit.NANOSECONDS.toMillis(m.queueTime.getTotalNanos()),
+        TimeUnit.NANOSECONDS.toMicros(m.queueTime.getPercentileNanos(99)));
+  }
+
+  /** Returns the entries of {@code metrics}, most time in compute first. */
+  public static List<Map.Entry<SkyFunctionName, FunctionMetrics>> byComputeTime(
+      Map<SkyFunctionName, FunctionMetrics> metrics) {
+    List<Map.Entry<SkyFunctionName, FunctionMetrics>> entries =
+        new ArrayList<>(metrics.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<SkyFunctionName, FunctionMetrics>>() {
+      @Override
+      public int compare(Map.Entry<SkyFunctionName, FunctionMetrics> a,
+          Map.Entry<SkyFunctionName, FunctionMetrics> b) {
+        return Long.compare(b.getValue().computeTime.getTotalNanos(),
+            a.getValue().computeTime.getTotalNanos());
+      }
+    });
+    return entries;
+  }
+}
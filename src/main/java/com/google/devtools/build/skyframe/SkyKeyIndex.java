@@ -0,0 +1,153 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each {@link SkyKey} a dense, non-negative int id, so that graph edges can be stored as
+ * ints rather than object references. An index never reuses or releases ids: a key keeps its id for
+ * the lifetime of the index, even if its node is deleted from the graph and later recreated. To
+ * let go of the keys of deleted nodes, {@link CompactInMemoryGraph} replaces its index with a new
+ * one holding only the keys still referenced from the graph.
+ *
+ * <p>The id-to-key table is segmented. Growing it allocates one new fixed-size segment and copies
+ * only the small top-level array of segments, never the keys themselves.
+ *
+ * <p>The key-to-id direction is an open-addressing hash table of ids, so that it costs a few ints
+ * per key rather than a map entry and a boxed {@link Integer}. Lookups do not lock. Only assigning
+ * a new id takes the monitor, which happens once per key.
+ */
+@ThreadSafe
+final class SkyKeyIndex {
+  private static final int NO_ID = -1;
+  private static final int SEGMENT_SHIFT = 14;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  /**
+   * Segments of the id-to-key table. The top-level array is copied, never mutated, when a segment
+   * is added, so that a volatile read of it is enough to see every segment it holds.
+   */
+  private volatile SkyKey[][] segments = new SkyKey[][] {new SkyKey[SEGMENT_SIZE]};
+
+  /**
+   * Linear-probing hash table from key to id. Each slot holds an id plus one, or zero if the slot
+   * is empty. Kept at most half full. Replaced, not mutated, when it grows.
+   */
+  private volatile int[] slots = new int[1024];
+
+  /** Number of ids assigned so far. Only written with the monitor held. */
+  private volatile int size = 0;
+
+  /** Returns the id of {@code key}, assigning it a new one if it has none yet. */
+  int intern(SkyKey key) {
+    int id = find(slots, key);
+    return id == NO_ID ? internSlowly(key) : id;
+  }
+
+  /** Returns the key with the given id, which must have been returned by {@link #intern}. */
+  SkyKey getKey(int id) {
+    SkyKey key = segments[id >>> SEGMENT_SHIFT][id & SEGMENT_MASK];
+    Preconditions.checkState(key != null, "Unknown key id %s", id);
+    return key;
+  }
+
+  /** Returns the number of ids assigned so far. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of {@code key} in {@code table}, or {@link #NO_ID} if it is not there. Without
+   * the monitor, a key whose id is being assigned concurrently may not be found yet; callers then
+   * retry with the monitor held.
+   */
+  private int find(int[] table, SkyKey key) {
+    int mask = table.length - 1;
+    for (int i = spread(key.hashCode()) & mask; ; i = (i + 1) & mask) {
+      int slot = table[i];
+      if (slot == 0) {
+        return NO_ID;
+      }
+      SkyKey candidate = keyOrNull(slot - 1);
+      if (candidate == null) {
+        return NO_ID;
+      }
+      if (candidate.equals(key)) {
+        return slot - 1;
+      }
+    }
+  }
+
+  private synchronized int internSlowly(SkyKey key) {
+    int[] table = slots;
+    int id = find(table, key);
+    if (id != NO_ID) {
+      return id;
+    }
+    id = size;
+    // The key must be readable by id before the id is readable through the hash table.
+    segmentFor(id)[id & SEGMENT_MASK] = key;
+    if (2 * (id + 1) > table.length) {
+      table = new int[table.length * 2];
+      for (int i = 0; i < id; i++) {
+        insert(table, getKey(i), i);
+      }
+      insert(table, key, id);
+      slots = table;
+    } else {
+      insert(table, key, id);
+    }
+    size = id + 1;
+    return id;
+  }
+
+  private static void insert(int[] table, SkyKey key, int id) {
+    int mask = table.length - 1;
+    int i = spread(key.hashCode()) & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = id + 1;
+  }
+
+  private SkyKey keyOrNull(int id) {
+    SkyKey[][] current = segments;
+    int segment = id >>> SEGMENT_SHIFT;
+    return segment < current.length ? current[segment][id & SEGMENT_MASK] : null;
+  }
+
+  private SkyKey[] segmentFor(int id) {
+    int segment = id >>> SEGMENT_SHIFT;
+    SkyKey[][] current = segments;
+    if (segment >= current.length) {
+      SkyKey[][] grown = Arrays.copyOf(current, segment + 1);
+      for (int i = current.length; i < grown.length; i++) {
+        grown[i] = new SkyKey[SEGMENT_SIZE];
+      }
+      segments = grown;
+      current = grown;
+    }
+    return current[segment];
+  }
+
+  /** Spreads the low-entropy bits of a hash code, as {@link java.util.HashMap} does. */
+  private static int spread(int hashCode) {
+    return hashCode ^ (hashCode >>> 16);
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads the key arguments and values of the nodes of one {@link SkyFunctionName}, so
+ * that those nodes can be saved in a {@link GraphSnapshot}.
+ *
+ * <p>Implementations must be thread-compatible; a snapshot uses each codec from one thread only.
+ */
+public interface SkyValueCodec {
+
+  /** Writes {@link SkyKey#argument} of a key of this codec's function. */
+  void writeArgument(Object argument, DataOutput out) throws IOException;
+
+  /** Reads back an argument written by {@link #writeArgument}. */
+  Object readArgument(DataInput in) throws IOException;
+
+  /** Writes the value of a done, error-free node of this codec's function. */
+  void writeValue(SkyValue value, DataOutput out) throws IOException;
+
+  /** Reads back a value written by {@link #writeValue}. */
+  SkyValue readValue(DataInput in) throws IOException;
+}
@@ -0,0 +1,445 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.skyframe.ValueOrExceptionUtils.BottomException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * Bounds the heap used by an {@link InMemoryGraph} by evicting the values of nodes whose functions
+ * are cheap to recompute. An evicted node keeps its edges and version, so it is invalidated and
+ * change-pruned exactly like any other node. Only its value is dropped, and the next read of the
+ * value recomputes it by running the node's {@link SkyFunction} against its unchanged deps.
+ *
+ * <p>Eviction runs between evaluations, when the used heap exceeds a budget. It evicts the least
+ * recently used evictable nodes first. A node counts as used when it is built, re-validated, or
+ * recomputed. The number of nodes evicted is the fraction of tracked nodes equal to the fraction
+ * of the used heap that is over budget.
+ *
+ * <p>Only nodes of functions that are deterministic given their deps may be made evictable. A
+ * recomputation that asks for a dep the node did not have, or that fails, is a bug in the
+ * function and throws {@link IllegalStateException}. Nodes without deps, whose values come from
+ * outside the graph, are never evicted. Neither are nodes whose values carry errors or events, or
+ * that have a dep in error, since recomputing them would not reproduce those. Only values with a
+ * {@link ContentFingerprintedValue#getContentFingerprint content fingerprint} are evicted, since
+ * the fingerprint is what a dirty node compares its new value with in place of the evicted one.
+ */
+@ThreadSafe
+public final class ValueEvictor {
+
+  /** Eviction statistics of one function. */
+  @ThreadSafe
+  public static final class FunctionStats {
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong recomputations = new AtomicLong();
+    private final AtomicLong recomputeNanos = new AtomicLong();
+
+    /** Number of values of this function that were evicted. */
+    public long getEvictions() {
+      return evictions.get();
+    }
+
+    /** Number of evicted values of this function that were read again and recomputed. */
+    public long getRecomputations() {
+      return recomputations.get();
+    }
+
+    /** Total wall time spent recomputing evicted values of this function. */
+    public long getRecomputeNanos() {
+      return recomputeNanos.get();
+    }
+  }
+
+  private final InMemoryGraph graph;
+  private final ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions;
+  private final ImmutableSet<SkyFunctionName> evictableFunctions;
+  private final long heapBudgetBytes;
+  private final ImmutableMap<SkyFunctionName, FunctionStats> stats;
+
+  /**
+   * Evaluation in which each resident evictable node was last used. Evicted nodes are removed,
+   * and added back when recomputed.
+   */
+  private final ConcurrentMap<SkyKey, Long> lastUsed = new ConcurrentHashMap<>();
+  private volatile long currentEvaluation = 0;
+
+  ValueEvictor(InMemoryGraph graph,
+      ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      Set<SkyFunctionName> evictableFunctions, long heapBudgetBytes) {
+    Preconditions.checkArgument(graph.keepsEdges(), "Evicted values are recomputed from edges");
+    Preconditions.checkArgument(heapBudgetBytes >= 0, heapBudgetBytes);
+    this.graph = graph;
+    this.skyFunctions = skyFunctions;
+    this.evictableFunctions = ImmutableSet.copyOf(evictableFunctions);
+    this.heapBudgetBytes = heapBudgetBytes;
+    ImmutableMap.Builder<SkyFunctionName, FunctionStats> statsBuilder = ImmutableMap.builder();
+    for (SkyFunctionName functionName : this.evictableFunctions) {
+      Preconditions.checkArgument(skyFunctions.containsKey(functionName), functionName);
+      statsBuilder.put(functionName, new FunctionStats());
+    }
+    this.stats = statsBuilder.build();
+  }
+
+  /** Returns eviction statistics for each evictable function. */
+  public ImmutableMap<SkyFunctionName, FunctionStats> getStats() {
+    return stats;
+  }
+
+  /**
+   * Returns a receiver that forwards to {@code delegate}, if not null, and records the nodes
+   * evaluated in {@code evaluation} as used.
+   */
+  EvaluationProgressReceiver trackUsage(@Nullable final EvaluationProgressReceiver delegate,
+      long evaluation) {
+    currentEvaluation = evaluation;
+    return new EvaluationProgressReceiver() {
+      @Override
+      public void invalidated(SkyValue value, InvalidationState state) {
+        if (delegate != null) {
+          delegate.invalidated(value, state);
+        }
+      }
+
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {
+        if (delegate != null) {
+          delegate.invalidationFinished(state, nodeCount, elapsedNanos);
+        }
+      }
+
+      @Override
+      public void enqueueing(SkyKey skyKey) {
+        if (delegate != null) {
+          delegate.enqueueing(skyKey);
+        }
+      }
+
+      @Override
+      public void evaluated(SkyKey skyKey, @Nullable SkyValue value, EvaluationState state) {
+        markUsed(skyKey);
+        if (delegate != null) {
+          delegate.evaluated(skyKey, value, state);
+        }
+      }
+    };
+  }
+
+  private void markUsed(SkyKey key) {
+    if (evictableFunctions.contains(key.functionName())) {
+      lastUsed.put(key, currentEvaluation);
+    }
+  }
+
+  /**
+   * Evicts values if the used heap is over budget. Must not be called during an evaluation or
+   * invalidation. Returns the number of values evicted.
+   */
+  int maybeEvict() {
+    Runtime runtime = Runtime.getRuntime();
+    long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+    if (usedHeap <= heapBudgetBytes || lastUsed.isEmpty()) {
+      return 0;
+    }
+    long startTime = Profiler.nanoTimeMaybe();
+    List<Map.Entry<SkyKey, Long>> candidates = new ArrayList<>(lastUsed.entrySet());
+    Collections.sort(candidates, new Comparator<Map.Entry<SkyKey, Long>>() {
+      @Override
+      public int compare(Map.Entry<SkyKey, Long> a, Map.Entry<SkyKey, Long> b) {
+        return Long.compare(a.getValue(), b.getValue());
+      }
+    });
+    long toEvict = (long) Math.ceil(
+        candidates.size() * ((double) (usedHeap - heapBudgetBytes) / usedHeap));
+    Map<SkyFunctionName, Integer> evictedByFunction = new HashMap<>();
+    int evicted = 0;
+    for (int i = 0; i < candidates.size() && evicted < toEvict; i++) {
+      SkyKey key = candidates.get(i).getKey();
+      NodeEntry entry = graph.get(key);
+      if (!(entry instanceof InMemoryNodeEntry) || !entry.isDone()) {
+        // Deleted, or dirty and waiting to be rebuilt. A dirty node is tracked again once built.
+        lastUsed.remove(key);
+        continue;
+      }
+      if (!isReconstructible(entry) || !((InMemoryNodeEntry) entry).evictValue(key, this)) {
+        continue;
+      }
+      lastUsed.remove(key);
+      stats.get(key.functionName()).evictions.incrementAndGet();
+      Integer count = evictedByFunction.get(key.functionName());
+      evictedByFunction.put(key.functionName(), count == null ? 1 : count + 1);
+      evicted++;
+    }
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.SKYFRAME_EVICTION,
+        evictedByFunction);
+    return evicted;
+  }
+
+  /**
+   * Returns the value of the done node {@code entry}, or null if it is evicted. Unlike {@link
+   * NodeEntry#getValue}, never recomputes the value.
+   */
+  @Nullable
+  static SkyValue getResidentValue(NodeEntry entry) {
+    return entry instanceof InMemoryNodeEntry && ((InMemoryNodeEntry) entry).isEvicted()
+        ? null
+        : entry.getValue();
+  }
+
+  /**
+   * Whether the value of the done node {@code entry} can be recomputed from its deps alone. A node
+   * without deps was computed from the outside world or injected, and a node with a dep in error
+   * saw an exception that recomputing would not reproduce.
+   */
+  private boolean isReconstructible(NodeEntry entry) {
+    Iterable<SkyKey> deps = entry.getDirectDeps();
+    if (Iterables.isEmpty(deps)) {
+      return false;
+    }
+    for (SkyKey dep : deps) {
+      if (graph.get(dep).getErrorInfo() != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Recomputes the evicted value of {@code key}, whose direct deps are {@code deps}. */
+  private SkyValue recompute(SkyKey key, Set<SkyKey> deps) {
+    FunctionStats functionStats = stats.get(key.functionName());
+    long startTime = System.nanoTime();
+    Profiler.instance().startTask(ProfilerTask.SKYFUNCTION_RECOMPUTE, key);
+    try {
+      RecomputeEnvironment env = new RecomputeEnvironment(key, deps);
+      SkyValue value;
+      try {
+        value = skyFunctions.get(key.functionName()).compute(key, env);
+      } catch (SkyFunctionException e) {
+        throw new IllegalStateException("Recomputing evicted " + key + " failed", e);
+      } catch (InterruptedException e) {
+        // Reads of node values cannot be interrupted. Leave the interrupt for the caller to see.
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted recomputing evicted " + key, e);
+      }
+      Preconditions.checkState(value != null && !env.valuesMissing(),
+          "Recomputing evicted %s did not produce a value", key);
+      markUsed(key);
+      return value;
+    } finally {
+      Profiler.instance().completeTask(ProfilerTask.SKYFUNCTION_RECOMPUTE);
+      functionStats.recomputations.incrementAndGet();
+      functionStats.recomputeNanos.addAndGet(System.nanoTime() - startTime);
+    }
+  }
+
+  /**
+   * Placeholder for an evicted value. Held by the {@link InMemoryNodeEntry} in place of the value,
+   * it costs the value's class and content fingerprint instead of the value's retained size. The
+   * fingerprint lets a dirty node whose old value was evicted still be change-pruned.
+   */
+  static final class EvictedValue implements SkyValue {
+    private static final long serialVersionUID = 1L;
+
+    private final SkyKey key;
+    private final ValueEvictor evictor;
+    private final Class<? extends SkyValue> valueClass;
+    private final byte[] contentFingerprint;
+
+    EvictedValue(SkyKey key, ValueEvictor evictor, Class<? extends SkyValue> valueClass,
+        byte[] contentFingerprint) {
+      this.key = key;
+      this.evictor = evictor;
+      this.valueClass = valueClass;
+      this.contentFingerprint = Preconditions.checkNotNull(contentFingerprint);
+    }
+
+    SkyValue recompute(Set<SkyKey> deps) {
+      return evictor.recompute(key, deps);
+    }
+
+    /**
+     * Whether {@code newValue} has the same content as the evicted value, as defined by {@link
+     * ValueWithMetadata#sameContent}.
+     */
+    boolean sameContent(SkyValue newValue) {
+      return newValue.getClass() == valueClass
+          && Arrays.equals(contentFingerprint,
+              ((ContentFingerprintedValue) newValue).getContentFingerprint());
+    }
+
+    @Override
+    public String toString() {
+      return "evicted value of " + key;
+    }
+  }
+
+  /**
+   * Serves the values of a node's recorded deps, all of which are done and error-free, to its
+   * function. Asking for any other key means the function is not deterministic given its deps.
+   */
+  private class RecomputeEnvironment implements SkyFunction.Environment {
+    private final SkyKey key;
+    private final Set<SkyKey> deps;
+
+    private RecomputeEnvironment(SkyKey key, Set<SkyKey> deps) {
+      this.key = key;
+      this.deps = deps;
+    }
+
+    @Override
+    public SkyValue getValue(SkyKey depKey) {
+      Preconditions.checkState(deps.contains(depKey),
+          "Recomputing evicted %s requested %s, which it did not depend on", key, depKey);
+      NodeEntry entry = graph.get(depKey);
+      Preconditions.checkState(entry != null && entry.isDone(), "%s %s", key, depKey);
+      return entry.getValue();
+    }
+
+    @Override
+    public <E extends Exception> SkyValue getValueOrThrow(SkyKey depKey,
+        Class<E> exceptionClass) {
+      return getValue(depKey);
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception> SkyValue getValueOrThrow(SkyKey depKey,
+        Class<E1> exceptionClass1, Class<E2> exceptionClass2) {
+      return getValue(depKey);
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception, E3 extends Exception> SkyValue
+        getValueOrThrow(SkyKey depKey, Class<E1> exceptionClass1, Class<E2> exceptionClass2,
+        Class<E3> exceptionClass3) {
+      return getValue(depKey);
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception, E3 extends Exception,
+        E4 extends Exception> SkyValue getValueOrThrow(SkyKey depKey, Class<E1> exceptionClass1,
+        Class<E2> exceptionClass2, Class<E3> exceptionClass3, Class<E4> exceptionClass4) {
+      return getValue(depKey);
+    }
+
+    @Override
+    public boolean valuesMissing() {
+      return false;
+    }
+
+    @Override
+    public Map<SkyKey, SkyValue> getValues(Iterable<SkyKey> depKeys) {
+      Map<SkyKey, SkyValue> result = Maps.newLinkedHashMap();
+      for (SkyKey depKey : depKeys) {
+        result.put(depKey, getValue(depKey));
+      }
+      return result;
+    }
+
+    @Override
+    public <E extends Exception> Map<SkyKey, ValueOrException<E>> getValuesOrThrow(
+        Iterable<SkyKey> depKeys, Class<E> exceptionClass) {
+      Map<SkyKey, ValueOrException<E>> result = Maps.newLinkedHashMap();
+      for (SkyKey depKey : depKeys) {
+        result.put(depKey, ValueOrExceptionUtils.downcovert(ValueOrExceptionUtils.downconvert(
+            ValueOrExceptionUtils.downconvert(
+                ValueOrExceptionUtils.<E, BottomException, BottomException, BottomException>ofValue(
+                    getValue(depKey)),
+                exceptionClass, BottomException.class, BottomException.class),
+            exceptionClass, BottomException.class), exceptionClass));
+      }
+      return result;
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception> Map<SkyKey, ValueOrException2<E1, E2>>
+        getValuesOrThrow(Iterable<SkyKey> depKeys, Class<E1> exceptionClass1,
+        Class<E2> exceptionClass2) {
+      Map<SkyKey, ValueOrException2<E1, E2>> result = Maps.newLinkedHashMap();
+      for (SkyKey depKey : depKeys) {
+        result.put(depKey, ValueOrExceptionUtils.downconvert(ValueOrExceptionUtils.downconvert(
+            ValueOrExceptionUtils.<E1, E2, BottomException, BottomException>ofValue(
+                getValue(depKey)),
+            exceptionClass1, exceptionClass2, BottomException.class),
+            exceptionClass1, exceptionClass2));
+      }
+      return result;
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception, E3 extends Exception>
+        Map<SkyKey, ValueOrException3<E1, E2, E3>> getValuesOrThrow(Iterable<SkyKey> depKeys,
+        Class<E1> exceptionClass1, Class<E2> exceptionClass2, Class<E3> exceptionClass3) {
+      Map<SkyKey, ValueOrException3<E1, E2, E3>> result = Maps.newLinkedHashMap();
+      for (SkyKey depKey : depKeys) {
+        result.put(depKey, ValueOrExceptionUtils.downconvert(
+            ValueOrExceptionUtils.<E1, E2, E3, BottomException>ofValue(getValue(depKey)),
+            exceptionClass1, exceptionClass2, exceptionClass3));
+      }
+      return result;
+    }
+
+    @Override
+    public <E1 extends Exception, E2 extends Exception, E3 extends Exception,
+        E4 extends Exception> Map<SkyKey, ValueOrException4<E1, E2, E3, E4>> getValuesOrThrow(
+        Iterable<SkyKey> depKeys, Class<E1> exceptionClass1, Class<E2> exceptionClass2,
+        Class<E3> exceptionClass3, Class<E4> exceptionClass4) {
+      Map<SkyKey, ValueOrException4<E1, E2, E3, E4>> result = Maps.newLinkedHashMap();
+      for (SkyKey depKey : depKeys) {
+        result.put(depKey, ValueOrExceptionUtils.<E1, E2, E3, E4>ofValue(getValue(depKey)));
+      }
+      return result;
+    }
+
+    @Override
+    public EventHandler getListener() {
+      // Events were replayed when the value was first built.
+      return NullEventHandler.INSTANCE;
+    }
+
+    @Override
+    public <T extends SkyFunction.ComputeState> T getState(Supplier<T> stateSupplier) {
+      // All deps are done, so there are no restarts to keep the state for.
+      return stateSupplier.get();
+    }
+
+    @Override
+    public boolean inErrorBubblingForTesting() {
+      return false;
+    }
+  }
+}
@@ -17,6 +17,7 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.Order;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 import javax.annotation.Nullable;
@@ -186,6 +187,42 @@ public abstract class ValueWithMetadata implements SkyValue {
     }
   }
 
+  /**
+   * Returns whether {@code newValue}, written to a node entry, is the same as {@code oldValue}
+   * for all nodes that depend on it: either they are equal, or they carry the same events and
+   * their values have the same {@link ContentFingerprintedValue#getContentFingerprint}. Values
+   * with errors are only compared with {@code equals}. An evicted old value is compared by the
+   * fingerprint it was evicted with.
+   */
+  static boolean sameContent(SkyValue oldValue, SkyValue newValue) {
+    if (oldValue.equals(newValue)) {
+      return true;
+    }
+    if (oldValue instanceof ValueEvictor.EvictedValue) {
+      return ((ValueEvictor.EvictedValue) oldValue).sameContent(newValue);
+    }
+    if (oldValue.getClass() != newValue.getClass() || oldValue instanceof ErrorInfoValue) {
+      return false;
+    }
+    if (oldValue instanceof ValueWithEvents) {
+      if (!((ValueWithEvents) oldValue).getTransitiveEvents().shallowEquals(
+          ((ValueWithEvents) newValue).getTransitiveEvents())) {
+        return false;
+      }
+      oldValue = ((ValueWithEvents) oldValue).value;
+      newValue = ((ValueWithEvents) newValue).value;
+      if (oldValue.getClass() != newValue.getClass()) {
+        return false;
+      }
+    }
+    if (!(oldValue instanceof ContentFingerprintedValue)) {
+      return false;
+    }
+    byte[] oldFingerprint = ((ContentFingerprintedValue) oldValue).getContentFingerprint();
+    return oldFingerprint != null && Arrays.equals(oldFingerprint,
+        ((ContentFingerprintedValue) newValue).getContentFingerprint());
+  }
+
   public static SkyValue justValue(SkyValue value) {
     if (value instanceof ValueWithMetadata) {
       return ((ValueWithMetadata) value).getValue();
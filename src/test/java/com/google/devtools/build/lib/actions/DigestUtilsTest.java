@@ -120,6 +120,16 @@ public class DigestUtilsTest {
     assertMd5CalculationConcurrency(true, false, 1024, 1024);
   }
 
+  @Test
+  public void testMd5CalculationConcurrencyIsConfigurable() throws Exception {
+    DigestUtils.configure(2, null);
+    try {
+      assertMd5CalculationConcurrency(true, false, 4097, 4097);
+    } finally {
+      DigestUtils.configure(1, null);
+    }
+  }
+
   @Test
   public void testRecoverFromMalformedDigest() throws Exception {
     final byte[] malformed = {0, 0, 0};
@@ -0,0 +1,250 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.cache.Digest;
+import com.google.devtools.build.lib.actions.cache.Metadata;
+import com.google.devtools.build.lib.actions.cache.MetadataHandler;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Tests for {@link LocalOutputCache}. Two exec roots stand for two workspaces sharing the cache.
+ */
+@RunWith(JUnit4.class)
+public class LocalOutputCacheTest {
+
+  /** Leaves digests to the cache, as for files without metadata. */
+  private static final MetadataHandler NO_METADATA = new MetadataHandler() {
+    @Override
+    public Metadata getMetadataMaybe(Artifact artifact) {
+      return null;
+    }
+
+    @Override
+    public Metadata getMetadata(Artifact artifact) {
+      return null;
+    }
+
+    @Override
+    public void setDigestForVirtualArtifact(Artifact artifact, Digest digest) {}
+
+    @Override
+    public void injectDigest(ActionInput output, FileStatus statNoFollow, byte[] digest) {}
+
+    @Override
+    public void markOmitted(ActionInput output) {}
+
+    @Override
+    public boolean artifactExists(Artifact artifact) {
+      return artifact.getPath().exists();
+    }
+
+    @Override
+    public boolean isRegularFile(Artifact artifact) {
+      return artifact.getPath().isFile();
+    }
+
+    @Override
+    public boolean artifactOmitted(Artifact artifact) {
+      return false;
+    }
+
+    @Override
+    public boolean isInjected(Artifact artifact) {
+      return false;
+    }
+
+    @Override
+    public void discardMetadata(Collection<Artifact> artifactList) {}
+  };
+
+  private Path scratch;
+  private Path cacheRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    scratch = new InMemoryFileSystem().getPath("/scratch");
+    cacheRoot = scratch.getRelative("cache");
+  }
+
+  /** Returns an action that compiles in.cc into out/in.o in the given workspace. */
+  private Action createAction(String workspace, String input) throws IOException {
+    Path execRoot = scratch.getRelative(workspace);
+    Path source = execRoot.getRelative("in.cc");
+    FileSystemUtils.createDirectoryAndParents(execRoot.getRelative("out"));
+    FileSystemUtils.writeContent(source, UTF_8, input);
+    Artifact in = new Artifact(source, Root.asSourceRoot(execRoot));
+    Artifact out = new Artifact(execRoot.getRelative("out/in.o"),
+        Root.asDerivedRoot(execRoot, execRoot.getRelative("out")));
+    return new TestAction(TestAction.NO_EFFECT, ImmutableList.of(in), ImmutableList.of(out)) {
+      @Override
+      protected String computeKey() {
+        // Like real actions, and unlike TestAction, independent of the workspace location.
+        return "compile " + getPrimaryOutput().getExecPathString();
+      }
+    };
+  }
+
+  private static Path getOutput(Action action) {
+    return action.getPrimaryOutput().getPath();
+  }
+
+  @Test
+  public void restoresOutputsInOtherWorkspace() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action first = createAction("ws1", "int main() {}");
+    String key = cache.getKey(first, NO_METADATA);
+    assertNotNull(key);
+    assertFalse(cache.restore(key, first));
+    FileSystemUtils.writeContent(getOutput(first), UTF_8, "object code");
+    cache.store(key, first, NO_METADATA);
+
+    Action second = createAction("ws2", "int main() {}");
+    assertEquals(key, cache.getKey(second, NO_METADATA));
+    assertTrue(cache.restore(key, second));
+    assertEquals("object code",
+        new String(FileSystemUtils.readContent(getOutput(second)), UTF_8));
+  }
+
+  /** Makes the output read-only and executable, like the action executor does. */
+  private static void completeAction(Action action) throws IOException {
+    getOutput(action).setWritable(false);
+    getOutput(action).setExecutable(true);
+  }
+
+  private Path getBlob(String contents) throws IOException {
+    Path blob = null;
+    for (Path path : cacheRoot.getRelative("cas").getDirectoryEntries()) {
+      if (new String(FileSystemUtils.readContent(path), UTF_8).equals(contents)) {
+        blob = path;
+      }
+    }
+    assertNotNull(blob);
+    return blob;
+  }
+
+  @Test
+  public void outputsAreStoredInTheModeThatTheyAreRestoredIn() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action first = createAction("ws1", "int main() {}");
+    String key = cache.getKey(first, NO_METADATA);
+    FileSystemUtils.writeContent(getOutput(first), UTF_8, "object code");
+    cache.store(key, first, NO_METADATA);
+    Path blob = getBlob("object code");
+    assertFalse(blob.isWritable());
+    assertTrue(blob.isExecutable());
+
+    Action second = createAction("ws2", "int main() {}");
+    assertTrue(cache.restore(key, second));
+    completeAction(second);
+    assertFalse(blob.isWritable());
+    assertTrue(blob.isExecutable());
+  }
+
+  @Test
+  public void storedFileInAnotherModeIsCopied() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action first = createAction("ws1", "int main() {}");
+    String key = cache.getKey(first, NO_METADATA);
+    FileSystemUtils.writeContent(getOutput(first), UTF_8, "object code");
+    cache.store(key, first, NO_METADATA);
+    // As stored by an earlier version of the cache.
+    Path blob = getBlob("object code");
+    blob.setExecutable(false);
+
+    Action second = createAction("ws2", "int main() {}");
+    assertTrue(cache.restore(key, second));
+    completeAction(second);
+    assertFalse(blob.isExecutable());
+    assertEquals("object code",
+        new String(FileSystemUtils.readContent(getOutput(second)), UTF_8));
+  }
+
+  @Test
+  public void keyDependsOnInputContents() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action first = createAction("ws1", "int main() {}");
+    String key = cache.getKey(first, NO_METADATA);
+    FileSystemUtils.writeContent(getOutput(first), UTF_8, "object code");
+    cache.store(key, first, NO_METADATA);
+
+    Action second = createAction("ws2", "int main() { return 1; }");
+    String otherKey = cache.getKey(second, NO_METADATA);
+    assertNotEquals(key, otherKey);
+    assertFalse(cache.restore(otherKey, second));
+    assertFalse(getOutput(second).exists());
+  }
+
+  @Test
+  public void missingInputIsNotCached() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action action = createAction("ws1", "int main() {}");
+    action.getPrimaryInput().getPath().delete();
+    assertNull(cache.getKey(action, NO_METADATA));
+  }
+
+  @Test
+  public void outputThatIsNotAFileIsNotStored() throws Exception {
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 1 << 20);
+    Action action = createAction("ws1", "int main() {}");
+    String key = cache.getKey(action, NO_METADATA);
+    getOutput(action).createDirectory();
+    cache.store(key, action, NO_METADATA);
+    assertFalse(cache.restore(key, createAction("ws2", "int main() {}")));
+  }
+
+  @Test
+  public void garbageCollectionEvictsLeastRecentlyUsed() throws Exception {
+    // Room for one output of 10 bytes, but not two.
+    LocalOutputCache cache = new LocalOutputCache(cacheRoot, 15);
+    Action old = createAction("ws1", "old");
+    String oldKey = cache.getKey(old, NO_METADATA);
+    FileSystemUtils.writeContent(getOutput(old), UTF_8, "old object");
+    cache.store(oldKey, old, NO_METADATA);
+    cacheRoot.getRelative("ac").getChild(oldKey).setLastModifiedTime(1000L);
+
+    Action recent = createAction("ws2", "recent");
+    String recentKey = cache.getKey(recent, NO_METADATA);
+    FileSystemUtils.writeContent(getOutput(recent), UTF_8, "new object");
+    cache.store(recentKey, recent, NO_METADATA);
+
+    cache.collectGarbage();
+    getOutput(old).delete();
+    assertFalse(cache.restore(oldKey, old));
+    getOutput(recent).delete();
+    assertTrue(cache.restore(recentKey, recent));
+    assertEquals(1, cacheRoot.getRelative("ac").getDirectoryEntries().size());
+  }
+}
@@ -18,9 +18,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.actions.util.TestAction;
 import com.google.devtools.build.lib.testutil.TestThread;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -324,6 +330,109 @@ public class ResourceManagerTest {
   }
 
 
+  private TestAction createAction(Path execRoot, String output) {
+    Root root = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+    return new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(),
+        ImmutableList.of(new Artifact(root.getPath().getRelative(output), root)));
+  }
+
+  @Test
+  public void testPrioritizedAllocation() throws Exception {
+    assertFalse(rm.inUse());
+    Path execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/execroot");
+    final TestAction first = createAction(execRoot, "first");
+    final TestAction shortAction = createAction(execRoot, "short");
+    final TestAction longAction = createAction(execRoot, "long");
+    ActionDurationHistory history =
+        new ActionDurationHistory(execRoot.getRelative("action_cache"));
+    history.actionExecuted(first, TimeUnit.MILLISECONDS.toNanos(1));
+    history.actionExecuted(shortAction, TimeUnit.MILLISECONDS.toNanos(1));
+    history.actionExecuted(longAction, TimeUnit.MILLISECONDS.toNanos(1000));
+    history.save();
+    rm.setActionDurationHistory(history);
+
+    final ResourceSet half = ResourceSet.create(500, 0, 0, 0);
+    final ResourceSet large = ResourceSet.create(600, 0, 0, 0);
+    try {
+      TestThread shortThread = new TestThread() {
+        @Override public void runTest() throws Exception {
+          rm.acquireResources(shortAction, large);
+          validate(3);
+          rm.releaseResources(shortAction, large);
+        }
+      };
+      TestThread longThread = new TestThread() {
+        @Override public void runTest() throws Exception {
+          rm.acquireResources(longAction, large);
+          validate(2);
+          sync.await();
+          rm.releaseResources(longAction, large);
+        }
+      };
+      rm.acquireResources(first, half);
+      validate(1);
+      shortThread.start();
+      while (rm.getWaitCount() < 1) {
+        Thread.yield();
+      }
+      // The action on the longer path asks later, but goes first.
+      longThread.start();
+      while (rm.getWaitCount() < 2) {
+        Thread.yield();
+      }
+      rm.releaseResources(first, half);
+      sync.await(1, TimeUnit.SECONDS);
+      longThread.joinAndAssertState(1000);
+      shortThread.joinAndAssertState(1000);
+    } finally {
+      rm.setActionDurationHistory(null);
+    }
+    assertFalse(rm.inUse());
+  }
+
+  @Test
+  public void testPrioritizedAllocationHoldsBackSmallRequests() throws Exception {
+    assertFalse(rm.inUse());
+    Path execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/execroot");
+    rm.setActionDurationHistory(new ActionDurationHistory(execRoot.getRelative("action_cache")));
+    final TestAction action = createAction(execRoot, "out");
+    final ResourceSet half = ResourceSet.create(500, 0, 0, 0);
+    final ResourceSet large = ResourceSet.create(600, 0, 0, 0);
+    final ResourceSet small = ResourceSet.create(100, 0, 0, 0);
+    try {
+      TestThread largeThread = new TestThread() {
+        @Override public void runTest() throws Exception {
+          rm.acquireResources(action, large);
+          validate(2);
+          rm.releaseResources(action, large);
+        }
+      };
+      TestThread smallThread = new TestThread() {
+        @Override public void runTest() throws Exception {
+          rm.acquireResources(action, small);
+          rm.releaseResources(action, small);
+        }
+      };
+      rm.acquireResources(action, half);
+      largeThread.start();
+      while (rm.getWaitCount() < 1) {
+        Thread.yield();
+      }
+      // The small request would fit, but the resources are reserved for the large one.
+      smallThread.start();
+      while (rm.getWaitCount() < 2) {
+        Thread.yield();
+      }
+      validate(1);
+      rm.releaseResources(action, half);
+      largeThread.joinAndAssertState(1000);
+      smallThread.joinAndAssertState(1000);
+    } finally {
+      rm.setActionDurationHistory(null);
+    }
+    assertFalse(rm.inUse());
+  }
+
   /**
    * Checks that that resource manager
    * can recover from LocalHostCapacity.getFreeResources() failure.
@@ -0,0 +1,124 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the load, lookup and save times of {@link CompactPersistentActionCache} and
+ * {@link MappedActionCache}. Not run as part of the tests.
+ *
+ * <p>Usage: {@code ActionCacheBenchmark <scratch directory> [number of entries...]}, by default
+ * 1M and 10M entries. Run with a heap large enough for the compact cache, e.g. {@code -Xmx16g}.
+ */
+public class ActionCacheBenchmark {
+
+  private static final int FILES_PER_ENTRY = 10;
+  private static final int LOOKUPS = 100000;
+
+  private interface CacheFactory {
+    ActionCache open(Path cacheRoot) throws IOException;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Path scratch = FileSystems.initDefaultAsJavaIo().getPath(args[0]);
+    long[] sizes = {1000000, 10000000};
+    if (args.length > 1) {
+      sizes = new long[args.length - 1];
+      for (int i = 1; i < args.length; i++) {
+        sizes[i - 1] = Long.parseLong(args[i]);
+      }
+    }
+    CacheFactory compact = new CacheFactory() {
+      @Override
+      public ActionCache open(Path cacheRoot) throws IOException {
+        return new CompactPersistentActionCache(cacheRoot, BlazeClock.instance());
+      }
+    };
+    CacheFactory mapped = new CacheFactory() {
+      @Override
+      public ActionCache open(Path cacheRoot) throws IOException {
+        return new MappedActionCache(cacheRoot);
+      }
+    };
+    System.out.println("implementation entries fill_ms save_ms load_ms lookup_us update_save_ms");
+    for (long size : sizes) {
+      run("compact", compact, scratch.getRelative("compact"), (int) size);
+      run("mapped", mapped, scratch.getRelative("mapped"), (int) size);
+    }
+  }
+
+  private static void run(String name, CacheFactory factory, Path cacheRoot, int size)
+      throws IOException {
+    FileSystemUtils.deleteTree(cacheRoot);
+    FileSystemUtils.createDirectoryAndParents(cacheRoot);
+    ActionCache cache = factory.open(cacheRoot);
+    long start = System.nanoTime();
+    for (int i = 0; i < size; i++) {
+      put(cache, i);
+    }
+    long fill = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    cache.save();
+    long save = System.nanoTime() - start;
+    cache = null;
+    System.gc();
+
+    start = System.nanoTime();
+    cache = factory.open(cacheRoot);
+    long load = System.nanoTime() - start;
+
+    Random random = new Random(42);
+    start = System.nanoTime();
+    for (int i = 0; i < LOOKUPS; i++) {
+      if (cache.get(key(random.nextInt(size))) == null) {
+        throw new IllegalStateException("missing entry");
+      }
+    }
+    long lookup = System.nanoTime() - start;
+
+    // An incremental build that reruns 1% of the actions.
+    start = System.nanoTime();
+    for (int i = 0; i < size / 100; i++) {
+      put(cache, random.nextInt(size));
+    }
+    cache.save();
+    long update = System.nanoTime() - start;
+
+    System.out.printf("%s %d %d %d %d %.1f %d%n", name, size, fill / 1000000, save / 1000000,
+        load / 1000000, lookup / 1000.0 / LOOKUPS, update / 1000000);
+  }
+
+  private static String key(int i) {
+    return "bazel-out/local_linux-fastbuild/bin/pkg" + (i / 100) + "/lib" + i + ".a";
+  }
+
+  private static void put(ActionCache cache, int i) {
+    ActionCache.Entry entry = cache.createEntry(key(i));
+    for (int j = 0; j < FILES_PER_ENTRY; j++) {
+      entry.addFile(new PathFragment("pkg" + (i / 100) + "/src" + (i + j) + ".cc"),
+          Metadata.CONSTANT_METADATA);
+    }
+    entry.getFileDigest();
+    cache.put(key(i), entry);
+  }
+}
@@ -0,0 +1,164 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.Action.MiddlemanType;
+import com.google.devtools.build.lib.actions.ActionMiddlemanEvent;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.CachedActionEvent;
+import com.google.devtools.build.lib.actions.MiddlemanAction;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ActionDurationHistory}.
+ */
+@RunWith(JUnit4.class)
+public class ActionDurationHistoryTest {
+
+  private Path cacheRoot;
+  private Root root;
+  private Root middlemanRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem(BlazeClock.instance());
+    cacheRoot = fs.getPath("/output_base/action_cache");
+    Path execRoot = fs.getPath("/execroot");
+    root = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+    middlemanRoot = Root.middlemanRoot(execRoot, execRoot.getRelative("out"));
+  }
+
+  private Artifact artifact(String name) {
+    return new Artifact(root.getPath().getRelative(name), root);
+  }
+
+  private TestAction action(Artifact output, Artifact... inputs) {
+    return new TestAction(TestAction.NO_EFFECT, ImmutableList.copyOf(inputs),
+        ImmutableList.of(output));
+  }
+
+  private static void executed(ActionDurationHistory history, TestAction action, long millis) {
+    history.actionExecuted(action, TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  @Test
+  public void remainingTimeCoversLongestChainThroughMiddlemen() throws Exception {
+    ActionDurationHistory history = new ActionDurationHistory(cacheRoot);
+    TestAction compileA = action(artifact("a.o"));
+    TestAction compileB = action(artifact("b.o"));
+    Artifact objs = new Artifact(middlemanRoot.getPath().getRelative("_middlemen/objs"),
+        middlemanRoot);
+    MiddlemanAction middleman = new MiddlemanAction(ActionsTestUtil.NULL_ACTION_OWNER,
+        ImmutableList.of(artifact("a.o"), artifact("b.o")), objs, "objs",
+        MiddlemanType.AGGREGATING_MIDDLEMAN);
+    TestAction link = action(artifact("bin"), objs);
+    executed(history, compileA, 100);
+    executed(history, compileB, 300);
+    history.middlemanAction(new ActionMiddlemanEvent(middleman, 0));
+    executed(history, link, 200);
+    history.save();
+
+    assertEquals(300, history.getRemainingMillis(compileA));
+    assertEquals(500, history.getRemainingMillis(compileB));
+    assertEquals(200, history.getRemainingMillis(link));
+    // Middlemen don't wait for resources, so they aren't remembered.
+    assertEquals(3, history.size());
+  }
+
+  @Test
+  public void unknownActionTakesAverageOfItsMnemonic() throws Exception {
+    ActionDurationHistory history = new ActionDurationHistory(cacheRoot);
+    assertEquals(0, history.getRemainingMillis(action(artifact("c.o"))));
+    executed(history, action(artifact("a.o")), 100);
+    executed(history, action(artifact("b.o")), 300);
+    history.save();
+    assertEquals(200, history.getRemainingMillis(action(artifact("c.o"))));
+  }
+
+  @Test
+  public void savedHistoryIsLoaded() throws Exception {
+    ActionDurationHistory history = new ActionDurationHistory(cacheRoot);
+    executed(history, action(artifact("a.o")), 100);
+    executed(history, action(artifact("bin"), artifact("a.o")), 200);
+    assertTrue(history.save() > 0);
+
+    ActionDurationHistory reloaded = new ActionDurationHistory(cacheRoot);
+    assertEquals(2, reloaded.size());
+    assertEquals(300, reloaded.getRemainingMillis(action(artifact("a.o"))));
+    assertEquals(150, reloaded.getRemainingMillis(action(artifact("c.o"))));
+  }
+
+  @Test
+  public void cachedActionKeepsItsDuration() throws Exception {
+    ActionDurationHistory history = new ActionDurationHistory(cacheRoot);
+    TestAction compile = action(artifact("a.o"));
+    TestAction link = action(artifact("bin"), artifact("a.o"));
+    executed(history, compile, 100);
+    executed(history, link, 200);
+    history.save();
+
+    executed(history, compile, 50);
+    history.actionCached(new CachedActionEvent(link, 0));
+    history.save();
+    assertEquals(250, history.getRemainingMillis(compile));
+    assertEquals(200, history.getRemainingMillis(link));
+  }
+
+  @Test
+  public void unusedEntriesAreDropped() throws Exception {
+    ActionDurationHistory history = new ActionDurationHistory(cacheRoot);
+    executed(history, action(artifact("a.o")), 100);
+    history.save();
+    TestAction other = action(artifact("b.o"));
+    for (int i = 0; i <= ActionDurationHistory.MAX_UNUSED_SAVES; i++) {
+      executed(history, other, 100);
+      history.save();
+    }
+    assertEquals(1, new ActionDurationHistory(cacheRoot).size());
+  }
+
+  @Test
+  public void corruptedFileIsRenamed() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(cacheRoot);
+    FileSystemUtils.writeContentAsLatin1(ActionDurationHistory.cacheFile(cacheRoot), "garbage");
+    try {
+      new ActionDurationHistory(cacheRoot);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(cacheRoot.getChild(
+        ActionDurationHistory.cacheFile(cacheRoot).getBaseName() + ".bad").exists());
+    assertEquals(0, new ActionDurationHistory(cacheRoot).size());
+  }
+}
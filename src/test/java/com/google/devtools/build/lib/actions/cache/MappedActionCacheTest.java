@@ -0,0 +1,174 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Test for the MappedActionCache class. A small region size makes records span mapped regions.
+ */
+@RunWith(JUnit4.class)
+public class MappedActionCacheTest {
+
+  private static final int REGION_SIZE = 256;
+
+  private Path cacheRoot;
+  private MappedActionCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    // The cache maps real files.
+    cacheRoot = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir())
+        .getRelative("MappedActionCacheTest");
+    FileSystemUtils.deleteTree(cacheRoot);
+    cache = new MappedActionCache(cacheRoot, REGION_SIZE);
+  }
+
+  private MappedActionCache reopen() throws IOException {
+    return new MappedActionCache(cacheRoot, REGION_SIZE);
+  }
+
+  @Test
+  public void testGetInvalidKey() {
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testPutGetAndRemove() {
+    putKey("key", cache);
+    ActionCache.Entry readentry = cache.get("key");
+    assertNotNull(readentry);
+    assertFalse(readentry.isCorrupted());
+    assertThat(readentry.getPaths()).containsExactly(
+        "out/key/a.o", "out/key/b.o", "out/other/c.h").inOrder();
+    cache.remove("key");
+    assertNull(cache.get("key"));
+    cache.remove("key");
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testSaveAndReload() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    // Overwrite and remove some, so that the reloaded cache has to tell live records apart.
+    for (int i = 0; i < 3000; i += 3) {
+      putKey(Integer.toString(i), cache);
+      cache.remove(Integer.toString(i + 1));
+    }
+    cache.save();
+
+    MappedActionCache newcache = reopen();
+    assertLoaded(newcache);
+    assertThat(newcache.toString()).startsWith("Action cache (2000 records):\n");
+  }
+
+  @Test
+  public void testIndexIsRebuiltFromLog() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    for (int i = 0; i < 3000; i += 3) {
+      putKey(Integer.toString(i), cache);
+      cache.remove(Integer.toString(i + 1));
+    }
+    cache.save();
+    MappedActionCache.indexFile(cacheRoot).delete();
+
+    MappedActionCache newcache = reopen();
+    assertLoaded(newcache);
+    assertTrue(MappedActionCache.indexFile(cacheRoot).exists());
+    assertThat(newcache.toString()).startsWith("Action cache (2000 records):\n");
+  }
+
+  @Test
+  public void testCompactionDropsGarbage() throws IOException {
+    for (int i = 0; i < 3000; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    for (int i = 0; i < 3000; i += 3) {
+      putKey(Integer.toString(i), cache);
+      cache.remove(Integer.toString(i + 1));
+    }
+    long sizeBefore = cache.save();
+    cache.compact();
+    assertLoaded(cache);
+    // Updates after a compaction go to the new files.
+    putKey("new", cache);
+    long sizeAfter = cache.save();
+    assertThat(sizeAfter).isLessThan(sizeBefore);
+
+    MappedActionCache newcache = reopen();
+    assertLoaded(newcache);
+    assertNotNull(newcache.get("new"));
+    assertThat(newcache.toString()).startsWith("Action cache (2001 records):\n");
+  }
+
+  @Test
+  public void testCorruptedLogIsRenamed() throws IOException {
+    putKey("key", cache);
+    cache.save();
+    FileSystemUtils.writeContentAsLatin1(MappedActionCache.cacheFile(cacheRoot), "garbage");
+    try {
+      reopen();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Failed to load action cache data");
+    }
+    assertFalse(MappedActionCache.cacheFile(cacheRoot).exists());
+    assertNull(reopen().get("key"));
+  }
+
+  private static void assertLoaded(ActionCache cache) {
+    for (int i = 0; i < 3000; i++) {
+      ActionCache.Entry entry = cache.get(Integer.toString(i));
+      if (i % 3 == 1) {
+        assertNull(entry);
+      } else {
+        assertNotNull(entry);
+        assertEquals(Integer.toString(i), entry.getActionKey());
+        assertThat(entry.getPaths()).hasSize(3);
+      }
+    }
+  }
+
+  private static void putKey(String key, ActionCache ac) {
+    ActionCache.Entry entry = ac.createEntry(key);
+    entry.addFile(new PathFragment("out/" + key + "/a.o"), Metadata.CONSTANT_METADATA);
+    entry.addFile(new PathFragment("out/" + key + "/b.o"), Metadata.CONSTANT_METADATA);
+    entry.addFile(new PathFragment("out/other/c.h"), Metadata.CONSTANT_METADATA);
+    entry.getFileDigest();
+    ac.put(key, entry);
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Strings;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link PersistentDigestCache}, and its use by {@link DigestUtils}.
+ */
+@RunWith(JUnit4.class)
+public class PersistentDigestCacheTest {
+
+  private final AtomicInteger digestCalculations = new AtomicInteger();
+  private ManualClock clock;
+  private Path cacheRoot;
+  private Path file;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new ManualClock();
+    clock.advanceMillis(1000);
+    FileSystem fs = new InMemoryFileSystem(clock) {
+      @Override
+      protected byte[] getMD5Digest(Path path) throws IOException {
+        digestCalculations.incrementAndGet();
+        return super.getMD5Digest(path);
+      }
+    };
+    cacheRoot = fs.getPath("/output_base/action_cache");
+    file = fs.getPath("/workspace/file.txt");
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(file, Strings.repeat("a", 5000));
+    clock.advanceMillis(PersistentDigestCache.TIMESTAMP_GRANULARITY_MILLIS + 1);
+  }
+
+  private byte[] digest(PersistentDigestCache cache) throws IOException {
+    DigestUtils.configure(1, cache);
+    try {
+      return DigestUtils.getDigestOrFail(file, file.getFileSize());
+    } finally {
+      DigestUtils.configure(1, null);
+    }
+  }
+
+  @Test
+  public void digestIsCalculatedOnce() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    byte[] digest = digest(cache);
+    assertArrayEquals(digest, digest(cache));
+    assertEquals(1, digestCalculations.get());
+    assertArrayEquals(file.getMD5Digest(), digest);
+  }
+
+  @Test
+  public void changedFileIsDigestedAgain() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    digest(cache);
+    FileSystemUtils.writeContentAsLatin1(file, Strings.repeat("b", 5000));
+    clock.advanceMillis(PersistentDigestCache.TIMESTAMP_GRANULARITY_MILLIS + 1);
+    assertArrayEquals(file.getMD5Digest(), digest(cache));
+    assertEquals(3, digestCalculations.get());
+  }
+
+  @Test
+  public void savedDigestIsUsedAfterReload() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    byte[] digest = digest(cache);
+    assertTrue(cache.save() > 0);
+
+    PersistentDigestCache reloaded = new PersistentDigestCache(cacheRoot, clock);
+    assertEquals(1, reloaded.size());
+    assertArrayEquals(digest, digest(reloaded));
+    assertEquals(1, digestCalculations.get());
+  }
+
+  @Test
+  public void fileChangedWhileDigestingIsNotSaved() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    FileSystemUtils.writeContentAsLatin1(file, Strings.repeat("b", 5000));
+    digest(cache);
+    assertEquals(1, cache.size());
+    cache.save();
+    assertEquals(0, new PersistentDigestCache(cacheRoot, clock).size());
+  }
+
+  @Test
+  public void fileChangedWithinTimestampGranularityIsNotSaved() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    FileSystemUtils.writeContentAsLatin1(file, Strings.repeat("b", 5000));
+    // A write in the same tick of a coarse file system clock wouldn't change the timestamps.
+    clock.advanceMillis(PersistentDigestCache.TIMESTAMP_GRANULARITY_MILLIS);
+    digest(cache);
+    cache.save();
+    assertEquals(0, new PersistentDigestCache(cacheRoot, clock).size());
+  }
+
+  @Test
+  public void unusedEntriesAreDropped() throws Exception {
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    digest(cache);
+    Path other = file.getParentDirectory().getChild("other.txt");
+    FileSystemUtils.writeContentAsLatin1(other, "other");
+    clock.advanceMillis(PersistentDigestCache.TIMESTAMP_GRANULARITY_MILLIS + 1);
+    for (int i = 0; i <= PersistentDigestCache.MAX_UNUSED_SAVES; i++) {
+      cache.put(other, other.stat(), other.getMD5Digest(), clock.currentTimeMillis());
+      cache.save();
+    }
+    PersistentDigestCache reloaded = new PersistentDigestCache(cacheRoot, clock);
+    assertEquals(1, reloaded.size());
+    assertNull(reloaded.get(file, file.stat()));
+  }
+
+  @Test
+  public void corruptedFileIsRenamed() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(cacheRoot);
+    FileSystemUtils.writeContentAsLatin1(PersistentDigestCache.cacheFile(cacheRoot), "garbage");
+    try {
+      new PersistentDigestCache(cacheRoot, clock);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertTrue(cacheRoot.getChild(
+        PersistentDigestCache.cacheFile(cacheRoot).getBaseName() + ".bad").exists());
+    assertEquals(0, new PersistentDigestCache(cacheRoot, clock).size());
+  }
+}
@@ -26,12 +26,22 @@ import com.google.devtools.common.options.OptionsClassProvider;
  */
 public final class DummyExecutor implements Executor {
   private final Path inputDir;
+  private final EventBus eventBus;
 
   /**
    * @param inputDir
    */
   public DummyExecutor(Path inputDir) {
+    this(inputDir, null);
+  }
+
+  /**
+   * @param inputDir
+   * @param eventBus the bus that events are posted on, or null if none may be posted
+   */
+  public DummyExecutor(Path inputDir, EventBus eventBus) {
     this.inputDir = inputDir;
+    this.eventBus = eventBus;
   }
 
   @Override
@@ -46,7 +56,10 @@ public final class DummyExecutor implements Executor {
 
   @Override
   public EventBus getEventBus() {
-    throw new UnsupportedOperationException();
+    if (eventBus == null) {
+      throw new UnsupportedOperationException();
+    }
+    return eventBus;
   }
 
   @Override
@@ -76,7 +89,7 @@ public final class DummyExecutor implements Executor {
 
   @Override
   public boolean reportsSubcommands() {
-    throw new UnsupportedOperationException();
+    return false;
   }
 
   @Override
@@ -0,0 +1,100 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis.actions;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.DigestFunction;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+/**
+ * Compares the cost of computing the key of an action with a large {@link CustomCommandLine},
+ * the way {@link SpawnAction#computeKey} does, for each {@link DigestFunction}. Not run as part of
+ * the tests.
+ *
+ * <p>Usage: {@code ActionKeyBenchmark [number of artifacts...]}, by default 1000 and 100000.
+ */
+public class ActionKeyBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final long MIN_DURATION_NANOS = 2000000000L;
+
+  public static void main(String[] args) throws Exception {
+    int[] sizes = {1000, 100000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println("function artifacts arguments key_us hash_only_us");
+    for (int size : sizes) {
+      CustomCommandLine commandLine = createCommandLine(size);
+      ImmutableList<String> arguments = ImmutableList.copyOf(commandLine.arguments());
+      for (DigestFunction function : DigestFunction.values()) {
+        System.out.printf("%s %d %d %.1f %.1f%n", function.name().toLowerCase(), size,
+            arguments.size(), measure(function, commandLine, null),
+            measure(function, commandLine, arguments));
+      }
+    }
+  }
+
+  private static CustomCommandLine createCommandLine(int size) {
+    Path execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/execroot");
+    Root root = Root.asDerivedRoot(execRoot, execRoot.getRelative("bazel-out/bin"));
+    ImmutableList.Builder<Artifact> artifacts = ImmutableList.builder();
+    for (int i = 0; i < size; i++) {
+      artifacts.add(new Artifact(
+          root.getPath().getRelative("pkg" + (i / 100) + "/lib" + i + ".jar"), root));
+    }
+    return CustomCommandLine.builder()
+        .add("--output").add("bazel-out/bin/pkg/out.jar")
+        .addJoinExecPaths("--classpath", ":", artifacts.build())
+        .addBeforeEachExecPath("--source", artifacts.build())
+        .build();
+  }
+
+  /**
+   * Returns the average time in microseconds of computing the key; if {@code arguments} is given,
+   * only the hashing of the already expanded arguments is measured.
+   */
+  private static double measure(DigestFunction function, CustomCommandLine commandLine,
+      Iterable<String> arguments) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      computeKey(function, commandLine, arguments);
+    }
+    long start = System.nanoTime();
+    long iterations = 0;
+    long elapsed;
+    do {
+      computeKey(function, commandLine, arguments);
+      iterations++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < MIN_DURATION_NANOS);
+    return elapsed / 1000.0 / iterations;
+  }
+
+  private static String computeKey(DigestFunction function, CustomCommandLine commandLine,
+      Iterable<String> arguments) {
+    Fingerprint f = new Fingerprint(function);
+    f.addString("benchmark");
+    f.addStrings(arguments != null ? arguments : commandLine.arguments());
+    f.addString("Benchmark");
+    return f.hexDigestAndReset();
+  }
+}
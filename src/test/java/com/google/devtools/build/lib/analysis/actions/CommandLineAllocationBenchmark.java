@@ -0,0 +1,131 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis.actions;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.ParameterFile.ParameterFileType;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the memory allocated to compute the key of the action that builds a deploy jar and to
+ * write its parameter file, when its arguments are flattened into a list and when they are
+ * visited one by one. Not run as part of the tests.
+ *
+ * <p>The command line is that of a deploy jar, with the runtime jars of a binary that depends on
+ * a graph of java_library rules as a {@link NestedSet}, like in {@code JavaCompilationArgs}.
+ *
+ * <p>Usage: {@code CommandLineAllocationBenchmark [libraries]}, by default 10000. Needs a JVM that
+ * measures the allocations of a thread.
+ */
+public class CommandLineAllocationBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 20;
+  private static final int ITERATIONS = 20;
+
+  private abstract static class Task {
+    abstract void run() throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    Path execRoot = new InMemoryFileSystem(BlazeClock.instance()).getPath("/execroot");
+    Root root = Root.asDerivedRoot(execRoot, execRoot.getRelative("bazel-out/bin"));
+    final CustomCommandLine commandLine = CustomCommandLine.builder()
+        .addExecPath("--output", artifact(root, "bin/bin_deploy.jar"))
+        .add("--compression")
+        .addExecPaths("--sources", createRuntimeJars(root, count))
+        .build();
+    final ParameterFileWriteAction action = new ParameterFileWriteAction(
+        ActionsTestUtil.NULL_ACTION_OWNER, artifact(root, "bin/bin_deploy.jar-2.params"),
+        commandLine, ParameterFileType.UNQUOTED, StandardCharsets.UTF_8);
+
+    System.out.println("task bytes_per_run");
+    measure("key_from_list", new Task() {
+      @Override
+      void run() {
+        Fingerprint f = new Fingerprint();
+        f.addStrings(commandLine.arguments());
+        f.hexDigestAndReset();
+      }
+    });
+    measure("key_visited", new Task() {
+      @Override
+      void run() {
+        Fingerprint f = new Fingerprint();
+        commandLine.addToFingerprint(f);
+        f.hexDigestAndReset();
+      }
+    });
+    measure("param_file_visited", new Task() {
+      @Override
+      void run() throws Exception {
+        action.newDeterministicWriter(null, null).writeOutputFile(ByteStreams.nullOutputStream());
+      }
+    });
+  }
+
+  private static Artifact artifact(Root root, String path) {
+    return new Artifact(root.getPath().getRelative(path), root);
+  }
+
+  /**
+   * Every library has its own jar and depends on up to three of the libraries before it.
+   */
+  private static NestedSet<Artifact> createRuntimeJars(Root root, int count) {
+    Random random = new Random(42);
+    List<NestedSet<Artifact>> libraries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      NestedSetBuilder<Artifact> builder = NestedSetBuilder.naiveLinkOrder();
+      builder.add(artifact(root, "pkg" + (i / 10) + "/liblib" + i + ".jar"));
+      for (int j = Math.min(i, random.nextInt(4)); j > 0; j--) {
+        builder.addTransitive(libraries.get(i - 1 - random.nextInt(Math.min(i, 100))));
+      }
+      libraries.add(builder.build());
+    }
+    NestedSetBuilder<Artifact> builder = NestedSetBuilder.naiveLinkOrder();
+    for (int i = count - 20; i < count; i++) {
+      builder.addTransitive(libraries.get(Math.max(i, 0)));
+    }
+    return builder.build();
+  }
+
+  private static void measure(String name, Task task) throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      task.run();
+    }
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < ITERATIONS; i++) {
+      task.run();
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+    System.out.printf("%s %d%n", name, allocated / ITERATIONS);
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.analysis.actions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.Fingerprint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link CommandLine#addToFingerprint}.
+ */
+@RunWith(JUnit4.class)
+public class CommandLineTest {
+
+  /** Returns the fingerprint of {@code arguments} followed by the strings in {@code after}. */
+  private static String fingerprint(ImmutableList<String> arguments, String... after) {
+    Fingerprint f = new Fingerprint();
+    CommandLine.of(arguments, false).addToFingerprint(f);
+    for (String string : after) {
+      f.addString(string);
+    }
+    return f.hexDigestAndReset();
+  }
+
+  @Test
+  public void sameArgumentsHaveTheSameFingerprint() {
+    assertEquals(fingerprint(ImmutableList.of("a", "b"), "c"),
+        fingerprint(ImmutableList.of("a", "b"), "c"));
+  }
+
+  @Test
+  public void argumentsDoNotRunIntoWhatFollows() {
+    assertFalse(fingerprint(ImmutableList.of("a", "b"))
+        .equals(fingerprint(ImmutableList.of("a"), "b")));
+    assertFalse(fingerprint(ImmutableList.of("a"))
+        .equals(fingerprint(ImmutableList.<String>of(), "a")));
+    assertFalse(fingerprint(ImmutableList.of(""), "")
+        .equals(fingerprint(ImmutableList.<String>of(), "", "")));
+  }
+}
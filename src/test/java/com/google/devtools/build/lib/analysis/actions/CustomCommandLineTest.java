@@ -18,8 +18,14 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.analysis.util.BuildViewTestCase;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor.Receiver;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class CustomCommandLineTest extends BuildViewTestCase {
   public void testAddBeforeEachPath() {
     CustomCommandLine commandLine = new CustomCommandLine.Builder()
@@ -75,4 +81,32 @@ public class CustomCommandLineTest extends BuildViewTestCase {
         .containsExactly("foo", "bar", "-X'42'", "-X'1011'", "baz")
         .inOrder();
   }
+
+  public void testNestedSetArgumentsAreVisitedInOrder() throws Exception {
+    NestedSet<Artifact> libs = NestedSetBuilder.<Artifact>naiveLinkOrder()
+        .add(getSourceArtifact("pkg/util.a"))
+        .addTransitive(NestedSetBuilder.<Artifact>naiveLinkOrder()
+            .add(getSourceArtifact("pkg2/extra.a"))
+            .add(getSourceArtifact("pkg/util.a"))
+            .build())
+        .build();
+    CustomCommandLine commandLine = new CustomCommandLine.Builder()
+        .add("foo")
+        .addBeforeEachExecPath("-l", libs)
+        .addExecPaths(libs)
+        .addFormatEach("-X%s", NestedSetBuilder.<String>stableOrder().add("42").build())
+        .build();
+    final List<String> visited = new ArrayList<>();
+    commandLine.visitArguments(new Receiver<String>() {
+      @Override
+      public void accept(String arg) {
+        visited.add(arg);
+      }
+    });
+    assertThat(visited)
+        .containsExactly("foo", "-l", "pkg/util.a", "-l", "pkg2/extra.a", "pkg/util.a",
+            "pkg2/extra.a", "-X42")
+        .inOrder();
+    assertThat(commandLine.arguments()).containsExactlyElementsIn(visited).inOrder();
+  }
 }
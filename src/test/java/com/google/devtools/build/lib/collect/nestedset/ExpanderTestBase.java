@@ -25,6 +25,7 @@ import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -249,10 +250,24 @@ public abstract class ExpanderTestBase extends TestCase  {
   }
 
   protected final void assertSetContents(Collection<String> expected, NestedSet<String> set) {
+    // Before and after the set memoized its expansion.
+    assertEquals(expected, visitedElements(set));
     assertEquals(expected, Lists.newArrayList(set));
     assertEquals(expected, Lists.newArrayList(set.toCollection()));
     assertEquals(expected, Lists.newArrayList(set.toList()));
     assertEquals(expected, Lists.newArrayList(set.toSet()));
+    assertEquals(expected, visitedElements(set));
+  }
+
+  private static List<String> visitedElements(NestedSet<String> set) {
+    final List<String> result = new ArrayList<>();
+    set.forEachElement(new NestedSetVisitor.Receiver<String>() {
+      @Override
+      public void accept(String e) {
+        result.add(e);
+      }
+    });
+    return result;
   }
 
   protected final void assertCollectionsEqual(
@@ -0,0 +1,79 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long it takes to build the classpath of every library in a long chain of
+ * java_library rules, with and without the {@link NestedSetExpansionCache}. Not run as part of
+ * the tests.
+ *
+ * <p>Every library depends on the previous one and on a few common libraries, and its compile
+ * time jars are a {@link Order#STABLE_ORDER} nested set of its own jar and those of its
+ * dependencies, like in {@code JavaCompilationArgs}.
+ *
+ * <p>Usage: {@code NestedSetExpansionBenchmark [depth]}, by default 5000.
+ */
+public class NestedSetExpansionBenchmark {
+
+  private static final int RUNS = 3;
+  private static final int COMMON_LIBRARIES = 20;
+
+  public static void main(String[] args) {
+    int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    System.out.println("cache best_ms classpath_entries");
+    for (boolean enabled : new boolean[] {false, true, false, true}) {
+      long best = Long.MAX_VALUE;
+      long entries = 0;
+      for (int run = 0; run < RUNS; run++) {
+        NestedSetExpansionCache.setEnabled(enabled);
+        // Build the sets again every time, so that no run profits from the memos of another.
+        List<NestedSet<String>> chain = createChain(depth);
+        long start = System.nanoTime();
+        entries = 0;
+        for (NestedSet<String> jars : chain) {
+          for (String jar : jars) {
+            entries += jar.length() > 0 ? 1 : 0;
+          }
+        }
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf("%s %d %d%n", enabled ? "on" : "off", best / 1000000, entries);
+    }
+    NestedSetExpansionCache.setEnabled(false);
+  }
+
+  private static List<NestedSet<String>> createChain(int depth) {
+    List<NestedSet<String>> common = new ArrayList<>();
+    for (int i = 0; i < COMMON_LIBRARIES; i++) {
+      common.add(NestedSetBuilder.<String>stableOrder()
+          .add("third_party/common" + i + "/libcommon" + i + "-ijar.jar").build());
+    }
+    List<NestedSet<String>> chain = new ArrayList<>(depth);
+    NestedSet<String> previous = null;
+    for (int i = 0; i < depth; i++) {
+      NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+      if (previous != null) {
+        builder.addTransitive(previous);
+      }
+      builder.addTransitive(common.get(i % COMMON_LIBRARIES));
+      builder.add("bazel-out/bin/pkg" + i + "/liblib" + i + "-ijar.jar");
+      previous = builder.build();
+      chain.add(previous);
+    }
+    return chain;
+  }
+}
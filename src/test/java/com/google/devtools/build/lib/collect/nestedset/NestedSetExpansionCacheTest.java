@@ -0,0 +1,134 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link NestedSetExpansionCache}.
+ */
+@RunWith(JUnit4.class)
+public class NestedSetExpansionCacheTest {
+
+  @Before
+  public void enableCache() {
+    NestedSetExpansionCache.setEnabled(true);
+    NestedSetExpansionCache.setMinimumSize(3);
+  }
+
+  @After
+  public void disableCache() {
+    NestedSetExpansionCache.setEnabled(false);
+    NestedSetExpansionCache.setMinimumSize(NestedSetExpansionCache.DEFAULT_MINIMUM_SIZE);
+  }
+
+  /**
+   * Builds random nested sets where every set has up to three nested sets, which are often
+   * shared, and shares elements with the others.
+   */
+  private static List<NestedSet<String>> randomSets(Order order, long seed) {
+    Random random = new Random(seed);
+    List<NestedSet<String>> sets = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      NestedSetBuilder<String> builder = new NestedSetBuilder<>(order);
+      for (int j = random.nextInt(4); j > 0; j--) {
+        builder.add("e" + random.nextInt(300));
+      }
+      for (int j = random.nextInt(4); j > 0 && !sets.isEmpty(); j--) {
+        builder.addTransitive(sets.get(sets.size() - 1 - random.nextInt(Math.min(sets.size(), 5))));
+      }
+      sets.add(builder.build());
+    }
+    return sets;
+  }
+
+  private static void assertSameExpansions(Order order) {
+    for (long seed = 0; seed < 10; seed++) {
+      NestedSetExpansionCache.setEnabled(false);
+      List<List<String>> expected = new ArrayList<>();
+      for (NestedSet<String> set : randomSets(order, seed)) {
+        expected.add(set.toList());
+      }
+
+      NestedSetExpansionCache.setEnabled(true);
+      List<NestedSet<String>> sets = randomSets(order, seed);
+      // Expand the sets in both directions, so that cached expansions are both reused as
+      // prefixes and skipped over.
+      for (int i = sets.size() - 1; i >= 0; i -= 2) {
+        assertEquals(expected.get(i), sets.get(i).toList());
+      }
+      for (int i = 0; i < sets.size(); i++) {
+        assertEquals(expected.get(i), sets.get(i).toList());
+        assertEquals(ImmutableList.copyOf(expected.get(i)),
+            ImmutableList.copyOf(sets.get(i).toSet()));
+      }
+    }
+  }
+
+  @Test
+  public void stableOrderExpansionsAreUnchanged() {
+    assertSameExpansions(Order.STABLE_ORDER);
+  }
+
+  @Test
+  public void compileOrderExpansionsAreUnchanged() {
+    assertSameExpansions(Order.COMPILE_ORDER);
+  }
+
+  @Test
+  public void linkOrderExpansionsAreUnchanged() {
+    assertSameExpansions(Order.LINK_ORDER);
+  }
+
+  @Test
+  public void chainReusesExpansionOfFirstNestedSet() {
+    NestedSet<String> bottom = NestedSetBuilder.<String>stableOrder().add("a").add("b").build();
+    NestedSet<String> middle = NestedSetBuilder.<String>stableOrder()
+        .addTransitive(bottom).add("c").add("a").build();
+    NestedSet<String> other = NestedSetBuilder.<String>stableOrder().add("d").add("c").build();
+    NestedSet<String> top = NestedSetBuilder.<String>stableOrder()
+        .addTransitive(middle).addTransitive(other).add("e").build();
+
+    assertEquals(ImmutableList.of("a", "b", "c", "d", "e"), top.toList());
+    // Both sets with at least three elements were cached on the way.
+    assertSame(NestedSetExpansionCache.expand(middle), NestedSetExpansionCache.expand(middle));
+    assertEquals(ImmutableList.of("a", "b", "c"),
+        ImmutableList.copyOf(NestedSetExpansionCache.expand(middle)));
+    assertSame(NestedSetExpansionCache.expand(top), top.toSet());
+  }
+
+  @Test
+  public void disabledCacheDoesNotExpand() {
+    NestedSetExpansionCache.setEnabled(false);
+    NestedSet<String> set = NestedSetBuilder.<String>stableOrder()
+        .addTransitive(NestedSetBuilder.<String>stableOrder().add("a").add("b").build())
+        .add("c").build();
+    assertNull(NestedSetExpansionCache.expand(set));
+    assertEquals(ImmutableList.of("a", "b", "c"), set.toList());
+  }
+}
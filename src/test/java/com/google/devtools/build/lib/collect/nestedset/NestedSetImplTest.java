@@ -110,6 +110,35 @@ public class NestedSetImplTest extends TestCase {
     }
   }
 
+  @Test
+  public void nestedSetsCannotBeElements() {
+    NestedSet<Object> inner = NestedSetBuilder.<Object>stableOrder().add("a").build();
+    try {
+      NestedSetBuilder.stableOrder().add("b").add(inner).build();
+      fail("Shouldn't be able to add a nested set as an element!");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      NestedSetBuilder.wrap(Order.STABLE_ORDER, ImmutableList.of("b", inner));
+      fail("Shouldn't be able to wrap a nested set as an element!");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void manyDirectsAndManyTransitives() {
+    NestedSet<String> b = nestedSetBuilder("b1", "b2").build();
+    NestedSet<String> c = nestedSetBuilder("c1", "b1").build();
+    NestedSet<String> set = nestedSetBuilder("a1", "a2").addTransitive(b).addTransitive(c).build();
+
+    assertTrue(Arrays.equals(new String[]{"a1", "a2"}, set.directMembers()));
+    assertTrue(Arrays.equals(new NestedSet[]{b, c}, set.transitiveSets()));
+    assertEquals(ImmutableList.of("b1", "b2", "c1", "a1", "a2"), set.toList());
+    assertEquals("{a1, a2, {b1, b2}, {c1, b1}}", set.toString());
+  }
+
   /**
    * A handy wrapper that allows us to use EqualsTester to test shallowEquals and shallowHashCode.
    */
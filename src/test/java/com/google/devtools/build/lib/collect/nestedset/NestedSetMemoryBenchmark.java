@@ -0,0 +1,99 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the heap used by the nested sets of a graph of java_library-like targets. Not run as
+ * part of the tests.
+ *
+ * <p>Every target has a few source files, its own jar and up to four dependencies, and keeps the
+ * kinds of nested sets that the providers of a java_library keep: its sources, its files to build,
+ * its compile time and runtime jars, which include those of its dependencies, and its runfiles,
+ * which include its sources and jar and the runfiles of its dependencies. The elements are
+ * created up front, so only the nested sets are measured.
+ *
+ * <p>Usage: {@code NestedSetMemoryBenchmark [targets]}, by default 200000.
+ */
+public class NestedSetMemoryBenchmark {
+
+  private static final class Target {
+    NestedSet<String> sources;
+    NestedSet<String> filesToBuild;
+    NestedSet<String> compileJars;
+    NestedSet<String> runtimeJars;
+    NestedSet<String> runfiles;
+  }
+
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    Random random = new Random(42);
+    List<String> jars = new ArrayList<>(count);
+    List<List<String>> sources = new ArrayList<>(count);
+    int[][] deps = new int[count][];
+    for (int i = 0; i < count; i++) {
+      jars.add("bazel-out/bin/pkg" + i + "/liblib" + i + ".jar");
+      List<String> targetSources = new ArrayList<>();
+      for (int j = random.nextInt(4); j >= 0; j--) {
+        targetSources.add("pkg" + i + "/Source" + j + ".java");
+      }
+      sources.add(targetSources);
+      // Most libraries have one or two dependencies.
+      int depCount = i == 0 ? 0 : Math.min(i, new int[] {1, 1, 1, 2, 2, 3, 4}[random.nextInt(7)]);
+      deps[i] = new int[depCount];
+      for (int j = 0; j < depCount; j++) {
+        deps[i][j] = i - 1 - random.nextInt(Math.min(i, 100));
+      }
+    }
+
+    long before = usedMemory();
+    Target[] targets = new Target[count];
+    for (int i = 0; i < count; i++) {
+      Target target = new Target();
+      target.sources = NestedSetBuilder.wrap(Order.STABLE_ORDER, sources.get(i));
+      target.filesToBuild = NestedSetBuilder.create(Order.STABLE_ORDER, jars.get(i));
+      NestedSetBuilder<String> compileJars = NestedSetBuilder.stableOrder();
+      NestedSetBuilder<String> runtimeJars = NestedSetBuilder.naiveLinkOrder();
+      NestedSetBuilder<String> runfiles = NestedSetBuilder.stableOrder();
+      compileJars.add(jars.get(i));
+      runtimeJars.add(jars.get(i));
+      runfiles.addAll(sources.get(i)).add(jars.get(i));
+      for (int dep : deps[i]) {
+        compileJars.addTransitive(targets[dep].compileJars);
+        runtimeJars.addTransitive(targets[dep].runtimeJars);
+        runfiles.addTransitive(targets[dep].runfiles);
+      }
+      target.compileJars = compileJars.build();
+      target.runtimeJars = runtimeJars.build();
+      target.runfiles = runfiles.build();
+      targets[i] = target;
+    }
+    long after = usedMemory();
+    System.out.printf("targets=%d nested_set_bytes=%d bytes_per_target=%.1f%n", count,
+        after - before, (after - before) / (double) count);
+    // Keep the targets reachable until they are measured.
+    System.out.println(targets[count - 1].compileJars.toList().size());
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
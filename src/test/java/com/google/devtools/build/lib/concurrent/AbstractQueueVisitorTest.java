@@ -34,6 +34,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -80,6 +81,70 @@ public class AbstractQueueVisitorTest {
     assertSame(10, counter.getCount());
   }
 
+  @Test
+  public void forkJoinPoolCounter() throws Exception {
+    ForkJoinPool pool = ExecutorShutdownUtil.newWorkStealingPool(5, "BlazeTest ForkJoin");
+    CountingQueueVisitor counter = new CountingQueueVisitor(pool);
+    counter.enqueue();
+    counter.enqueue();
+    counter.work(false);
+    assertSame(10, counter.getCount());
+    assertTrue(pool.isShutdown());
+  }
+
+  @Test
+  public void forkJoinPoolExceptionFromWorkerThread() {
+    final RuntimeException myException = new IllegalStateException();
+    ConcreteQueueVisitor visitor = new ConcreteQueueVisitor(
+        ExecutorShutdownUtil.newWorkStealingPool(5, "BlazeTest ForkJoin"));
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        throw myException;
+      }
+    });
+
+    try {
+      visitor.work(false);
+      fail();
+    } catch (Exception e) {
+      assertSame(myException, e);
+    }
+  }
+
+  @Test
+  public void forkJoinPoolInterruptionWithInterruptingWorkers() throws Exception {
+    final CountDownLatch latch1 = new CountDownLatch(1);
+    final CountDownLatch latch2 = new CountDownLatch(1);
+    final boolean[] workerThreadInterrupted = { false };
+    ConcreteQueueVisitor visitor = new ConcreteQueueVisitor(
+        ExecutorShutdownUtil.newWorkStealingPool(3, "BlazeTest ForkJoin"));
+
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch1.countDown();
+          latch2.await();
+        } catch (InterruptedException e) {
+          workerThreadInterrupted[0] = true;
+        }
+      }
+    });
+
+    latch1.await();
+    Thread.currentThread().interrupt();
+
+    try {
+      visitor.work(true);
+      fail();
+    } catch (InterruptedException e) {
+      // Expected.
+    }
+
+    assertTrue(workerThreadInterrupted[0]);
+  }
+
   @Test
   public void exceptionFromWorkerThread() {
     final RuntimeException myException = new IllegalStateException();
@@ -434,6 +499,10 @@ public class AbstractQueueVisitorTest {
       super(executor, false, true, true);
     }
 
+    public CountingQueueVisitor(ForkJoinPool forkJoinPool) {
+      super(forkJoinPool, /*shutdownOnCompletion=*/true, true, true);
+    }
+
     public void enqueue() {
       super.enqueue(new Runnable() {
         @Override
@@ -477,6 +546,10 @@ public class AbstractQueueVisitorTest {
     public ConcreteQueueVisitor(ThreadPoolExecutor executor, boolean failFast) {
       super(executor, /*shutdownOnCompletion=*/false, failFast, true);
     }
+
+    public ConcreteQueueVisitor(ForkJoinPool forkJoinPool) {
+      super(forkJoinPool, /*shutdownOnCompletion=*/true, /*failFastOnException=*/false, true);
+    }
   }
 
   private static class QueueVisitorWithCriticalError extends AbstractQueueVisitor {
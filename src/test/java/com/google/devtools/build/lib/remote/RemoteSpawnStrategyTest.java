@@ -0,0 +1,254 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInputsPrefetchedEvent;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.util.DummyExecutor;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.testutil.TestFileOutErr;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link RemoteSpawnStrategy}, running spawns on an {@link InProcessRemoteWorker}.
+ */
+@RunWith(JUnit4.class)
+public class RemoteSpawnStrategyTest {
+
+  /** Records the spawns that the remote strategy falls back on. */
+  private static class RecordingStrategy implements SpawnActionContext {
+    private final List<Spawn> spawns = new ArrayList<>();
+
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext) {
+      spawns.add(spawn);
+    }
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return "local";
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return false;
+    }
+  }
+
+  private Path execRoot;
+  private Root sourceRoot;
+  private Root outputRoot;
+  private InProcessRemoteWorker worker;
+  private RecordingStrategy fallback;
+  private RemoteSpawnStrategy strategy;
+  private TestFileOutErr outErr;
+  private EventBus eventBus;
+  private final List<ActionInputsPrefetchedEvent> prefetchEvents = new ArrayList<>();
+
+  @Subscribe
+  public void inputsPrefetched(ActionInputsPrefetchedEvent event) {
+    prefetchEvents.add(event);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // The worker runs real commands.
+    Path scratch = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir())
+        .getRelative("RemoteSpawnStrategyTest");
+    FileSystemUtils.deleteTree(scratch);
+    execRoot = scratch.getRelative("execroot");
+    FileSystemUtils.createDirectoryAndParents(execRoot.getRelative("out"));
+    sourceRoot = Root.asSourceRoot(execRoot);
+    outputRoot = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+    worker = new InProcessRemoteWorker(scratch.getRelative("worker"));
+    fallback = new RecordingStrategy();
+    strategy = new RemoteSpawnStrategy(execRoot, worker, fallback, /*transferThreads=*/4,
+        /*batchSize=*/2, /*verboseFailures=*/false);
+    outErr = new TestFileOutErr();
+    eventBus = new EventBus();
+    eventBus.register(this);
+  }
+
+  @After
+  public void tearDown() {
+    strategy.shutdown();
+  }
+
+  private Artifact createInput(String name, String content) throws Exception {
+    Path path = execRoot.getRelative(name);
+    FileSystemUtils.writeContent(path, UTF_8, content);
+    return new Artifact(path, sourceRoot);
+  }
+
+  private Artifact output(String name) {
+    return new Artifact(execRoot.getRelative("out/" + name), outputRoot);
+  }
+
+  private Spawn createSpawn(String command, List<Artifact> inputs, Artifact output) {
+    TestAction action = new TestAction(TestAction.NO_EFFECT, inputs, ImmutableList.of(output));
+    return new BaseSpawn(ImmutableList.of("/bin/sh", "-c", command),
+        ImmutableMap.<String, String>of(), ImmutableMap.<String, String>of(), action,
+        ResourceSet.ZERO);
+  }
+
+  private ActionExecutionContext context() {
+    return new ActionExecutionContext(new DummyExecutor(execRoot, eventBus),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        null, outErr, null);
+  }
+
+  private void exec(Spawn spawn) throws Exception {
+    strategy.exec(spawn, context());
+  }
+
+  private static String content(Artifact artifact) throws Exception {
+    return new String(FileSystemUtils.readContent(artifact.getPath()), UTF_8);
+  }
+
+  @Test
+  public void executesRemotelyAndDownloadsOutputs() throws Exception {
+    Artifact out = output("out.txt");
+    exec(createSpawn("cat in.txt > out/out.txt && echo done",
+        ImmutableList.of(createInput("in.txt", "hello")), out));
+    assertEquals("hello", content(out));
+    assertEquals("done\n", outErr.outAsLatin1());
+    assertEquals(1, worker.getExecutions());
+    assertEquals(1, worker.getUploads());
+    assertThat(fallback.spawns).isEmpty();
+  }
+
+  @Test
+  public void identicalSpawnIsServedFromResultCache() throws Exception {
+    Artifact in = createInput("in.txt", "hello");
+    Artifact out = output("out.txt");
+    exec(createSpawn("cat in.txt > out/out.txt", ImmutableList.of(in), out));
+    out.getPath().delete();
+    exec(createSpawn("cat in.txt > out/out.txt", ImmutableList.of(in), out));
+    assertEquals("hello", content(out));
+    assertEquals(1, worker.getExecutions());
+  }
+
+  @Test
+  public void checksBlobsInBatchesAndOnlyOnce() throws Exception {
+    List<Artifact> inputs = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      inputs.add(createInput("in" + i, "content " + i));
+    }
+    exec(createSpawn("cat in* > out/a", inputs, output("a")));
+    assertEquals(3, worker.getFindMissingBlobsCalls());
+    assertEquals(5, worker.getUploads());
+
+    // The inputs are known to the worker now, and so is the output of the first spawn.
+    List<Artifact> moreInputs = new ArrayList<>(inputs);
+    moreInputs.add(output("a"));
+    exec(createSpawn("cat in* out/a > out/b", moreInputs, output("b")));
+    assertEquals(3, worker.getFindMissingBlobsCalls());
+    assertEquals(5, worker.getUploads());
+    assertEquals("content 0content 1content 2content 3content 4", content(output("a")));
+  }
+
+  @Test
+  public void prefetchUploadsInputsAheadOfExecution() throws Exception {
+    List<Artifact> inputs = ImmutableList.of(createInput("a", "a"), createInput("b", "b"));
+    Spawn spawn = createSpawn("cat a b > out/out.txt", inputs, output("out.txt"));
+    strategy.prefetchInputs(spawn.getResourceOwner(), inputs, context()).get();
+    assertEquals(2, worker.getUploads());
+    int checks = worker.getFindMissingBlobsCalls();
+
+    exec(spawn);
+    assertEquals("ab", content(output("out.txt")));
+    assertEquals(2, worker.getUploads());
+    assertEquals(checks, worker.getFindMissingBlobsCalls());
+    assertThat(prefetchEvents).hasSize(1);
+    assertSame(spawn.getResourceOwner(), prefetchEvents.get(0).getAction());
+  }
+
+  @Test
+  public void executionWaitsForRunningPrefetch() throws Exception {
+    List<Artifact> inputs = ImmutableList.of(createInput("a", "a"), createInput("b", "b"));
+    Spawn spawn = createSpawn("cat a b > out/out.txt", inputs, output("out.txt"));
+    strategy.prefetchInputs(spawn.getResourceOwner(), inputs, context());
+
+    exec(spawn);
+    assertEquals("ab", content(output("out.txt")));
+    assertEquals(2, worker.getUploads());
+    assertThat(prefetchEvents).hasSize(1);
+  }
+
+  @Test
+  public void discardedPrefetchIsNotReported() throws Exception {
+    List<Artifact> inputs = ImmutableList.of(createInput("a", "a"));
+    Spawn spawn = createSpawn("cat a > out/out.txt", inputs, output("out.txt"));
+    strategy.prefetchInputs(spawn.getResourceOwner(), inputs, context()).get();
+    strategy.discardPrefetch(spawn.getResourceOwner());
+
+    exec(spawn);
+    assertEquals("a", content(output("out.txt")));
+    assertThat(prefetchEvents).isEmpty();
+  }
+
+  @Test
+  public void failingCommandReportsExitCodeAndStderr() throws Exception {
+    try {
+      exec(createSpawn("echo oops >&2; exit 3", ImmutableList.<Artifact>of(), output("out.txt")));
+      fail();
+    } catch (UserExecException e) {
+      assertThat(e.getMessage()).endsWith("Exit 3");
+    }
+    assertEquals("oops\n", new String(outErr.getErrorStream().toByteArray(), UTF_8));
+    assertThat(output("out.txt").getPath().exists()).isFalse();
+  }
+
+  @Test
+  public void localSpawnFallsBack() throws Exception {
+    TestAction action = new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(),
+        ImmutableList.of(output("out.txt")));
+    Spawn spawn = new BaseSpawn.Local(ImmutableList.of("true"),
+        ImmutableMap.<String, String>of(), action);
+    exec(spawn);
+    assertThat(fallback.spawns).hasSize(1);
+    assertSame(spawn, fallback.spawns.get(0));
+    assertEquals(0, worker.getExecutions());
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.Differencer;
+import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.RecordingDifferencer;
+import com.google.devtools.build.skyframe.SequentialBuildDriver;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionException;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link FileSystemValueCodecs}, by saving and restoring the file system part of a graph.
+ */
+@RunWith(JUnit4.class)
+public class FileSystemValueCodecsTest {
+
+  private InMemoryFileSystem fileSystem;
+  private Path pkgRoot;
+  private TimestampGranularityMonitor tsgm;
+  private ImmutableMap<SkyFunctionName, SkyFunction> skyFunctions;
+  private final List<SkyKey> computed = new ArrayList<>();
+  private RecordingDifferencer differencer;
+  private InMemoryMemoizingEvaluator evaluator;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new InMemoryFileSystem();
+    pkgRoot = fileSystem.getPath("/workspace");
+    FileSystemUtils.createDirectoryAndParents(pkgRoot.getRelative("pkg/dir/sub"));
+    FileSystemUtils.writeContentAsLatin1(pkgRoot.getRelative("pkg/a.txt"), "contents");
+    FileSystemUtils.createEmptyFile(pkgRoot.getRelative("pkg/empty"));
+    pkgRoot.getRelative("pkg/link").createSymbolicLink(new PathFragment("a.txt"));
+    FileSystemUtils.createEmptyFile(pkgRoot.getRelative("pkg/dir/b.txt"));
+    pkgRoot.getRelative("pkg/linkdir").createSymbolicLink(new PathFragment("dir"));
+
+    tsgm = new TimestampGranularityMonitor(BlazeClock.instance());
+    AtomicReference<PathPackageLocator> pkgLocator =
+        new AtomicReference<>(new PathPackageLocator(pkgRoot));
+    ExternalFilesHelper externalFilesHelper = new ExternalFilesHelper(pkgLocator);
+    skyFunctions = ImmutableMap.<SkyFunctionName, SkyFunction>builder()
+        .put(SkyFunctions.FILE_STATE, recording(new FileStateFunction(tsgm, externalFilesHelper)))
+        .put(SkyFunctions.FILE, recording(new FileFunction(pkgLocator, externalFilesHelper)))
+        .put(SkyFunctions.DIRECTORY_LISTING_STATE,
+            recording(new DirectoryListingStateFunction(externalFilesHelper)))
+        .put(SkyFunctions.DIRECTORY_LISTING, recording(new DirectoryListingFunction()))
+        .put(SkyFunctions.FILE_SYMLINK_CYCLE_UNIQUENESS,
+            recording(new FileSymlinkCycleUniquenessFunction()))
+        .build();
+    newEvaluator();
+  }
+
+  /** Simulates a server restart. */
+  private void newEvaluator() {
+    differencer = new RecordingDifferencer();
+    evaluator = new InMemoryMemoizingEvaluator(skyFunctions, differencer);
+  }
+
+  private SkyFunction recording(final SkyFunction delegate) {
+    return new SkyFunction() {
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env)
+          throws SkyFunctionException, InterruptedException {
+        computed.add(skyKey);
+        return delegate.compute(skyKey, env);
+      }
+
+      @Override
+      public String extractTag(SkyKey skyKey) {
+        return delegate.extractTag(skyKey);
+      }
+    };
+  }
+
+  private RootedPath rootedPath(String relative) {
+    return RootedPath.toRootedPath(pkgRoot, new PathFragment(relative));
+  }
+
+  private List<SkyKey> keys() {
+    return ImmutableList.of(
+        FileValue.key(rootedPath("pkg/a.txt")),
+        FileValue.key(rootedPath("pkg/empty")),
+        FileValue.key(rootedPath("pkg/link")),
+        FileValue.key(rootedPath("pkg/missing")),
+        FileValue.key(rootedPath("pkg/linkdir/b.txt")),
+        DirectoryListingValue.key(rootedPath("pkg/dir")),
+        DirectoryListingValue.key(rootedPath("pkg/linkdir")));
+  }
+
+  private EvaluationResult<SkyValue> eval(Iterable<SkyKey> keys) throws InterruptedException {
+    EvaluationResult<SkyValue> result = new SequentialBuildDriver(evaluator).evaluate(
+        keys, /*keepGoing=*/false, 1, new Reporter());
+    assertFalse(result.toString(), result.hasError());
+    return result;
+  }
+
+  private byte[] snapshot() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    evaluator.writeSnapshot(FileSystemValueCodecs.create(fileSystem), out);
+    return out.toByteArray();
+  }
+
+  private void restore(byte[] snapshot) throws Exception {
+    newEvaluator();
+    evaluator.restoreSnapshot(FileSystemValueCodecs.create(fileSystem),
+        new ByteArrayInputStream(snapshot));
+  }
+
+  @Test
+  public void restoredValuesEqualSavedOnes() throws Exception {
+    EvaluationResult<SkyValue> before = eval(keys());
+    Map<SkyKey, SkyValue> saved = ImmutableMap.copyOf(Maps.filterKeys(evaluator.getValues(),
+        SkyFunctionName.functionIsIn(FileSystemValueCodecs.create(fileSystem).keySet())));
+    restore(snapshot());
+
+    assertEquals(saved, evaluator.getValues());
+    computed.clear();
+    EvaluationResult<SkyValue> after = eval(keys());
+    assertThat(computed).isEmpty();
+    for (SkyKey key : keys()) {
+      assertEquals(before.get(key), after.get(key));
+    }
+    DirectoryListingValue listing =
+        (DirectoryListingValue) after.get(DirectoryListingValue.key(rootedPath("pkg/linkdir")));
+    assertEquals(2, Iterables.size(listing.getDirents()));
+  }
+
+  @Test
+  public void changesSinceTheSnapshotAreFoundByCheckingTheFileSystem() throws Exception {
+    eval(keys());
+    byte[] snapshot = snapshot();
+    FileSystemUtils.writeContentAsLatin1(pkgRoot.getRelative("pkg/a.txt"), "longer contents");
+    FileSystemUtils.createEmptyFile(pkgRoot.getRelative("pkg/dir/c.txt"));
+    restore(snapshot);
+
+    Differencer.Diff diff = new FilesystemValueChecker(evaluator, tsgm, null)
+        .getDirtyFilesystemSkyKeys();
+    List<SkyKey> dirty = new ArrayList<>();
+    Iterables.addAll(dirty, diff.changedKeysWithoutNewValues());
+    dirty.addAll(diff.changedKeysWithNewValues().keySet());
+    assertThat(dirty).containsExactly(FileStateValue.key(rootedPath("pkg/a.txt")),
+        DirectoryListingStateValue.key(rootedPath("pkg/dir")));
+
+    differencer.invalidate(dirty);
+    computed.clear();
+    EvaluationResult<SkyValue> result = eval(keys());
+    assertEquals(15, ((FileValue) result.get(FileValue.key(rootedPath("pkg/a.txt")))).getSize());
+    assertEquals(15, ((FileValue) result.get(FileValue.key(rootedPath("pkg/link")))).getSize());
+    assertEquals(3, Iterables.size(((DirectoryListingValue) result.get(
+        DirectoryListingValue.key(rootedPath("pkg/linkdir")))).getDirents()));
+    assertTrue(computed.containsAll(dirty));
+    assertFalse(computed.contains(FileStateValue.key(rootedPath("pkg/empty"))));
+  }
+}
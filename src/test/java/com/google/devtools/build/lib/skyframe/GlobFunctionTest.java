@@ -0,0 +1,242 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.EvaluationResult;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.RecordingDifferencer;
+import com.google.devtools.build.skyframe.SequentialBuildDriver;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.build.skyframe.SkyKey;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link GlobFunction}. Its matches are compared with those of {@link UnixGlob}, which
+ * the legacy globber uses, since packages may be loaded with either.
+ */
+@RunWith(JUnit4.class)
+public class GlobFunctionTest {
+
+  /** An in-memory file system that lists some entries as special files, like fifos. */
+  private static class SpecialFilesFileSystem extends InMemoryFileSystem {
+    private final List<Path> specialFiles = new ArrayList<>();
+
+    @Override
+    protected Collection<Dirent> readdir(Path path, boolean followSymlinks) throws IOException {
+      Collection<Dirent> dirents = new ArrayList<>(super.readdir(path, followSymlinks));
+      for (Path specialFile : specialFiles) {
+        if (specialFile.getParentDirectory().equals(path)) {
+          dirents.add(new Dirent(specialFile.getBaseName(), Dirent.Type.UNKNOWN));
+        }
+      }
+      return dirents;
+    }
+  }
+
+  private static final PackageIdentifier PKG_ID = PackageIdentifier.createInDefaultRepo("pkg");
+
+  private SpecialFilesFileSystem fileSystem;
+  private Path root;
+  private Path pkgPath;
+  private SequentialBuildDriver driver;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new SpecialFilesFileSystem();
+    root = fileSystem.getPath("/workspace");
+    pkgPath = root.getRelative("pkg");
+    createFile("pkg/BUILD");
+    createFile("pkg/a.txt");
+    createFile("pkg/x");
+    createFile("pkg/sub/x");
+    createFile("pkg/sub/c.txt");
+    createFile("pkg/sub/deep/x");
+    createFile("pkg/sub/deep/d.txt");
+    createFile("pkg/a/b/f");
+    createFile("pkg/a/m/b/g");
+    createFile("pkg/a/m/n/b/h.txt");
+    createFile("pkg/a/x/y");
+    createFile("pkg/subpkg/BUILD");
+    createFile("pkg/subpkg/x");
+    createFile("pkg/subpkg/e.txt");
+    createFile("pkg/notpkg/BUILD/x");
+    createSymlink("pkg/dangling.txt", "missing");
+    createSymlink("pkg/sub/deep/dangling", "nowhere/x");
+    createSymlink("pkg/linkdir", "sub/deep");
+    createSymlink("pkg/linkfile.txt", "a.txt");
+    fileSystem.specialFiles.add(pkgPath.getRelative("fifo.txt"));
+    fileSystem.specialFiles.add(pkgPath.getRelative("a/m/socket"));
+
+    AtomicReference<PathPackageLocator> pkgLocator =
+        new AtomicReference<>(new PathPackageLocator(root));
+    ExternalFilesHelper externalFilesHelper = new ExternalFilesHelper(pkgLocator);
+    TimestampGranularityMonitor tsgm = new TimestampGranularityMonitor(BlazeClock.instance());
+    RecordingDifferencer differencer = new RecordingDifferencer();
+    InMemoryMemoizingEvaluator evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.<SkyFunctionName, SkyFunction>builder()
+            .put(SkyFunctions.GLOB, new GlobFunction())
+            .put(SkyFunctions.PACKAGE_LOOKUP, new PackageLookupFunction(
+                new AtomicReference<>(ImmutableSet.<String>of())))
+            .put(SkyFunctions.PRECOMPUTED, new PrecomputedFunction())
+            .put(SkyFunctions.FILE_STATE, new FileStateFunction(tsgm, externalFilesHelper))
+            .put(SkyFunctions.FILE, new FileFunction(pkgLocator, externalFilesHelper))
+            .put(SkyFunctions.DIRECTORY_LISTING_STATE,
+                new DirectoryListingStateFunction(externalFilesHelper))
+            .put(SkyFunctions.DIRECTORY_LISTING, new DirectoryListingFunction())
+            .put(SkyFunctions.FILE_SYMLINK_CYCLE_UNIQUENESS,
+                new FileSymlinkCycleUniquenessFunction())
+            .build(),
+        differencer);
+    PrecomputedValue.PATH_PACKAGE_LOCATOR.set(differencer, pkgLocator.get());
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private void createFile(String relative) throws IOException {
+    Path path = root.getRelative(relative);
+    FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+    FileSystemUtils.createEmptyFile(path);
+  }
+
+  private void createSymlink(String relative, String target) throws IOException {
+    root.getRelative(relative).createSymbolicLink(new PathFragment(target));
+  }
+
+  /** Returns the sorted matches of {@code pattern}, relative to the package, from Skyframe. */
+  private List<String> glob(String pattern, boolean excludeDirs) throws Exception {
+    SkyKey key = GlobValue.key(PKG_ID, pattern, excludeDirs);
+    EvaluationResult<GlobValue> result = driver.evaluate(ImmutableList.of(key),
+        /*keepGoing=*/false, 1, new Reporter());
+    assertFalse(result.toString(), result.hasError());
+    List<String> matches = new ArrayList<>();
+    for (PathFragment match : result.get(key).getMatches()) {
+      // Like the legacy globber, leave out the package directory itself.
+      if (!match.getPathString().isEmpty()) {
+        matches.add(match.getPathString());
+      }
+    }
+    return Ordering.natural().sortedCopy(matches);
+  }
+
+  /** Returns the sorted matches of {@code pattern} from {@link UnixGlob}. */
+  private List<String> legacyGlob(String pattern, boolean excludeDirs) throws Exception {
+    List<String> matches = new ArrayList<>();
+    for (Path match : UnixGlob.forPath(pkgPath)
+        .addPattern(pattern)
+        .setExcludeDirectories(excludeDirs)
+        .setDirectoryFilter(new Predicate<Path>() {
+          // Like GlobCache, don't descend into subpackages.
+          @Override
+          public boolean apply(Path directory) {
+            return directory.equals(pkgPath) || !directory.getChild("BUILD").isFile();
+          }
+        })
+        .glob()) {
+      String relative = match.relativeTo(pkgPath).getPathString();
+      if (!relative.isEmpty()) {
+        matches.add(relative);
+      }
+    }
+    return Ordering.natural().sortedCopy(matches);
+  }
+
+  private void assertMatches(String pattern, boolean excludeDirs, String... expected)
+      throws Exception {
+    assertEquals(ImmutableList.copyOf(expected), glob(pattern, excludeDirs));
+    assertEquals(ImmutableList.copyOf(expected), legacyGlob(pattern, excludeDirs));
+  }
+
+  @Test
+  public void matchesLikeTheLegacyGlobber() throws Exception {
+    for (String pattern : ImmutableList.of("*", "*.txt", "**", "**/*", "**/*.txt", "**/x",
+        "**/**/x", "**/x/**", "a/**/b/**", "a/**/b/*", "sub/**", "sub/*/x", "*/x", "link*/*",
+        "**/b", "**/BUILD")) {
+      for (boolean excludeDirs : new boolean[] {true, false}) {
+        assertEquals(pattern + ", excludeDirs=" + excludeDirs, legacyGlob(pattern, excludeDirs),
+            glob(pattern, excludeDirs));
+      }
+    }
+  }
+
+  @Test
+  public void recursiveLiteralPatterns() throws Exception {
+    assertMatches("**/x", /*excludeDirs=*/true,
+        "linkdir/x", "notpkg/BUILD/x", "sub/deep/x", "sub/x", "x");
+    assertMatches("**/x", /*excludeDirs=*/false,
+        "a/x", "linkdir/x", "notpkg/BUILD/x", "sub/deep/x", "sub/x", "x");
+    assertMatches("**/**/x", /*excludeDirs=*/true,
+        "linkdir/x", "notpkg/BUILD/x", "sub/deep/x", "sub/x", "x");
+  }
+
+  @Test
+  public void recursivePatternsInTheMiddle() throws Exception {
+    assertMatches("a/**/b/**", /*excludeDirs=*/true, "a/b/f", "a/m/b/g", "a/m/n/b/h.txt");
+    assertMatches("a/**/b/**", /*excludeDirs=*/false,
+        "a/b", "a/b/f", "a/m/b", "a/m/b/g", "a/m/n/b", "a/m/n/b/h.txt");
+  }
+
+  @Test
+  public void danglingSymlinksAreLeftOut() throws Exception {
+    assertMatches("*.txt", /*excludeDirs=*/true, "a.txt", "linkfile.txt");
+    assertThat(glob("**", /*excludeDirs=*/true)).doesNotContain("sub/deep/dangling");
+    assertThat(legacyGlob("**", /*excludeDirs=*/true)).doesNotContain("sub/deep/dangling");
+  }
+
+  @Test
+  public void specialFilesAreLeftOut() throws Exception {
+    assertThat(glob("**/*", /*excludeDirs=*/true)).containsNoneOf("fifo.txt", "a/m/socket");
+    assertThat(legacyGlob("**/*", /*excludeDirs=*/true)).containsNoneOf("fifo.txt", "a/m/socket");
+  }
+
+  @Test
+  public void subpackagesAreNotEntered() throws Exception {
+    assertMatches("**/*.txt", /*excludeDirs=*/true, "a.txt", "a/m/n/b/h.txt", "linkdir/d.txt",
+        "linkfile.txt", "sub/c.txt", "sub/deep/d.txt");
+    assertMatches("subpkg/*", /*excludeDirs=*/true);
+    assertMatches("*", /*excludeDirs=*/false, "BUILD", "a", "a.txt", "linkdir", "linkfile.txt",
+        "notpkg", "sub", "x");
+    // A directory named BUILD does not make a package.
+    assertMatches("notpkg/**", /*excludeDirs=*/true, "notpkg/BUILD/x");
+  }
+}
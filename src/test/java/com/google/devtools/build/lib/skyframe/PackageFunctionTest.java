@@ -0,0 +1,188 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BaseRuleClasses;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.analysis.buildinfo.BuildInfoFactory;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PackageFactory.Globber;
+import com.google.devtools.build.lib.packages.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.RawAttributeMapper;
+import com.google.devtools.build.lib.packages.Rule;
+import com.google.devtools.build.lib.packages.Type;
+import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests for {@link PackageFunction}: packages reloaded after an edit, whose globs come from the
+ * values Skyframe already has, get the same glob results as the legacy globber.
+ */
+@RunWith(JUnit4.class)
+public class PackageFunctionTest {
+
+  /** An in-memory file system that records the directories it lists. */
+  private static class RecordingFileSystem extends InMemoryFileSystem {
+    private final List<Path> listed = new ArrayList<>();
+
+    @Override
+    protected synchronized Collection<Dirent> readdir(Path path, boolean followSymlinks)
+        throws IOException {
+      listed.add(path);
+      return super.readdir(path, followSymlinks);
+    }
+  }
+
+  private static final PackageIdentifier PKG_ID = PackageIdentifier.createInDefaultRepo("pkg");
+
+  private RecordingFileSystem fileSystem;
+  private Path root;
+  private PackageFactory packageFactory;
+  private SequencedSkyframeExecutor skyframeExecutor;
+  private final Reporter reporter = new Reporter();
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new RecordingFileSystem();
+    root = fileSystem.getPath("/workspace");
+    createFile("WORKSPACE", "");
+    createFile("pkg/BUILD",
+        "testing_dummy_rule(name = 'files',",
+        "    dummystrings = glob(['**/*.txt', 'sub/*', 'z.java', 'a.java'],",
+        "        exclude = ['**/skip*']))",
+        "testing_dummy_rule(name = 'dirs',",
+        "    dummystrings = glob(['**'], exclude = ['other/**'], exclude_directories = 0))");
+    createFile("pkg/b.txt", "");
+    createFile("pkg/a.java", "");
+    createFile("pkg/z.java", "");
+    createFile("pkg/skip.txt", "");
+    createFile("pkg/sub/c.txt", "");
+    createFile("pkg/sub/skip_me.txt", "");
+    createFile("pkg/sub/deep/d.txt", "");
+    createFile("pkg/other/e.txt", "");
+    createFile("pkg/subpkg/BUILD", "");
+    createFile("pkg/subpkg/f.txt", "");
+
+    ConfiguredRuleClassProvider.Builder builder = new ConfiguredRuleClassProvider.Builder();
+    builder.addRuleDefinition(new BaseRuleClasses.BaseRule());
+    builder.addRuleDefinition(new BaseRuleClasses.RuleBase());
+    builder.addRuleDefinition(new TestRuleClassProvider.TestingDummyRule());
+    packageFactory = new PackageFactory(builder.build());
+    Path outputBase = fileSystem.getPath("/output_base");
+    skyframeExecutor = SequencedSkyframeExecutor.create(reporter, packageFactory,
+        new TimestampGranularityMonitor(BlazeClock.instance()),
+        new BlazeDirectories(outputBase, outputBase, root), null,
+        ImmutableList.<BuildInfoFactory>of(), ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(), Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of());
+    skyframeExecutor.preparePackageLoading(new PathPackageLocator(root),
+        ConstantRuleVisibility.PUBLIC, /*showLoadingProgress=*/false, "", UUID.randomUUID());
+  }
+
+  private void createFile(String relative, String... lines) throws IOException {
+    Path path = root.getRelative(relative);
+    FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+    FileSystemUtils.writeLinesAs(path, ISO_8859_1, lines);
+  }
+
+  private Package loadPackage() throws Exception {
+    Package pkg = skyframeExecutor.getPackageManager().getPackage(reporter, PKG_ID);
+    assertFalse(pkg.containsErrors());
+    return pkg;
+  }
+
+  private static List<String> globResult(Package pkg, String ruleName) throws Exception {
+    return RawAttributeMapper.of((Rule) pkg.getTarget(ruleName))
+        .get("dummystrings", Type.STRING_LIST);
+  }
+
+  /** Returns what the legacy globber returns for the glob, with the package as it is now. */
+  private List<String> legacyGlob(List<String> includes, List<String> excludes,
+      boolean excludeDirs) throws Exception {
+    Globber globber = packageFactory.createLegacyGlobber(root.getRelative("pkg"), PKG_ID,
+        skyframeExecutor.getPackageManager());
+    try {
+      return globber.fetch(globber.runAsync(includes, excludes, excludeDirs));
+    } finally {
+      globber.onCompletion();
+    }
+  }
+
+  private void assertGlobsMatchLegacyGlobber(Package pkg) throws Exception {
+    assertEquals(legacyGlob(ImmutableList.of("**/*.txt", "sub/*", "z.java", "a.java"),
+            ImmutableList.of("**/skip*"), /*excludeDirs=*/true),
+        globResult(pkg, "files"));
+    assertEquals(legacyGlob(ImmutableList.of("**"), ImmutableList.of("other/**"),
+            /*excludeDirs=*/false),
+        globResult(pkg, "dirs"));
+  }
+
+  @Test
+  public void reloadedPackageGlobsLikeTheLegacyGlobber() throws Exception {
+    assertGlobsMatchLegacyGlobber(loadPackage());
+
+    createFile("pkg/sub/deep/g.txt", "");
+    createFile("pkg/sub/skip_too.txt", "");
+    skyframeExecutor.invalidateFilesUnderPathForTesting(ModifiedFileSet.builder()
+        .modify(new PathFragment("pkg/sub/deep/g.txt"))
+        .modify(new PathFragment("pkg/sub/skip_too.txt"))
+        .build(), root);
+    fileSystem.listed.clear();
+    Package reloaded = loadPackage();
+
+    assertThat(globResult(reloaded, "files")).containsAllOf("sub/c.txt", "sub/deep/g.txt");
+    assertThat(globResult(reloaded, "files")).doesNotContain("sub/skip_too.txt");
+    assertThat(globResult(reloaded, "dirs")).containsAllOf("sub", "sub/deep", "sub/deep/g.txt");
+    // The globs came from the glob values, which only list the changed directories again.
+    assertThat(fileSystem.listed).doesNotContain(root.getRelative("pkg/other"));
+    assertGlobsMatchLegacyGlobber(reloaded);
+  }
+}
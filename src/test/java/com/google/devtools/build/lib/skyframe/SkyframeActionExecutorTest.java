@@ -0,0 +1,196 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.actions.util.ActionsTestUtil.NULL_ACTION_OWNER;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ActionCacheChecker;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionExecutionStatusReporter;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputPrefetcher;
+import com.google.devtools.build.lib.actions.ActionMetadata;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.util.ActionCacheTestHelper;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.actions.CommandLine;
+import com.google.devtools.build.lib.analysis.actions.SpawnAction;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.util.TestExecutorBuilder;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link SkyframeActionExecutor}.
+ */
+@RunWith(JUnit4.class)
+public class SkyframeActionExecutorTest {
+
+  /**
+   * A strategy that runs remotable spawns remotely, and records the actions whose inputs it is
+   * asked to prefetch.
+   */
+  private static class RecordingPrefetcher implements SpawnActionContext, ActionInputPrefetcher {
+    private final List<ActionMetadata> prefetched = new ArrayList<>();
+    private final List<ActionInput> prefetchedInputs = new ArrayList<>();
+
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext) {}
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return remotable ? "remote" : "local";
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return remotable;
+    }
+
+    @Override
+    public ListenableFuture<Void> prefetchInputs(ActionMetadata action,
+        Iterable<? extends ActionInput> inputs, ActionExecutionContext actionExecutionContext) {
+      prefetched.add(action);
+      for (ActionInput input : inputs) {
+        prefetchedInputs.add(input);
+      }
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void discardPrefetch(ActionMetadata action) {}
+  }
+
+  /** A strategy that can't prefetch, and runs everything locally. */
+  private static class LocalStrategy implements SpawnActionContext {
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext) {}
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return "local";
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return false;
+    }
+  }
+
+  private BlazeDirectories directories;
+  private Root root;
+  private RecordingPrefetcher prefetcher;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    Path outputBase = fileSystem.getPath("/output_base");
+    directories = new BlazeDirectories(fileSystem.getPath("/install"), outputBase,
+        fileSystem.getPath("/workspace"));
+    root = Root.asSourceRoot(directories.getExecRoot());
+    prefetcher = new RecordingPrefetcher();
+  }
+
+  private SkyframeActionExecutor createActionExecutor(Executor executor) {
+    Reporter reporter = new Reporter();
+    SkyframeActionExecutor actionExecutor = new SkyframeActionExecutor(reporter,
+        ResourceManager.instanceForTestingOnly(), new AtomicReference<>(new EventBus()),
+        new AtomicReference<>(ActionExecutionStatusReporter.create(reporter)));
+    actionExecutor.prepareForExecution(executor, /*keepGoing=*/false, /*explain=*/false,
+        new ActionCacheChecker(ActionCacheTestHelper.AMNESIAC_CACHE, null,
+            Predicates.<Action>alwaysTrue(), false));
+    return actionExecutor;
+  }
+
+  private Artifact artifact(String name) {
+    return new Artifact(new PathFragment(name), root);
+  }
+
+  private SpawnAction createSpawnAction(String mnemonic, ImmutableMap<String, String> executionInfo,
+      Artifact input, Artifact output) {
+    return new SpawnAction(NULL_ACTION_OWNER, ImmutableList.of(input), ImmutableList.of(output),
+        ResourceSet.createWithRamCpuIo(100, 1, 0), CommandLine.of(ImmutableList.of("/bin/true"),
+        false), ImmutableMap.<String, String>of(), executionInfo, "Running",
+        ImmutableMap.<PathFragment, Artifact>of(), mnemonic, false, null);
+  }
+
+  private static ActionExecutionContext context(Executor executor) {
+    return new ActionExecutionContext(executor, null, null, null, null);
+  }
+
+  @Test
+  public void prefetchesInputsOfRemotableSpawns() throws Exception {
+    Executor executor = new TestExecutorBuilder(directories, null)
+        .setExecution("Remote", prefetcher).build();
+    Artifact input = artifact("in");
+    SpawnAction action = createSpawnAction("Remote", ImmutableMap.<String, String>of(), input,
+        artifact("out"));
+    // The strategy runs the spawn remotely, so the action doesn't wait for local resources.
+    assertSame(ResourceSet.ZERO, action.estimateResourceConsumption(executor));
+
+    assertSame(prefetcher,
+        createActionExecutor(executor).startInputPrefetch(action, context(executor)));
+    assertThat(prefetcher.prefetched).containsExactly(action);
+    assertThat(prefetcher.prefetchedInputs).containsExactly(input);
+  }
+
+  @Test
+  public void doesNotPrefetchInputsOfLocalSpawns() throws Exception {
+    Executor executor = new TestExecutorBuilder(directories, null)
+        .setExecution("Remote", prefetcher).build();
+    SpawnAction action = createSpawnAction("Remote", ImmutableMap.of("local", ""),
+        artifact("in"), artifact("out"));
+    // The strategy runs the spawn on its local fallback, which waits for resources.
+    assertThat(action.estimateResourceConsumption(executor)).isNotSameAs(ResourceSet.ZERO);
+
+    assertNull(createActionExecutor(executor).startInputPrefetch(action, context(executor)));
+    assertThat(prefetcher.prefetched).isEmpty();
+  }
+
+  @Test
+  public void doesNotPrefetchForStrategiesThatCannot() throws Exception {
+    Executor executor = new TestExecutorBuilder(directories, null)
+        .setExecution("Local", new LocalStrategy()).build();
+    SpawnAction action = createSpawnAction("Local", ImmutableMap.<String, String>of(),
+        artifact("in"), artifact("out"));
+
+    assertNull(createActionExecutor(executor).startInputPrefetch(action, context(executor)));
+  }
+}
@@ -134,4 +134,62 @@ public class FingerprintTest {
     assertThat("01cc3eeea3a2f58e447e824f9f62d3d1").isEqualTo(
         new Fingerprint().addPath(p).hexDigestAndReset());
   }
+
+  // echo -n 'Hello World!'| sha256sum
+  @Test
+  public void sha256Fingerprint() {
+    assertThat("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069").isEqualTo(
+        new Fingerprint(DigestFunction.SHA256).addBytes("Hello World!".getBytes(UTF_8))
+            .hexDigestAndReset());
+  }
+
+  @Test
+  public void murmur3FingerprintIsResetAfterDigest() {
+    Fingerprint f = new Fingerprint(DigestFunction.MURMUR3);
+    String first = f.addString("Hello World!").hexDigestAndReset();
+    assertThat(first).hasLength(32);
+    assertThat(f.addString("Hello World!").hexDigestAndReset()).isEqualTo(first);
+    assertThat(first).isNotEqualTo(
+        new Fingerprint(DigestFunction.MD5).addString("Hello World!").hexDigestAndReset());
+  }
+
+  @Test
+  public void defaultFunction() {
+    assertThat(Fingerprint.getDefaultFunction()).isEqualTo(DigestFunction.MD5);
+    Fingerprint.setDefaultFunction(DigestFunction.MURMUR3);
+    try {
+      assertThat(new Fingerprint().addString("x").hexDigestAndReset()).isEqualTo(
+          new Fingerprint(DigestFunction.MURMUR3).addString("x").hexDigestAndReset());
+      // md5Digest() always uses MD5.
+      assertThat(Fingerprint.md5Digest("Hello World!"))
+          .isEqualTo("ed076287532e86365e841e92bfc50d8c");
+    } finally {
+      Fingerprint.setDefaultFunction(DigestFunction.MD5);
+    }
+  }
+
+  @Test
+  public void stringsAreAddedAsLengthAndUtf8Bytes() {
+    String longString = new String(new char[5000]).replace('\0', 'x');
+    for (String s : ImmutableList.of("", "abc", "caf\u00e9", "\u4e2d\u6587", longString, "a")) {
+      byte[] bytes = s.getBytes(UTF_8);
+      assertThat(new Fingerprint().addString(s).hexDigestAndReset()).isEqualTo(
+          new Fingerprint().addInt(bytes.length).addBytes(bytes).hexDigestAndReset());
+    }
+    // The same fingerprint adds strings of different lengths and encodings in a row.
+    Fingerprint f = new Fingerprint();
+    Fingerprint expected = new Fingerprint();
+    for (String s : ImmutableList.of("abcdef", "\u00e9", "ab", longString, "xyz")) {
+      f.addString(s);
+      f.addStringLatin1(s);
+      byte[] bytes = s.getBytes(UTF_8);
+      expected.addInt(bytes.length).addBytes(bytes);
+      byte[] latin1 = new byte[s.length()];
+      for (int i = 0; i < s.length(); i++) {
+        latin1[i] = (byte) s.charAt(i);
+      }
+      expected.addInt(latin1.length).addBytes(latin1);
+    }
+    assertThat(f.hexDigestAndReset()).isEqualTo(expected.hexDigestAndReset());
+  }
 }
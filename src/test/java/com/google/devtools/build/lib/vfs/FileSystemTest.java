@@ -379,6 +379,34 @@ public abstract class FileSystemTest {
     assertFalse(someDirectory.isSymbolicLink());
   }
 
+  @Test
+  public void testHardLinkSharesContentsAndPermissions() throws Exception {
+    Path someLink = absolutize("some-hard-link");
+    try {
+      someLink.createHardLink(xFile);
+    } catch (UnsupportedOperationException e) {
+      return; // Not all file systems support hard links.
+    }
+    FileSystemUtils.writeContentAsLatin1(xFile, "contents");
+    assertEquals("contents", new String(FileSystemUtils.readContentAsLatin1(someLink)));
+    someLink.setExecutable(true);
+    assertTrue(xFile.isExecutable());
+    someLink.delete();
+    assertTrue(xFile.exists());
+  }
+
+  @Test
+  public void testHardLinkOverExistingFileFails() throws Exception {
+    try {
+      xNonEmptyDirectoryFoo.createHardLink(xFile);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // Not all file systems support hard links.
+    } catch (IOException e) {
+      assertThat(e.getMessage()).endsWith(" (File exists)");
+    }
+  }
+
   @Test
   public void testSymbolicFileLinkExists() throws Exception {
     if (supportsSymlinks) {
@@ -1319,6 +1347,19 @@ public abstract class FileSystemTest {
         fp.hexDigestAndReset());
   }
 
+  @Test
+  public void testGetMD5DigestForLargeFile() throws Exception {
+    byte[] buffer = new byte[3 << 20];
+    for (int i = 0; i < buffer.length; ++i) {
+      buffer[i] = (byte) i;
+    }
+    FileSystemUtils.writeContent(xFile, buffer);
+    Fingerprint fp = new Fingerprint();
+    fp.addBytes(buffer);
+    assertEquals(BaseEncoding.base16().lowerCase().encode(xFile.getMD5Digest()),
+        fp.hexDigestAndReset());
+  }
+
   @Test
   public void testStatFailsFastOnNonExistingFiles() throws Exception {
     try {
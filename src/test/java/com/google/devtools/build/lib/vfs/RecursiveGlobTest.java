@@ -17,11 +17,15 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertSameContents;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Ordering;
 import com.google.devtools.build.lib.testutil.MoreAsserts;
 import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.UnixGlob.FilesystemCalls;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 
 import org.junit.Before;
@@ -29,11 +33,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Tests {@link UnixGlob} recursive globs.
@@ -160,6 +167,100 @@ public class RecursiveGlobTest {
                                   Lists.newArrayList("foo", "foo/*", "foo/*/*", "foo/*/*/*"));
   }
 
+  /** Counts the directories that are read and the paths that are stat'ed. */
+  private static class CountingFilesystemCalls implements FilesystemCalls {
+    final Multiset<Path> readdirs = HashMultiset.create();
+    final List<Path> stats = new ArrayList<>();
+
+    @Override
+    public synchronized Collection<Dirent> readdir(Path path, Symlinks symlinks)
+        throws IOException {
+      readdirs.add(path);
+      return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+    }
+
+    @Override
+    public synchronized FileStatus statNullable(Path path, Symlinks symlinks) {
+      stats.add(path);
+      return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+    }
+  }
+
+  /** Resolves paths like a case-insensitive file system would. */
+  private static class CaseInsensitiveFilesystemCalls implements FilesystemCalls {
+    private static Path resolve(Path path) throws IOException {
+      Path parent = path.getParentDirectory();
+      if (parent == null) {
+        return path;
+      }
+      parent = resolve(parent);
+      if (parent.isDirectory()) {
+        for (Path entry : parent.getDirectoryEntries()) {
+          if (entry.getBaseName().equalsIgnoreCase(path.getBaseName())) {
+            return entry;
+          }
+        }
+      }
+      return parent.getChild(path.getBaseName());
+    }
+
+    @Override
+    public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+      return resolve(path).readdir(symlinks);
+    }
+
+    @Override
+    public FileStatus statNullable(Path path, Symlinks symlinks) {
+      try {
+        return resolve(path).statNullable(symlinks);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  @Test
+  public void testDoubleStarWithNamedChildReadsEachDirectoryOncePerDoubleStar()
+      throws Exception {
+    for (String file : ImmutableList.of("foo/res/values/a.xml", "foo/res/b.xml",
+        "foo/baz/res/c.xml", "foo/baz/res/d.txt", "fool/e.xml")) {
+      FileSystemUtils.createDirectoryAndParents(tmpPath.getRelative(file).getParentDirectory());
+      FileSystemUtils.createEmptyFile(tmpPath.getRelative(file));
+    }
+    CountingFilesystemCalls syscalls = new CountingFilesystemCalls();
+    assertSameContents(resolvePaths("foo/res/values/a.xml", "foo/res/b.xml", "foo/baz/res/c.xml"),
+        new UnixGlob.Builder(tmpPath)
+            .addPattern("**/res/**/*.xml")
+            .setFilesystemCalls(new AtomicReference<>(syscalls))
+            .globInterruptible());
+
+    // Only the base of the glob is stat'ed. The literal segment is matched against the listing
+    // of its parent.
+    assertThat(syscalls.stats).containsExactly(tmpPath);
+    // Every directory is read once for the first **, and those under res once more for the
+    // second one.
+    ImmutableMultiset.Builder<Path> expected = ImmutableMultiset.builder();
+    for (String dir : ImmutableList.of(".", "foo", "foo/bar", "foo/bar/wiz", "foo/baz",
+        "foo/baz/quip", "foo/baz/quip/wiz", "foo/baz/wiz", "food", "food/baz", "food/baz/wiz",
+        "fool", "fool/baz", "fool/baz/wiz", "foo/res", "foo/res/values", "foo/baz/res")) {
+      expected.addAll(resolvePaths(dir));
+    }
+    expected.addAll(resolvePaths("foo/res", "foo/res/values", "foo/baz/res"));
+    assertThat(syscalls.readdirs).isEqualTo(expected.build());
+  }
+
+  @Test
+  public void testDoubleStarWithNamedChildOnCaseInsensitiveFileSystem() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(tmpPath.getRelative("foo/res"));
+    FileSystemUtils.createEmptyFile(tmpPath.getRelative("foo/res/a.xml"));
+    // Like a literal segment that doesn't follow **, the name in the pattern is stat'ed.
+    assertSameContents(resolvePaths("foo/RES/a.xml"),
+        new UnixGlob.Builder(tmpPath)
+            .addPattern("**/RES/*.xml")
+            .setFilesystemCalls(new AtomicReference<>(new CaseInsensitiveFilesystemCalls()))
+            .globInterruptible());
+  }
+
   private void assertGlobMatches(String pattern, String... expecteds)
       throws Exception {
     assertGlobWithExcludesMatches(
@@ -0,0 +1,62 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A tool for tests that supports the {@link WorkerProtocol}. Its only argument is a parameter file
+ * with one command per line: "print TEXT" prints the number of requests that the process has
+ * served so far and TEXT, "exit CODE" makes the request fail with CODE, and "crash" exits the
+ * process.
+ */
+public class ExampleWorker {
+  private static int requests = 0;
+
+  public static void main(String[] args) throws IOException {
+    if (WorkerProtocol.isPersistentWorker(args)) {
+      List<String> request;
+      while ((request = WorkerProtocol.readRequest(System.in)) != null) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int exitCode = processRequest(request, new PrintStream(buffer, true));
+        WorkerProtocol.writeResponse(System.out, exitCode, buffer.toByteArray());
+      }
+    } else {
+      System.exit(processRequest(Arrays.asList(args), System.err));
+    }
+  }
+
+  private static int processRequest(List<String> args, PrintStream err) throws IOException {
+    requests++;
+    int exitCode = 0;
+    for (String line : Files.readAllLines(Paths.get(args.get(0).substring(1)), UTF_8)) {
+      if (line.startsWith("print ")) {
+        err.println(requests + ":" + line.substring("print ".length()));
+      } else if (line.startsWith("exit ")) {
+        exitCode = Integer.parseInt(line.substring("exit ".length()));
+      } else if (line.equals("crash")) {
+        System.exit(2);
+      }
+    }
+    return exitCode;
+  }
+}
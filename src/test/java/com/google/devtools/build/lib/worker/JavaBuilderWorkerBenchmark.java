@@ -0,0 +1,114 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Compares compiling many small Java libraries with one JavaBuilder process per library against
+ * compiling them with a persistent JavaBuilder worker. Not run as part of the tests.
+ *
+ * <p>Usage: {@code JavaBuilderWorkerBenchmark <scratch directory> <JavaBuilder_deploy.jar>
+ * [number of libraries]}, by default 500 libraries. The deploy jar is built by
+ * {@code //src/java_tools/buildjar:JavaBuilder_deploy.jar}, and has to be run by a JDK.
+ */
+public class JavaBuilderWorkerBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    Path scratch = FileSystems.initDefaultAsJavaIo().getPath(args[0]);
+    String javaBuilderJar = args[1];
+    int libraries = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    List<String> startupArgs = ImmutableList.of(
+        System.getProperty("java.home") + "/bin/java", "-jar", javaBuilderJar);
+
+    FileSystemUtils.deleteTree(scratch);
+    for (int i = 0; i < libraries; i++) {
+      createLibrary(scratch, i);
+    }
+
+    System.out.println("mode libraries total_ms ms_per_library");
+    long start = System.nanoTime();
+    for (int i = 0; i < libraries; i++) {
+      List<String> command = ImmutableList.copyOf(
+          Iterables.concat(startupArgs, ImmutableList.of(paramFile(i))));
+      Process process = new ProcessBuilder(command)
+          .directory(scratch.getPathFile())
+          .inheritIO()
+          .start();
+      check(process.waitFor(), i);
+    }
+    report("one-shot", libraries, System.nanoTime() - start);
+
+    WorkerPool workers = new WorkerPool(scratch.getRelative("logs"), 1);
+    WorkerKey key = new WorkerKey(ImmutableList.copyOf(startupArgs),
+        ImmutableMap.<String, String>of(), scratch, "");
+    start = System.nanoTime();
+    for (int i = 0; i < libraries; i++) {
+      Worker worker = workers.borrowWorker(key);
+      WorkerProtocol.Response response = worker.exec(ImmutableList.of(paramFile(i)));
+      workers.returnWorker(worker);
+      System.err.write(response.getOutput());
+      check(response.getExitCode(), i);
+    }
+    report("worker", libraries, System.nanoTime() - start);
+    workers.close();
+  }
+
+  private static String paramFile(int library) {
+    return "@lib" + library + "/params";
+  }
+
+  private static void createLibrary(Path scratch, int library) throws IOException {
+    Path dir = scratch.getRelative("lib" + library);
+    FileSystemUtils.createDirectoryAndParents(dir.getRelative("classes"));
+    FileSystemUtils.createDirectoryAndParents(dir.getRelative("tmp"));
+    String className = "Library" + library;
+    FileSystemUtils.writeContent(dir.getRelative(className + ".java"), UTF_8,
+        "package lib" + library + ";\n"
+        + "public class " + className + " {\n"
+        + "  public static String name() { return \"" + className + "\"; }\n"
+        + "}\n");
+    String prefix = "lib" + library + "/";
+    FileSystemUtils.writeContent(dir.getRelative("params"), UTF_8, Joiner.on('\n').join(
+        "--sources", prefix + className + ".java",
+        "--output", prefix + className + ".jar",
+        "--classdir", prefix + "classes",
+        "--tempdir", prefix + "tmp",
+        "--javacopts", "-source", "7", "-target", "7",
+        "--target_label", "//lib" + library)
+        + "\n");
+  }
+
+  private static void check(int exitCode, int library) {
+    if (exitCode != 0) {
+      throw new IllegalStateException("Compiling library " + library + " failed: " + exitCode);
+    }
+  }
+
+  private static void report(String mode, int libraries, long nanos) {
+    long millis = nanos / 1000000;
+    System.out.printf("%s %d %d %.1f%n", mode, libraries, millis, (double) millis / libraries);
+  }
+}
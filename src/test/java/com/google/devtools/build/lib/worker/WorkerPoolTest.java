@@ -0,0 +1,105 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WorkerPool}, with {@link ExampleWorker} processes.
+ */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+  private Path scratch;
+  private ManualClock clock;
+  private WorkerPool workers;
+
+  @Before
+  public void setUp() throws Exception {
+    scratch = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir())
+        .getRelative("WorkerPoolTest");
+    FileSystemUtils.deleteTree(scratch);
+    FileSystemUtils.createDirectoryAndParents(scratch);
+    clock = new ManualClock();
+    workers = new WorkerPool(scratch.getRelative("logs"), /*maxIdlePerKey=*/2, clock);
+    workers.setMaxIdleSecs(60);
+  }
+
+  @After
+  public void tearDown() {
+    workers.close();
+  }
+
+  private WorkerKey createKey(String toolDigest) {
+    ImmutableList<String> args = ImmutableList.of(
+        System.getProperty("java.home") + "/bin/java",
+        "-cp", System.getProperty("java.class.path"),
+        ExampleWorker.class.getName());
+    return new WorkerKey(args, ImmutableMap.<String, String>of(), scratch, toolDigest);
+  }
+
+  @Test
+  public void reusesWorkerWithinIdleTimeout() throws Exception {
+    Worker worker = workers.borrowWorker(createKey("v1"));
+    workers.returnWorker(worker);
+    clock.advanceMillis(60 * 1000);
+    assertSame(worker, workers.borrowWorker(createKey("v1")));
+    assertEquals(1, workers.getCreatedWorkers());
+  }
+
+  @Test
+  public void evictsWorkerIdleForTooLong() throws Exception {
+    Worker worker = workers.borrowWorker(createKey("v1"));
+    workers.returnWorker(worker);
+    assertEquals(1, workers.getIdleWorkers());
+
+    clock.advanceMillis(60 * 1000 + 1);
+    Worker other = workers.borrowWorker(createKey("v2"));
+    assertEquals(0, workers.getIdleWorkers());
+    workers.returnWorker(other);
+    assertEquals(1, workers.getIdleWorkers());
+  }
+
+  @Test
+  public void evictsWorkersOfAnotherToolVersion() throws Exception {
+    WorkerKey oldKey = createKey("v1");
+    Worker first = workers.borrowWorker(oldKey);
+    Worker second = workers.borrowWorker(oldKey);
+    workers.returnWorker(first);
+    workers.returnWorker(second);
+    assertEquals(2, workers.getIdleWorkers());
+
+    Worker worker = workers.borrowWorker(createKey("v2"));
+    assertEquals(0, workers.getIdleWorkers());
+    workers.returnWorker(worker);
+    assertNotSame(first, workers.borrowWorker(oldKey));
+    assertEquals(4, workers.getCreatedWorkers());
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.util.DummyExecutor;
+import com.google.devtools.build.lib.actions.util.TestAction;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.testutil.TestFileOutErr;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WorkerSpawnStrategy}, running spawns on {@link ExampleWorker} processes.
+ */
+@RunWith(JUnit4.class)
+public class WorkerSpawnStrategyTest {
+
+  /** Records the spawns that the worker strategy falls back on. */
+  private static class RecordingStrategy implements SpawnActionContext {
+    private final List<Spawn> spawns = new ArrayList<>();
+
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext) {
+      spawns.add(spawn);
+    }
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return "local";
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return false;
+    }
+  }
+
+  private Path execRoot;
+  private Root outputRoot;
+  private WorkerPool workers;
+  private RecordingStrategy fallback;
+  private WorkerSpawnStrategy strategy;
+  private TestFileOutErr outErr;
+
+  @Before
+  public void setUp() throws Exception {
+    // The workers are real processes.
+    Path scratch = FileSystems.initDefaultAsJavaIo().getPath(TestUtils.tmpDir())
+        .getRelative("WorkerSpawnStrategyTest");
+    FileSystemUtils.deleteTree(scratch);
+    execRoot = scratch.getRelative("execroot");
+    FileSystemUtils.createDirectoryAndParents(execRoot.getRelative("out"));
+    outputRoot = Root.asDerivedRoot(execRoot, execRoot.getRelative("out"));
+    workers = new WorkerPool(scratch.getRelative("logs"), /*maxIdlePerKey=*/2);
+    fallback = new RecordingStrategy();
+    strategy = new WorkerSpawnStrategy(execRoot, workers, fallback, /*verboseFailures=*/false);
+    outErr = new TestFileOutErr();
+  }
+
+  @After
+  public void tearDown() {
+    workers.close();
+  }
+
+  private Spawn createSpawn(String paramFileName, String... commands) throws Exception {
+    FileSystemUtils.writeContent(execRoot.getRelative(paramFileName), UTF_8,
+        Joiner.on('\n').join(commands));
+    TestAction action = new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(),
+        ImmutableList.of(new Artifact(execRoot.getRelative("out/out.txt"), outputRoot)));
+    List<String> args = ImmutableList.of(
+        System.getProperty("java.home") + "/bin/java",
+        "-cp", System.getProperty("java.class.path"),
+        ExampleWorker.class.getName(),
+        "@" + paramFileName);
+    return new BaseSpawn(args, ImmutableMap.<String, String>of(),
+        ImmutableMap.of(WorkerSpawnStrategy.SUPPORTS_WORKERS, ""), action, ResourceSet.ZERO);
+  }
+
+  private void exec(Spawn spawn) throws Exception {
+    strategy.exec(spawn, new ActionExecutionContext(new DummyExecutor(execRoot),
+        new SingleBuildFileCache(execRoot.getPathString(), execRoot.getFileSystem()),
+        null, outErr, null));
+  }
+
+  private String errAsUtf8() {
+    return new String(outErr.getErrorStream().toByteArray(), UTF_8);
+  }
+
+  @Test
+  public void reusesWorkerForSubsequentSpawns() throws Exception {
+    exec(createSpawn("a.params", "print a"));
+    exec(createSpawn("b.params", "print b"));
+    assertEquals("1:a\n2:b\n", errAsUtf8());
+    assertEquals(1, workers.getCreatedWorkers());
+    assertThat(fallback.spawns).isEmpty();
+  }
+
+  @Test
+  public void failingRequestReportsExitCodeAndKeepsWorker() throws Exception {
+    try {
+      exec(createSpawn("a.params", "print oops", "exit 3"));
+      fail();
+    } catch (UserExecException e) {
+      assertThat(e.getMessage()).endsWith("Exit 3");
+    }
+    exec(createSpawn("b.params", "print fine"));
+    assertEquals("1:oops\n2:fine\n", errAsUtf8());
+    assertEquals(1, workers.getCreatedWorkers());
+  }
+
+  @Test
+  public void crashingWorkerFallsBackAndIsReplaced() throws Exception {
+    Spawn spawn = createSpawn("a.params", "crash");
+    exec(spawn);
+    assertThat(fallback.spawns).hasSize(1);
+    assertSame(spawn, fallback.spawns.get(0));
+
+    exec(createSpawn("b.params", "print b"));
+    assertEquals("1:b\n", errAsUtf8());
+    assertEquals(2, workers.getCreatedWorkers());
+  }
+
+  @Test
+  public void spawnWithoutWorkerSupportFallsBack() throws Exception {
+    TestAction action = new TestAction(TestAction.NO_EFFECT, ImmutableList.<Artifact>of(),
+        ImmutableList.of(new Artifact(execRoot.getRelative("out/out.txt"), outputRoot)));
+    Spawn spawn = new BaseSpawn.Local(ImmutableList.of("true", "@a.params"),
+        ImmutableMap.<String, String>of(), action);
+    exec(spawn);
+    assertThat(fallback.spawns).hasSize(1);
+    assertSame(spawn, fallback.spawns.get(0));
+    assertEquals(0, workers.getCreatedWorkers());
+  }
+}
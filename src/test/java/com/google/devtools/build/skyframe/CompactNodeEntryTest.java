@@ -0,0 +1,190 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.testing.GcFinalization;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link CompactNodeEntry} and {@link SkyKeyIndex}. Runs all of the {@link
+ * InMemoryNodeEntryTest} cases against the compact entry.
+ */
+@RunWith(JUnit4.class)
+public class CompactNodeEntryTest extends InMemoryNodeEntryTest {
+
+  @Override
+  protected NodeEntry newEntry() {
+    return new CompactNodeEntry(new SkyKeyIndex());
+  }
+
+  @Test
+  public void groupedDirectDepsSurviveDirtying() {
+    NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+    helper.add(key("single"));
+    helper.startGroup();
+    helper.add(key("group1"));
+    helper.add(key("group2"));
+    helper.add(key("group3"));
+    helper.endGroup();
+    helper.add(key("last"));
+    entry.addTemporaryDirectDeps(helper);
+    for (int i = 0; i < 5; i++) {
+      entry.signalDep();
+    }
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    assertThat(entry.getDirectDeps()).containsExactly(key("single"), key("group1"),
+        key("group2"), key("group3"), key("last")).inOrder();
+
+    entry.markDirty(/*isChanged=*/false);
+    SkyKey parent = key("parent");
+    entry.addReverseDepAndCheckIfDone(parent);
+    assertThat(entry.getNextDirtyDirectDeps()).containsExactly(key("single"));
+    addTemporaryDirectDep(entry, key("single"));
+    entry.signalDep(new IntVersion(0L));
+    assertThat(entry.getNextDirtyDirectDeps())
+        .containsExactly(key("group1"), key("group2"), key("group3")).inOrder();
+    addTemporaryDirectDeps(entry, key("group1"), key("group2"), key("group3"));
+    for (int i = 0; i < 3; i++) {
+      entry.signalDep(new IntVersion(0L));
+    }
+    assertThat(entry.getNextDirtyDirectDeps()).containsExactly(key("last"));
+    addTemporaryDirectDep(entry, key("last"));
+    entry.signalDep(new IntVersion(0L));
+    assertEquals(NodeEntry.DirtyState.VERIFIED_CLEAN, entry.getDirtyState());
+    assertThat(entry.markClean()).containsExactly(parent);
+    assertThat(entry.getDirectDeps()).containsExactly(key("single"), key("group1"),
+        key("group2"), key("group3"), key("last")).inOrder();
+  }
+
+  @Test
+  public void manyReverseDepsWithRemovals() {
+    NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    List<SkyKey> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      SkyKey parent = key("parent" + i);
+      entry.addReverseDepAndCheckIfDone(parent);
+      expected.add(parent);
+    }
+    for (int i = 0; i < 1000; i += 3) {
+      entry.removeReverseDep(key("parent" + i));
+      expected.remove(key("parent" + i));
+    }
+    assertThat(entry.getReverseDeps()).containsExactlyElementsIn(expected).inOrder();
+    for (SkyKey parent : ImmutableList.copyOf(expected).subList(1, expected.size())) {
+      entry.removeReverseDep(parent);
+    }
+    assertThat(entry.getReverseDeps()).containsExactly(expected.get(0));
+  }
+
+  @Test
+  public void keyIdsAreStableAcrossSegments() {
+    SkyKeyIndex index = new SkyKeyIndex();
+    int numKeys = 50000;
+    for (int i = 0; i < numKeys; i++) {
+      assertEquals(i, index.intern(key("k" + i)));
+    }
+    for (int i = 0; i < numKeys; i += 97) {
+      assertEquals(i, index.intern(key("k" + i)));
+      assertEquals(key("k" + i), index.getKey(i));
+    }
+    assertEquals(numKeys, index.size());
+    assertThat(ImmutableSet.of(index.getKey(0), index.getKey(numKeys - 1)))
+        .containsExactly(key("k0"), key("k" + (numKeys - 1)));
+  }
+
+  @Test
+  public void keysOfDeletedNodesBecomeCollectable() throws Exception {
+    final SkyFunctionName parentType = new SkyFunctionName("Parent", true);
+    final SkyFunctionName childType = new SkyFunctionName("Child", true);
+    final int numKeptChildren = 10;
+    final int numDeletedChildren = 2000;
+    SkyFunction parentFunction = new SkyFunction() {
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env) {
+        int numChildren = skyKey.argument().equals("kept") ? numKeptChildren : numDeletedChildren;
+        List<SkyKey> children = new ArrayList<>();
+        for (int i = 0; i < numChildren; i++) {
+          children.add(new SkyKey(childType, skyKey.argument() + "/" + i));
+        }
+        env.getValues(children);
+        return env.valuesMissing() ? null : new SkyValue() {};
+      }
+
+      @Override
+      public String extractTag(SkyKey skyKey) {
+        return null;
+      }
+    };
+    SkyFunction childFunction = new SkyFunction() {
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env) {
+        return new SkyValue() {};
+      }
+
+      @Override
+      public String extractTag(SkyKey skyKey) {
+        return null;
+      }
+    };
+    CompactInMemoryGraph graph = new CompactInMemoryGraph(/*keepEdges=*/true);
+    InMemoryMemoizingEvaluator evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(parentType, parentFunction, childType, childFunction),
+        new RecordingDifferencer(), null, new MemoizingEvaluator.EmittedEventState(), graph);
+    SequentialBuildDriver driver = new SequentialBuildDriver(evaluator);
+    SkyKey kept = new SkyKey(parentType, "kept");
+    SkyKey deleted = new SkyKey(parentType, "deleted");
+    assertFalse(driver.evaluate(ImmutableList.of(kept, deleted), /*keepGoing=*/false, 1,
+        new Reporter()).hasError());
+    assertEquals(numKeptChildren + numDeletedChildren + 2, graph.indexSize());
+
+    // The graph holds the only references to the keys that the parent function created.
+    WeakReference<SkyKey> deletedChild =
+        new WeakReference<>(Iterables.get(graph.get(deleted).getDirectDeps(), 0));
+    evaluator.delete(new Predicate<SkyKey>() {
+      @Override
+      public boolean apply(SkyKey key) {
+        return key.argument().toString().startsWith("deleted");
+      }
+    });
+    assertFalse(driver.evaluate(ImmutableList.of(kept), /*keepGoing=*/false, 1, new Reporter())
+        .hasError());
+
+    assertEquals(numKeptChildren + 1, graph.indexSize());
+    GcFinalization.awaitClear(deletedChild);
+    assertThat(graph.get(kept).getDirectDeps()).hasSize(numKeptChildren);
+    assertThat(graph.get(new SkyKey(childType, "kept/0")).getReverseDeps()).containsExactly(kept);
+  }
+}
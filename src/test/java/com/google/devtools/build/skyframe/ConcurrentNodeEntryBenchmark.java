@@ -0,0 +1,128 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how many reverse deps per second threads that share a set of evaluating nodes can add
+ * to them, with the monitor-based {@link InMemoryNodeEntry} and the lock-free
+ * {@link ConcurrentNodeEntry}. Not run as part of the tests.
+ *
+ * <p>Every thread adds its share of the parents to every node, in the same order, so that the
+ * threads contend for the same entries like the parents of a popular dependency do.
+ *
+ * <p>Usage: {@code ConcurrentNodeEntryBenchmark [threads...]}, by default 1, 4 and 8. The numbers
+ * only show scaling on a machine with at least as many cores.
+ */
+public class ConcurrentNodeEntryBenchmark {
+
+  private static final int RUNS = 5;
+  private static final int ENTRIES = 2000;
+  private static final int PARENTS_PER_ENTRY = 256;
+  private static final SkyFunctionName PARENT_TYPE = new SkyFunctionName("Parent", false);
+
+  private abstract static class EntryFactory {
+    abstract NodeEntry create();
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<Integer> threadCounts = new ArrayList<>();
+    for (String arg : args) {
+      threadCounts.add(Integer.parseInt(arg));
+    }
+    if (threadCounts.isEmpty()) {
+      threadCounts.add(1);
+      threadCounts.add(4);
+      threadCounts.add(8);
+    }
+    EntryFactory synchronizedEntries = new EntryFactory() {
+      @Override
+      NodeEntry create() {
+        return new InMemoryNodeEntry();
+      }
+    };
+    EntryFactory lockFreeEntries = new EntryFactory() {
+      @Override
+      NodeEntry create() {
+        return new ConcurrentNodeEntry();
+      }
+    };
+    System.out.println("threads synchronized_mops lock_free_mops");
+    for (int threads : threadCounts) {
+      // The first round of each is a warm-up.
+      measure(synchronizedEntries, threads);
+      measure(lockFreeEntries, threads);
+      System.out.printf("%d %.1f %.1f%n", threads, measure(synchronizedEntries, threads),
+          measure(lockFreeEntries, threads));
+    }
+  }
+
+  /** Returns the best rate, in millions of added reverse deps per second. */
+  private static double measure(EntryFactory factory, int threads) throws Exception {
+    SkyKey[] parents = new SkyKey[PARENTS_PER_ENTRY];
+    for (int i = 0; i < PARENTS_PER_ENTRY; i++) {
+      parents[i] = new SkyKey(PARENT_TYPE, "parent" + i);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long best = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS; run++) {
+        final NodeEntry[] entries = new NodeEntry[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+          entries[i] = factory.create();
+          entries[i].addReverseDepAndCheckIfDone(null); // Start evaluation.
+        }
+        best = Math.min(best, run(executor, threads, entries, parents));
+      }
+      return (double) ENTRIES * PARENTS_PER_ENTRY * 1000 / best;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Returns how many nanoseconds the threads took to add all parents to all entries. */
+  private static long run(ExecutorService executor, final int threads, final NodeEntry[] entries,
+      final SkyKey[] parents) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    List<Future<Long>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          barrier.await();
+          long start = System.nanoTime();
+          for (NodeEntry entry : entries) {
+            for (int i = thread; i < parents.length; i += threads) {
+              entry.addReverseDepAndCheckIfDone(parents[i]);
+            }
+          }
+          return start;
+        }
+      }));
+    }
+    long start = Long.MAX_VALUE;
+    for (Future<Long> future : futures) {
+      start = Math.min(start, future.get());
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,199 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link ConcurrentNodeEntry}. Runs all of the {@link InMemoryNodeEntryTest} cases
+ * against the lock-free entry, plus races that the monitor-based entry never had to handle.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentNodeEntryTest extends InMemoryNodeEntryTest {
+
+  private static final int NUM_THREADS = 8;
+  private static final int PARENTS_PER_THREAD = 500;
+  private static final SkyFunctionName BLOCKING_TYPE = new SkyFunctionName("Blocking", false);
+
+  @Override
+  protected NodeEntry newEntry() {
+    return new ConcurrentNodeEntry();
+  }
+
+  /**
+   * Parents that race with the child finishing must either be handed back by {@code setValue}
+   * or be told that the child is done, never both and never neither.
+   */
+  @Test
+  public void addReverseDepRacesWithSetValue() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final NodeEntry entry = newEntry();
+      entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+      final CountDownLatch start = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS + 1);
+      List<Future<Set<SkyKey>>> adders = new ArrayList<>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int thread = t;
+        adders.add(executor.submit(new Callable<Set<SkyKey>>() {
+          @Override
+          public Set<SkyKey> call() throws Exception {
+            start.await();
+            Set<SkyKey> toldDone = Sets.newHashSet();
+            for (int i = 0; i < PARENTS_PER_THREAD; i++) {
+              SkyKey parent = key("parent" + thread + "_" + i);
+              if (entry.addReverseDepAndCheckIfDone(parent) == DependencyState.DONE) {
+                toldDone.add(parent);
+              }
+            }
+            return toldDone;
+          }
+        }));
+      }
+      Future<Set<SkyKey>> finisher = executor.submit(new Callable<Set<SkyKey>>() {
+        @Override
+        public Set<SkyKey> call() throws Exception {
+          start.await();
+          return setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+        }
+      });
+      start.countDown();
+      Set<SkyKey> signaled = finisher.get();
+      Set<SkyKey> toldDone = Sets.newHashSet();
+      for (Future<Set<SkyKey>> adder : adders) {
+        toldDone.addAll(adder.get());
+      }
+      executor.shutdown();
+
+      assertThat(Sets.intersection(signaled, toldDone)).isEmpty();
+      assertEquals(NUM_THREADS * PARENTS_PER_THREAD, signaled.size() + toldDone.size());
+      assertThat(ImmutableSet.copyOf(entry.getReverseDeps()))
+          .containsExactlyElementsIn(Sets.union(signaled, toldDone));
+    }
+  }
+
+  /** Concurrent signals from children must be counted exactly once each. */
+  @Test
+  public void concurrentSignalsAllCounted() throws Exception {
+    final NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    int numDeps = NUM_THREADS * PARENTS_PER_THREAD;
+    for (int i = 0; i < numDeps; i++) {
+      addTemporaryDirectDep(entry, key("dep" + i));
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    List<Future<Integer>> signalers = new ArrayList<>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      signalers.add(executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          start.await();
+          int readySignals = 0;
+          for (int i = 0; i < PARENTS_PER_THREAD; i++) {
+            if (entry.signalDep()) {
+              readySignals++;
+            }
+          }
+          return readySignals;
+        }
+      }));
+    }
+    start.countDown();
+    int readySignals = 0;
+    for (Future<Integer> signaler : signalers) {
+      readySignals += signaler.get();
+    }
+    executor.shutdown();
+    // Exactly one signal, the last one, makes the entry ready.
+    assertEquals(1, readySignals);
+    assertTrue(entry.isReady());
+  }
+
+  /** A key argument whose {@code equals} waits for the test once it is armed. */
+  private static final class BlockingArgument {
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean armed = false;
+
+    @Override
+    public boolean equals(Object o) {
+      if (armed) {
+        armed = false;
+        entered.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return this == o;
+    }
+
+    @Override
+    public int hashCode() {
+      return 42;
+    }
+  }
+
+  /** A removal must not be lost while another thread consolidates the reverse deps. */
+  @Test
+  public void removeReverseDepDuringConsolidation() throws Exception {
+    final NodeEntry entry = newEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
+    BlockingArgument argument = new BlockingArgument();
+    entry.addReverseDepAndCheckIfDone(key("other"));
+    // On top of the stack, so that the consolidation matches it first.
+    entry.addReverseDepAndCheckIfDone(new SkyKey(BLOCKING_TYPE, argument));
+    // An equal key that is not the same instance, so that matching it calls equals.
+    entry.removeReverseDep(new SkyKey(BLOCKING_TYPE, argument));
+
+    argument.armed = true;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> reader = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() {
+        entry.getReverseDeps();
+        return null;
+      }
+    });
+    argument.entered.await();
+    // The consolidation is in progress.
+    entry.removeReverseDep(key("other"));
+    argument.release.countDown();
+    reader.get();
+    executor.shutdown();
+
+    assertThat(entry.getReverseDeps()).isEmpty();
+  }
+}
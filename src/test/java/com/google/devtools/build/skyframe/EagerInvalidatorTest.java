@@ -15,6 +15,7 @@ package com.google.devtools.build.skyframe;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.devtools.build.skyframe.GraphTester.CONCATENATE;
+import static com.google.devtools.build.skyframe.GraphTester.COPY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -166,6 +167,10 @@ public class EagerInvalidatorTest {
         invalidated.add(((StringValue) value).getValue());
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         throw new UnsupportedOperationException();
@@ -202,6 +207,10 @@ public class EagerInvalidatorTest {
         invalidated.add(((StringValue) value).getValue());
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         throw new UnsupportedOperationException();
@@ -222,6 +231,30 @@ public class EagerInvalidatorTest {
     assertThat(invalidated).containsExactly("a").inOrder();
   }
 
+  @Test
+  public void receiverIsToldNodeCountOfWideReverseClosure() throws Exception {
+    graph = new InMemoryGraph();
+    set("leaf", "leaf");
+    int numParents = 1000;
+    SkyKey[] parents = new SkyKey[numParents];
+    for (int i = 0; i < numParents; i++) {
+      String parent = "parent" + i;
+      tester.getOrCreate(parent).addDependency("leaf").setComputedValue(COPY);
+      tester.getOrCreate("top" + i).addDependency(parent).setComputedValue(COPY);
+      parents[i] = skyKey("top" + i);
+    }
+    eval(/*keepGoing=*/false, parents);
+
+    TrackingInvalidationReceiver receiver = new TrackingInvalidationReceiver();
+    invalidateWithoutError(receiver, skyKey("leaf"));
+    // The leaf, its parents, and their parents.
+    assertEquals(1 + 2 * numParents, receiver.invalidatedNodeCount.get());
+    for (int i = 0; i < numParents; i++) {
+      assertTrue(isInvalidated(skyKey("parent" + i)));
+      assertTrue(isInvalidated(skyKey("top" + i)));
+    }
+  }
+
   @Test
   public void invalidateValuesNotInGraph() throws Exception {
     final Set<String> invalidated = Sets.newConcurrentHashSet();
@@ -232,6 +265,10 @@ public class EagerInvalidatorTest {
         invalidated.add(((StringValue) value).getValue());
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         throw new UnsupportedOperationException();
@@ -342,6 +379,10 @@ public class EagerInvalidatorTest {
         }
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         throw new UnsupportedOperationException();
@@ -370,6 +411,10 @@ public class EagerInvalidatorTest {
         invalidated.add(value);
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         throw new UnsupportedOperationException();
@@ -468,6 +513,10 @@ public class EagerInvalidatorTest {
           }
         }
 
+        @Override
+        public void invalidationFinished(InvalidationState state, long nodeCount,
+            long elapsedNanos) {}
+
         @Override
         public void enqueueing(SkyKey skyKey) {
           throw new UnsupportedOperationException();
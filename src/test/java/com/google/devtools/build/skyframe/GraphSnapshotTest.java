@@ -0,0 +1,231 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.skyframe.GraphTester.CONCATENATE;
+import static com.google.devtools.build.skyframe.GraphTester.COPY;
+import static com.google.devtools.build.skyframe.GraphTester.NODE_TYPE;
+import static com.google.devtools.build.skyframe.GraphTester.skyKey;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests for {@link GraphSnapshot}.
+ */
+@RunWith(JUnit4.class)
+public class GraphSnapshotTest {
+
+  private static final SkyFunctionName OPAQUE_TYPE = new SkyFunctionName("Opaque", false);
+
+  private static final SkyValueCodec STRING_CODEC = new SkyValueCodec() {
+    @Override
+    public void writeArgument(Object argument, DataOutput out) throws IOException {
+      out.writeUTF((String) argument);
+    }
+
+    @Override
+    public Object readArgument(DataInput in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    public void writeValue(SkyValue value, DataOutput out) throws IOException {
+      out.writeUTF(((StringValue) value).getValue());
+    }
+
+    @Override
+    public SkyValue readValue(DataInput in) throws IOException {
+      return new StringValue(in.readUTF());
+    }
+  };
+
+  private static final Map<SkyFunctionName, SkyValueCodec> CODECS =
+      ImmutableMap.of(NODE_TYPE, STRING_CODEC);
+
+  private GraphTester tester;
+  private RecordingDifferencer differencer;
+  private InMemoryGraph graph;
+  private InMemoryMemoizingEvaluator evaluator;
+  private SequentialBuildDriver driver;
+
+  @Before
+  public void setUp() {
+    tester = new GraphTester();
+    newEvaluator();
+  }
+
+  /** Simulates a server restart: the functions stay, the graph and the versions start over. */
+  private void newEvaluator() {
+    differencer = new RecordingDifferencer();
+    graph = new InMemoryGraph();
+    evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE_TYPE, tester.createDelegatingFunction(),
+            OPAQUE_TYPE, tester.createDelegatingFunction()),
+        differencer, null, new MemoizingEvaluator.EmittedEventState(), graph);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private EvaluationResult<SkyValue> eval(boolean keepGoing, SkyKey... keys)
+      throws InterruptedException {
+    return driver.evaluate(ImmutableList.copyOf(keys), keepGoing, 1, new Reporter());
+  }
+
+  private byte[] snapshot(int expectedNodes) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(expectedNodes, evaluator.writeSnapshot(CODECS, out));
+    return out.toByteArray();
+  }
+
+  private String valueOf(SkyKey key) {
+    return ((StringValue) evaluator.getExistingValueForTesting(key)).getValue();
+  }
+
+  @Test
+  public void roundTripPreservesValuesAndEdges() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("ab").addDependency("a").addDependency("b").setComputedValue(CONCATENATE);
+    tester.getOrCreate("top").addDependency("ab").setComputedValue(COPY);
+    eval(/*keepGoing=*/false, skyKey("top"));
+    byte[] snapshot = snapshot(4);
+
+    newEvaluator();
+    assertEquals(4, evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(snapshot)));
+    assertEquals("a", valueOf(skyKey("a")));
+    assertEquals("ab", valueOf(skyKey("ab")));
+    assertEquals("ab", valueOf(skyKey("top")));
+    assertThat(graph.get(skyKey("top")).getDirectDeps()).containsExactly(skyKey("ab"));
+    assertThat(graph.get(skyKey("a")).getReverseDeps()).containsExactly(skyKey("ab"));
+    assertThat(graph.get(skyKey("ab")).getReverseDeps()).containsExactly(skyKey("top"));
+
+    // The restored graph is incremental: changing a leaf re-evaluates exactly what depends on it.
+    tester.set("a", new StringValue("c"));
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    assertEquals("cb", ((StringValue) eval(/*keepGoing=*/false, skyKey("top"))
+        .get(skyKey("top"))).getValue());
+  }
+
+  @Test
+  public void groupedDepsAreRestored() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.set("c", new StringValue("c"));
+    tester.getOrCreate("abc").addDependency("a").setComputedValue(CONCATENATE);
+    tester.getOrCreate("abc").addDependency("b").addDependency("c");
+    eval(/*keepGoing=*/false, skyKey("abc"));
+    Iterable<Iterable<SkyKey>> expectedGroups =
+        ImmutableList.copyOf(graph.get(skyKey("abc")).getGroupedDirectDeps());
+    byte[] snapshot = snapshot(4);
+
+    newEvaluator();
+    evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(snapshot));
+    Iterable<Iterable<SkyKey>> groups = graph.get(skyKey("abc")).getGroupedDirectDeps();
+    assertEquals(Iterables.size(expectedGroups), Iterables.size(groups));
+    for (int i = 0; i < Iterables.size(groups); i++) {
+      assertThat(Iterables.get(groups, i))
+          .containsExactlyElementsIn(Iterables.get(expectedGroups, i));
+    }
+  }
+
+  @Test
+  public void restoredVersionsPrecedeFirstEvaluation() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("top").addDependency("a").setComputedValue(COPY);
+    eval(/*keepGoing=*/false, skyKey("top"));
+    tester.set("a", new StringValue("b"));
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    eval(/*keepGoing=*/false, skyKey("top"));
+    byte[] snapshot = snapshot(2);
+
+    newEvaluator();
+    evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(snapshot));
+    assertEquals(new IntVersion(-1), graph.get(skyKey("top")).getVersion());
+    assertEquals(new IntVersion(-1), graph.get(skyKey("a")).getVersion());
+    // The first evaluation after the restart is at version 0.
+    eval(/*keepGoing=*/false, skyKey("top"));
+  }
+
+  @Test
+  public void nodesAboveUnsaveableNodesAreDropped() throws Exception {
+    SkyKey opaque = new SkyKey(OPAQUE_TYPE, "opaque");
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate(opaque).addDependency("a").setComputedValue(COPY);
+    tester.getOrCreate("top").addDependency(opaque).setComputedValue(COPY);
+    tester.getOrCreate("side").addDependency("a").setComputedValue(COPY);
+    eval(/*keepGoing=*/false, skyKey("top"), skyKey("side"));
+    byte[] snapshot = snapshot(2);
+
+    newEvaluator();
+    evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(snapshot));
+    assertEquals("a", valueOf(skyKey("side")));
+    assertNull(graph.get(opaque));
+    assertNull(graph.get(skyKey("top")));
+    assertThat(graph.get(skyKey("a")).getReverseDeps()).containsExactly(skyKey("side"));
+  }
+
+  @Test
+  public void nodesInErrorAreDropped() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("bad").addDependency("a").setHasError(true);
+    eval(/*keepGoing=*/true, skyKey("bad"));
+    snapshot(1);
+  }
+
+  @Test
+  public void restoreRejectsOtherData() throws Exception {
+    try {
+      evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(new byte[] {1, 2, 3, 4}));
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void restoreRequiresCodecForEveryFunction() throws Exception {
+    SkyKey opaque = new SkyKey(OPAQUE_TYPE, "opaque");
+    tester.set(opaque, new StringValue("a"));
+    eval(/*keepGoing=*/false, opaque);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    evaluator.writeSnapshot(ImmutableMap.of(OPAQUE_TYPE, STRING_CODEC), out);
+
+    newEvaluator();
+    try {
+      evaluator.restoreSnapshot(CODECS, new ByteArrayInputStream(out.toByteArray()));
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("Opaque");
+    }
+  }
+}
@@ -51,13 +51,18 @@ public class InMemoryNodeEntryTest {
   private static final NestedSet<TaggedEvents> NO_EVENTS =
       NestedSetBuilder.<TaggedEvents>emptySet(Order.STABLE_ORDER);
 
-  private static SkyKey key(String name) {
+  protected static SkyKey key(String name) {
     return new SkyKey(NODE_TYPE, name);
   }
 
+  /** Returns a fresh entry of the {@link NodeEntry} implementation under test. */
+  protected NodeEntry newEntry() {
+    return new InMemoryNodeEntry();
+  }
+
   @Test
   public void createEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     assertFalse(entry.isDone());
     assertTrue(entry.isReady());
@@ -68,7 +73,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep1 = key("dep1");
     addTemporaryDirectDep(entry, dep1);
@@ -94,7 +99,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void reverseDeps() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey mother = key("mother");
     SkyKey father = key("father");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(mother));
@@ -110,7 +115,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -124,7 +129,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -137,7 +142,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnNullErrorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       setValue(entry, /*value=*/null, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -149,7 +154,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTooManySignals() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       entry.signalDep();
@@ -161,7 +166,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnDifferentValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     try {
@@ -175,7 +180,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void dirtyLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -203,7 +208,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void changedLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -228,7 +233,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markDirtyThenChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -250,7 +255,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markChangedThenDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -271,7 +276,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     assertFalse(entry.isDirty());
@@ -287,7 +292,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -303,7 +308,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwice() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     try {
@@ -317,7 +322,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwiceAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     SkyKey parent = key("parent");
@@ -334,7 +339,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepBeforeAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -350,7 +355,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddDirtyReverseDep() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     try {
@@ -365,7 +370,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneBeforeBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     SkyKey dep = key("dep");
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, dep);
@@ -410,7 +415,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneAfterBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -433,7 +438,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDetailsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -465,7 +470,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneErrorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -490,7 +495,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getDependencyGroup() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -514,7 +519,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void maintainDependencyGroupAfterRemoval() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -544,7 +549,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDepsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -567,7 +572,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void checkDepsOneByOne() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     List<SkyKey> deps = new ArrayList<>();
     for (int ii = 0; ii < 10; ii++) {
@@ -594,7 +599,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalOnlyNewParents() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     entry.addReverseDepAndCheckIfDone(key("parent"));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     entry.markDirty(/*isChanged=*/true);
@@ -647,7 +652,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getGroupedDirectDeps() {
-    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = newEntry();
     ImmutableList<ImmutableSet<SkyKey>> groupedDirectDeps = ImmutableList.of(
         ImmutableSet.of(key("1A")),
         ImmutableSet.of(key("2A"), key("2B")),
@@ -667,19 +672,19 @@ public class InMemoryNodeEntryTest {
     }
   }
 
-  private static Set<SkyKey> setValue(NodeEntry entry, SkyValue value,
+  protected static Set<SkyKey> setValue(NodeEntry entry, SkyValue value,
       @Nullable ErrorInfo errorInfo, long graphVersion) {
     return entry.setValue(ValueWithMetadata.normal(value, errorInfo, NO_EVENTS),
         new IntVersion(graphVersion));
   }
 
-  private static void addTemporaryDirectDep(NodeEntry entry, SkyKey key) {
+  protected static void addTemporaryDirectDep(NodeEntry entry, SkyKey key) {
     GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
     helper.add(key);
     entry.addTemporaryDirectDeps(helper);
   }
 
-  private static void addTemporaryDirectDeps(NodeEntry entry, SkyKey... keys) {
+  protected static void addTemporaryDirectDeps(NodeEntry entry, SkyKey... keys) {
     GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
     helper.startGroup();
     for (SkyKey key : keys) {
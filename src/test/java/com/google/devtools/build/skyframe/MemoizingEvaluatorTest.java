@@ -19,6 +19,7 @@ import static com.google.devtools.build.skyframe.GraphTester.CONCATENATE;
 import static com.google.devtools.build.skyframe.GraphTester.COPY;
 import static com.google.devtools.build.skyframe.GraphTester.NODE_TYPE;
 import static com.google.devtools.build.skyframe.GraphTester.skyKey;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -29,6 +30,7 @@ import static org.junit.Assert.fail;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -2792,6 +2794,138 @@ public class MemoizingEvaluatorTest {
     tester.eval(/*keepGoing=*/false, parent2Key);
   }
 
+  /** Counts the calls to a function that requests its deps one at a time. */
+  private static final class CallCounter implements SkyFunction.ComputeState {
+    private int calls = 0;
+  }
+
+  /**
+   * A function that requests "a", then "b", restarting for each one that is missing, and returns
+   * the number of calls recorded in its state followed by the values of its deps.
+   */
+  private static SkyFunction countingSequentialFunction(final AtomicInteger statesCreated) {
+    return new NoExtractorFunction() {
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env) {
+        CallCounter state = env.getState(new Supplier<CallCounter>() {
+          @Override
+          public CallCounter get() {
+            statesCreated.incrementAndGet();
+            return new CallCounter();
+          }
+        });
+        state.calls++;
+        StringValue a = (StringValue) env.getValue(toSkyKey("a"));
+        if (a == null) {
+          return null;
+        }
+        StringValue b = (StringValue) env.getValue(toSkyKey("b"));
+        if (b == null) {
+          return null;
+        }
+        return new StringValue(state.calls + a.getValue() + b.getValue());
+      }
+    };
+  }
+
+  @Test
+  public void computeStateSurvivesRestarts() throws Exception {
+    AtomicInteger statesCreated = new AtomicInteger();
+    tester.getOrCreate("top").setBuilder(countingSequentialFunction(statesCreated));
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    // top is called once for each missing dep and once more to finish, with the same state.
+    assertEquals("3ab", ((StringValue) tester.evalAndGet("top")).getValue());
+    assertEquals(1, statesCreated.get());
+  }
+
+  @Test
+  public void computeStateIsDroppedOnceDone() throws Exception {
+    AtomicInteger statesCreated = new AtomicInteger();
+    tester.getOrCreate("top").setBuilder(countingSequentialFunction(statesCreated));
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.evalAndGet("top");
+
+    // The deps are done, so the rebuild takes a single call with a new state.
+    tester.set("b", new StringValue("c"));
+    tester.invalidate();
+    assertEquals("1ac", ((StringValue) tester.evalAndGet("top")).getValue());
+    assertEquals(2, statesCreated.get());
+  }
+
+  /**
+   * A value without {@code equals}, fingerprinted by the first character of its string, or not at
+   * all if that is '-'.
+   */
+  private static final class FirstCharValue implements ContentFingerprintedValue {
+    private final String value;
+
+    private FirstCharValue(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public byte[] getContentFingerprint() {
+      return value.startsWith("-") ? null : value.substring(0, 1).getBytes(UTF_8);
+    }
+  }
+
+  private static final ValueComputer FIRST_CHAR = new ValueComputer() {
+    @Override
+    public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+      return new FirstCharValue(((StringValue) Iterables.getOnlyElement(deps.values())).getValue());
+    }
+  };
+
+  private ValueComputer countingComputer(final AtomicInteger count) {
+    return new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+        count.incrementAndGet();
+        return new StringValue("top");
+      }
+    };
+  }
+
+  @Test
+  public void sameContentFingerprintPrunesParents() throws Exception {
+    AtomicInteger topComputations = new AtomicInteger();
+    tester.set("leaf", new StringValue("a1"));
+    tester.getOrCreate("mid").addDependency("leaf").setComputedValue(FIRST_CHAR);
+    tester.getOrCreate("top").addDependency("mid").setComputedValue(
+        countingComputer(topComputations));
+    tester.evalAndGet("top");
+    SkyValue mid = tester.graph.getExistingValueForTesting(toSkyKey("mid"));
+
+    tester.set("leaf", new StringValue("a2"));
+    tester.invalidate();
+    tester.evalAndGet("top");
+    assertEquals(1, topComputations.get());
+    // The old value is kept.
+    assertSame(mid, tester.graph.getExistingValueForTesting(toSkyKey("mid")));
+
+    tester.set("leaf", new StringValue("b"));
+    tester.invalidate();
+    tester.evalAndGet("top");
+    assertEquals(2, topComputations.get());
+  }
+
+  @Test
+  public void missingContentFingerprintDoesNotPrune() throws Exception {
+    AtomicInteger topComputations = new AtomicInteger();
+    tester.set("leaf", new StringValue("-1"));
+    tester.getOrCreate("mid").addDependency("leaf").setComputedValue(FIRST_CHAR);
+    tester.getOrCreate("top").addDependency("mid").setComputedValue(
+        countingComputer(topComputations));
+    tester.evalAndGet("top");
+
+    tester.set("leaf", new StringValue("-2"));
+    tester.invalidate();
+    tester.evalAndGet("top");
+    assertEquals(2, topComputations.get());
+  }
+
   private void setGraphForTesting(NotifyingInMemoryGraph notifyingInMemoryGraph) {
     InMemoryMemoizingEvaluator memoizingEvaluator = (InMemoryMemoizingEvaluator) tester.graph;
     memoizingEvaluator.setGraphForTesting(notifyingInMemoryGraph);
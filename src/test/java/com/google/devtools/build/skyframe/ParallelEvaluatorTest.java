@@ -94,7 +94,12 @@ public class ParallelEvaluatorTest {
     graphVersion = graphVersion.next();
     return new ParallelEvaluator(graph, oldGraphVersion,
         builders, reporter,  new MemoizingEvaluator.EmittedEventState(), keepGoing,
-        150, revalidationReceiver, new DirtyKeyTrackerImpl());
+        150, revalidationReceiver, new DirtyKeyTrackerImpl(), useForkJoinPool());
+  }
+
+  /** Whether evaluators under test schedule work on a work-stealing pool. */
+  protected boolean useForkJoinPool() {
+    return false;
   }
 
   /** Convenience method for eval-ing a single value. */
@@ -240,6 +245,10 @@ public class ParallelEvaluatorTest {
       @Override
       public void invalidated(SkyValue value, InvalidationState state) {}
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey key) {}
 
@@ -1834,6 +1843,10 @@ public class ParallelEvaluatorTest {
         throw new IllegalStateException();
       }
 
+      @Override
+      public void invalidationFinished(InvalidationState state, long nodeCount,
+          long elapsedNanos) {}
+
       @Override
       public void enqueueing(SkyKey skyKey) {
         enqueuedValues.add(skyKey);
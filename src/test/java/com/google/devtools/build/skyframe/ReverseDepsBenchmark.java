@@ -0,0 +1,105 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures how long {@link ReverseDepsUtil} takes to keep the reverse deps of a node with a high
+ * fan-in, like the build info node, when every parent removes itself and registers again, as a
+ * dirtied parent does. Not run as part of the tests.
+ *
+ * <p>Usage: {@code ReverseDepsBenchmark [parents...]}, by default 1000, 10000 and 100000.
+ */
+public class ReverseDepsBenchmark {
+
+  private static final int RUNS = 5;
+  private static final SkyFunctionName PARENT_TYPE = new SkyFunctionName("Parent", false);
+
+  private static class Node {
+    Object reverseDeps = ImmutableList.of();
+    boolean single;
+    List<SkyKey> reverseDepsToRemove;
+  }
+
+  private static final ReverseDepsUtil<Node> REVERSE_DEPS_UTIL = new ReverseDepsUtil<Node>() {
+    @Override
+    void setReverseDepsObject(Node container, Object object) {
+      container.reverseDeps = object;
+    }
+
+    @Override
+    void setSingleReverseDep(Node container, boolean singleObject) {
+      container.single = singleObject;
+    }
+
+    @Override
+    void setReverseDepsToRemove(Node container, List<SkyKey> object) {
+      container.reverseDepsToRemove = object;
+    }
+
+    @Override
+    Object getReverseDepsObject(Node container) {
+      return container.reverseDeps;
+    }
+
+    @Override
+    boolean isSingleReverseDep(Node container) {
+      return container.single;
+    }
+
+    @Override
+    List<SkyKey> getReverseDepsToRemove(Node container) {
+      return container.reverseDepsToRemove;
+    }
+  };
+
+  public static void main(String[] args) {
+    int[] sizes = {1000, 10000, 100000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println("parents best_ms");
+    for (int size : sizes) {
+      SkyKey[] parents = new SkyKey[size];
+      for (int i = 0; i < size; i++) {
+        parents[i] = new SkyKey(PARENT_TYPE, "parent" + i);
+      }
+      long best = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS; run++) {
+        Node node = new Node();
+        for (SkyKey parent : parents) {
+          REVERSE_DEPS_UTIL.addReverseDeps(node, Collections.singleton(parent));
+        }
+        long start = System.nanoTime();
+        for (SkyKey parent : parents) {
+          REVERSE_DEPS_UTIL.removeReverseDep(node, parent);
+          REVERSE_DEPS_UTIL.addReverseDeps(node, Collections.singleton(parent));
+        }
+        int count = REVERSE_DEPS_UTIL.getReverseDeps(node).size();
+        best = Math.min(best, System.nanoTime() - start);
+        if (count != size) {
+          throw new IllegalStateException(count + " reverse deps instead of " + size);
+        }
+      }
+      System.out.printf("%d %d%n", size, best / 1000000);
+    }
+  }
+}
@@ -14,6 +14,7 @@
 package com.google.devtools.build.skyframe;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableList;
 
@@ -152,4 +153,58 @@ public class ReverseDepsUtilTest {
       assertThat(numElements == 0 || numElements >= ReverseDepsUtil.MAYBE_CHECK_THRESHOLD).isTrue();
     } catch (Exception expected) { }
   }
+
+  @Test
+  public void testRemoveAndAddBackInterleaved() {
+    Example example = new Example();
+    for (int i = 0; i < numElements; i++) {
+      REVERSE_DEPS_UTIL.addReverseDeps(example, Collections.singleton(new SkyKey(NODE_TYPE, i)));
+    }
+    // Every parent removes itself and immediately registers again, as a dirtied parent does.
+    for (int i = 0; i < numElements; i++) {
+      SkyKey key = new SkyKey(NODE_TYPE, i);
+      REVERSE_DEPS_UTIL.removeReverseDep(example, key);
+      REVERSE_DEPS_UTIL.maybeCheckReverseDepNotPresent(example, key);
+      REVERSE_DEPS_UTIL.addReverseDeps(example, Collections.singleton(key));
+    }
+    assertThat(REVERSE_DEPS_UTIL.getReverseDeps(example)).hasSize(numElements);
+    assertThat(example.reverseDepsToRemove).isNull();
+  }
+
+  @Test
+  public void testRemoveTwiceFailsOnGetReverseDeps() {
+    if (numElements < 2) {
+      return;
+    }
+    Example example = new Example();
+    for (int i = 0; i < numElements; i++) {
+      REVERSE_DEPS_UTIL.addReverseDeps(example, Collections.singleton(new SkyKey(NODE_TYPE, i)));
+    }
+    try {
+      REVERSE_DEPS_UTIL.removeReverseDep(example, new SkyKey(NODE_TYPE, 0));
+      REVERSE_DEPS_UTIL.removeReverseDep(example, new SkyKey(NODE_TYPE, 0));
+      REVERSE_DEPS_UTIL.getReverseDeps(example);
+      fail();
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("remove itself twice");
+    }
+  }
+
+  @Test
+  public void testRemoveMissingFailsOnGetReverseDeps() {
+    if (numElements < 2) {
+      return;
+    }
+    Example example = new Example();
+    for (int i = 0; i < numElements; i++) {
+      REVERSE_DEPS_UTIL.addReverseDeps(example, Collections.singleton(new SkyKey(NODE_TYPE, i)));
+    }
+    try {
+      REVERSE_DEPS_UTIL.removeReverseDep(example, new SkyKey(NODE_TYPE, numElements));
+      REVERSE_DEPS_UTIL.getReverseDeps(example);
+      fail();
+    } catch (IllegalStateException expected) {
+      assertThat(expected.getMessage()).contains("Could not remove");
+    }
+  }
 }
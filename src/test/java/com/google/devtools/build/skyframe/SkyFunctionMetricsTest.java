@@ -0,0 +1,169 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.skyframe.GraphTester.CONCATENATE;
+import static com.google.devtools.build.skyframe.GraphTester.COPY;
+import static com.google.devtools.build.skyframe.GraphTester.NODE_TYPE;
+import static com.google.devtools.build.skyframe.GraphTester.skyKey;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics.FunctionMetrics;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics.Histogram;
+import com.google.devtools.build.skyframe.SkyFunctionMetrics.PruningMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+
+/**
+ * Tests for {@link SkyFunctionMetrics}.
+ */
+@RunWith(JUnit4.class)
+public class SkyFunctionMetricsTest {
+
+  private static final SkyFunctionName OTHER_TYPE = new SkyFunctionName("Other", false);
+
+  private GraphTester tester;
+  private RecordingDifferencer differencer;
+  private InMemoryMemoizingEvaluator evaluator;
+  private SequentialBuildDriver driver;
+
+  @Before
+  public void setUp() {
+    tester = new GraphTester();
+    differencer = new RecordingDifferencer();
+    evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE_TYPE, tester.createDelegatingFunction(),
+            OTHER_TYPE, tester.createDelegatingFunction()),
+        differencer);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private void eval(SkyKey... keys) throws InterruptedException {
+    driver.evaluate(ImmutableList.copyOf(keys), /*keepGoing=*/true, 1, new Reporter());
+  }
+
+  @Test
+  public void countsEvaluationsAndRestartsPerFunction() throws Exception {
+    SkyKey other = new SkyKey(OTHER_TYPE, "other");
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("ab").addDependency("a").addDependency("b").setComputedValue(CONCATENATE);
+    tester.getOrCreate(other).addDependency("ab").setComputedValue(COPY);
+    eval(other);
+
+    Map<SkyFunctionName, FunctionMetrics> metrics =
+        evaluator.getSkyFunctionMetrics().getAndReset();
+    FunctionMetrics nodeMetrics = metrics.get(NODE_TYPE);
+    // ab restarts once for its missing deps.
+    assertEquals(4, nodeMetrics.getEvaluations());
+    assertEquals(1, nodeMetrics.getRestarts());
+    assertEquals(3, nodeMetrics.getChanged());
+    assertEquals(4, nodeMetrics.getComputeTime().getCount());
+    assertEquals(2, metrics.get(OTHER_TYPE).getEvaluations());
+    assertEquals(1, metrics.get(OTHER_TYPE).getChanged());
+
+    assertThat(evaluator.getSkyFunctionMetrics().getAndReset()).isEmpty();
+  }
+
+  @Test
+  public void distinguishesChangedRebuiltUnchangedAndVerifiedClean() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("mid").addDependency("a").setComputedValue(COPY);
+    tester.getOrCreate("top").addDependency("mid").setComputedValue(COPY);
+    tester.getOrCreate("side").addDependency("b").setComputedValue(COPY);
+    eval(skyKey("top"), skyKey("side"));
+    evaluator.getSkyFunctionMetrics().getAndReset();
+
+    // a is rebuilt to the same value, so mid and top are verified clean.
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    // b changes, so side is rebuilt to a new value.
+    tester.set("b", new StringValue("c"));
+    differencer.invalidate(ImmutableList.of(skyKey("b")));
+    eval(skyKey("top"), skyKey("side"));
+
+    FunctionMetrics metrics = evaluator.getSkyFunctionMetrics().getAndReset().get(NODE_TYPE);
+    assertEquals(2, metrics.getChanged());
+    assertEquals(1, metrics.getRebuiltUnchanged());
+    assertEquals(2, metrics.getVerifiedClean());
+    assertEquals(3, metrics.getEvaluations());
+  }
+
+  @Test
+  public void countsErrors() throws Exception {
+    tester.getOrCreate("bad").setHasError(true);
+    eval(skyKey("bad"));
+    assertEquals(1, evaluator.getSkyFunctionMetrics().getAndReset().get(NODE_TYPE).getErrors());
+  }
+
+  @Test
+  public void countsChangePruningPerValueClass() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("mid").addDependency("a").setComputedValue(COPY);
+    tester.getOrCreate("side").addDependency("b").setComputedValue(COPY);
+    eval(skyKey("mid"), skyKey("side"));
+    // Nodes built for the first time are not counted.
+    assertThat(evaluator.getSkyFunctionMetrics().getAndResetPruning()).isEmpty();
+
+    // a is rebuilt to the same value, so mid is verified clean; b and side change.
+    tester.getOrCreate(skyKey("a"), /*markAsModified=*/true);
+    tester.set("b", new StringValue("c"));
+    differencer.invalidate(ImmutableList.of(skyKey("a"), skyKey("b")));
+    eval(skyKey("mid"), skyKey("side"));
+
+    Map<Class<?>, PruningMetrics> pruning = evaluator.getSkyFunctionMetrics().getAndResetPruning();
+    assertEquals(3, pruning.get(StringValue.class).getRebuilds());
+    assertEquals(1, pruning.get(StringValue.class).getPruned());
+    String table = SkyFunctionMetrics.formatPruningTable(pruning);
+    assertThat(table).startsWith("value_class");
+    assertThat(table).containsMatch("StringValue +3 +1 +33% +yes +no");
+  }
+
+  @Test
+  public void histogramPercentilesAreUpperBoundsWithinFactorOfTwo() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getPercentileNanos(50));
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i * 1000);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(5050 * 1000, histogram.getTotalNanos());
+    assertEquals(100 * 1000, histogram.getMaxNanos());
+    long p50 = histogram.getPercentileNanos(50);
+    assertThat(p50).isAtLeast(50 * 1000L);
+    assertThat(p50).isLessThan(2 * 50 * 1000L);
+    assertEquals(100 * 1000, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void formatsTableMostComputeTimeFirst() throws Exception {
+    SkyFunctionMetrics metrics = new SkyFunctionMetrics();
+    metrics.recordCompute(NODE_TYPE, 1000);
+    metrics.recordCompute(OTHER_TYPE, 5000000);
+    String table = SkyFunctionMetrics.formatTable(metrics.getAndReset());
+    assertThat(table.indexOf("Other")).isLessThan(table.indexOf(NODE_TYPE.toString()));
+    assertThat(table).startsWith("function");
+  }
+}
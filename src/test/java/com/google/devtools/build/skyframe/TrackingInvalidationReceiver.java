@@ -17,6 +17,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A testing utility to keep track of evaluation.
@@ -26,6 +27,7 @@ public class TrackingInvalidationReceiver implements EvaluationProgressReceiver
   public final Set<SkyValue> deleted = Sets.newConcurrentHashSet();
   public final Set<SkyKey> enqueued = Sets.newConcurrentHashSet();
   public final Set<SkyKey> evaluated = Sets.newConcurrentHashSet();
+  public final AtomicLong invalidatedNodeCount = new AtomicLong();
 
   @Override
   public void invalidated(SkyValue value, InvalidationState state) {
@@ -43,6 +45,11 @@ public class TrackingInvalidationReceiver implements EvaluationProgressReceiver
     }
   }
 
+  @Override
+  public void invalidationFinished(InvalidationState state, long nodeCount, long elapsedNanos) {
+    invalidatedNodeCount.addAndGet(nodeCount);
+  }
+
   @Override
   public void enqueueing(SkyKey skyKey) {
     enqueued.add(skyKey);
@@ -62,5 +69,6 @@ public class TrackingInvalidationReceiver implements EvaluationProgressReceiver
     deleted.clear();
     enqueued.clear();
     evaluated.clear();
+    invalidatedNodeCount.set(0);
   }
 }
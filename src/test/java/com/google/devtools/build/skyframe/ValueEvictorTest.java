@@ -0,0 +1,260 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.devtools.build.skyframe.GraphTester.CONCATENATE;
+import static com.google.devtools.build.skyframe.GraphTester.COPY;
+import static com.google.devtools.build.skyframe.GraphTester.NODE_TYPE;
+import static com.google.devtools.build.skyframe.GraphTester.skyKey;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.GraphTester.ValueComputer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link ValueEvictor}. A heap budget of zero makes every evaluation evict every
+ * evictable value.
+ */
+@RunWith(JUnit4.class)
+public class ValueEvictorTest {
+
+  private static final SkyFunctionName ROOT_TYPE = new SkyFunctionName("Root", false);
+
+  /**
+   * A string value with a content fingerprint. {@link StringValue} has none, and only
+   * fingerprinted values are evicted.
+   */
+  private static final class FingerprintedValue extends StringValue
+      implements ContentFingerprintedValue {
+    private FingerprintedValue(String value) {
+      super(value);
+    }
+
+    @Override
+    public byte[] getContentFingerprint() {
+      return getValue().getBytes(UTF_8);
+    }
+  }
+
+  /** Returns a computer whose values are those of {@code computer}, fingerprinted. */
+  private static ValueComputer fingerprinted(final ValueComputer computer) {
+    return new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env)
+          throws InterruptedException {
+        return new FingerprintedValue(((StringValue) computer.compute(deps, env)).getValue());
+      }
+    };
+  }
+
+  private GraphTester tester;
+  private RecordingDifferencer differencer;
+  private InMemoryGraph graph;
+  private InMemoryMemoizingEvaluator evaluator;
+  private SequentialBuildDriver driver;
+
+  @Before
+  public void setUp() {
+    tester = new GraphTester();
+    differencer = new RecordingDifferencer();
+    graph = new InMemoryGraph();
+    evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE_TYPE, tester.createDelegatingFunction(),
+            ROOT_TYPE, tester.createDelegatingFunction()),
+        differencer, null, new MemoizingEvaluator.EmittedEventState(), graph);
+    evaluator.enableValueEviction(ImmutableSet.of(NODE_TYPE), /*heapBudgetBytes=*/0);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private String eval(boolean keepGoing, SkyKey key) throws InterruptedException {
+    EvaluationResult<StringValue> result =
+        driver.evaluate(ImmutableList.of(key), keepGoing, 1, new Reporter());
+    return result.hasError() ? null : result.get(key).getValue();
+  }
+
+  private boolean isEvicted(String key) {
+    return ((InMemoryNodeEntry) graph.get(skyKey(key))).isEvicted();
+  }
+
+  private ValueEvictor.FunctionStats stats() {
+    return evaluator.getValueEvictionStats().get(NODE_TYPE);
+  }
+
+  @Test
+  public void evictedValuesAreRecomputedOnRead() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("ab").addDependency("a").addDependency("b").setComputedValue(fingerprinted(CONCATENATE));
+    tester.getOrCreate("top").addDependency("ab").setComputedValue(fingerprinted(COPY));
+    assertEquals("ab", eval(/*keepGoing=*/false, skyKey("top")));
+    assertTrue(isEvicted("ab"));
+    assertTrue(isEvicted("top"));
+    // Leaves are not evicted: they are not computed from other nodes.
+    assertFalse(isEvicted("a"));
+    assertEquals(2, stats().getEvictions());
+
+    // Reading top recomputes it, and reading ab on the way recomputes ab.
+    assertEquals("ab", ((StringValue) graph.get(skyKey("top")).getValue()).getValue());
+    assertFalse(isEvicted("top"));
+    assertFalse(isEvicted("ab"));
+    assertEquals(2, stats().getRecomputations());
+    // The recomputed value is kept.
+    assertSame(graph.get(skyKey("top")).getValue(), graph.get(skyKey("top")).getValue());
+    assertEquals(2, stats().getRecomputations());
+  }
+
+  @Test
+  public void evictedValuesAreServedToLaterEvaluations() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("mid").addDependency("a").setComputedValue(fingerprinted(COPY));
+    tester.getOrCreate("top").addDependency("mid").setComputedValue(fingerprinted(COPY));
+    tester.getOrCreate("other").addDependency("mid").setComputedValue(fingerprinted(COPY));
+    eval(/*keepGoing=*/false, skyKey("top"));
+    assertTrue(isEvicted("mid"));
+    assertEquals("a", eval(/*keepGoing=*/false, skyKey("other")));
+    assertEquals(1, stats().getRecomputations());
+  }
+
+  @Test
+  public void invalidationReachesEvictedValues() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.set("b", new StringValue("b"));
+    tester.getOrCreate("ab").addDependency("a").addDependency("b").setComputedValue(fingerprinted(CONCATENATE));
+    tester.getOrCreate("top").addDependency("ab").setComputedValue(fingerprinted(COPY));
+    eval(/*keepGoing=*/false, skyKey("top"));
+    assertTrue(isEvicted("top"));
+
+    tester.set("a", new StringValue("c"));
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    assertEquals("cb", eval(/*keepGoing=*/false, skyKey("top")));
+    assertEquals(0, stats().getRecomputations());
+  }
+
+  @Test
+  public void revalidatedValuesStayEvicted() throws Exception {
+    SkyKey root = new SkyKey(ROOT_TYPE, "root");
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("top").addDependency("a").setComputedValue(fingerprinted(COPY));
+    tester.getOrCreate(root).addDependency("top").setComputedValue(fingerprinted(COPY));
+    eval(/*keepGoing=*/false, root);
+    assertTrue(isEvicted("top"));
+
+    // a is rebuilt to the same value, so top is marked clean without being rebuilt, and its value
+    // is never needed.
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    assertEquals("a", eval(/*keepGoing=*/false, root));
+    assertTrue(isEvicted("top"));
+    assertEquals(0, stats().getRecomputations());
+  }
+
+  @Test
+  public void rebuiltNodesWithEvictedValuesAreChangePruned() throws Exception {
+    SkyKey root = new SkyKey(ROOT_TYPE, "root");
+    final AtomicInteger rootComputations = new AtomicInteger();
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("mid").addDependency("a").setComputedValue(new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+        return new FingerprintedValue("constant");
+      }
+    });
+    tester.getOrCreate(root).addDependency("mid").setComputedValue(new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+        rootComputations.incrementAndGet();
+        return new StringValue("root");
+      }
+    });
+    eval(/*keepGoing=*/false, root);
+    assertTrue(isEvicted("mid"));
+
+    // mid is rebuilt to the value it had before eviction, so root is not rebuilt.
+    tester.set("a", new StringValue("b"));
+    differencer.invalidate(ImmutableList.of(skyKey("a")));
+    assertEquals("root", eval(/*keepGoing=*/false, root));
+    assertEquals(1, rootComputations.get());
+    assertEquals(0, stats().getRecomputations());
+  }
+
+  @Test
+  public void evictedValuesAreRecomputedWithoutHoldingTheNodeLock() throws Exception {
+    final AtomicBoolean heldLock = new AtomicBoolean();
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("top").addDependency("a").setComputedValue(new ValueComputer() {
+      @Override
+      public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env) {
+        NodeEntry entry = graph.get(skyKey("top"));
+        heldLock.set(heldLock.get() || (entry != null && Thread.holdsLock(entry)));
+        return new FingerprintedValue("top");
+      }
+    });
+    eval(/*keepGoing=*/false, skyKey("top"));
+    assertTrue(isEvicted("top"));
+
+    assertEquals("top", ((StringValue) graph.get(skyKey("top")).getValue()).getValue());
+    assertEquals(1, stats().getRecomputations());
+    assertFalse(heldLock.get());
+  }
+
+  @Test
+  public void valuesWithErrorsAreNotEvicted() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("bad").addDependency("a").setHasError(true);
+    tester.getOrCreate("top").addDependency("bad").setComputedValue(fingerprinted(COPY));
+    eval(/*keepGoing=*/true, skyKey("top"));
+    assertFalse(isEvicted("bad"));
+    assertFalse(isEvicted("top"));
+    assertEquals(0, stats().getEvictions());
+  }
+
+  @Test
+  public void valuesWithoutFingerprintsAreNotEvicted() throws Exception {
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("top").addDependency("a").setComputedValue(COPY);
+    eval(/*keepGoing=*/false, skyKey("top"));
+    assertFalse(isEvicted("top"));
+    assertEquals(0, stats().getEvictions());
+  }
+
+  @Test
+  public void nothingIsEvictedWithinBudget() throws Exception {
+    evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE_TYPE, tester.createDelegatingFunction()),
+        differencer, null, new MemoizingEvaluator.EmittedEventState(), graph);
+    evaluator.enableValueEviction(ImmutableSet.of(NODE_TYPE), Long.MAX_VALUE);
+    driver = new SequentialBuildDriver(evaluator);
+    tester.set("a", new StringValue("a"));
+    tester.getOrCreate("top").addDependency("a").setComputedValue(fingerprinted(COPY));
+    eval(/*keepGoing=*/false, skyKey("top"));
+    assertFalse(isEvicted("top"));
+    assertEquals(0, stats().getEvictions());
+  }
+}